@@ -0,0 +1,56 @@
+package com.imagefinder.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The HTML fixtures the benchmarks run on, checked in under src/main/resources/corpus. They are sized and shaped
+ * like real webpages: a news homepage (~460 KB, mostly image cards with srcset), a shop listing (~140 KB, lazy
+ * loaded product images and faceted links) and a blog article (~100 KB, long text with figures and comments).
+ */
+public enum Corpus {
+
+    NEWS_HOMEPAGE("news-homepage.html", "https://www.dailynews.com/"),
+    SHOP_LISTING("shop-listing.html", "https://www.shopmart.com/c/shoes"),
+    BLOG_ARTICLE("blog-article.html", "https://techblog.io/blog/2024/05/single-pass-parsing/");
+
+    private final String fileName;
+    private final String url;
+
+    Corpus(String fileName, String url) {
+        this.fileName = fileName;
+        this.url = url;
+    }
+
+    /**
+     * Method to get the url the fixture is parsed as, used to resolve its relative links
+     * @return url of the webpage
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Method to read the markup of the fixture
+     * @return html of the webpage
+     */
+    public String readHtml() {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + fileName)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture: " + fileName);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
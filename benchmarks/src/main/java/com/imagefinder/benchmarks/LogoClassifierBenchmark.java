@@ -0,0 +1,100 @@
+package com.imagefinder.benchmarks;
+
+import com.imagefinder.classifiers.KeywordImageClassifier;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.htmlparsers.PageTags;
+import com.imagefinder.htmlparsers.StreamingTagExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput of the keyword classification of the images, run once per image found. Each invocation classifies the
+ * images of the whole corpus, and the results are reported per image. regexBaseline is the logo regex the images
+ * were classified with before the keyword automaton, run on the url and alt text like it was.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogoClassifierBenchmark {
+
+    // number of images of the corpus classified per invocation, the corpus images are repeated or cut to that number
+    private static final int IMAGES = 1024;
+
+    private String[] imageUrls;
+    private String[] altTexts;
+    private String[] cssClasses;
+    private String[] ids;
+    private KeywordImageClassifier classifier;
+    private Pattern logoPattern;
+
+    @Setup
+    public void setUp() {
+        List<String> urls = new ArrayList<>();
+        List<String> alts = new ArrayList<>();
+        List<String> classes = new ArrayList<>();
+        List<String> tagIds = new ArrayList<>();
+        for (Corpus page : Corpus.values()) {
+            PageTags tags = StreamingTagExtractor.extract(page.readHtml(), page.getUrl());
+            for (int i = 0; i < tags.imageCount(); i++) {
+                urls.add(tags.imageUrl(i));
+                alts.add(tags.imageAlt(i));
+                classes.add(tags.imageClass(i));
+                tagIds.add(tags.imageId(i));
+            }
+        }
+        imageUrls = new String[IMAGES];
+        altTexts = new String[IMAGES];
+        cssClasses = new String[IMAGES];
+        ids = new String[IMAGES];
+        for (int i = 0; i < IMAGES; i++) {
+            imageUrls[i] = urls.get(i % urls.size());
+            altTexts[i] = alts.get(i % alts.size());
+            cssClasses[i] = classes.get(i % classes.size());
+            ids[i] = tagIds.get(i % tagIds.size());
+        }
+        classifier = KeywordImageClassifier.fromCategories();
+        logoPattern = Pattern.compile("(?i).*?(logo|brand|icon|symbol|company|badge|emblem|mark|trademark).*?");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMAGES)
+    public void classify(Blackhole blackhole) {
+        for (int i = 0; i < IMAGES; i++) {
+            blackhole.consume(classifier.classify(imageUrls[i], altTexts[i], cssClasses[i], ids[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMAGES)
+    public void regexBaseline(Blackhole blackhole) {
+        for (int i = 0; i < IMAGES; i++) {
+            blackhole.consume(logoPattern.matcher(imageUrls[i]).find() || logoPattern.matcher(altTexts[i]).find());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IMAGES)
+    public void isLogoImage(Blackhole blackhole) {
+        for (int i = 0; i < IMAGES; i++) {
+            blackhole.consume(ImageParser.isLogoImage(imageUrls[i], altTexts[i]));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.imagefinder.benchmarks;
+
+import com.imagefinder.crawleddata.CrawlResultImageStorage;
+import com.imagefinder.crawler.CrawlContext;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.htmlparsers.LinkParser;
+import com.imagefinder.htmlparsers.PageTags;
+import com.imagefinder.htmlparsers.StreamingTagExtractor;
+import com.imagefinder.models.Image;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the extraction of the images and links of a webpage, for both extraction engines: the Jsoup DOM
+ * (parse the document, then ImageParser/LinkParser.parseHTML) and the single pass streaming extractor (extract the
+ * tags, then parseTags). The parseHTML benchmarks measure the parsers alone on an already parsed document, the
+ * jsoupParse and streamingExtract benchmarks measure the cost of getting that input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param
+    private Corpus page;
+
+    private String html;
+    private String url;
+    private Document document;
+    private PageTags tags;
+    private ImageParser imageParser;
+    private LinkParser linkParser;
+
+    @Setup
+    public void setUp() {
+        html = page.readHtml();
+        url = page.getUrl();
+        document = Jsoup.parse(html, url);
+        tags = StreamingTagExtractor.extract(html, url);
+        imageParser = new ImageParser();
+        // nothing is ever marked visited, so every link of the webpage goes through the whole filter
+        linkParser = new LinkParser(new CrawlContext<Image>(url, imageParser,
+                new CrawlResultImageStorage(new HashSet<Image>()), CrawlServices.getDefault()));
+    }
+
+    @Benchmark
+    public Collection<Image> imageParserParseHTML() {
+        return imageParser.parseHTML(document, url);
+    }
+
+    @Benchmark
+    public Collection<String> linkParserParseHTML() {
+        return linkParser.parseHTML(document, url);
+    }
+
+    @Benchmark
+    public Collection<Image> imageParserParseTags() {
+        return imageParser.parseTags(tags, url);
+    }
+
+    @Benchmark
+    public Collection<String> linkParserParseTags() {
+        return linkParser.parseTags(tags, url);
+    }
+
+    @Benchmark
+    public Document jsoupParse() {
+        return Jsoup.parse(html, url);
+    }
+
+    @Benchmark
+    public PageTags streamingExtract() {
+        return StreamingTagExtractor.extract(html, url);
+    }
+}
@@ -0,0 +1,114 @@
+package com.imagefinder.benchmarks;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.crawleddata.CrawlResultImageStorage;
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of the insertion of the images of a crawl into its storage. Half of the images are stored twice (the
+ * same image found on several webpages), so both the insert and the duplicate paths are measured. Run it with -t to
+ * measure the storages under contention, e.g. -t 1, -t 10 and -t 100 (StorageContentionBenchmark in the test
+ * sources of the web application runs the same comparison without JMH).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 20, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+public class StorageBenchmark {
+
+    // number of images stored in the storages: every iteration starts from an empty storage and is short enough
+    // for the threads not to go over all of them, so that the storage does not turn into a duplicate check only
+    private static final int IMAGES = 1 << 20;
+
+    /**
+     * The storages compared: the storage of the crawls and the synchronized set it replaced
+     */
+    public enum StorageType {
+        CONCURRENT {
+            @Override
+            CrawlDataStorage<Image> create() {
+                return new ConcurrentImageStorage();
+            }
+        },
+        SYNCHRONIZED_SET {
+            @Override
+            CrawlDataStorage<Image> create() {
+                return new CrawlResultImageStorage(Collections.synchronizedSet(new HashSet<Image>()));
+            }
+        };
+
+        abstract CrawlDataStorage<Image> create();
+    }
+
+    @Param
+    private StorageType storageType;
+
+    private Image[] images;
+    private CrawlDataStorage<Image> storage;
+
+    /**
+     * Position of a benchmark thread in the images, kept per thread so that the threads only contend on the storage
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        private int next;
+
+        @Setup
+        public void setUp() {
+            // the threads start far apart, each of them stores its own images and their duplicates
+            next = THREADS.getAndIncrement() * 65536;
+        }
+
+        int next() {
+            return next++ & (IMAGES - 1);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // the images are built up front so that the benchmark measures the storage only
+        images = new Image[IMAGES];
+        for (int i = 0; i < IMAGES; i += 2) {
+            String url = "https://cdn.example.com/images/" + (i / 2) + ".jpg";
+            images[i] = new Image(url, Category.GENERAL);
+            images[i + 1] = new Image(url, Category.GENERAL);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void newCrawl() {
+        storage = storageType.create();
+    }
+
+    @Benchmark
+    public boolean storeDataIfAbsent(Cursor cursor) {
+        return storage.storeDataIfAbsent(images[cursor.next()]);
+    }
+
+    @Benchmark
+    public void storeData(Cursor cursor) {
+        storage.storeData(images[cursor.next()]);
+    }
+}
@@ -0,0 +1,91 @@
+package com.imagefinder.benchmarks;
+
+import com.imagefinder.htmlparsers.PageTags;
+import com.imagefinder.htmlparsers.StreamingTagExtractor;
+import com.imagefinder.urls.UrlCanonicalizer;
+import com.imagefinder.utils.URLUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the URL checks run for every hyperlink and image of a webpage. Each invocation goes over the
+ * absolute urls of the links and images of the whole corpus (same website, other websites, fragments, queries,
+ * mailto: links...), and the results are reported per url.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark {
+
+    // number of urls of the corpus checked per invocation, the corpus urls are repeated or cut to that number
+    private static final int URLS = 4096;
+
+    private String[] urls;
+    private String[] pageUrls;
+
+    @Setup
+    public void setUp() {
+        List<String> corpusUrls = new ArrayList<>();
+        List<String> corpusPageUrls = new ArrayList<>();
+        for (Corpus page : Corpus.values()) {
+            PageTags tags = StreamingTagExtractor.extract(page.readHtml(), page.getUrl());
+            for (int i = 0; i < tags.linkCount(); i++) {
+                corpusUrls.add(tags.linkUrl(i));
+                corpusPageUrls.add(page.getUrl());
+            }
+            for (int i = 0; i < tags.imageCount(); i++) {
+                corpusUrls.add(tags.imageUrl(i));
+                corpusPageUrls.add(page.getUrl());
+            }
+        }
+        urls = new String[URLS];
+        pageUrls = new String[URLS];
+        // interleaving the webpages, as a crawl of several websites would
+        for (int i = 0; i < URLS; i++) {
+            int index = (int) ((i * 2654435761L) % corpusUrls.size());
+            urls[i] = corpusUrls.get(index);
+            pageUrls[i] = corpusPageUrls.get(index);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(URLS)
+    public void isSameDomain(Blackhole blackhole) {
+        for (int i = 0; i < URLS; i++) {
+            blackhole.consume(URLUtils.isSameDomain(urls[i], pageUrls[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(URLS)
+    public void isValidURL(Blackhole blackhole) {
+        for (int i = 0; i < URLS; i++) {
+            blackhole.consume(URLUtils.isValidURL(urls[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(URLS)
+    public void canonicalize(Blackhole blackhole) {
+        for (int i = 0; i < URLS; i++) {
+            blackhole.consume(UrlCanonicalizer.canonicalize(urls[i]));
+        }
+    }
+}
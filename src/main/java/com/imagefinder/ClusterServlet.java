@@ -0,0 +1,80 @@
+package com.imagefinder;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.imagefinder.cluster.ClusterConfig;
+import com.imagefinder.cluster.ClusterGuard;
+import com.imagefinder.cluster.ClusterMessage;
+import com.imagefinder.cluster.ClusterNode;
+import com.imagefinder.crawler.CrawlServices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet receiving the messages of the other nodes of the cluster: POST /cluster with a JSON message processes it
+ * and answers 204 once it is processed, 404 if this node is not part of a cluster. A request without the secret of
+ * the cluster is answered 401, a body larger than imagefinder.cluster.maxMessageBytes 413, and a message whose
+ * sender is not a node of the cluster 403.
+ */
+@WebServlet(
+    name = "Cluster",
+    urlPatterns = {"/cluster"}
+)
+public class ClusterServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	private static final Logger LOGGER = LoggerFactory.getLogger(ClusterServlet.class);
+
+	// created on the first message, the secret being only required once the cluster mode is enabled
+	private static final class GuardHolder {
+		private static final ClusterGuard INSTANCE = new ClusterGuard(ClusterConfig.getDefault().getSecret(),
+				ClusterConfig.getDefault().getMaxMessageBytes());
+	}
+
+	@Override
+	protected final void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		ClusterNode node = CrawlServices.getDefault().getClusterNode();
+		if (node == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND, "This node is not part of a cluster.");
+			return;
+		}
+		ClusterGuard guard = GuardHolder.INSTANCE;
+		if (!guard.isAuthentic(req.getHeader(ClusterGuard.SECRET_HEADER))) {
+			LOGGER.warn("Rejected a cluster message from {} without the secret of the cluster", req.getRemoteAddr());
+			resp.sendError(HttpServletResponse.SC_UNAUTHORIZED, "The secret of the cluster is required.");
+			return;
+		}
+		String json;
+		try (InputStream in = req.getInputStream()) {
+			json = guard.readMessage(in, req.getContentLengthLong());
+		}
+		if (json == null) {
+			LOGGER.warn("Rejected a cluster message from {} larger than {} bytes", req.getRemoteAddr(),
+					guard.getMaxMessageBytes());
+			resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+					"Cluster messages are limited to " + guard.getMaxMessageBytes() + " bytes.");
+			return;
+		}
+		ClusterMessage message;
+		try {
+			message = ClusterMessage.fromJson(json);
+		} catch (IllegalArgumentException e) {
+			LOGGER.warn("Rejected a cluster message: {}", e.getMessage());
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		if (!node.isMember(message)) {
+			LOGGER.warn("Rejected a cluster message from {}, which is not a node of the cluster", message.getSender());
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN, "The sender is not a node of the cluster.");
+			return;
+		}
+		node.receive(message);
+		resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+	}
+}
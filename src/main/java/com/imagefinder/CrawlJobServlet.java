@@ -0,0 +1,179 @@
+package com.imagefinder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.jobs.CrawlJob;
+import com.imagefinder.jobs.CrawlJobManager;
+import com.imagefinder.jobs.CrawlRejectedException;
+import com.imagefinder.jobs.CrawlSubmission;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet exposing the crawls as jobs:
+ * POST /jobs?url=... submits a crawl (attached to the running crawl of the same url, if any) and returns its id along
+ * with the token of the submission; the maxDepth, maxPages, maxBytes, maxImages and timeoutMs parameters narrow down
+ * its budget,
+ * GET /jobs/{id} returns its status (and its images with results=true),
+ * GET /jobs returns the saturation metrics of the admission control,
+ * DELETE /jobs/{id}?submission=... or POST /jobs/{id}/cancel?submission=... cancels the submission of the token, and
+ * the crawl once no other submission waits for it. Cancelling a submission again has no further effect.
+ */
+@WebServlet(
+    name = "CrawlJobs",
+    urlPatterns = {"/jobs", "/jobs/*"}
+)
+public class CrawlJobServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	protected static final Gson GSON = new GsonBuilder().create();
+	private static final Logger LOGGER = LoggerFactory.getLogger(CrawlJobServlet.class);
+	private static final String CANCEL_SUFFIX = "/cancel";
+	private static final String SUBMISSION_PARAMETER = "submission";
+
+	@Override
+	protected final void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String path = req.getPathInfo();
+		if (path != null && path.endsWith(CANCEL_SUFFIX)) {
+			cancel(path.substring(0, path.length() - CANCEL_SUFFIX.length()), req, resp);
+			return;
+		}
+		if (path != null && !"/".equals(path)) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown resource.");
+			return;
+		}
+		String url = req.getParameter("url");
+		if (url == null || url.isEmpty()) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "URL parameter is missing.");
+			return;
+		}
+		LOGGER.info("Received request for submitting the crawl of the website: {}", url);
+		CrawlBudget budget;
+		try {
+			budget = CrawlBudget.getDefault().narrow(req::getParameter);
+		} catch (IllegalArgumentException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		CrawlSubmission submission;
+		try {
+			submission = CrawlJobManager.getInstance().submit(url, budget);
+		} catch (CrawlRejectedException e) {
+			LOGGER.warn("Service Unavailable! Error Code 503: {}", e.getMessage());
+			resp.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many crawls in progress, retry later.");
+			return;
+		}
+		CrawlJob job = submission.getJob();
+		resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+		resp.setHeader("Location", req.getContextPath() + "/jobs/" + job.getId());
+		JsonObject json = toJson(job, false);
+		// only known to this client, so that nobody else can cancel its submission
+		json.addProperty(SUBMISSION_PARAMETER, submission.getToken());
+		writeJson(resp, json);
+	}
+
+	@Override
+	protected final void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String path = req.getPathInfo();
+		if (path == null || "/".equals(path)) {
+			writeJson(resp, saturationJson(CrawlJobManager.getInstance()));
+			return;
+		}
+		CrawlJob job = findJob(path, resp);
+		if (job != null) {
+			writeJson(resp, toJson(job, Boolean.parseBoolean(req.getParameter("results"))));
+		}
+	}
+
+	@Override
+	protected final void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException,
+			IOException {
+		cancel(req.getPathInfo(), req, resp);
+	}
+
+	private void cancel(String path, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		String token = req.getParameter(SUBMISSION_PARAMETER);
+		if (token == null || token.isEmpty()) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Submission parameter is missing.");
+			return;
+		}
+		CrawlJob job = findJob(path, resp);
+		if (job != null) {
+			CrawlJobManager.getInstance().cancel(job.getId(), token);
+			LOGGER.info("Received request for cancelling the crawl job {}, {} submissions left", job.getId(),
+					job.getSubmissions());
+			writeJson(resp, toJson(job, false));
+		}
+	}
+
+	private static CrawlJob findJob(String path, HttpServletResponse resp) throws IOException {
+		String id = path == null ? "" : path.replaceAll("^/+|/+$", "");
+		CrawlJob job = id.isEmpty() ? null : CrawlJobManager.getInstance().getJob(id);
+		if (job == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown job.");
+		}
+		return job;
+	}
+
+	private static JsonObject toJson(CrawlJob job, boolean withResults) {
+		JsonObject json = new JsonObject();
+		json.addProperty("id", job.getId());
+		json.addProperty("url", job.getUrl());
+		json.addProperty("status", job.getStatus().name());
+		if (job.getStatus().isFinished()) {
+			json.addProperty("stopReason", job.getStopReason().name().toLowerCase(Locale.ROOT));
+		}
+		json.addProperty("images", job.getImageCount());
+		json.addProperty("submissions", job.getSubmissions());
+		json.addProperty("createdAt", job.getCreatedAtMillis());
+		long finishedAt = job.getFinishedAtMillis();
+		if (finishedAt > 0) {
+			json.addProperty("finishedAt", finishedAt);
+		}
+		long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+		json.addProperty("durationMs", end - job.getCreatedAtMillis());
+		if (withResults) {
+			json.add("results", GSON.toJsonTree(job.publishedImages()));
+		}
+		return json;
+	}
+
+	private static JsonObject saturationJson(CrawlJobManager manager) {
+		AdmissionController admission = manager.getAdmissionController();
+		JsonObject json = new JsonObject();
+		json.addProperty("runningJobs", manager.getRunningJobs());
+		json.addProperty("runningCrawls", admission.getRunningCrawls());
+		json.addProperty("maxConcurrentCrawls", admission.getMaxConcurrentCrawls());
+		json.addProperty("saturated", admission.isSaturated());
+		json.addProperty("inFlightFetches", admission.getInFlightFetches());
+		json.addProperty("peakInFlightFetches", admission.getPeakInFlightFetches());
+		json.addProperty("maxInFlightFetches", admission.getMaxInFlightFetches());
+		json.addProperty("crawlsWaitingForFetch", admission.getWaitingCrawls());
+		json.addProperty("fetchPermitWaits", admission.getFetchPermitWaits());
+		json.addProperty("maxQueuedTasksPerCrawl", admission.getMaxQueuedTasksPerCrawl());
+		json.addProperty("droppedTasks", admission.getDroppedTasks());
+		json.addProperty("rejectedCrawls", admission.getRejectedCrawls());
+		return json;
+	}
+
+	private static void writeJson(HttpServletResponse resp, JsonObject json) throws IOException {
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("UTF-8");
+		PrintWriter out = resp.getWriter();
+		out.print(GSON.toJson(json));
+		out.flush();
+	}
+}
@@ -0,0 +1,36 @@
+package com.imagefinder;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+import com.imagefinder.checkpoint.CheckpointConfig;
+import com.imagefinder.jobs.CrawlJobManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener resuming, on startup, the crawls interrupted by the last shutdown or crash from their checkpoints, and
+ * writing the checkpoints of the running crawls on shutdown so that they are resumed on the next startup. It does
+ * nothing unless the checkpoints are enabled (imagefinder.checkpoint.enabled).
+ */
+@WebListener
+public class CrawlResumeListener implements ServletContextListener {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CrawlResumeListener.class);
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		if (!CheckpointConfig.getDefault().isEnabled()) {
+			return;
+		}
+		int resumed = CrawlJobManager.getInstance().resumeInterruptedJobs();
+		LOGGER.info("Resumed {} crawl jobs interrupted by the last shutdown", resumed);
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		if (CheckpointConfig.getDefault().isEnabled()) {
+			CrawlJobManager.getInstance().closeCheckpoints();
+		}
+	}
+}
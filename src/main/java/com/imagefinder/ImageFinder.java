@@ -1,26 +1,33 @@
 package com.imagefinder;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.HashSet;
+import java.util.Locale;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.imagefinder.cache.EncodedResponse;
+import com.imagefinder.cache.LocalCache;
 import com.imagefinder.crawleddata.CrawlDataStorage;
-import com.imagefinder.crawleddata.CrawlResultImageStorage;
-import com.imagefinder.crawler.CrawlSpawner;
-import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.jobs.CrawlJob;
+import com.imagefinder.jobs.CrawlJobManager;
+import com.imagefinder.jobs.CrawlRejectedException;
 import com.imagefinder.models.Image;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import org.json.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Servlet crawling a url and responding with the JSON array of its images once the crawl is over. The body is encoded
+ * once per cached crawl result, gzipped for the clients accepting it, and tagged with an ETag: serving a cached
+ * result only writes its bytes, and a GET whose If-None-Match holds the ETag is answered with 304 Not Modified.
+ */
 @WebServlet(
     name = "ImageFinder",
     urlPatterns = {"/main"}
@@ -29,10 +36,23 @@ public class ImageFinder extends HttpServlet{
 	private static final long serialVersionUID = 1L;
 	protected static final Gson GSON = new GsonBuilder().create();
 	private static final Logger LOGGER = LoggerFactory.getLogger(ImageFinder.class);
+	// header telling why the crawl stopped: completed, or the limit of the budget that cut its results short
+	static final String STOP_REASON_HEADER = "X-Crawl-Stop-Reason";
 
 
+	@Override
+	protected final void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		findImages(req, resp, true);
+	}
+
 	@Override
 	protected final void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		// If-None-Match only applies to GET and HEAD
+		findImages(req, resp, false);
+	}
+
+	private void findImages(HttpServletRequest req, HttpServletResponse resp, boolean conditional)
+			throws IOException {
 		LOGGER.info("Received request for crawling website with request: {} ",req.toString());
 		resp.setContentType("text/json");
 		resp.setCharacterEncoding("UTF-8");
@@ -42,20 +62,61 @@ public class ImageFinder extends HttpServlet{
 			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "URL parameter is missing.");
 			return;
 		}
+		CrawlBudget budget;
 		try {
-			CrawlSpawner<Image> crawler = new CrawlSpawner<>(url,
-															new CrawlResultImageStorage(new HashSet<>()),
-															new ImageParser());
-			CrawlDataStorage<Image> crawledData = crawler.startCrawl();
-			JSONArray jsonArray = new JSONArray(crawledData.retrieveData());
-			PrintWriter out = resp.getWriter();
-			LOGGER.info("Completed processing the request and returning the response as: {}",jsonArray.toString());
-			out.print(jsonArray);
-			out.flush();
+			// the limits asked for by the request: maxDepth, maxPages, maxBytes, maxImages and timeoutMs
+			budget = CrawlBudget.getDefault().narrow(req::getParameter);
+		} catch (IllegalArgumentException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		try {
+			// attaching to the running crawl of the same url, if any, instead of crawling it again
+			CrawlJob job = CrawlJobManager.getInstance().submit(url, budget).getJob();
+			CrawlDataStorage<Image> crawledData = job.getResult().get();
+			resp.setHeader(STOP_REASON_HEADER, job.getStopReason().name().toLowerCase(Locale.ROOT));
+			// encoded on the first request of a cached result only, later requests write the same bytes
+			EncodedResponse body = LocalCache.getInstance().getEncodedData(job.getUrl(), crawledData);
+			LOGGER.info("Completed processing the request for the url: {} and returning {} images", url,
+					crawledData.size());
+			writeBody(req, resp, body, conditional);
+		} catch (CrawlRejectedException e) {
+			// shedding the load instead of slowing every crawl down
+			LOGGER.warn("Service Unavailable! Error Code 503: {}", e.getMessage());
+			resp.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many crawls in progress, retry later.");
 		} catch (Exception e) {
 			LOGGER.error("Internal Server Error! Error Code 500: Exception occured while processing the request: " +
 							"{} with exception:",req.toString(),e);
 			resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Error processing request.");
 		}
 	}
+
+	/**
+	 * Method to write an encoded body to the response, gzipped if the client accepts it
+	 * @param req: request of the client
+	 * @param resp: response to write to
+	 * @param body: encoded body
+	 * @param conditional: true to answer with 304 Not Modified if the client already holds the body
+	 * @throws IOException if the response cannot be written
+	 */
+	static void writeBody(HttpServletRequest req, HttpServletResponse resp, EncodedResponse body, boolean conditional)
+			throws IOException {
+		boolean gzipped = body.getGzip() != null && EncodedResponse.acceptsGzip(req.getHeader("Accept-Encoding"));
+		// each representation has its own ETag
+		resp.setHeader("ETag", body.getEtag(gzipped));
+		resp.setHeader("Vary", "Accept-Encoding");
+		if (conditional && body.matches(req.getHeader("If-None-Match"), gzipped)) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		byte[] bytes = gzipped ? body.getGzip() : body.getJson();
+		if (gzipped) {
+			resp.setHeader("Content-Encoding", "gzip");
+		}
+		resp.setContentLength(bytes.length);
+		ServletOutputStream out = resp.getOutputStream();
+		out.write(bytes);
+		out.flush();
+	}
 }
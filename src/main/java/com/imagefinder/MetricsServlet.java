@@ -0,0 +1,166 @@
+package com.imagefinder;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.imagefinder.cache.LocalCache;
+import com.imagefinder.cache.PageCache;
+import com.imagefinder.checkpoint.CheckpointStore;
+import com.imagefinder.cluster.ClusterNode;
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.jobs.CrawlJobManager;
+import com.imagefinder.metrics.CrawlMetrics;
+import com.imagefinder.metrics.PrometheusWriter;
+import com.imagefinder.probe.ImageProber;
+import com.imagefinder.robots.RobotsCache;
+
+/**
+ * Servlet exposing the metrics of the crawl pipeline in the Prometheus text format: GET /metrics returns the
+ * recorded metrics (fetch latency per host, bytes downloaded, parse time, local cache lookups, webpages and images
+ * per crawl) along with gauges read at scrape time (crawl executor, admission control, jobs and caches).
+ */
+@WebServlet(
+    name = "Metrics",
+    urlPatterns = {"/metrics"}
+)
+public class MetricsServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	private static final String PREFIX = "imagefinder_";
+
+	@Override
+	protected final void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		PrometheusWriter writer = new PrometheusWriter();
+		CrawlMetrics.getInstance().writeTo(writer);
+		writeExecutor(writer, CrawlServices.getDefault().getCrawlExecutor());
+		writeAdmission(writer, CrawlJobManager.getInstance().getAdmissionController());
+		writer.single(PREFIX + "jobs_running", "gauge", "Crawl jobs in progress.",
+				CrawlJobManager.getInstance().getRunningJobs());
+		writeCaches(writer, PageCache.getInstance(), LocalCache.getInstance());
+		writeProber(writer, ImageProber.getInstance());
+		writeRobots(writer, CrawlServices.getDefault().getRobotsCache());
+		writeCluster(writer, CrawlServices.getDefault().getClusterNode());
+		writeCheckpoints(writer, CrawlJobManager.getInstance().getCheckpointStore());
+		resp.setContentType(PrometheusWriter.CONTENT_TYPE);
+		resp.setHeader("Cache-Control", "no-store");
+		PrintWriter out = resp.getWriter();
+		out.print(writer);
+		out.flush();
+	}
+
+	private static void writeExecutor(PrometheusWriter writer, ExecutorService executor) {
+		if (!(executor instanceof ThreadPoolExecutor)) {
+			return;
+		}
+		ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+		writer.single(PREFIX + "crawl_executor_queue_depth", "gauge",
+				"Crawl tasks waiting for a crawl thread.", pool.getQueue().size());
+		writer.single(PREFIX + "crawl_executor_active_threads", "gauge",
+				"Crawl threads running a task.", pool.getActiveCount());
+		writer.single(PREFIX + "crawl_executor_threads", "gauge",
+				"Threads of the crawl executor.", pool.getPoolSize());
+		writer.single(PREFIX + "crawl_executor_completed_tasks_total", "counter",
+				"Crawl tasks completed by the crawl executor.", pool.getCompletedTaskCount());
+	}
+
+	private static void writeAdmission(PrometheusWriter writer, AdmissionController admission) {
+		writer.single(PREFIX + "crawls_running", "gauge", "Crawls holding a crawl slot.",
+				admission.getRunningCrawls());
+		writer.single(PREFIX + "crawls_max", "gauge", "Maximum number of concurrent crawls.",
+				admission.getMaxConcurrentCrawls());
+		writer.single(PREFIX + "fetches_in_flight", "gauge", "Webpages being fetched by all the crawls.",
+				admission.getInFlightFetches());
+		writer.single(PREFIX + "fetches_in_flight_max", "gauge", "Maximum number of webpages fetched at once.",
+				admission.getMaxInFlightFetches());
+		writer.single(PREFIX + "crawls_waiting_for_fetch", "gauge", "Crawls waiting for a fetch permit.",
+				admission.getWaitingCrawls());
+		writer.single(PREFIX + "saturated", "gauge", "1 while the crawl slots or fetch permits are exhausted.",
+				admission.isSaturated() ? 1 : 0);
+		writer.single(PREFIX + "fetch_permit_waits_total", "counter", "Times a crawl waited for a fetch permit.",
+				admission.getFetchPermitWaits());
+		writer.single(PREFIX + "crawls_rejected_total", "counter", "Crawls rejected by the admission control.",
+				admission.getRejectedCrawls());
+		writer.single(PREFIX + "tasks_dropped_total", "counter", "Subpages dropped beyond the queue limit of a crawl.",
+				admission.getDroppedTasks());
+	}
+
+	private static void writeProber(PrometheusWriter writer, ImageProber prober) {
+		if (!prober.getConfig().isEnabled()) {
+			return;
+		}
+		writer.single(PREFIX + "image_probes_total", "counter", "Images whose first bytes were requested.",
+				prober.getProbesSent());
+		writer.single(PREFIX + "image_probe_cache_hits_total", "counter",
+				"Images whose metadata was already known or being probed.", prober.getCacheHits());
+		writer.single(PREFIX + "images_dropped_total", "counter",
+				"Images dropped from the results: tracking pixels, spacers, broken links.", prober.getImagesDropped());
+	}
+
+	private static void writeRobots(PrometheusWriter writer, RobotsCache robotsCache) {
+		if (robotsCache == null) {
+			return;
+		}
+		writer.single(PREFIX + "robots_fetches_total", "counter", "robots.txt files requested.",
+				robotsCache.getRobotsFetched());
+		writer.single(PREFIX + "robots_disallowed_total", "counter", "Webpages skipped as robots.txt disallows them.",
+				robotsCache.getDisallowedUrls());
+		writer.single(PREFIX + "robots_hosts", "gauge", "Hosts whose robots.txt rules are cached.",
+				robotsCache.size());
+	}
+
+	private static void writeCluster(PrometheusWriter writer, ClusterNode node) {
+		if (node == null) {
+			return;
+		}
+		writer.single(PREFIX + "cluster_crawls", "gauge", "Crawls this node coordinates or takes part in.",
+				node.getActiveCrawls());
+		writer.single(PREFIX + "cluster_links_forwarded_total", "counter",
+				"Subpages handed over to the nodes owning them.", node.getLinksForwarded());
+		writer.single(PREFIX + "cluster_links_received_total", "counter",
+				"Subpages handed over by the other nodes.", node.getLinksReceived());
+		writer.single(PREFIX + "cluster_message_failures_total", "counter",
+				"Messages that could not be delivered to another node.", node.getMessageFailures());
+	}
+
+	private static void writeCheckpoints(PrometheusWriter writer, CheckpointStore store) {
+		if (store == null) {
+			return;
+		}
+		writer.single(PREFIX + "checkpoint_queued_records", "gauge",
+				"Checkpoint records queued by the crawls and not written yet.", store.getQueuedRecords());
+		writer.single(PREFIX + "checkpoint_records_total", "counter", "Checkpoint records written.",
+				store.getWrittenRecords());
+		writer.single(PREFIX + "checkpoint_bytes_total", "counter", "Bytes written to the checkpoint files.",
+				store.getWrittenBytes());
+		writer.single(PREFIX + "checkpoint_syncs_total", "counter",
+				"Batched fsyncs of the checkpoint files written during an interval.", store.getSyncs());
+		writer.single(PREFIX + "checkpoint_sync_seconds_total", "counter", "Time spent in fsync by the checkpoints.",
+				store.getSyncNanos() / 1e9);
+	}
+
+	private static void writeCaches(PrometheusWriter writer, PageCache pageCache, LocalCache localCache) {
+		writer.single(PREFIX + "page_cache_pages", "gauge", "Extractions of webpages in the page cache.",
+				pageCache.size());
+		writer.family(PREFIX + "page_cache_revalidations_total", "counter",
+				"Conditional requests of cached webpages, by result.");
+		writer.sample(PREFIX + "page_cache_revalidations_total", PrometheusWriter.label("result", "not_modified"),
+				pageCache.getRevalidatedPages());
+		writer.sample(PREFIX + "page_cache_revalidations_total", PrometheusWriter.label("result", "modified"),
+				pageCache.getModifiedPages());
+		writer.single(PREFIX + "local_cache_entries", "gauge", "Crawl results in the local cache.",
+				localCache.size());
+		writer.single(PREFIX + "local_cache_weight", "gauge", "Images held by the crawl results of the local cache.",
+				localCache.getWeight());
+		writer.single(PREFIX + "local_cache_encoded_bytes", "gauge",
+				"Bytes of the pre-encoded response bodies of the crawl results of the local cache.",
+				localCache.getEncodedBytes());
+	}
+}
@@ -0,0 +1,139 @@
+package com.imagefinder;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.jobs.CrawlJob;
+import com.imagefinder.jobs.CrawlJobManager;
+import com.imagefinder.jobs.CrawlRejectedException;
+import com.imagefinder.jobs.CrawlSubmission;
+import com.imagefinder.models.Image;
+import com.imagefinder.streaming.ResultStreamWriter;
+import com.imagefinder.streaming.StreamFormat;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet streaming the images of a crawl to the client as they are found, as newline delimited JSON (one image per
+ * line) or as Server-Sent Events (format=sse or Accept: text/event-stream). The last message holds the number of
+ * images found and why the crawl stopped (completed, or the limit of the budget that cut its results short). The
+ * request is handled asynchronously: no container thread is held while the crawl is running.
+ * Requests of a url that is already being crawled stream the images of the running crawl job.
+ */
+@WebServlet(
+    name = "StreamingImageFinder",
+    urlPatterns = {"/stream"},
+    asyncSupported = true
+)
+public class StreamingImageFinder extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	protected static final Gson GSON = new GsonBuilder().create();
+	private static final Logger LOGGER = LoggerFactory.getLogger(StreamingImageFinder.class);
+	// time after which a response still streaming is closed
+	private static final long STREAM_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(
+			Long.getLong("imagefinder.stream.timeoutMinutes", 10L));
+
+	@Override
+	protected final void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		streamCrawl(req, resp);
+	}
+
+	@Override
+	protected final void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		streamCrawl(req, resp);
+	}
+
+	private void streamCrawl(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		String url = req.getParameter("url");
+		if (url == null || url.isEmpty()) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "URL parameter is missing.");
+			return;
+		}
+		LOGGER.info("Received request for streaming the crawl of the website: {}", url);
+		CrawlBudget budget;
+		try {
+			budget = CrawlBudget.getDefault().narrow(req::getParameter);
+		} catch (IllegalArgumentException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		CrawlSubmission submission;
+		try {
+			// attaching to the running crawl of the same url and budget, if any
+			submission = CrawlJobManager.getInstance().submit(url, budget);
+		} catch (CrawlRejectedException e) {
+			// rejected before the response is committed, so that the client gets a proper status code
+			LOGGER.warn("Service Unavailable! Error Code 503: {}", e.getMessage());
+			resp.setHeader("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many crawls in progress, retry later.");
+			return;
+		}
+		CrawlJob job = submission.getJob();
+		StreamFormat format = StreamFormat.fromRequest(req.getParameter("format"), req.getHeader("Accept"));
+		resp.setContentType(format.getContentType());
+		resp.setCharacterEncoding("UTF-8");
+		resp.setHeader("Cache-Control", "no-cache");
+		// asking proxies (nginx) not to buffer the stream
+		resp.setHeader("X-Accel-Buffering", "no");
+
+		ResultStreamWriter writer;
+		try {
+			AsyncContext asyncContext = req.startAsync();
+			asyncContext.setTimeout(STREAM_TIMEOUT_MS);
+			writer = new ResultStreamWriter(asyncContext, format);
+		} catch (IOException | RuntimeException e) {
+			// nobody will wait for the crawl
+			submission.cancel();
+			throw e;
+		}
+		try {
+			Consumer<Image> subscriber = image -> writer.send("image", GSON.toJson(image));
+			job.subscribe(subscriber);
+			writer.onAbort(() -> {
+				// the client is gone: detaching from the job, which stops once nobody waits for it anymore
+				job.unsubscribe(subscriber);
+				submission.cancel();
+			});
+			job.getResult().whenComplete((crawledData, failure) -> {
+				if (failure != null) {
+					LOGGER.error("Exception occured while streaming the crawl of the url: {}", url, failure);
+					writer.finish("error", errorMessage("Error processing request."));
+				} else {
+					writer.finish("done", doneMessage(job));
+				}
+			});
+		} catch (RuntimeException e) {
+			LOGGER.error("Exception occured while starting the crawl of the url: {}", url, e);
+			writer.finish("error", errorMessage("Error processing request."));
+		}
+	}
+
+	private static String doneMessage(CrawlJob job) {
+		JsonObject message = new JsonObject();
+		message.addProperty("done", true);
+		message.addProperty("job", job.getId());
+		message.addProperty("status", job.getStatus().name());
+		message.addProperty("images", job.getImageCount());
+		message.addProperty("stopReason", job.getStopReason().name().toLowerCase(Locale.ROOT));
+		return GSON.toJson(message);
+	}
+
+	private static String errorMessage(String error) {
+		JsonObject message = new JsonObject();
+		message.addProperty("error", error);
+		return GSON.toJson(message);
+	}
+}
@@ -0,0 +1,57 @@
+package com.imagefinder.cache;
+
+import com.imagefinder.htmlparsers.PageTags;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extraction of a single webpage (its images and outgoing links) along with the validators the server sent for it,
+ * so that a later crawl can revalidate the webpage with a conditional request instead of downloading it again.
+ */
+public class CachedPage {
+
+    private final PageTags tags;
+    private final String etag;
+    private final String lastModified;
+
+    /**
+     * Constructor for the CachedPage class
+     * @param tags: images and links extracted from the webpage
+     * @param etag: value of the ETag header of the response, null if absent
+     * @param lastModified: value of the Last-Modified header of the response, null if absent
+     */
+    public CachedPage(PageTags tags, String etag, String lastModified) {
+        this.tags = tags;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public PageTags getTags() {
+        return tags;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Method to get the headers of a conditional request for the webpage
+     * @return If-None-Match and/or If-Modified-Since headers
+     */
+    public Map<String, String> conditionalHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        if (etag != null) {
+            headers.put("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            headers.put("If-Modified-Since", lastModified);
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+}
@@ -0,0 +1,186 @@
+package com.imagefinder.cache;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Body of the response serving crawled data, encoded once: the data as a UTF-8 JSON array, the same bytes gzipped,
+ * and a strong ETag per representation, derived from the JSON bytes (the ETag of the gzipped body ends with -gzip, as
+ * two representations of a resource must not share a strong validator). The cache keeps it alongside the data of a
+ * url, so that serving the data again only writes the bytes to the response instead of serializing the data on every
+ * request.
+ */
+public final class EncodedResponse {
+
+    private static final Gson GSON = new GsonBuilder().create();
+    // bodies smaller than this are not worth the gzip header and the decompression on the client
+    private static final int MIN_GZIP_BYTES = 512;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] json;
+    private final byte[] gzip;
+    private final String etag;
+    private final String gzipEtag;
+
+    private EncodedResponse(byte[] json, byte[] gzip, String etag) {
+        this.json = json;
+        this.gzip = gzip;
+        this.etag = etag;
+        this.gzipEtag = gzip == null ? null : etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * Method to encode the data of a crawl
+     * @param data: data points to serialize, e.g. images
+     * @return the encoded body
+     */
+    public static EncodedResponse encode(Collection<?> data) {
+        try {
+            ByteArrayOutputStream jsonBytes = new ByteArrayOutputStream(Math.max(64, data.size() * 96));
+            try (Writer writer = new OutputStreamWriter(jsonBytes, StandardCharsets.UTF_8)) {
+                // as a collection whatever its implementation, each element being serialized by its runtime type
+                GSON.toJson(data, Collection.class, writer);
+            }
+            byte[] json = jsonBytes.toByteArray();
+            byte[] gzip = null;
+            if (json.length >= MIN_GZIP_BYTES) {
+                ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream(json.length / 4);
+                try (GZIPOutputStream out = new GZIPOutputStream(gzipBytes)) {
+                    out.write(json);
+                }
+                if (gzipBytes.size() < json.length) {
+                    gzip = gzipBytes.toByteArray();
+                }
+            }
+            return new EncodedResponse(json, gzip, etagOf(json));
+        } catch (IOException e) {
+            // the streams are held in memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Method to compute the strong ETag of a body: the first 128 bits of its SHA-256 digest, quoted
+     * @param body: bytes of the body
+     * @return the ETag
+     */
+    private static String etagOf(byte[] body) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform implements SHA-256
+            throw new IllegalStateException(e);
+        }
+        char[] etag = new char[34];
+        etag[0] = '"';
+        for (int i = 0; i < 16; i++) {
+            etag[1 + 2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            etag[2 + 2 * i] = HEX[digest[i] & 0xF];
+        }
+        etag[33] = '"';
+        return new String(etag);
+    }
+
+    /**
+     * Method to check if a request already holds the representation served to it, from the value of its
+     * If-None-Match header
+     * @param ifNoneMatch: value of the If-None-Match header, null if absent
+     * @param gzipped: true if the gzipped body is served, false if the JSON body is
+     * @return true if the header lists the ETag of the served representation (weakly compared) or is *
+     */
+    public boolean matches(String ifNoneMatch, boolean gzipped) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String etag = getEtag(gzipped);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to check if a client accepts a gzipped body, from the value of its Accept-Encoding header
+     * @param acceptEncoding: value of the Accept-Encoding header, null if absent
+     * @return true if gzip is listed without a zero quality value
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String candidate : acceptEncoding.split(",")) {
+            String[] parts = candidate.split(";");
+            String coding = parts[0].trim();
+            if (!"gzip".equalsIgnoreCase(coding) && !"x-gzip".equalsIgnoreCase(coding)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Method to get the UTF-8 JSON array of the data
+     * @return bytes of the body, not to be modified
+     */
+    public byte[] getJson() {
+        return json;
+    }
+
+    /**
+     * Method to get the gzipped JSON array of the data
+     * @return bytes of the body, not to be modified; null if gzip does not make the body smaller
+     */
+    public byte[] getGzip() {
+        return gzip;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Method to get the ETag of a representation of the body
+     * @param gzipped: true for the gzipped body, false for the JSON body
+     * @return the ETag, null if the gzipped body is asked for while gzip does not make the body smaller
+     */
+    public String getEtag(boolean gzipped) {
+        return gzipped ? gzipEtag : etag;
+    }
+
+    /**
+     * Method to get the number of bytes held by the encoded body
+     * @return size of the JSON and gzip bodies
+     */
+    public long byteSize() {
+        return json.length + (gzip == null ? 0 : gzip.length);
+    }
+}
@@ -0,0 +1,79 @@
+package com.imagefinder.cache;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count-min sketch estimating how often each key has been accessed recently, including keys that are no longer
+ * (or not yet) cached. It is used by the LocalCache to evict the least frequently used entry instead of the oldest
+ * one, so that a website crawled once does not push out the websites requested all day long.
+ * The counters are halved periodically so that past popularity fades away.
+ */
+class FrequencySketch {
+
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 1 << 16;
+    private static final long[] SEEDS = {
+            0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0xd6e8feb86659fd93L};
+
+    private final AtomicIntegerArray counters;
+    private final int mask;
+    // number of increments after which all the counters are halved
+    private final long agingPeriod;
+    private final AtomicLong increments = new AtomicLong();
+
+    /**
+     * Constructor for the FrequencySketch class
+     * @param expectedKeys: number of distinct keys the sketch is expected to track
+     */
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(64, expectedKeys * 4 - 1)) << 1;
+        this.counters = new AtomicIntegerArray(ROWS * width);
+        this.mask = width - 1;
+        this.agingPeriod = 10L * width;
+    }
+
+    /**
+     * Method to record an access to a key
+     * @param key: key accessed
+     */
+    void increment(String key) {
+        int hash = key.hashCode();
+        for (int row = 0; row < ROWS; row++) {
+            int index = indexOf(hash, row);
+            int count = counters.get(index);
+            if (count < MAX_COUNT) {
+                counters.compareAndSet(index, count, count + 1);
+            }
+        }
+        if (increments.incrementAndGet() % agingPeriod == 0) {
+            age();
+        }
+    }
+
+    /**
+     * Method to estimate how often a key has been accessed recently
+     * @param key: key to check
+     * @return estimated number of accesses (never underestimated)
+     */
+    int frequency(String key) {
+        int hash = key.hashCode();
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            frequency = Math.min(frequency, counters.get(indexOf(hash, row)));
+        }
+        return frequency;
+    }
+
+    private void age() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+    }
+
+    private int indexOf(int hash, int row) {
+        long mixed = (hash + SEEDS[row]) * SEEDS[row];
+        mixed ^= mixed >>> 32;
+        return row * (mask + 1) + ((int) mixed & mask);
+    }
+}
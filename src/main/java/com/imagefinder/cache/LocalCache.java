@@ -1,57 +1,448 @@
 package com.imagefinder.cache;
 
 import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.metrics.CrawlMetrics;
+import com.imagefinder.models.Image;
+import com.imagefinder.store.PersistedImageStorage;
+import com.imagefinder.store.SegmentLogStore;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.imagefinder.utils.URLUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 /**
  * A singleton cache class to hold the data corresponding to a base URL, so that we do not need to crawl the
  * webpages we have already crawled.
- * We could have an expiration/TTL implementation for this cache, so that the service does not return
- * outdated data.
+ * The cache is safe to use from concurrent requests and bounded: its weight (the number of stored data points,
+ * i.e. images) never exceeds maxWeight. Every eviction picks the least frequently requested base URL among a bounded
+ * sample of the entries, so that it does not walk the whole cache.
+ * Every entry expires after its TTL. An expired entry is still served for a while (stale-while-revalidate) while a
+ * single background crawl refreshes it, so popular websites are always served from the cache.
+ * Every added entry is also appended to the persistent store, which serves the entries missing from memory (evicted
+ * ones, or all of them after a restart) without crawling again.
+ * An entry also keeps its data encoded as a response body once it has been served, so that serving it again writes
+ * the same bytes instead of serializing the data again.
+ * The entries are keyed by normalized URL, like the crawl jobs, so that the spellings of a URL share one entry.
  */
 public class LocalCache {
-    private static LocalCache instance;
-    private final Map<String, CrawlDataStorage> localCacheData;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalCache.class);
+    private static final String PROPERTY_PREFIX = "imagefinder.cache.";
+    private static final String STORE_PROPERTY_PREFIX = "imagefinder.store.";
+    private static final int REFRESH_THREADS = 2;
+    // entries compared to pick the victim of an eviction
+    private static final int EVICTION_SAMPLES = 16;
+
+    private final Map<String, CacheEntry> localCacheData = new ConcurrentHashMap<>();
+    private final FrequencySketch frequencySketch;
+    private final AtomicLong totalWeight = new AtomicLong();
+    // bytes of the response bodies encoded by the entries, not part of the weight
+    private final AtomicLong encodedBytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+    // guarded by evictionLock: walks the entries across evictions, so that every entry is eventually sampled
+    private Iterator<Map.Entry<String, CacheEntry>> evictionCursor = Collections.emptyIterator();
+    private final long maxWeight;
+    private final long ttlMillis;
+    // time after expiry during which an entry is still served while being refreshed
+    private final long maxStaleMillis;
+    private final ExecutorService refreshExecutor;
+    // second tier holding the entries on disk, null if persistence is disabled
+    private final SegmentLogStore store;
+    // current time in milliseconds
+    private final LongSupplier clock;
+
+    private static final class InstanceHolder {
+        private static final LocalCache INSTANCE = new LocalCache(
+                Long.getLong(PROPERTY_PREFIX + "maxWeight", 500_000L),
+                TimeUnit.MINUTES.toMillis(Long.getLong(PROPERTY_PREFIX + "ttlMinutes", 60L)),
+                TimeUnit.MINUTES.toMillis(Long.getLong(PROPERTY_PREFIX + "maxStaleMinutes", 24 * 60L)),
+                openDefaultStore());
+    }
 
     /**
-     * private constructor to implement singleton behavior, as we only need a single object this class.
+     * Method to open the persistent store configured by the imagefinder.store.* system properties and schedule its
+     * compaction
+     * @return the opened store, null if persistence is disabled or the store cannot be opened
      */
-    private LocalCache() {
-        localCacheData = new HashMap<>();
+    private static SegmentLogStore openDefaultStore() {
+        String directory = System.getProperty(STORE_PROPERTY_PREFIX + "dir", "data/crawl-store");
+        if (directory.isEmpty()) {
+            return null;
+        }
+        try {
+            SegmentLogStore store = SegmentLogStore.open(Paths.get(directory),
+                    Long.getLong(STORE_PROPERTY_PREFIX + "segmentBytes", 64L * 1024 * 1024));
+            long compactionMinutes = Long.getLong(STORE_PROPERTY_PREFIX + "compactionMinutes", 10L);
+            ScheduledExecutorService compactionTimer =
+                    Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("store-compaction-"));
+            compactionTimer.scheduleWithFixedDelay(() -> getInstance().compactStore(), compactionMinutes,
+                    compactionMinutes, TimeUnit.MINUTES);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to open the crawl result store at {}, crawl results will not be persisted",
+                    directory, e);
+            return null;
+        }
     }
 
     /**
-     * Method to return the single object of this class, by creating it if not already done
+     * Constructor for the LocalCache class. The application uses the single object returned by getInstance.
+     * @param maxWeight: maximum number of data points (images) held by the cache
+     * @param ttlMillis: default time after which an entry is refreshed
+     * @param maxStaleMillis: time after expiry during which an entry is still served while being refreshed
+     * @param store: persistent store of the entries, null to keep them in memory only
+     */
+    LocalCache(long maxWeight, long ttlMillis, long maxStaleMillis, SegmentLogStore store) {
+        this(maxWeight, ttlMillis, maxStaleMillis, store, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor for the LocalCache class with its own clock, e.g. to test the expiry of its entries
+     * @param maxWeight: maximum number of data points (images) held by the cache
+     * @param ttlMillis: default time after which an entry is refreshed
+     * @param maxStaleMillis: time after expiry during which an entry is still served while being refreshed
+     * @param store: persistent store of the entries, null to keep them in memory only
+     * @param clock: current time in milliseconds
+     */
+    LocalCache(long maxWeight, long ttlMillis, long maxStaleMillis, SegmentLogStore store, LongSupplier clock) {
+        this.maxWeight = maxWeight;
+        this.ttlMillis = ttlMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        this.store = store;
+        this.clock = clock;
+        this.frequencySketch = new FrequencySketch(4096);
+        this.refreshExecutor = Executors.newFixedThreadPool(REFRESH_THREADS,
+                new DaemonThreadFactory("cache-refresh-"));
+    }
+
+    /**
+     * Method to return the single object of this class, created thread-safely on first use
      * @return returns the single object of this class
      */
     public static LocalCache getInstance() {
-        if (instance == null) {
-            instance = new LocalCache();
-        }
-        return instance;
+        return InstanceHolder.INSTANCE;
     }
 
     /**
-     * Adding data to the cache.
+     * Adding data to the cache with the default TTL.
      * @param url: url is the key which we have crawled
      * @param data: data is extracted by crawling the url
      */
     public void addData(String url, CrawlDataStorage data) {
-        localCacheData.put(url, data);
+        addData(url, data, ttlMillis);
+    }
+
+    /**
+     * Adding data to the cache, replacing the data already cached for the url.
+     * @param url: url is the key which we have crawled
+     * @param data: data is extracted by crawling the url
+     * @param entryTtlMillis: time after which this entry is refreshed
+     */
+    public void addData(String url, CrawlDataStorage data, long entryTtlMillis) {
+        String key = URLUtils.normalize(url);
+        long now = clock.getAsLong();
+        CacheEntry entry = new CacheEntry(data, now + entryTtlMillis);
+        CacheEntry previous = localCacheData.put(key, entry);
+        totalWeight.addAndGet(entry.weight - (previous == null ? 0 : previous.weight));
+        if (previous != null) {
+            releaseEncoded(previous);
+        }
+        evictIfNeeded();
+        persist(key, data, now);
     }
 
     /**
-     * method to retrived extracted data from the cache
+     * method to retrived extracted data from the cache. Expired data is returned as long as it is not older than
+     * the stale limit, use isFresh to know if it should be refreshed.
      * @param url: the webpage for which we want to retrieve data
-     * @return returns the retrieved data which we stored within the cache
+     * @return returns the retrieved data which we stored within the cache, null if there is none
      */
     public CrawlDataStorage getData(String url) {
-        return localCacheData.get(url);
+        String key = URLUtils.normalize(url);
+        frequencySketch.increment(key);
+        CacheEntry entry = getEntry(key);
+        CrawlMetrics.getInstance().recordLocalCacheLookup(entry != null);
+        return entry == null ? null : entry.data;
+    }
+
+    /**
+     * Method to get the data of a url encoded as a response body. The body is encoded once per cache entry, on
+     * first use, and kept alongside the data; data that is not the cached data of the url (e.g. the partial data of
+     * a crawl stopped on its budget) is encoded on every call.
+     * @param url: the webpage whose data is served
+     * @param data: the data to serve, as retrieved from the cache or crawled
+     * @return the encoded body of the data
+     */
+    public EncodedResponse getEncodedData(String url, CrawlDataStorage data) {
+        CacheEntry entry = localCacheData.get(URLUtils.normalize(url));
+        if (entry == null || entry.data != data) {
+            return EncodedResponse.encode(data.retrieveData());
+        }
+        EncodedResponse encoded = entry.encoded;
+        if (encoded != null) {
+            return encoded;
+        }
+        // concurrent first uses may encode the data twice, to the same bytes
+        encoded = EncodedResponse.encode(data.retrieveData());
+        synchronized (entry) {
+            if (entry.encoded != null) {
+                return entry.encoded;
+            }
+            if (!entry.released) {
+                entry.encoded = encoded;
+                encodedBytes.addAndGet(encoded.byteSize());
+            }
+        }
+        return encoded;
     }
 
     public boolean isVisited(String url) {
-        return localCacheData.containsKey(url);
+        return getEntry(URLUtils.normalize(url)) != null;
+    }
+
+    /**
+     * Method to get the entry of a url that is not past its stale limit, loading it from the persistent store if it
+     * is not in memory
+     * @param url: the webpage for which we want to retrieve data
+     * @return the entry, null if there is none
+     */
+    private CacheEntry getEntry(String url) {
+        CacheEntry entry = localCacheData.get(url);
+        if (entry == null) {
+            entry = loadFromStore(url);
+            if (entry == null) {
+                return null;
+            }
+        }
+        if (clock.getAsLong() > entry.expiresAtMillis + maxStaleMillis) {
+            remove(url, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Method to bring the stored entry of a url back in memory. The stored images are only decoded once the data is
+     * retrieved.
+     * @param url: the webpage for which we want to retrieve data
+     * @return the entry, null if the store has none
+     */
+    private CacheEntry loadFromStore(String url) {
+        if (store == null) {
+            return null;
+        }
+        PersistedImageStorage stored = store.get(url);
+        if (stored == null || clock.getAsLong() > stored.getTimestampMillis() + ttlMillis + maxStaleMillis) {
+            return null;
+        }
+        CacheEntry entry = new CacheEntry(stored, stored.getTimestampMillis() + ttlMillis);
+        CacheEntry current = localCacheData.putIfAbsent(url, entry);
+        if (current != null) {
+            return current;
+        }
+        LOGGER.info("Loaded the data of the url: {} from the crawl result store", url);
+        totalWeight.addAndGet(entry.weight);
+        evictIfNeeded();
+        return entry;
+    }
+
+    /**
+     * Method to append the data of a url to the persistent store. Data that is not made of images is kept in memory
+     * only.
+     * @param url: url is the key which we have crawled
+     * @param data: data is extracted by crawling the url
+     * @param timestampMillis: time at which the data was crawled
+     */
+    private void persist(String url, CrawlDataStorage data, long timestampMillis) {
+        if (store == null) {
+            return;
+        }
+        List<Image> images = new ArrayList<>(data.size());
+        for (Object dataPoint : data.retrieveData()) {
+            if (!(dataPoint instanceof Image)) {
+                return;
+            }
+            images.add((Image) dataPoint);
+        }
+        try {
+            store.append(url, timestampMillis, images);
+        } catch (IOException e) {
+            LOGGER.error("Failed to persist the data of the url: {}", url, e);
+        }
+    }
+
+    /**
+     * Method to compact the persistent store, dropping the entries past their stale limit
+     */
+    private void compactStore() {
+        try {
+            store.compact(clock.getAsLong() - ttlMillis - maxStaleMillis);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Compaction of the crawl result store failed", e);
+        }
+    }
+
+    /**
+     * Method to check if the data cached for the url has not expired yet
+     * @param url: the webpage to check
+     * @return true if the cached data is within its TTL, false if it is expired or absent
+     */
+    public boolean isFresh(String url) {
+        CacheEntry entry = localCacheData.get(URLUtils.normalize(url));
+        return entry != null && clock.getAsLong() <= entry.expiresAtMillis;
+    }
+
+    /**
+     * Method to refresh the data of a url in the background. At most one refresh runs per url, further calls
+     * while it is running are ignored. The stale data keeps being served until the refresh completes.
+     * @param url: the webpage to refresh
+     * @param loader: crawls the webpage again and returns the new data, run on a background thread
+     */
+    public void refreshInBackground(String url, Supplier<CrawlDataStorage> loader) {
+        CacheEntry entry = localCacheData.get(URLUtils.normalize(url));
+        if (entry == null || !entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        LOGGER.info("Refreshing the expired cache entry of the url: {} in the background", url);
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    CrawlDataStorage data = loader.get();
+                    if (data != null) {
+                        addData(url, data);
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.error("Background refresh of the url: {} failed", url, e);
+                } finally {
+                    entry.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Method to get the weight of the cache
+     * @return number of data points held by the cache
+     */
+    public long getWeight() {
+        return totalWeight.get();
+    }
+
+    /**
+     * Method to get the size of the response bodies encoded by the cache entries
+     * @return number of bytes held by the encoded bodies
+     */
+    public long getEncodedBytes() {
+        return encodedBytes.get();
+    }
+
+    /**
+     * Method to get the number of cached urls
+     * @return number of entries
+     */
+    public int size() {
+        return localCacheData.size();
+    }
+
+    /**
+     * Method to evict entries until the weight of the cache is within its bound. Every eviction samples a bounded
+     * number of entries, taken in turn across evictions; among them, entries past their stale limit go first, then
+     * the entries whose url is the least frequently requested.
+     */
+    private void evictIfNeeded() {
+        if (totalWeight.get() <= maxWeight) {
+            return;
+        }
+        synchronized (evictionLock) {
+            long now = clock.getAsLong();
+            while (totalWeight.get() > maxWeight && !localCacheData.isEmpty()) {
+                String victimUrl = null;
+                CacheEntry victim = null;
+                long victimScore = Long.MAX_VALUE;
+                for (int sampled = 0; sampled < EVICTION_SAMPLES; sampled++) {
+                    if (!evictionCursor.hasNext()) {
+                        evictionCursor = localCacheData.entrySet().iterator();
+                        if (!evictionCursor.hasNext()) {
+                            break;
+                        }
+                    }
+                    Map.Entry<String, CacheEntry> candidate = evictionCursor.next();
+                    CacheEntry entry = candidate.getValue();
+                    long score = now > entry.expiresAtMillis + maxStaleMillis
+                            ? -1 : frequencySketch.frequency(candidate.getKey());
+                    if (score < victimScore
+                            || (score == victimScore && entry.expiresAtMillis < victim.expiresAtMillis)) {
+                        victimUrl = candidate.getKey();
+                        victim = entry;
+                        victimScore = score;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                LOGGER.debug("Evicting the cache entry of the url: {} ({} data points)", victimUrl, victim.weight);
+                remove(victimUrl, victim);
+            }
+        }
+    }
+
+    private void remove(String url, CacheEntry entry) {
+        if (localCacheData.remove(url, entry)) {
+            totalWeight.addAndGet(-entry.weight);
+            releaseEncoded(entry);
+        }
+    }
+
+    /**
+     * Method to stop accounting for the encoded body of an entry that left the cache
+     * @param entry: entry removed or replaced
+     */
+    private void releaseEncoded(CacheEntry entry) {
+        synchronized (entry) {
+            entry.released = true;
+            if (entry.encoded != null) {
+                encodedBytes.addAndGet(-entry.encoded.byteSize());
+            }
+        }
+    }
+
+    /**
+     * Data cached for a url along with its expiry
+     */
+    private static final class CacheEntry {
+        private final CrawlDataStorage data;
+        private final long weight;
+        private final long expiresAtMillis;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        // response body of the data, null until the data is first served; written under the entry's lock
+        private volatile EncodedResponse encoded;
+        // guarded by the entry: true once the entry left the cache, its encoded body is no longer accounted for
+        private boolean released;
+
+        private CacheEntry(CrawlDataStorage data, long expiresAtMillis) {
+            this.data = data;
+            this.weight = Math.max(1, data.size());
+            this.expiresAtMillis = expiresAtMillis;
+        }
     }
 }
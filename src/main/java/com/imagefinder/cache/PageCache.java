@@ -0,0 +1,186 @@
+package com.imagefinder.cache;
+
+import com.imagefinder.fetcher.FetchResponse;
+import com.imagefinder.htmlparsers.PageTags;
+import com.imagefinder.utils.URLUtils;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache holding the extraction of every crawled webpage, keyed by normalized URL and shared by all the crawls, so
+ * that the crawls of different base URLs on the same website, and the re-crawls of an expired base URL, share the
+ * webpages they have in common. Cached webpages are revalidated with a conditional request: a 304 response reuses
+ * the cached images and links without downloading and parsing the webpage again. Only webpages served with an ETag
+ * or a Last-Modified header can be revalidated, so only those are cached.
+ * The cache is bounded by a number of webpages. Lookups take no lock; like the LocalCache, every eviction picks the
+ * least recently used webpage among a bounded sample of the webpages, so the eviction is approximately LRU.
+ */
+public class PageCache {
+
+    // webpages compared to pick the victim of an eviction
+    private static final int EVICTION_SAMPLES = 16;
+
+    private final Map<String, Entry> pages = new ConcurrentHashMap<>();
+    private final int maxPages;
+    private final Object evictionLock = new Object();
+    // guarded by evictionLock: walks the webpages across evictions, so that every webpage is eventually sampled
+    private Iterator<Map.Entry<String, Entry>> evictionCursor = Collections.emptyIterator();
+    private final AtomicLong revalidatedPages = new AtomicLong();
+    private final AtomicLong modifiedPages = new AtomicLong();
+
+    private static final class InstanceHolder {
+        private static final PageCache INSTANCE = new PageCache(Integer.getInteger("imagefinder.pageCache.maxPages",
+                50_000));
+    }
+
+    /**
+     * Constructor for the PageCache class
+     * @param maxPages: maximum number of webpages held by the cache
+     */
+    public PageCache(int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Method to return the single object of this class, created thread-safely on first use
+     * @return returns the single object of this class
+     */
+    public static PageCache getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Method to get the cached extraction of a webpage
+     * @param url: url of the webpage
+     * @return the cached webpage, null if there is none
+     */
+    public CachedPage get(String url) {
+        Entry entry = pages.get(URLUtils.normalize(url));
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccessNanos = System.nanoTime();
+        return entry.page;
+    }
+
+    /**
+     * Method to cache the extraction of a webpage that was downloaded, replacing the previous one. Webpages served
+     * without validators cannot be revalidated and are removed from the cache instead.
+     * @param url: url of the webpage
+     * @param response: response the webpage was extracted from
+     * @param tags: images and links extracted from the webpage
+     */
+    public void put(String url, FetchResponse response, PageTags tags) {
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        String key = URLUtils.normalize(url);
+        if (etag == null && lastModified == null) {
+            pages.remove(key);
+        } else {
+            pages.put(key, new Entry(new CachedPage(tags, etag, lastModified)));
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * Method to check if caching the extraction of a webpage is worth it, i.e. if the response can be revalidated
+     * @param url: url of the webpage
+     * @param response: response of the webpage
+     * @return true if the response carries an ETag or a Last-Modified header, or if the webpage is already cached
+     * (its cached extraction has to be replaced)
+     */
+    public boolean isCacheable(String url, FetchResponse response) {
+        // checked without counting as a use of the cached webpage
+        return response.header("ETag") != null || response.header("Last-Modified") != null
+                || pages.containsKey(URLUtils.normalize(url));
+    }
+
+    /**
+     * Method to remove a webpage from the cache, e.g. once the server stops serving it
+     * @param url: url of the webpage
+     */
+    public void remove(String url) {
+        pages.remove(URLUtils.normalize(url));
+    }
+
+    /**
+     * Method to account for the answer to a conditional request
+     * @param notModified: true if the server answered 304 and the cached extraction was reused
+     */
+    public void recordRevalidation(boolean notModified) {
+        (notModified ? revalidatedPages : modifiedPages).incrementAndGet();
+    }
+
+    /**
+     * Method to get the number of conditional requests answered with 304
+     * @return number of webpages reused from the cache
+     */
+    public long getRevalidatedPages() {
+        return revalidatedPages.get();
+    }
+
+    /**
+     * Method to get the number of conditional requests answered with a new version of the webpage
+     * @return number of cached webpages downloaded again
+     */
+    public long getModifiedPages() {
+        return modifiedPages.get();
+    }
+
+    /**
+     * Method to get the number of cached webpages
+     * @return number of webpages
+     */
+    public int size() {
+        return pages.size();
+    }
+
+    /**
+     * Method to evict webpages until the cache is within its bound. Every eviction samples a bounded number of
+     * webpages, taken in turn across evictions, and evicts the least recently used one among them.
+     */
+    private void evictIfNeeded() {
+        if (pages.size() <= maxPages) {
+            return;
+        }
+        synchronized (evictionLock) {
+            while (pages.size() > maxPages) {
+                Map.Entry<String, Entry> victim = null;
+                for (int sampled = 0; sampled < EVICTION_SAMPLES; sampled++) {
+                    if (!evictionCursor.hasNext()) {
+                        evictionCursor = pages.entrySet().iterator();
+                        if (!evictionCursor.hasNext()) {
+                            break;
+                        }
+                    }
+                    Map.Entry<String, Entry> candidate = evictionCursor.next();
+                    if (victim == null
+                            || candidate.getValue().lastAccessNanos - victim.getValue().lastAccessNanos < 0) {
+                        victim = candidate;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                pages.remove(victim.getKey(), victim.getValue());
+            }
+        }
+    }
+
+    /**
+     * Cached webpage along with the time it was last used
+     */
+    private static final class Entry {
+        private final CachedPage page;
+        // written without synchronization: a lost update only makes the eviction slightly less accurate
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        private Entry(CachedPage page) {
+            this.page = page;
+        }
+    }
+}
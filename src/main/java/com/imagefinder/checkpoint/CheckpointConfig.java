@@ -0,0 +1,65 @@
+package com.imagefinder.checkpoint;
+
+/**
+ * Configuration of the checkpoints of the crawl jobs, which let the crawls interrupted by a restart resume where they
+ * stopped. The defaults can be overridden with system properties, e.g. -Dimagefinder.checkpoint.enabled=true
+ */
+public class CheckpointConfig {
+
+    private static final String PROPERTY_PREFIX = "imagefinder.checkpoint.";
+
+    private final boolean enabled;
+    private final String directory;
+    private final long syncIntervalMillis;
+
+    private static final class DefaultHolder {
+        private static final CheckpointConfig INSTANCE = fromSystemProperties();
+    }
+
+    /**
+     * Constructor for the CheckpointConfig class
+     * @param enabled: true to checkpoint the crawl jobs and resume the interrupted ones on startup
+     * @param directory: directory holding a checkpoint file per running crawl job
+     * @param syncIntervalMillis: time between two writes (and fsyncs) of the checkpoints, i.e. the progress a crawl
+     *                          may lose on a crash
+     */
+    public CheckpointConfig(boolean enabled, String directory, long syncIntervalMillis) {
+        if (syncIntervalMillis < 1) {
+            throw new IllegalArgumentException("syncIntervalMillis must be at least 1, got " + syncIntervalMillis);
+        }
+        this.enabled = enabled;
+        this.directory = directory;
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Method to create the configuration from the system properties, falling back to the defaults
+     * @return configuration of the checkpoints
+     */
+    public static CheckpointConfig fromSystemProperties() {
+        return new CheckpointConfig(
+                Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "enabled", "false")),
+                System.getProperty(PROPERTY_PREFIX + "dir", "data/checkpoints"),
+                Long.getLong(PROPERTY_PREFIX + "syncIntervalMs", 1000L));
+    }
+
+    /**
+     * Method to return the configuration used by the crawl jobs of the application
+     * @return configuration read from the system properties on first use
+     */
+    public static CheckpointConfig getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+}
@@ -0,0 +1,230 @@
+package com.imagefinder.checkpoint;
+
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import com.imagefinder.urls.UrlFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout of the checkpoint files. A file starts with a magic number followed by frames, one per batch of
+ * records written by the writer thread: [payload length][records][crc32 of the records]. A record is its type
+ * followed by its fields, numbers being written as varints and strings as their varint UTF-8 length followed by their
+ * bytes. A completed webpage is recorded as the 64-bit fingerprint of its url only. Reading stops at the first frame
+ * cut by a crash or corrupted on disk, the frames before it being a consistent prefix of the crawl.
+ */
+final class CheckpointRecords {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CheckpointRecords.class);
+    private static final Category[] CATEGORIES = Category.values();
+
+    static final int MAGIC = 0x494d434b;
+    // crawl id, base url and budget of the crawl, first record of every file
+    static final byte HEADER = 1;
+    // webpage scheduled: url, depth and priority
+    static final byte PAGE = 2;
+    // webpage done with: fingerprint of its url
+    static final byte DONE = 3;
+    // image stored: url and category
+    static final byte IMAGE = 4;
+    // end of the crawl, never written: the file is deleted
+    static final byte FINISH = 5;
+
+    // payload length and crc surrounding the payload of a frame
+    static final int FRAMING_BYTES = 8;
+
+    private CheckpointRecords() {
+    }
+
+    /**
+     * Method to append the record of a queued entry to the buffer of its checkpoint
+     * @param entry: entry to encode
+     * @param out: buffer of the checkpoint
+     * @throws IOException never, the buffer is held in memory
+     */
+    static void encode(CheckpointStore.Entry entry, DataOutputStream out) throws IOException {
+        out.writeByte(entry.type);
+        switch (entry.type) {
+            case HEADER:
+                CrawlCheckpoint checkpoint = entry.checkpoint;
+                CrawlBudget budget = checkpoint.getBudget();
+                writeString(out, checkpoint.getCrawlId());
+                writeString(out, checkpoint.getBaseUrl());
+                writeVarLong(out, budget.getMaxDepth());
+                writeVarLong(out, budget.getMaxPages());
+                writeVarLong(out, budget.getMaxBytes());
+                writeVarLong(out, budget.getMaxImages());
+                writeVarLong(out, budget.getMaxDurationMillis());
+                break;
+            case PAGE:
+                writeString(out, entry.url);
+                writeVarLong(out, entry.depth);
+                out.writeFloat((float) entry.priority);
+                break;
+            case DONE:
+                out.writeLong(UrlFingerprint.of(entry.url));
+                break;
+            case IMAGE:
+                writeString(out, entry.url);
+                out.writeByte(entry.category == null ? -1 : entry.category.ordinal());
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected checkpoint record " + entry.type);
+        }
+    }
+
+    /**
+     * Method to frame the records of a batch
+     * @param records: bytes of the records
+     * @param length: number of bytes of the records
+     * @return bytes of the frame
+     */
+    static ByteBuffer frame(byte[] records, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(records, 0, length);
+        ByteBuffer frame = ByteBuffer.allocate(length + FRAMING_BYTES);
+        frame.putInt(length);
+        frame.put(records, 0, length);
+        frame.putInt((int) crc.getValue());
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Method to read the state of a crawl from its checkpoint file
+     * @param file: checkpoint file
+     * @return state of the crawl, null if the file has no valid header
+     * @throws IOException if the file cannot be read
+     */
+    static Contents read(Path file) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (in.remaining() < 4 || in.getInt() != MAGIC) {
+            return null;
+        }
+        Contents contents = new Contents(in.position());
+        CRC32 crc = new CRC32();
+        while (in.remaining() >= FRAMING_BYTES) {
+            int payloadLength = in.getInt();
+            if (payloadLength < 0 || payloadLength > in.remaining() - 4) {
+                LOGGER.warn("Ignoring the truncated end of the checkpoint {}", file);
+                break;
+            }
+            crc.reset();
+            crc.update(in.array(), in.position(), payloadLength);
+            if ((int) crc.getValue() != in.getInt(in.position() + payloadLength)) {
+                LOGGER.warn("Ignoring the corrupted end of the checkpoint {}", file);
+                break;
+            }
+            ByteBuffer payload = in.slice();
+            payload.limit(payloadLength);
+            try {
+                while (payload.hasRemaining()) {
+                    contents.apply(payload);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Ignoring an unreadable batch of the checkpoint {}", file, e);
+                break;
+            }
+            in.position(in.position() + payloadLength + 4);
+            contents.validLength = in.position();
+        }
+        return contents.crawlId == null ? null : contents;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint in the checkpoint");
+    }
+
+    /**
+     * State of a crawl replayed from the records of its checkpoint
+     */
+    static final class Contents {
+        String crawlId;
+        String baseUrl;
+        CrawlBudget budget;
+        // webpages scheduled and not done with, by fingerprint of their url
+        final Map<Long, CrawlCheckpoint.Page> pendingPages = new LinkedHashMap<>();
+        final List<String> visitedUrls = new ArrayList<>();
+        final List<Image> images = new ArrayList<>();
+        long completedPages;
+        // length of the valid prefix of the file, the rest is overwritten when the crawl resumes
+        long validLength;
+
+        private Contents(long validLength) {
+            this.validLength = validLength;
+        }
+
+        private void apply(ByteBuffer in) {
+            byte type = in.get();
+            switch (type) {
+                case HEADER:
+                    crawlId = readString(in);
+                    baseUrl = readString(in);
+                    budget = new CrawlBudget((int) readVarLong(in), readVarLong(in), readVarLong(in),
+                            readVarLong(in), readVarLong(in));
+                    break;
+                case PAGE:
+                    String url = readString(in);
+                    int depth = (int) readVarLong(in);
+                    double priority = in.getFloat();
+                    visitedUrls.add(url);
+                    pendingPages.put(UrlFingerprint.of(url), new CrawlCheckpoint.Page(url, depth, priority));
+                    break;
+                case DONE:
+                    if (pendingPages.remove(in.getLong()) != null) {
+                        completedPages++;
+                    }
+                    break;
+                case IMAGE:
+                    String imageUrl = readString(in);
+                    int category = in.get();
+                    boolean knownCategory = category >= 0 && category < CATEGORIES.length;
+                    images.add(new Image(imageUrl, knownCategory ? CATEGORIES[category] : null));
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown checkpoint record " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.imagefinder.checkpoint;
+
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.models.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Store of the checkpoints of the running crawl jobs, a file per crawl (crawl id.ckpt). The crawl threads only queue
+ * their records on a lock-free queue, they never wait for the disk. A single writer thread drains the queue every
+ * sync interval, appends the records of every crawl to its file as one frame and fsyncs the files it wrote to once
+ * per interval, so the cost of an fsync is shared by all the records of the interval. A crash loses at most the
+ * records of the last interval: the crawl then fetches again the few webpages it had not recorded as done.
+ * The file of a crawl is deleted once the crawl is over. The files left by a crash or a shutdown are recovered on
+ * startup, and their crawls resumed.
+ */
+public class CheckpointStore implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CheckpointStore.class);
+    private static final String FILE_SUFFIX = ".ckpt";
+
+    private final Path directory;
+    private final long syncIntervalNanos;
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    private final LongAdder queuedRecords = new LongAdder();
+    // written by the writer thread only
+    private volatile long drainedRecords;
+    private volatile long writtenRecords;
+    private volatile long writtenBytes;
+    private volatile long syncs;
+    private volatile long syncNanos;
+
+    /**
+     * Constructor for the CheckpointStore class, use open to create a store
+     * @param directory: directory holding the checkpoint files
+     * @param syncIntervalMillis: time between two writes of the queued records
+     */
+    private CheckpointStore(Path directory, long syncIntervalMillis) {
+        this.directory = directory;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.writer = new Thread(this::runWriter, "crawl-checkpoint-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Method to open the store held by a directory and start its writer thread
+     * @param directory: directory holding the checkpoint files, created if needed
+     * @param syncIntervalMillis: time between two writes (and fsyncs) of the queued records
+     * @return the opened store
+     * @throws IOException if the directory cannot be created
+     */
+    public static CheckpointStore open(Path directory, long syncIntervalMillis) throws IOException {
+        if (syncIntervalMillis < 1) {
+            throw new IllegalArgumentException("syncIntervalMillis must be at least 1, got " + syncIntervalMillis);
+        }
+        Files.createDirectories(directory);
+        CheckpointStore store = new CheckpointStore(directory, syncIntervalMillis);
+        store.writer.start();
+        LOGGER.info("Opened the crawl checkpoints at {}, written every {} ms", directory, syncIntervalMillis);
+        return store;
+    }
+
+    /**
+     * Method to start the checkpoint of a new crawl. The file is only created once the first batch of records is
+     * written, so a crawl over within the sync interval never touches the disk.
+     * @param crawlId: id of the crawl job, the crawl is resumed under the same id
+     * @param baseUrl: base url of the crawl
+     * @param budget: limits of the crawl
+     * @return checkpoint the crawl records its progress to
+     */
+    public CrawlCheckpoint create(String crawlId, String baseUrl, CrawlBudget budget) {
+        CrawlCheckpoint checkpoint = new CrawlCheckpoint(this, crawlId, baseUrl, budget, fileOf(crawlId));
+        enqueue(new Entry(checkpoint, CheckpointRecords.HEADER, null, 0, 0, null));
+        return checkpoint;
+    }
+
+    /**
+     * Method to read the checkpoints left by the crawls interrupted by a shutdown or a crash. It has to be called
+     * once, on startup, before new crawls are checkpointed. The invalid end of every file is cut off, and the
+     * records of the resumed crawl are appended after the valid ones.
+     * @return checkpoints of the interrupted crawls, holding their state
+     * @throws IOException if the directory cannot be listed
+     */
+    public List<CrawlCheckpoint> recover() throws IOException {
+        List<CrawlCheckpoint> checkpoints = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                CrawlCheckpoint checkpoint = recover(file);
+                if (checkpoint != null) {
+                    checkpoints.add(checkpoint);
+                }
+            }
+        }
+        return checkpoints;
+    }
+
+    private CrawlCheckpoint recover(Path file) {
+        try {
+            CheckpointRecords.Contents contents = CheckpointRecords.read(file);
+            if (contents == null) {
+                LOGGER.warn("Deleting the checkpoint {} without a valid header", file);
+                Files.deleteIfExists(file);
+                return null;
+            }
+            CrawlCheckpoint checkpoint = new CrawlCheckpoint(this, contents.crawlId, contents.baseUrl,
+                    contents.budget, file, true, new ArrayList<>(contents.pendingPages.values()),
+                    contents.visitedUrls, contents.images, contents.completedPages);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            channel.truncate(contents.validLength);
+            channel.position(contents.validLength);
+            // handed over to the writer thread by the queue, with the first record of the resumed crawl
+            checkpoint.channel = channel;
+            LOGGER.info("Recovered the checkpoint of the crawl {} of the url: {}: {} webpages done, {} pending, "
+                            + "{} images", contents.crawlId, contents.baseUrl, contents.completedPages,
+                    contents.pendingPages.size(), contents.images.size());
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to read the checkpoint {}, its crawl is not resumed", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Method to queue a record for the writer thread, without blocking
+     * @param entry: record to write
+     */
+    void enqueue(Entry entry) {
+        if (closed) {
+            // the store was closed on shutdown: like on a crash, the crawl resumes from what was written
+            return;
+        }
+        queuedRecords.increment();
+        queue.offer(entry);
+    }
+
+    /**
+     * Method to stop the writer thread once it has written the queued records. The checkpoint files are kept, so
+     * that the running crawls are resumed on the next startup.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Method run by the writer thread: every sync interval, the queued records are appended to the buffers of their
+     * checkpoint, then every buffer is written to its file as a frame and the files are fsynced
+     */
+    private void runWriter() {
+        Set<CrawlCheckpoint> dirty = new LinkedHashSet<>();
+        Set<CrawlCheckpoint> open = new LinkedHashSet<>();
+        while (true) {
+            boolean closing = closed;
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                drainedRecords++;
+                apply(entry, dirty, open);
+            }
+            write(dirty, open);
+            dirty.clear();
+            if (closing) {
+                break;
+            }
+            LockSupport.parkNanos(this, syncIntervalNanos);
+        }
+        for (CrawlCheckpoint checkpoint : open) {
+            closeChannel(checkpoint);
+        }
+    }
+
+    private void apply(Entry entry, Set<CrawlCheckpoint> dirty, Set<CrawlCheckpoint> open) {
+        CrawlCheckpoint checkpoint = entry.checkpoint;
+        if (entry.type == CheckpointRecords.FINISH) {
+            dirty.remove(checkpoint);
+            open.remove(checkpoint);
+            delete(checkpoint);
+            return;
+        }
+        if (checkpoint.failed || checkpoint.deleted) {
+            return;
+        }
+        try {
+            CheckpointRecords.encode(entry, checkpoint.out);
+            checkpoint.bufferedRecords++;
+            dirty.add(checkpoint);
+        } catch (IOException e) {
+            // a ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method to write the buffered records of every checkpoint as a frame, then fsync the files written to
+     */
+    private void write(Set<CrawlCheckpoint> dirty, Set<CrawlCheckpoint> open) {
+        List<CrawlCheckpoint> written = new ArrayList<>(dirty.size());
+        for (CrawlCheckpoint checkpoint : dirty) {
+            try {
+                if (checkpoint.channel == null) {
+                    checkpoint.channel = FileChannel.open(checkpoint.getFile(), StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                    ByteBuffer magic = ByteBuffer.allocate(4).putInt(0, CheckpointRecords.MAGIC);
+                    writeFully(checkpoint.channel, magic);
+                }
+                open.add(checkpoint);
+                ByteBuffer frame = CheckpointRecords.frame(checkpoint.buffer.toByteArray(), checkpoint.buffer.size());
+                writtenBytes += frame.remaining();
+                writeFully(checkpoint.channel, frame);
+                writtenRecords += checkpoint.bufferedRecords;
+                written.add(checkpoint);
+            } catch (IOException e) {
+                fail(checkpoint, open, e);
+            } finally {
+                checkpoint.buffer.reset();
+                checkpoint.bufferedRecords = 0;
+            }
+        }
+        if (written.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (CrawlCheckpoint checkpoint : written) {
+            try {
+                checkpoint.channel.force(false);
+            } catch (IOException e) {
+                fail(checkpoint, open, e);
+            }
+        }
+        syncNanos += System.nanoTime() - start;
+        syncs++;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void fail(CrawlCheckpoint checkpoint, Set<CrawlCheckpoint> open, IOException e) {
+        // the frames written before stay valid, the crawl would resume from them
+        LOGGER.error("Failed to write the checkpoint of the crawl {}, its progress is not recorded anymore",
+                checkpoint.getCrawlId(), e);
+        checkpoint.failed = true;
+        open.remove(checkpoint);
+        closeChannel(checkpoint);
+    }
+
+    private void delete(CrawlCheckpoint checkpoint) {
+        checkpoint.deleted = true;
+        boolean created = checkpoint.channel != null;
+        closeChannel(checkpoint);
+        if (created) {
+            try {
+                Files.deleteIfExists(checkpoint.getFile());
+            } catch (IOException e) {
+                LOGGER.warn("Failed to delete the checkpoint of the finished crawl {}", checkpoint.getCrawlId(), e);
+            }
+        }
+    }
+
+    private static void closeChannel(CrawlCheckpoint checkpoint) {
+        if (checkpoint.channel == null) {
+            return;
+        }
+        try {
+            checkpoint.channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the checkpoint of the crawl {}", checkpoint.getCrawlId(), e);
+        }
+        checkpoint.channel = null;
+    }
+
+    private Path fileOf(String crawlId) {
+        // the id only names the file, the header of the file holds the actual id
+        return directory.resolve(crawlId.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_SUFFIX);
+    }
+
+    /**
+     * Method to get the number of records queued and not written yet
+     * @return backlog of the writer thread
+     */
+    public long getQueuedRecords() {
+        return Math.max(0, queuedRecords.sum() - drainedRecords);
+    }
+
+    public long getWrittenRecords() {
+        return writtenRecords;
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * Method to get the number of times the writer thread fsynced the files written during an interval
+     * @return number of batched fsyncs
+     */
+    public long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * Method to get the time the writer thread spent in fsync
+     * @return total time in nanoseconds
+     */
+    public long getSyncNanos() {
+        return syncNanos;
+    }
+
+    /**
+     * A record queued by a crawl thread, encoded by the writer thread
+     */
+    static final class Entry {
+        final CrawlCheckpoint checkpoint;
+        final byte type;
+        final String url;
+        final int depth;
+        final double priority;
+        final Category category;
+
+        Entry(CrawlCheckpoint checkpoint, byte type, String url, int depth, double priority, Category category) {
+            this.checkpoint = checkpoint;
+            this.type = type;
+            this.url = url;
+            this.depth = depth;
+            this.priority = priority;
+            this.category = category;
+        }
+    }
+}
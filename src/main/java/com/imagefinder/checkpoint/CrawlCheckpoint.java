@@ -0,0 +1,228 @@
+package com.imagefinder.checkpoint;
+
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.models.Image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checkpoint of a single crawl job. The crawl records every webpage it schedules, every webpage it is done with and
+ * every image it stores; the records are only queued here, the writer thread of the store appends them to the file
+ * of the crawl in batches. A checkpoint recovered after a restart also holds the state of the interrupted crawl: the
+ * webpages it scheduled (its visited urls), those still pending, and its images, so that the crawl resumes without
+ * fetching again the webpages it was done with.
+ */
+public class CrawlCheckpoint {
+
+    private final CheckpointStore store;
+    private final String crawlId;
+    private final String baseUrl;
+    private final CrawlBudget budget;
+    private final Path file;
+    private final boolean resumed;
+    // state of the interrupted crawl, released once the crawl resumed
+    private volatile List<Page> pendingPages;
+    private volatile List<String> visitedUrls;
+    private volatile List<Image> images;
+    private final long completedPages;
+    private volatile boolean finished;
+
+    // state of the file, only used by the writer thread of the store
+    FileChannel channel;
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+    final DataOutputStream out = new DataOutputStream(buffer);
+    // records queued in the buffer since the last write
+    int bufferedRecords;
+    // true once the file could not be written, the records written before stay valid
+    boolean failed;
+    // true once the file was deleted
+    boolean deleted;
+
+    /**
+     * Constructor for the CrawlCheckpoint class of a new crawl
+     * @param store: store writing the checkpoint
+     * @param crawlId: id of the crawl job
+     * @param baseUrl: base url of the crawl
+     * @param budget: limits of the crawl
+     * @param file: file of the checkpoint, created by the writer thread
+     */
+    CrawlCheckpoint(CheckpointStore store, String crawlId, String baseUrl, CrawlBudget budget, Path file) {
+        this(store, crawlId, baseUrl, budget, file, false, Collections.<Page>emptyList(),
+                Collections.<String>emptyList(), Collections.<Image>emptyList(), 0);
+    }
+
+    /**
+     * Constructor for the CrawlCheckpoint class of an interrupted crawl
+     * @param store: store writing the checkpoint
+     * @param crawlId: id of the crawl job
+     * @param baseUrl: base url of the crawl
+     * @param budget: limits of the crawl
+     * @param file: file of the checkpoint, appended to by the writer thread
+     * @param resumed: true if the crawl is resumed from the file
+     * @param pendingPages: webpages scheduled but not done with
+     * @param visitedUrls: urls of every webpage scheduled
+     * @param images: images stored
+     * @param completedPages: number of webpages done with
+     */
+    CrawlCheckpoint(CheckpointStore store, String crawlId, String baseUrl, CrawlBudget budget, Path file,
+                    boolean resumed, List<Page> pendingPages, List<String> visitedUrls, List<Image> images,
+                    long completedPages) {
+        this.store = store;
+        this.crawlId = crawlId;
+        this.baseUrl = baseUrl;
+        this.budget = budget;
+        this.file = file;
+        this.resumed = resumed;
+        this.pendingPages = pendingPages;
+        this.visitedUrls = visitedUrls;
+        this.images = images;
+        this.completedPages = completedPages;
+    }
+
+    /**
+     * Method to record a webpage scheduled by the crawl. It has to be recorded before the webpage can be done with,
+     * so that the record of its completion follows it in the file.
+     * @param url: url of the webpage
+     * @param depth: depth of the webpage
+     * @param priority: score of the webpage on the frontier
+     */
+    public void recordPage(String url, int depth, double priority) {
+        if (!finished) {
+            store.enqueue(new CheckpointStore.Entry(this, CheckpointRecords.PAGE, url, depth, priority, null));
+        }
+    }
+
+    /**
+     * Method to record a webpage the crawl is done with: its images are stored and its subpages are scheduled
+     * @param url: url of the webpage
+     */
+    public void recordPageDone(String url) {
+        if (!finished) {
+            store.enqueue(new CheckpointStore.Entry(this, CheckpointRecords.DONE, url, 0, 0, null));
+        }
+    }
+
+    /**
+     * Method to record an image stored by the crawl
+     * @param image: image stored
+     */
+    public void recordImage(Image image) {
+        if (!finished) {
+            store.enqueue(new CheckpointStore.Entry(this, CheckpointRecords.IMAGE, image.getUrl(), 0, 0,
+                    image.getCategory()));
+        }
+    }
+
+    /**
+     * Method to discard the checkpoint once the crawl is over, whatever its outcome: the file is deleted by the
+     * writer thread and the records still queued are dropped
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        store.enqueue(new CheckpointStore.Entry(this, CheckpointRecords.FINISH, null, 0, 0, null));
+    }
+
+    /**
+     * Method to release the state of the interrupted crawl, once it has been handed over to the resumed crawl
+     */
+    public void releaseRecoveredState() {
+        pendingPages = Collections.emptyList();
+        visitedUrls = Collections.emptyList();
+        images = Collections.emptyList();
+    }
+
+    /**
+     * Method to check if the checkpoint was recovered from the file of an interrupted crawl
+     * @return true if the crawl is resumed
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public String getCrawlId() {
+        return crawlId;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public CrawlBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Method to get the webpages the interrupted crawl scheduled but was not done with
+     * @return pending webpages in the order they were scheduled, empty for a new crawl
+     */
+    public List<Page> getPendingPages() {
+        return pendingPages;
+    }
+
+    /**
+     * Method to get the urls of the webpages the interrupted crawl scheduled, pending or done
+     * @return visited urls, empty for a new crawl
+     */
+    public List<String> getVisitedUrls() {
+        return visitedUrls;
+    }
+
+    /**
+     * Method to get the images the interrupted crawl stored
+     * @return images, empty for a new crawl
+     */
+    public List<Image> getImages() {
+        return images;
+    }
+
+    /**
+     * Method to get the number of webpages the interrupted crawl was done with
+     * @return number of webpages, 0 for a new crawl
+     */
+    public long getCompletedPages() {
+        return completedPages;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * A webpage scheduled by the crawl
+     */
+    public static final class Page {
+        private final String url;
+        private final int depth;
+        private final double priority;
+
+        Page(String url, int depth, double priority) {
+            this.url = url;
+            this.depth = depth;
+            this.priority = priority;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public double getPriority() {
+            return priority;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.imagefinder.classifiers;
+
+import com.imagefinder.models.Category;
+
+/**
+ * Strategy categorizing the images found by the ImageParser, from the attributes of their img tag
+ */
+public interface ImageClassifier {
+
+    /**
+     * Method to categorize an image
+     * @param url: absolute url of the image
+     * @param altText: alt text of the image, empty if none
+     * @param cssClass: class attribute of the img tag, empty if none
+     * @param id: id attribute of the img tag, empty if none
+     * @return category of the image
+     */
+    Category classify(String url, String altText, String cssClass, String id);
+}
@@ -0,0 +1,162 @@
+package com.imagefinder.classifiers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case insensitive Aho-Corasick automaton matching a set of keywords anywhere in a text in a single pass, whatever
+ * the number of keywords. Every keyword carries a bit mask (e.g. the bit of its category), and a scan returns the
+ * union of the masks of the keywords found. The automaton is compiled into a dense transition table over the chars
+ * used by the keywords, so a scan is one array lookup per char of the text and does not allocate.
+ */
+public final class KeywordAutomaton {
+
+    private static final int ROOT = 0;
+    // symbol of the chars that appear in no keyword
+    private static final int OTHER = 0;
+
+    // symbol of every ASCII char, upper and lower case letters share their symbol
+    private final int[] asciiSymbols = new int[128];
+    // non ASCII chars of the keywords (lower case, sorted) and their symbols
+    private final char[] otherChars;
+    private final int[] otherCharSymbols;
+    private final int alphabetSize;
+    // transitions[state * alphabetSize + symbol] is the next state
+    private final int[] transitions;
+    // union of the masks of the keywords ending at a state, including the keywords that are suffixes of it
+    private final long[] outputs;
+
+    /**
+     * Constructor compiling the automaton
+     * @param keywordMasks: mask of every keyword, keywords are lower cased and empty ones are ignored
+     */
+    public KeywordAutomaton(Map<String, Long> keywordMasks) {
+        int symbols = 1;
+        Map<Character, Integer> otherSymbols = new TreeMap<>();
+        for (String keyword : keywordMasks.keySet()) {
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = Character.toLowerCase(keyword.charAt(i));
+                if (c < 128) {
+                    if (asciiSymbols[c] == OTHER) {
+                        asciiSymbols[c] = symbols++;
+                    }
+                } else if (!otherSymbols.containsKey(c)) {
+                    otherSymbols.put(c, symbols++);
+                }
+            }
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            asciiSymbols[Character.toUpperCase(c)] = asciiSymbols[c];
+        }
+        this.alphabetSize = symbols;
+        this.otherChars = new char[otherSymbols.size()];
+        this.otherCharSymbols = new int[otherSymbols.size()];
+        int index = 0;
+        for (Map.Entry<Character, Integer> other : otherSymbols.entrySet()) {
+            otherChars[index] = other.getKey();
+            otherCharSymbols[index++] = other.getValue();
+        }
+
+        // trie of the keywords, -1 marking the missing children
+        List<int[]> children = new ArrayList<>();
+        List<Long> masks = new ArrayList<>();
+        children.add(newNode(alphabetSize));
+        masks.add(0L);
+        for (Map.Entry<String, Long> keyword : keywordMasks.entrySet()) {
+            String text = keyword.getKey();
+            if (text.isEmpty()) {
+                continue;
+            }
+            int state = ROOT;
+            for (int i = 0; i < text.length(); i++) {
+                int symbol = symbolOf(text.charAt(i));
+                if (children.get(state)[symbol] < 0) {
+                    children.get(state)[symbol] = children.size();
+                    children.add(newNode(alphabetSize));
+                    masks.add(0L);
+                }
+                state = children.get(state)[symbol];
+            }
+            masks.set(state, masks.get(state) | keyword.getValue());
+        }
+
+        // breadth first over the trie: the failure state of a node is reached by a shorter text, so its
+        // transitions and outputs are final when the node is visited
+        int states = children.size();
+        this.transitions = new int[states * alphabetSize];
+        this.outputs = new long[states];
+        int[] failure = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int symbol = 0; symbol < alphabetSize; symbol++) {
+            int child = children.get(ROOT)[symbol];
+            if (child > 0) {
+                failure[child] = ROOT;
+                transitions[symbol] = child;
+                queue.add(child);
+            } else {
+                transitions[symbol] = ROOT;
+            }
+        }
+        outputs[ROOT] = masks.get(ROOT);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] = masks.get(state) | outputs[failure[state]];
+            for (int symbol = 0; symbol < alphabetSize; symbol++) {
+                int child = children.get(state)[symbol];
+                int fallback = transitions[failure[state] * alphabetSize + symbol];
+                if (child > 0) {
+                    failure[child] = fallback;
+                    transitions[state * alphabetSize + symbol] = child;
+                    queue.add(child);
+                } else {
+                    transitions[state * alphabetSize + symbol] = fallback;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to find the keywords occurring in a text
+     * @param text: text to scan, may be null
+     * @return union of the masks of the keywords found, 0 if none
+     */
+    public long match(String text) {
+        if (text == null) {
+            return 0L;
+        }
+        long found = 0L;
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = transitions[state * alphabetSize + symbolOf(text.charAt(i))];
+            found |= outputs[state];
+        }
+        return found;
+    }
+
+    /**
+     * Method to get the number of states of the automaton, i.e. the number of distinct keyword prefixes plus one
+     * @return number of states
+     */
+    public int stateCount() {
+        return outputs.length;
+    }
+
+    private int symbolOf(char c) {
+        if (c < 128) {
+            return asciiSymbols[c];
+        }
+        int index = Arrays.binarySearch(otherChars, Character.toLowerCase(c));
+        return index < 0 ? OTHER : otherCharSymbols[index];
+    }
+
+    private static int[] newNode(int alphabetSize) {
+        int[] node = new int[alphabetSize];
+        Arrays.fill(node, -1);
+        return node;
+    }
+}
@@ -0,0 +1,86 @@
+package com.imagefinder.classifiers;
+
+import com.imagefinder.models.Category;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Classifier categorizing the images by the keywords of the categories found in their url, alt text, class or id.
+ * The keywords of all the categories are compiled into one KeywordAutomaton, so every attribute of an image is
+ * scanned once whatever the number of categories and keywords. When the keywords of several categories are found,
+ * the image gets the category declared first.
+ */
+public class KeywordImageClassifier implements ImageClassifier {
+
+    // categories having keywords, in priority order: category i is bit i of the masks
+    private final Category[] categories;
+    private final Category fallback;
+    private final KeywordAutomaton automaton;
+
+    private static final class InstanceHolder {
+        private static final KeywordImageClassifier INSTANCE = fromCategories();
+    }
+
+    /**
+     * Constructor for the KeywordImageClassifier class
+     * @param keywords: keywords of every category, the categories are prioritized in declaration order
+     * @param fallback: category of the images matching no keyword
+     */
+    public KeywordImageClassifier(Map<Category, ? extends Collection<String>> keywords, Category fallback) {
+        Map<Category, Collection<String>> sorted = new EnumMap<>(Category.class);
+        sorted.putAll(keywords);
+        if (sorted.size() > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " categories can have keywords");
+        }
+        List<Category> keyed = new ArrayList<>();
+        Map<String, Long> keywordMasks = new HashMap<>();
+        for (Map.Entry<Category, Collection<String>> category : sorted.entrySet()) {
+            long bit = 1L << keyed.size();
+            keyed.add(category.getKey());
+            for (String keyword : category.getValue()) {
+                keywordMasks.merge(keyword.toLowerCase(Locale.ROOT), bit, (a, b) -> a | b);
+            }
+        }
+        this.categories = keyed.toArray(new Category[0]);
+        this.fallback = fallback;
+        this.automaton = new KeywordAutomaton(keywordMasks);
+    }
+
+    /**
+     * Method to create a classifier from the keywords declared by the Category enum
+     * @return classifier falling back to GENERAL
+     */
+    public static KeywordImageClassifier fromCategories() {
+        Map<Category, Collection<String>> keywords = new EnumMap<>(Category.class);
+        for (Category category : Category.values()) {
+            if (!category.getKeywords().isEmpty()) {
+                keywords.put(category, category.getKeywords());
+            }
+        }
+        return new KeywordImageClassifier(keywords, Category.GENERAL);
+    }
+
+    /**
+     * Method to return the classifier shared by the parsers, built from the keywords of the Category enum
+     * @return shared classifier
+     */
+    public static KeywordImageClassifier getDefault() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    @Override
+    public Category classify(String url, String altText, String cssClass, String id) {
+        // the attributes are scanned separately so that a keyword never spans two of them
+        long found = automaton.match(url);
+        if ((found & 1L) == 0) {
+            found |= automaton.match(altText) | automaton.match(cssClass) | automaton.match(id);
+        }
+        return found == 0 ? fallback : categories[Long.numberOfTrailingZeros(found)];
+    }
+}
@@ -0,0 +1,145 @@
+package com.imagefinder.cluster;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Configuration of the cluster mode, in which the webpages of a crawl are spread over several nodes. The defaults can
+ * be overridden with system properties, e.g.
+ * -Dimagefinder.cluster.enabled=true -Dimagefinder.cluster.nodeId=a
+ * -Dimagefinder.cluster.nodes=a=http://10.0.0.1:8080,b=http://10.0.0.2:8080 -Dimagefinder.cluster.secret=...
+ * where every node lists all the nodes of the cluster (itself included) with the url its application is served at,
+ * and shares the same secret, which authenticates the messages the nodes send each other.
+ */
+public class ClusterConfig {
+
+    private static final String PROPERTY_PREFIX = "imagefinder.cluster.";
+
+    private final boolean enabled;
+    private final String nodeId;
+    // url of the application of every node by node id
+    private final Map<String, String> nodes;
+    private final ShardBy shardBy;
+    private final int virtualNodes;
+    private final int timeoutMs;
+    private final String secret;
+    private final int maxMessageBytes;
+
+    private static final class DefaultHolder {
+        private static final ClusterConfig INSTANCE = fromSystemProperties();
+    }
+
+    /**
+     * Constructor for the ClusterConfig class
+     * @param enabled: true to spread the crawls of this node over the nodes of the cluster
+     * @param nodeId: id of this node, one of the ids of the nodes
+     * @param nodes: url of the application of every node of the cluster by node id
+     * @param shardBy: HOST to crawl every host on a single node, URL to spread the webpages of a host over the nodes
+     * @param virtualNodes: number of points of every node on the hash ring
+     * @param timeoutMs: connect and read timeout of the messages sent to the other nodes
+     * @param secret: secret shared by the nodes of the cluster, required if the cluster mode is enabled
+     * @param maxMessageBytes: largest body of a message accepted from another node, in bytes
+     */
+    public ClusterConfig(boolean enabled, String nodeId, Map<String, String> nodes, ShardBy shardBy,
+                         int virtualNodes, int timeoutMs, String secret, int maxMessageBytes) {
+        if (enabled && (nodeId == null || !nodes.containsKey(nodeId))) {
+            throw new IllegalArgumentException("The id of the node (" + nodeId + ") must be one of the nodes: "
+                    + nodes.keySet());
+        }
+        if (enabled && (secret == null || secret.isEmpty())) {
+            throw new IllegalArgumentException("The nodes of a cluster must share a secret");
+        }
+        if (virtualNodes < 1 || timeoutMs < 1 || maxMessageBytes < 1) {
+            throw new IllegalArgumentException("virtualNodes, timeoutMs and maxMessageBytes must be positive, got "
+                    + virtualNodes + ", " + timeoutMs + " and " + maxMessageBytes);
+        }
+        this.enabled = enabled;
+        this.nodeId = nodeId;
+        this.nodes = Collections.unmodifiableMap(new LinkedHashMap<>(nodes));
+        this.shardBy = shardBy;
+        this.virtualNodes = virtualNodes;
+        this.timeoutMs = timeoutMs;
+        this.secret = secret;
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * Method to create the configuration from the system properties, falling back to the defaults
+     * @return configuration of the cluster mode
+     */
+    public static ClusterConfig fromSystemProperties() {
+        return new ClusterConfig(
+                Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "enabled", "false")),
+                System.getProperty(PROPERTY_PREFIX + "nodeId"),
+                parseNodes(System.getProperty(PROPERTY_PREFIX + "nodes", "")),
+                ShardBy.fromName(System.getProperty(PROPERTY_PREFIX + "shardBy", "host")),
+                Integer.getInteger(PROPERTY_PREFIX + "virtualNodes", 64),
+                Integer.getInteger(PROPERTY_PREFIX + "timeoutMs", 10_000),
+                System.getProperty(PROPERTY_PREFIX + "secret", ""),
+                Integer.getInteger(PROPERTY_PREFIX + "maxMessageBytes", 8 * 1024 * 1024));
+    }
+
+    /**
+     * Method to return the configuration used by the crawls of the application
+     * @return configuration read from the system properties on first use
+     */
+    public static ClusterConfig getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Method to parse the nodes of the cluster
+     * @param nodes: comma separated id=url pairs
+     * @return url of every node by node id, in the order they are listed
+     * @throws IllegalArgumentException if a pair has no id or no url
+     */
+    static Map<String, String> parseNodes(String nodes) {
+        Map<String, String> parsed = new LinkedHashMap<>();
+        for (String node : nodes.split(",")) {
+            if (node.trim().isEmpty()) {
+                continue;
+            }
+            int separator = node.indexOf('=');
+            if (separator <= 0 || separator == node.length() - 1) {
+                throw new IllegalArgumentException("Invalid cluster node, expected id=url: " + node);
+            }
+            String url = node.substring(separator + 1).trim();
+            parsed.put(node.substring(0, separator).trim(), url.endsWith("/")
+                    ? url.substring(0, url.length() - 1) : url);
+        }
+        return parsed;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Map<String, String> getNodes() {
+        return nodes;
+    }
+
+    public ShardBy getShardBy() {
+        return shardBy;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public int getMaxMessageBytes() {
+        return maxMessageBytes;
+    }
+}
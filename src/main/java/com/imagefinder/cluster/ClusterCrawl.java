@@ -0,0 +1,323 @@
+package com.imagefinder.cluster;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.crawler.CrawlContext;
+import com.imagefinder.crawler.CrawlTask;
+import com.imagefinder.crawler.StopReason;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * State of a crawl on a node of the cluster, either its coordinator or a node it was spread to.
+ * The end of the crawl is detected with the Dijkstra-Scholten algorithm, the nodes forming a tree rooted at the
+ * coordinator: a node is engaged in the crawl while its frontier has outstanding work or while some of the subpages
+ * it forwarded are not acknowledged yet (its deficit). The first batch of subpages received by an idle node makes
+ * the sender its parent; the batches received while engaged are acknowledged right away, their webpages being part
+ * of the work of the node. A node acknowledges its parent once it is idle again, so the coordinator is idle (and the
+ * crawl complete) once no node has any work left, without polling the nodes.
+ * The images found by a node are sent to the coordinator before the work that found them is over, so the coordinator
+ * has all the images once the crawl completes.
+ */
+public class ClusterCrawl {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterCrawl.class);
+
+    private final ClusterNode node;
+    private final String crawlId;
+    private final String coordinator;
+    private final boolean coordinating;
+    private final CrawlContext<?> context;
+    // completed once the crawl is over on all the nodes, only on the coordinator
+    private final CompletableFuture<Void> termination = new CompletableFuture<>();
+    // state of the termination detection, guarded by this
+    private boolean engaged;
+    private String parent;
+    private int deficit;
+    // true once the crawl was stopped by the coordinator, so that the stop is not sent back
+    private volatile boolean stoppedByCoordinator;
+
+    ClusterCrawl(ClusterNode node, String crawlId, String coordinator, CrawlContext<?> context) {
+        this.node = node;
+        this.crawlId = crawlId;
+        this.coordinator = coordinator;
+        this.coordinating = coordinator.equals(node.getNodeId());
+        this.context = context;
+        // the coordinator is engaged from the start of the crawl to its end
+        this.engaged = coordinating;
+        context.getFrontier().setIdleListener(this::checkIdle);
+    }
+
+    /**
+     * Method to join a crawl spread to this node. The webpages are crawled with the budget of the crawl, except for
+     * its deadline which is kept by the coordinator, and their images are forwarded to the coordinator.
+     * @param node: this node
+     * @param message: first batch of subpages received for the crawl
+     * @return state of the crawl on this node
+     */
+    static ClusterCrawl join(ClusterNode node, ClusterMessage message) {
+        CrawlBudget budget = message.getBudget() == null ? CrawlBudget.getDefault() : message.getBudget();
+        CrawlBudget localBudget = new CrawlBudget(budget.getMaxDepth(), budget.getMaxPages(), budget.getMaxBytes(),
+                budget.getMaxImages(), 0);
+        ForwardingStorage storage = new ForwardingStorage();
+        CrawlContext<Image> context = new CrawlContext<>(message.getBaseUrl(), new ImageParser(), storage, null,
+                localBudget, node.getServices());
+        ClusterCrawl crawl = new ClusterCrawl(node, message.getCrawlId(), message.getCoordinator(), context);
+        storage.crawl = crawl;
+        context.setPartition(crawl);
+        LOGGER.info("Node {} joined the crawl {} of the base URL: {}", node.getNodeId(), crawl.crawlId,
+                message.getBaseUrl());
+        return crawl;
+    }
+
+    /**
+     * Method to check if a url is crawled by this node
+     * @param url: canonical url
+     * @return true if this node owns the url
+     */
+    public boolean isLocal(String url) {
+        return node.isLocal(url);
+    }
+
+    /**
+     * Method to hand subpages over to the nodes owning them, one batch per node. Every batch is part of the deficit
+     * of this node until it is acknowledged; a batch that cannot be delivered is given up on.
+     * @param links: subpages owned by other nodes, already marked as visited on this node
+     */
+    public void forward(Collection<ClusterMessage.Link> links) {
+        Map<String, List<ClusterMessage.Link>> linksByOwner = new HashMap<>();
+        for (ClusterMessage.Link link : links) {
+            linksByOwner.computeIfAbsent(node.ownerOf(link.getUrl()), owner -> new ArrayList<>()).add(link);
+        }
+        for (Map.Entry<String, List<ClusterMessage.Link>> batch : linksByOwner.entrySet()) {
+            synchronized (this) {
+                deficit++;
+            }
+            node.send(batch.getKey(), ClusterMessage.links(crawlId, node.getNodeId(), coordinator,
+                    context.getBaseUrl(), context.getBudget(), batch.getValue()))
+                    .whenComplete((result, failure) -> {
+                        if (failure != null) {
+                            // no acknowledgement will come for the lost subpages
+                            onAck();
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Method to process a message of another node about this crawl
+     * @param message: LINKS, ACK, RESULTS or STOP message
+     */
+    void onMessage(ClusterMessage message) {
+        switch (message.getType()) {
+            case LINKS:
+                onLinks(message);
+                break;
+            case ACK:
+                onAck();
+                break;
+            case RESULTS:
+                onResults(message.getImages());
+                break;
+            case STOP:
+                onStop(message.getStopReason());
+                break;
+            default:
+                LOGGER.warn("Unexpected {} message for the crawl {}", message.getType(), crawlId);
+        }
+    }
+
+    /**
+     * Method to schedule the subpages handed over by another node. The subpages already visited on this node, or
+     * known to be disallowed, are skipped.
+     * @param message: LINKS message
+     */
+    private void onLinks(ClusterMessage message) {
+        boolean first;
+        synchronized (this) {
+            first = !engaged;
+            if (first) {
+                engaged = true;
+                parent = message.getSender();
+            }
+            for (ClusterMessage.Link link : message.getLinks()) {
+                if (context.markVisited(link.getUrl()) && !context.isKnownDisallowed(link.getUrl())) {
+                    schedule(context, link);
+                }
+            }
+        }
+        if (!first) {
+            sendAck(message.getSender());
+        }
+        // nothing may have been scheduled
+        checkIdle();
+    }
+
+    private static <T> void schedule(CrawlContext<T> context, ClusterMessage.Link link) {
+        context.getFrontier().schedule(new CrawlTask<>(link.getUrl(), link.getDepth(), context, link.getPriority()));
+    }
+
+    private void onAck() {
+        synchronized (this) {
+            deficit--;
+        }
+        checkIdle();
+    }
+
+    /**
+     * Method to check if this node is done with the crawl, i.e. its frontier has no outstanding work and all the
+     * subpages it forwarded are acknowledged. An idle node acknowledges its parent, an idle coordinator completes the
+     * crawl.
+     */
+    public void checkIdle() {
+        String acknowledged;
+        synchronized (this) {
+            if (!engaged || deficit > 0 || context.getFrontier().getOutstandingTasks() > 0) {
+                return;
+            }
+            engaged = false;
+            acknowledged = parent;
+            parent = null;
+        }
+        if (coordinating) {
+            terminate();
+        } else {
+            sendAck(acknowledged);
+        }
+    }
+
+    private void sendAck(String receiver) {
+        node.send(receiver, ClusterMessage.ack(crawlId, node.getNodeId(), coordinator));
+    }
+
+    /**
+     * Method to merge the images found by another node into the storage of the crawl
+     * @param images: images found by the node
+     */
+    @SuppressWarnings("unchecked")
+    private void onResults(List<Image> images) {
+        if (!coordinating) {
+            LOGGER.warn("Node {} received results for the crawl {} it does not coordinate", node.getNodeId(),
+                    crawlId);
+            return;
+        }
+        if (!images.isEmpty()) {
+            ((CrawlContext<Image>) context).storeData(images);
+        }
+    }
+
+    /**
+     * Method to send the new images found by this node to the coordinator. The frontier keeps the crawl open on this
+     * node until the coordinator has them.
+     * @param images: images not found by this node before
+     */
+    void sendResults(Collection<Image> images) {
+        context.getFrontier().track(node.send(coordinator,
+                ClusterMessage.results(crawlId, node.getNodeId(), coordinator, images)));
+    }
+
+    private void onStop(StopReason reason) {
+        if (!coordinating) {
+            stoppedByCoordinator = true;
+        }
+        context.stop(reason == null ? StopReason.CANCELLED : reason);
+    }
+
+    /**
+     * Method called by the context of the crawl once it is stopped, on its budget or on a cancellation. The stop of
+     * a node stops the whole crawl: the coordinator stops the other nodes, the other nodes report their stop to the
+     * coordinator. A cancelled crawl, or a crawl past its deadline, completes right away with the images received so
+     * far; otherwise the webpages in flight on every node are finished and their images merged first.
+     * @param reason: why the crawl was stopped
+     */
+    public void onStopped(StopReason reason) {
+        if (coordinating) {
+            node.broadcast(ClusterMessage.stop(crawlId, node.getNodeId(), coordinator, reason));
+            if (reason == StopReason.CANCELLED || reason == StopReason.DEADLINE) {
+                terminate();
+            }
+        } else if (!stoppedByCoordinator) {
+            node.send(coordinator, ClusterMessage.stop(crawlId, node.getNodeId(), coordinator, reason));
+        }
+    }
+
+    /**
+     * Method called once the coordinator reports the crawl complete: whatever is left of it on this node is dropped
+     */
+    void onComplete() {
+        if (!coordinating) {
+            context.getFrontier().cancel();
+        }
+    }
+
+    private void terminate() {
+        if (termination.complete(null)) {
+            LOGGER.info("Crawl {} of the base URL: {} is complete on all the nodes", crawlId, context.getBaseUrl());
+            node.finish(this);
+        }
+    }
+
+    /**
+     * Method to get notified once the crawl is over on all the nodes
+     * @return future completed once the crawl is complete, only on the coordinator
+     */
+    public CompletableFuture<Void> onTermination() {
+        return termination.thenApply(result -> result);
+    }
+
+    public String getCrawlId() {
+        return crawlId;
+    }
+
+    public boolean isCoordinating() {
+        return coordinating;
+    }
+
+    /**
+     * Storage of the images found by a node for a crawl it does not coordinate: the images it did not find before are
+     * sent to the coordinator as they are stored.
+     */
+    private static final class ForwardingStorage implements CrawlDataStorage<Image> {
+        private final ConcurrentImageStorage found = new ConcurrentImageStorage();
+        private volatile ClusterCrawl crawl;
+
+        @Override
+        public void storeData(Image data) {
+            storeMultipleData(Collections.singletonList(data));
+        }
+
+        @Override
+        public void storeMultipleData(Collection<Image> data) {
+            List<Image> newImages = new ArrayList<>();
+            for (Image image : data) {
+                if (found.storeDataIfAbsent(image)) {
+                    newImages.add(image);
+                }
+            }
+            if (!newImages.isEmpty()) {
+                crawl.sendResults(newImages);
+            }
+        }
+
+        @Override
+        public Collection<Image> retrieveData() {
+            return found.retrieveData();
+        }
+
+        @Override
+        public int size() {
+            return found.size();
+        }
+    }
+}
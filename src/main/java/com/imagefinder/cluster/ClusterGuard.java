@@ -0,0 +1,83 @@
+package com.imagefinder.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Checks applied to a request of another node before its message is processed: the request must carry the secret
+ * shared by the nodes of the cluster, and its body must not be larger than the largest message accepted. The sender
+ * of the message must then be a node of the ring (see ClusterNode.isMember).
+ */
+public class ClusterGuard {
+
+    /**
+     * Header carrying the secret shared by the nodes of the cluster
+     */
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    private final byte[] secretDigest;
+    private final int maxMessageBytes;
+
+    /**
+     * Constructor for the ClusterGuard class
+     * @param secret: secret shared by the nodes of the cluster
+     * @param maxMessageBytes: largest body of a message accepted, in bytes
+     */
+    public ClusterGuard(String secret, int maxMessageBytes) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("The nodes of a cluster must share a secret");
+        }
+        this.secretDigest = digest(secret);
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * Method to check the secret presented by a request. The digests of the secrets are compared in constant time, so
+     * that neither the content nor the length of the secret can be guessed from the time taken to reject a request.
+     * @param presented: value of the secret header of the request, null if absent
+     * @return true if the request carries the secret of the cluster
+     */
+    public boolean isAuthentic(String presented) {
+        return presented != null && MessageDigest.isEqual(secretDigest, digest(presented));
+    }
+
+    /**
+     * Method to read the body of a request, giving up as soon as it is larger than the largest message accepted
+     * @param in: body of the request
+     * @param declaredLength: length of the body declared by the request, -1 if unknown
+     * @return the body as a UTF-8 string, null if it is too large
+     * @throws IOException if the body could not be read
+     */
+    public String readMessage(InputStream in, long declaredLength) throws IOException {
+        if (declaredLength > maxMessageBytes) {
+            return null;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(declaredLength > 0 ? (int) declaredLength : 4096);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            if (body.size() + read > maxMessageBytes) {
+                return null;
+            }
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public int getMaxMessageBytes() {
+        return maxMessageBytes;
+    }
+
+    private static byte[] digest(String secret) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform implements SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.imagefinder.cluster;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.crawler.StopReason;
+import com.imagefinder.models.Image;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Message exchanged by the nodes of a cluster about a crawl. Every message is sent by a node (sender) about a crawl
+ * started on a node (coordinator):
+ * - LINKS hands subpages over to the node owning them, along with what it needs to crawl them,
+ * - ACK tells the sender of a LINKS message that the work it caused is done (or accounted for elsewhere),
+ * - RESULTS carries the images found by a node to the coordinator, which merges them into the storage of the crawl,
+ * - STOP stops the crawl on its budget or on a cancellation, on all the nodes,
+ * - COMPLETE tells the nodes that the crawl is over, so that they drop its state.
+ * Messages are sent as JSON, in-process as well as over HTTP.
+ */
+public class ClusterMessage {
+
+    private static final Gson GSON = new GsonBuilder().create();
+
+    /**
+     * enum representing the kinds of messages
+     */
+    public enum Type {
+        LINKS, ACK, RESULTS, STOP, COMPLETE
+    }
+
+    /**
+     * Subpage handed over to the node owning it
+     */
+    public static final class Link {
+        private final String url;
+        private final int depth;
+        private final double priority;
+
+        /**
+         * Constructor for the Link class
+         * @param url: canonical url of the subpage
+         * @param depth: depth of the subpage in the crawl
+         * @param priority: score of the subpage on the frontier
+         */
+        public Link(String url, int depth, double priority) {
+            this.url = url;
+            this.depth = depth;
+            this.priority = priority;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public double getPriority() {
+            return priority;
+        }
+    }
+
+    private Type type;
+    private String crawlId;
+    private String sender;
+    private String coordinator;
+    // set on LINKS messages, so that a node can join the crawl on the first subpages it receives
+    private String baseUrl;
+    private CrawlBudget budget;
+    private List<Link> links;
+    private List<Image> images;
+    private StopReason stopReason;
+
+    private ClusterMessage(Type type, String crawlId, String sender, String coordinator) {
+        this.type = type;
+        this.crawlId = crawlId;
+        this.sender = sender;
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * Method to create a message handing subpages over to the node owning them
+     * @param crawlId: id of the crawl
+     * @param sender: id of the sending node
+     * @param coordinator: id of the node the crawl was started on
+     * @param baseUrl: base url of the crawl
+     * @param budget: limits of the crawl
+     * @param links: subpages owned by the receiving node
+     * @return LINKS message
+     */
+    public static ClusterMessage links(String crawlId, String sender, String coordinator, String baseUrl,
+                                       CrawlBudget budget, List<Link> links) {
+        ClusterMessage message = new ClusterMessage(Type.LINKS, crawlId, sender, coordinator);
+        message.baseUrl = baseUrl;
+        message.budget = budget;
+        message.links = links;
+        return message;
+    }
+
+    /**
+     * Method to create a message acknowledging a LINKS message
+     * @param crawlId: id of the crawl
+     * @param sender: id of the sending node
+     * @param coordinator: id of the node the crawl was started on
+     * @return ACK message
+     */
+    public static ClusterMessage ack(String crawlId, String sender, String coordinator) {
+        return new ClusterMessage(Type.ACK, crawlId, sender, coordinator);
+    }
+
+    /**
+     * Method to create a message carrying images to the coordinator of the crawl
+     * @param crawlId: id of the crawl
+     * @param sender: id of the sending node
+     * @param coordinator: id of the node the crawl was started on
+     * @param images: images found by the sending node
+     * @return RESULTS message
+     */
+    public static ClusterMessage results(String crawlId, String sender, String coordinator,
+                                         Collection<Image> images) {
+        ClusterMessage message = new ClusterMessage(Type.RESULTS, crawlId, sender, coordinator);
+        message.images = new ArrayList<>(images);
+        return message;
+    }
+
+    /**
+     * Method to create a message stopping the crawl on all the nodes
+     * @param crawlId: id of the crawl
+     * @param sender: id of the sending node
+     * @param coordinator: id of the node the crawl was started on
+     * @param reason: limit of the budget that stopped the crawl, or CANCELLED
+     * @return STOP message
+     */
+    public static ClusterMessage stop(String crawlId, String sender, String coordinator, StopReason reason) {
+        ClusterMessage message = new ClusterMessage(Type.STOP, crawlId, sender, coordinator);
+        message.stopReason = reason;
+        return message;
+    }
+
+    /**
+     * Method to create a message telling the nodes that the crawl is over
+     * @param crawlId: id of the crawl
+     * @param sender: id of the coordinator
+     * @return COMPLETE message
+     */
+    public static ClusterMessage complete(String crawlId, String sender) {
+        return new ClusterMessage(Type.COMPLETE, crawlId, sender, sender);
+    }
+
+    /**
+     * Method to encode the message
+     * @return JSON form of the message
+     */
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+
+    /**
+     * Method to decode a message
+     * @param json: JSON form of the message
+     * @return the message
+     * @throws IllegalArgumentException if the JSON is not a valid message
+     */
+    public static ClusterMessage fromJson(String json) {
+        ClusterMessage message;
+        try {
+            message = GSON.fromJson(json, ClusterMessage.class);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cluster message: " + e.getMessage(), e);
+        }
+        if (message == null || message.type == null || message.crawlId == null || message.sender == null) {
+            throw new IllegalArgumentException("Invalid cluster message: type, crawlId and sender are required");
+        }
+        return message;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getCrawlId() {
+        return crawlId;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getCoordinator() {
+        return coordinator;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public CrawlBudget getBudget() {
+        return budget;
+    }
+
+    public List<Link> getLinks() {
+        return links == null ? Collections.<Link>emptyList() : links;
+    }
+
+    public List<Image> getImages() {
+        return images == null ? Collections.<Image>emptyList() : images;
+    }
+
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+}
@@ -0,0 +1,289 @@
+package com.imagefinder.cluster;
+
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlContext;
+import com.imagefinder.crawler.CrawlServices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node of a cluster of crawlers. The webpages of a crawl are spread over the nodes by consistent hashing of their host
+ * (or of their url): the node a crawl is started on (its coordinator) crawls the webpages it owns and forwards the
+ * other ones, in batches, to the nodes owning them, which do the same with the subpages they find. The images found
+ * by the other nodes are sent back to the coordinator and merged into the storage of the crawl.
+ * With the HOST sharding, every host is crawled by a single node, so its politeness is applied exactly as on a single
+ * node. With the URL sharding, the webpages of a host are spread over all the nodes, each node sending its share of
+ * the requests to the host: the rate of every host is divided by the number of nodes.
+ */
+public class ClusterNode {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusterNode.class);
+    // crawls remembered as complete, so that their late messages are not taken for a new crawl
+    private static final int COMPLETED_CRAWLS = 1024;
+
+    private final String nodeId;
+    private final ConsistentHashRing ring;
+    private final ShardBy shardBy;
+    private final ClusterTransport transport;
+    // services running the crawls of this node, set once the node is started
+    private volatile CrawlServices services;
+    // crawls this node coordinates or takes part in, by crawl id
+    private final Map<String, ClusterCrawl> crawls = new ConcurrentHashMap<>();
+    private final Set<String> completedCrawls = Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > COMPLETED_CRAWLS;
+                }
+            });
+    private final AtomicLong crawlIds = new AtomicLong();
+    private final LongAdder linksForwarded = new LongAdder();
+    private final LongAdder linksReceived = new LongAdder();
+    private final LongAdder messageFailures = new LongAdder();
+
+    /**
+     * Constructor for the ClusterNode class
+     * @param nodeId: id of this node, one of the nodes of the ring
+     * @param ring: hash ring of the nodes of the cluster
+     * @param shardBy: whether the webpages are assigned to the nodes by host or by url
+     * @param transport: transport delivering the messages to the other nodes
+     */
+    public ClusterNode(String nodeId, ConsistentHashRing ring, ShardBy shardBy, ClusterTransport transport) {
+        if (!ring.getNodeIds().contains(nodeId)) {
+            throw new IllegalArgumentException("The node " + nodeId + " is not on the ring: " + ring.getNodeIds());
+        }
+        this.nodeId = nodeId;
+        this.ring = ring;
+        this.shardBy = shardBy;
+        this.transport = transport;
+    }
+
+    /**
+     * Method to start the node with the services running its crawls. With the URL sharding, every request to a host
+     * takes the share of the nodes out of the rate of the host.
+     * @param services: services of this node
+     */
+    public void start(CrawlServices services) {
+        this.services = services;
+        if (shardBy == ShardBy.URL) {
+            services.getRateLimiter().setClusterShare(ring.size());
+        }
+        LOGGER.info("Cluster node {} started, sharding by {} over the nodes: {}", nodeId, shardBy, ring.getNodeIds());
+    }
+
+    /**
+     * Method to find the node owning a url
+     * @param url: canonical url
+     * @return id of the node crawling the url
+     */
+    public String ownerOf(String url) {
+        return ring.ownerOf(shardBy.keyOf(url));
+    }
+
+    /**
+     * Method to check if a url is crawled by this node
+     * @param url: canonical url
+     * @return true if this node owns the url
+     */
+    public boolean isLocal(String url) {
+        return ring.size() == 1 || nodeId.equals(ownerOf(url));
+    }
+
+    /**
+     * Method to spread a crawl started on this node over the cluster. The crawl completes once all the nodes are done
+     * with it (see CrawlContext.onCompletion).
+     * @param context: context of the crawl, whose images the other nodes send back
+     * @return state of the crawl in the cluster
+     */
+    public ClusterCrawl coordinate(CrawlContext<?> context) {
+        String crawlId = nodeId + "-" + crawlIds.incrementAndGet();
+        ClusterCrawl crawl = new ClusterCrawl(this, crawlId, nodeId, context);
+        crawls.put(crawlId, crawl);
+        context.setPartition(crawl);
+        return crawl;
+    }
+
+    /**
+     * Method to check that a message comes from a node of the cluster, about a crawl coordinated by one of them
+     * @param message: message of another node
+     * @return true if both the sender and the coordinator of the message are nodes of the ring
+     */
+    public boolean isMember(ClusterMessage message) {
+        List<String> nodeIds = ring.getNodeIds();
+        return nodeIds.contains(message.getSender())
+                && (message.getCoordinator() == null || nodeIds.contains(message.getCoordinator()));
+    }
+
+    /**
+     * Method to process a message of another node. A node takes part in a crawl from the first subpages it receives
+     * for it until the coordinator reports it complete, holding a crawl slot of its admission controller meanwhile:
+     * the subpages of a crawl it has no slot for are acknowledged without being crawled.
+     * Messages of nodes that are not part of the cluster are dropped.
+     * @param message: message of another node
+     */
+    public void receive(ClusterMessage message) {
+        String crawlId = message.getCrawlId();
+        if (!isMember(message)) {
+            LOGGER.warn("Dropping the {} message of the crawl {} from {}, which is not a node of the cluster",
+                    message.getType(), crawlId, message.getSender());
+            return;
+        }
+        if (message.getType() == ClusterMessage.Type.COMPLETE) {
+            markCompleted(crawlId);
+            ClusterCrawl crawl = crawls.remove(crawlId);
+            if (crawl != null) {
+                crawl.onComplete();
+                if (!crawl.isCoordinating()) {
+                    services.getAdmissionController().releaseCrawl();
+                }
+            }
+            return;
+        }
+        ClusterCrawl crawl = crawls.get(crawlId);
+        if (crawl == null && message.getType() == ClusterMessage.Type.LINKS && !isCompleted(crawlId)) {
+            crawl = crawls.computeIfAbsent(crawlId, id -> join(message));
+        }
+        if (crawl == null) {
+            LOGGER.debug("Ignoring the {} message of the node {} for the crawl {}, which is over or not admitted",
+                    message.getType(), message.getSender(), crawlId);
+            if (message.getType() == ClusterMessage.Type.LINKS) {
+                // the sender still counts on an acknowledgement
+                send(message.getSender(), ClusterMessage.ack(crawlId, nodeId, message.getCoordinator()));
+            }
+            return;
+        }
+        if (message.getType() == ClusterMessage.Type.LINKS) {
+            linksReceived.add(message.getLinks().size());
+        }
+        crawl.onMessage(message);
+    }
+
+    private ClusterCrawl join(ClusterMessage message) {
+        AdmissionController admissionController = services.getAdmissionController();
+        if (!admissionController.tryAcquireCrawl()) {
+            admissionController.recordRejectedCrawl();
+            LOGGER.warn("Node {} has no crawl slot left to join the crawl {} of the node {}", nodeId,
+                    message.getCrawlId(), message.getCoordinator());
+            return null;
+        }
+        return ClusterCrawl.join(this, message);
+    }
+
+    /**
+     * Method to send a message to another node
+     * @param receiver: id of the receiving node
+     * @param message: message to send
+     * @return future completed once the node has processed the message, completed exceptionally if it could not
+     */
+    CompletableFuture<Void> send(String receiver, ClusterMessage message) {
+        if (message.getType() == ClusterMessage.Type.LINKS) {
+            linksForwarded.add(message.getLinks().size());
+        }
+        CompletableFuture<Void> sent;
+        try {
+            sent = transport.send(receiver, message);
+        } catch (RuntimeException e) {
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally(e);
+        }
+        return sent.whenComplete((result, failure) -> {
+            if (failure != null) {
+                messageFailures.increment();
+                LOGGER.error("Could not send the {} message of the crawl {} to the node {}", message.getType(),
+                        message.getCrawlId(), receiver, failure);
+            }
+        });
+    }
+
+    /**
+     * Method to send a message to all the other nodes
+     * @param message: message to send
+     */
+    void broadcast(ClusterMessage message) {
+        for (String other : ring.getNodeIds()) {
+            if (!other.equals(nodeId)) {
+                send(other, message);
+            }
+        }
+    }
+
+    /**
+     * Method to drop a crawl coordinated by this node once it is complete, and tell the other nodes to drop it
+     * @param crawl: complete crawl
+     */
+    void finish(ClusterCrawl crawl) {
+        markCompleted(crawl.getCrawlId());
+        crawls.remove(crawl.getCrawlId());
+        broadcast(ClusterMessage.complete(crawl.getCrawlId(), nodeId));
+    }
+
+    private void markCompleted(String crawlId) {
+        synchronized (completedCrawls) {
+            completedCrawls.add(crawlId);
+        }
+    }
+
+    private boolean isCompleted(String crawlId) {
+        synchronized (completedCrawls) {
+            return completedCrawls.contains(crawlId);
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ShardBy getShardBy() {
+        return shardBy;
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    CrawlServices getServices() {
+        return services;
+    }
+
+    /**
+     * Method to get the number of crawls this node coordinates or takes part in
+     * @return number of running crawls
+     */
+    public int getActiveCrawls() {
+        return crawls.size();
+    }
+
+    /**
+     * Method to get the number of subpages this node handed over to the other nodes
+     * @return number of links forwarded
+     */
+    public long getLinksForwarded() {
+        return linksForwarded.sum();
+    }
+
+    /**
+     * Method to get the number of subpages the other nodes handed over to this node
+     * @return number of links received
+     */
+    public long getLinksReceived() {
+        return linksReceived.sum();
+    }
+
+    /**
+     * Method to get the number of messages that could not be delivered to another node
+     * @return number of failed messages
+     */
+    public long getMessageFailures() {
+        return messageFailures.sum();
+    }
+}
@@ -0,0 +1,18 @@
+package com.imagefinder.cluster;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface for delivering the messages of a crawl to the other nodes of the cluster
+ */
+public interface ClusterTransport {
+
+    /**
+     * Method to send a message to a node without blocking the calling thread
+     * @param nodeId: id of the receiving node
+     * @param message: message to deliver
+     * @return future completed once the node has processed the message, or completed exceptionally if it could not
+     * be delivered
+     */
+    CompletableFuture<Void> send(String nodeId, ClusterMessage message);
+}
@@ -0,0 +1,77 @@
+package com.imagefinder.cluster;
+
+import com.imagefinder.urls.UrlFingerprint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Consistent hashing of keys (hosts or URLs) onto the nodes of a cluster. Every node is placed on a ring of 64-bit
+ * hashes at several points (virtual nodes), and a key belongs to the node of the first point at or after its hash.
+ * All the nodes build the same ring from the same node ids, so they agree on the owner of every key without talking
+ * to each other, and adding or removing a node only moves the keys of its own points.
+ */
+public class ConsistentHashRing {
+
+    // hashes of the points of the ring, sorted
+    private final long[] points;
+    // id of the node of every point
+    private final String[] owners;
+    private final List<String> nodeIds;
+
+    /**
+     * Constructor for the ConsistentHashRing class
+     * @param nodeIds: ids of the nodes of the cluster
+     * @param virtualNodes: number of points of every node on the ring, more points spread the keys more evenly
+     */
+    public ConsistentHashRing(Collection<String> nodeIds, int virtualNodes) {
+        if (nodeIds.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one node and one point per node");
+        }
+        this.nodeIds = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(nodeIds)));
+        int size = this.nodeIds.size() * virtualNodes;
+        long[][] sortedPoints = new long[size][];
+        int index = 0;
+        for (int node = 0; node < this.nodeIds.size(); node++) {
+            for (int point = 0; point < virtualNodes; point++) {
+                sortedPoints[index++] = new long[]{UrlFingerprint.of(this.nodeIds.get(node) + "#" + point), node};
+            }
+        }
+        Arrays.sort(sortedPoints, (first, second) -> Long.compare(first[0], second[0]));
+        this.points = new long[size];
+        this.owners = new String[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = sortedPoints[i][0];
+            owners[i] = this.nodeIds.get((int) sortedPoints[i][1]);
+        }
+    }
+
+    /**
+     * Method to find the node owning a key
+     * @param key: key to look up
+     * @return id of the node owning the key
+     */
+    public String ownerOf(String key) {
+        int index = Arrays.binarySearch(points, UrlFingerprint.of(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * Method to get the ids of the nodes of the ring
+     * @return sorted node ids
+     */
+    public List<String> getNodeIds() {
+        return nodeIds;
+    }
+
+    public int size() {
+        return nodeIds.size();
+    }
+}
@@ -0,0 +1,91 @@
+package com.imagefinder.cluster;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Transport between nodes running on different hosts (or ports): every message is POSTed as JSON to the /cluster
+ * endpoint of the receiving node, along with the secret of the cluster, and the node answers once it has processed it.
+ * The requests are sent from a pool of threads, so that the crawl threads never wait for another node.
+ */
+public class HttpClusterTransport implements ClusterTransport {
+
+    private static final String CLUSTER_PATH = "/cluster";
+
+    // url of the application of every node by node id
+    private final Map<String, String> nodeUrls;
+    private final int timeoutMs;
+    private final String secret;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor for the HttpClusterTransport class
+     * @param nodeUrls: url of the application of every node by node id
+     * @param timeoutMs: connect and read timeout of the requests
+     * @param secret: secret shared by the nodes of the cluster
+     * @param executor: threads sending the requests
+     */
+    public HttpClusterTransport(Map<String, String> nodeUrls, int timeoutMs, String secret,
+                                ExecutorService executor) {
+        this.nodeUrls = nodeUrls;
+        this.timeoutMs = timeoutMs;
+        this.secret = secret;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Void> send(String nodeId, ClusterMessage message) {
+        String nodeUrl = nodeUrls.get(nodeId);
+        if (nodeUrl == null) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Unknown cluster node: " + nodeId));
+            return failed;
+        }
+        byte[] body = message.toJson().getBytes(StandardCharsets.UTF_8);
+        return CompletableFuture.runAsync(() -> post(nodeUrl + CLUSTER_PATH, body), executor);
+    }
+
+    private void post(String url, byte[] body) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            connection.setRequestProperty(ClusterGuard.SECRET_HEADER, secret);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int statusCode = connection.getResponseCode();
+            // draining the response so that the connection is kept alive
+            InputStream response = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (response != null) {
+                try (InputStream in = response) {
+                    byte[] buffer = new byte[512];
+                    while (in.read(buffer) >= 0) {
+                        // discarded
+                    }
+                }
+            }
+            if (statusCode < 200 || statusCode >= 300) {
+                throw new IllegalStateException("Cluster node at " + url + " answered with status " + statusCode);
+            }
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            throw new UncheckedIOException("Could not send the message to the cluster node at " + url, e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.imagefinder.cluster;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Transport between nodes running in the same JVM, e.g. to test a cluster or measure its speedup in a single process.
+ * Messages go through their JSON form, like over HTTP, so that the nodes share no objects, and are processed on an
+ * executor rather than on the sending thread.
+ */
+public class LocalClusterTransport implements ClusterTransport {
+
+    private final Map<String, ClusterNode> nodes = new ConcurrentHashMap<>();
+    private final Executor executor;
+
+    /**
+     * Constructor for the LocalClusterTransport class
+     * @param executor: executor on which the receiving nodes process the messages
+     */
+    public LocalClusterTransport(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Method to make a node reachable through this transport
+     * @param node: node of the cluster
+     */
+    public void register(ClusterNode node) {
+        nodes.put(node.getNodeId(), node);
+    }
+
+    @Override
+    public CompletableFuture<Void> send(String nodeId, ClusterMessage message) {
+        ClusterNode node = nodes.get(nodeId);
+        if (node == null) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Unknown cluster node: " + nodeId));
+            return failed;
+        }
+        String json = message.toJson();
+        return CompletableFuture.runAsync(() -> node.receive(ClusterMessage.fromJson(json)), executor);
+    }
+}
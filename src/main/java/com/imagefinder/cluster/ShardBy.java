@@ -0,0 +1,37 @@
+package com.imagefinder.cluster;
+
+import com.imagefinder.utils.URLUtils;
+
+import java.util.Locale;
+
+/**
+ * enum representing the ways of assigning the URLs of a crawl to the nodes of a cluster
+ */
+public enum ShardBy {
+    // every host is crawled by a single node, which therefore applies the politeness of the host on its own
+    HOST,
+    // the URLs of a host are spread over all the nodes, each node sending its share of the requests of the host
+    URL;
+
+    /**
+     * Method to get the key hashed to find the node owning a URL
+     * @param url: canonical url
+     * @return host of the url, or the url itself
+     */
+    public String keyOf(String url) {
+        if (this == URL) {
+            return url;
+        }
+        String host = URLUtils.getHost(url);
+        return host == null ? url : host;
+    }
+
+    /**
+     * Method to parse the name of a sharding
+     * @param name: name of the sharding, case insensitive
+     * @return the sharding
+     */
+    public static ShardBy fromName(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
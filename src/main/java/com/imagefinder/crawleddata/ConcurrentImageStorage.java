@@ -0,0 +1,172 @@
+package com.imagefinder.crawleddata;
+
+import com.imagefinder.models.Image;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe storage of the images of a crawl, written by every crawl thread at once. Images are de-duplicated by
+ * the 64-bit fingerprint of their url across lock striped shards, so threads storing images of different shards never
+ * contend with each other. Every shard also keeps its images in an append-only array, which lets retrieveData take a
+ * snapshot without any lock while the crawl keeps storing images, and the number of images is kept in a striped
+ * counter so that size() does not depend on the number of images.
+ */
+public class ConcurrentImageStorage implements CrawlDataStorage<Image> {
+
+    // number of shards, has to be a power of two
+    private static final int SHARD_COUNT = 64;
+    // number of low bits of the fingerprint used to select the shard
+    private static final int SHARD_BITS = Integer.numberOfTrailingZeros(SHARD_COUNT);
+    private static final int MIN_SHARD_CAPACITY = 8;
+    // value marking an empty slot of a shard table
+    private static final long EMPTY = 0L;
+    // fingerprint stored in place of the (valid but unlikely) fingerprint 0, which would otherwise mark an empty slot
+    private static final long ZERO_FINGERPRINT = 0x9e3779b97f4a7c15L;
+
+    private final Shard[] shards;
+    // striped counter, so that the writers do not contend on a single counter either
+    private final LongAdder size = new LongAdder();
+
+    /**
+     * Constructor to create an empty storage
+     */
+    public ConcurrentImageStorage() {
+        shards = new Shard[SHARD_COUNT];
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * Method to store an image, unless an image with the same url is already stored
+     * @param imgData: image to store
+     */
+    @Override
+    public void storeData(Image imgData) {
+        storeDataIfAbsent(imgData);
+    }
+
+    /**
+     * Method to store an image atomically, unless an image with the same url is already stored
+     * @param imgData: image to store
+     * @return true if the image was stored, false if an image with the same url was already stored
+     */
+    @Override
+    public boolean storeDataIfAbsent(Image imgData) {
+        long fingerprint = imgData.fingerprint();
+        fingerprint = fingerprint == EMPTY ? ZERO_FINGERPRINT : fingerprint;
+        if (!shards[(int) (fingerprint & (SHARD_COUNT - 1))].add(fingerprint, imgData)) {
+            return false;
+        }
+        size.increment();
+        return true;
+    }
+
+    /**
+     * Method to store a collection of images
+     * @param imgDataCollection: collection of images to store
+     */
+    @Override
+    public void storeMultipleData(Collection<Image> imgDataCollection) {
+        for (Image image : imgDataCollection) {
+            storeDataIfAbsent(image);
+        }
+    }
+
+    /**
+     * Method to take a snapshot of the images stored so far, without blocking the threads storing images. The
+     * images stored while the snapshot is taken may or may not be part of it.
+     * @return unmodifiable collection of the images
+     */
+    @Override
+    public Collection<Image> retrieveData() {
+        List<Image> snapshot = new ArrayList<>(size());
+        for (Shard shard : shards) {
+            shard.copyTo(snapshot);
+        }
+        return Collections.unmodifiableList(snapshot);
+    }
+
+    /**
+     * Method to return the number of images stored
+     * @return: number of images stored
+     */
+    @Override
+    public int size() {
+        return size.intValue();
+    }
+
+    /**
+     * A single open addressing table of fingerprints (linear probing) and the images it holds, in the order they
+     * were stored. Writers are synchronized on the shard; readers only rely on the volatile count, which is written
+     * after the image it makes visible.
+     */
+    private static final class Shard {
+        // guarded by this
+        private long[] table = new long[MIN_SHARD_CAPACITY * 2];
+        private volatile Image[] images = new Image[MIN_SHARD_CAPACITY];
+        private volatile int count;
+
+        private synchronized boolean add(long fingerprint, Image image) {
+            int mask = table.length - 1;
+            int slot = slotFor(fingerprint, mask);
+            while (table[slot] != EMPTY) {
+                if (table[slot] == fingerprint) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = fingerprint;
+            int index = count;
+            Image[] current = images;
+            if (index == current.length) {
+                // the readers keep the old array, which holds every image they can see
+                Image[] grown = new Image[current.length * 2];
+                System.arraycopy(current, 0, grown, 0, index);
+                images = grown;
+                current = grown;
+            }
+            current[index] = image;
+            // publishing the image to the readers
+            count = index + 1;
+            // keeping the load factor of the table at most 0.5, the table is twice as large as the image array
+            if (count * 2 > table.length) {
+                resize();
+            }
+            return true;
+        }
+
+        private void copyTo(List<Image> snapshot) {
+            // reading the count first: the array read after it holds at least that many images
+            int visible = count;
+            Image[] current = images;
+            for (int i = 0; i < visible; i++) {
+                snapshot.add(current[i]);
+            }
+        }
+
+        private void resize() {
+            long[] newTable = new long[table.length * 2];
+            int mask = newTable.length - 1;
+            for (long fingerprint : table) {
+                if (fingerprint != EMPTY) {
+                    int slot = slotFor(fingerprint, mask);
+                    while (newTable[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    newTable[slot] = fingerprint;
+                }
+            }
+            table = newTable;
+        }
+
+        private static int slotFor(long fingerprint, int mask) {
+            // the low bits select the shard, so the slot is taken from the bits above them
+            return (int) (fingerprint >>> SHARD_BITS) & mask;
+        }
+    }
+}
@@ -14,6 +14,18 @@ public interface CrawlDataStorage<T> {
      */
     void storeData(T data);
 
+    /**
+     * Method to store a data point unless it is already stored. Thread-safe storages do it atomically, the default
+     * implementation is only correct if the storage is not written by other threads at the same time.
+     * @param data: data to store
+     * @return true if the data was stored, false if it was already stored
+     */
+    default boolean storeDataIfAbsent(T data) {
+        int sizeBefore = size();
+        storeData(data);
+        return size() > sizeBefore;
+    }
+
     /**
      * Method to store a collection of data extraced
      * @param data: collection of data to store
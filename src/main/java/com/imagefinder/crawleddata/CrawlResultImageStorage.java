@@ -5,7 +5,8 @@ import java.util.Collection;
 
 /**
  * class to store the data of Image type as a Collection of the data
- * This class will be used to store data when we parse Image data from webpages
+ * This class will be used to store data when we parse Image data from webpages. It is only as thread-safe as the
+ * collection it wraps: crawls store their images in a ConcurrentImageStorage.
  */
 public class CrawlResultImageStorage implements CrawlDataStorage<Image> {
 
@@ -0,0 +1,74 @@
+package com.imagefinder.crawleddata;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * class decorating a storage to notify a listener of every data point as soon as it is stored, so that the data can
+ * be streamed to the client while the crawl is still running. Data points already present in the storage (e.g. the
+ * same image found on another webpage) are not notified again. The decorated storage has to be thread-safe (e.g.
+ * ConcurrentImageStorage), no lock is taken here so that the crawl threads neither contend on the storage nor on a
+ * slow listener.
+ * @param <T>: type of data we are attempting to extract
+ */
+public class ObservableCrawlDataStorage<T> implements CrawlDataStorage<T> {
+
+    // storage actually holding the data
+    private final CrawlDataStorage<T> storage;
+    // called with every new data point, on the thread storing it
+    private final Consumer<T> listener;
+
+    /**
+     * Constructor for the ObservableCrawlDataStorage class
+     * @param storage: thread-safe storage actually holding the data
+     * @param listener: called with every new data point, on the thread storing it
+     */
+    public ObservableCrawlDataStorage(CrawlDataStorage<T> storage, Consumer<T> listener) {
+        this.storage = storage;
+        this.listener = listener;
+    }
+
+    /**
+     * Method to store a data point and notify the listener if it is new
+     * @param data: data to store
+     */
+    @Override
+    public void storeData(T data) {
+        storeDataIfAbsent(data);
+    }
+
+    /**
+     * Method to store a data point and notify the listener if it is new
+     * @param data: data to store
+     * @return true if the data point is new
+     */
+    @Override
+    public boolean storeDataIfAbsent(T data) {
+        if (!storage.storeDataIfAbsent(data)) {
+            return false;
+        }
+        listener.accept(data);
+        return true;
+    }
+
+    /**
+     * Method to store a collection of data, notifying the listener of the new data points
+     * @param data: collection of data to store
+     */
+    @Override
+    public void storeMultipleData(Collection<T> data) {
+        for (T dataPoint : data) {
+            storeDataIfAbsent(dataPoint);
+        }
+    }
+
+    @Override
+    public Collection<T> retrieveData() {
+        return storage.retrieveData();
+    }
+
+    @Override
+    public int size() {
+        return storage.size();
+    }
+}
@@ -0,0 +1,218 @@
+package com.imagefinder.crawler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the load the crawls put on the application, so that a burst of requests is shed instead of degrading every
+ * crawl: the number of crawls running at the same time, the number of webpages a single crawl may keep queued and
+ * the number of webpages being fetched by all the crawls together. The limits never block a thread: a crawl that
+ * cannot get a fetch permit is registered as a waiter and dispatches its work again once a permit is released.
+ * The counters double as saturation metrics used to size the nodes.
+ */
+public class AdmissionController {
+
+    private static final int DEFAULT_MAX_CONCURRENT_CRAWLS = 64;
+    private static final int DEFAULT_MAX_QUEUED_TASKS_PER_CRAWL = 100000;
+    private static final int DEFAULT_MAX_IN_FLIGHT_FETCHES = 512;
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 5;
+
+    private final int maxConcurrentCrawls;
+    private final int maxQueuedTasksPerCrawl;
+    private final int maxInFlightFetches;
+    // delay advised to the clients whose crawl was rejected
+    private final int retryAfterSeconds;
+    private final AtomicInteger runningCrawls = new AtomicInteger();
+    private final AtomicInteger inFlightFetches = new AtomicInteger();
+    private final AtomicInteger peakInFlightFetches = new AtomicInteger();
+    // crawls waiting for a fetch permit, called back once one is released
+    private final Queue<Runnable> fetchWaiters = new ConcurrentLinkedQueue<>();
+    private final AtomicLong rejectedCrawls = new AtomicLong();
+    private final AtomicLong droppedTasks = new AtomicLong();
+    private final AtomicLong fetchPermitWaits = new AtomicLong();
+
+    /**
+     * Constructor for the AdmissionController class
+     * @param maxConcurrentCrawls: maximum number of crawls running at the same time
+     * @param maxQueuedTasksPerCrawl: maximum number of webpages a single crawl may keep queued, the subpages found
+     *                              beyond it are dropped
+     * @param maxInFlightFetches: maximum number of webpages being fetched by all the crawls together
+     * @param retryAfterSeconds: delay advised to the clients whose crawl was rejected
+     */
+    public AdmissionController(int maxConcurrentCrawls, int maxQueuedTasksPerCrawl, int maxInFlightFetches,
+                               int retryAfterSeconds) {
+        if (maxConcurrentCrawls < 1 || maxQueuedTasksPerCrawl < 1 || maxInFlightFetches < 1) {
+            throw new IllegalArgumentException("Admission limits must be at least 1, got " + maxConcurrentCrawls
+                    + " crawls, " + maxQueuedTasksPerCrawl + " queued tasks, " + maxInFlightFetches + " fetches");
+        }
+        this.maxConcurrentCrawls = maxConcurrentCrawls;
+        this.maxQueuedTasksPerCrawl = maxQueuedTasksPerCrawl;
+        this.maxInFlightFetches = maxInFlightFetches;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Method to create the admission controller configured with the system properties
+     * imagefinder.admission.maxConcurrentCrawls, imagefinder.admission.maxQueuedTasksPerCrawl,
+     * imagefinder.admission.maxInFlightFetches and imagefinder.admission.retryAfterSeconds
+     * @return admission controller with the configured limits
+     */
+    public static AdmissionController fromSystemProperties() {
+        return new AdmissionController(
+                Integer.getInteger("imagefinder.admission.maxConcurrentCrawls", DEFAULT_MAX_CONCURRENT_CRAWLS),
+                Integer.getInteger("imagefinder.admission.maxQueuedTasksPerCrawl",
+                        DEFAULT_MAX_QUEUED_TASKS_PER_CRAWL),
+                Integer.getInteger("imagefinder.admission.maxInFlightFetches", DEFAULT_MAX_IN_FLIGHT_FETCHES),
+                Integer.getInteger("imagefinder.admission.retryAfterSeconds", DEFAULT_RETRY_AFTER_SECONDS));
+    }
+
+    /**
+     * Method to create an admission controller that admits everything
+     * @return admission controller without limits
+     */
+    public static AdmissionController unlimited() {
+        return new AdmissionController(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                DEFAULT_RETRY_AFTER_SECONDS);
+    }
+
+    /**
+     * Method to reserve a slot for a new crawl
+     * @return true if the crawl may start, in which case releaseCrawl must be called once it is finished
+     */
+    public boolean tryAcquireCrawl() {
+        return tryIncrement(runningCrawls, maxConcurrentCrawls);
+    }
+
+    public void releaseCrawl() {
+        runningCrawls.decrementAndGet();
+    }
+
+    public void recordRejectedCrawl() {
+        rejectedCrawls.incrementAndGet();
+    }
+
+    public void recordDroppedTask() {
+        droppedTasks.incrementAndGet();
+    }
+
+    /**
+     * Method to reserve a fetch permit without blocking
+     * @return true if a webpage may be fetched, in which case releaseFetch must be called once it is processed
+     */
+    public boolean tryAcquireFetch() {
+        if (!tryIncrement(inFlightFetches, maxInFlightFetches)) {
+            return false;
+        }
+        peakInFlightFetches.accumulateAndGet(inFlightFetches.get(), Math::max);
+        return true;
+    }
+
+    /**
+     * Method to get called back once a fetch permit is released, after tryAcquireFetch failed. The waiter is called
+     * once, on the thread releasing the permit, and must try to acquire the permit again.
+     * @param waiter: callback, which must not block
+     */
+    public void awaitFetchPermit(Runnable waiter) {
+        fetchPermitWaits.incrementAndGet();
+        fetchWaiters.offer(waiter);
+        // a permit released before the waiter was queued would not have woken it up
+        wakeFetchWaiters();
+    }
+
+    public void releaseFetch() {
+        inFlightFetches.decrementAndGet();
+        wakeFetchWaiters();
+    }
+
+    /**
+     * Method to call the waiters back while permits are free. A waiter that has nothing left to fetch leaves its
+     * permit free for the next one.
+     */
+    private void wakeFetchWaiters() {
+        while (inFlightFetches.get() < maxInFlightFetches) {
+            Runnable waiter = fetchWaiters.poll();
+            if (waiter == null) {
+                return;
+            }
+            waiter.run();
+        }
+    }
+
+    private static boolean tryIncrement(AtomicInteger counter, int max) {
+        while (true) {
+            int current = counter.get();
+            if (current >= max) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Method to check if the application is saturated, i.e. new crawls would be rejected
+     * @return true if the maximum number of crawls is running
+     */
+    public boolean isSaturated() {
+        return runningCrawls.get() >= maxConcurrentCrawls;
+    }
+
+    public int getMaxConcurrentCrawls() {
+        return maxConcurrentCrawls;
+    }
+
+    public int getMaxQueuedTasksPerCrawl() {
+        return maxQueuedTasksPerCrawl;
+    }
+
+    public int getMaxInFlightFetches() {
+        return maxInFlightFetches;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public int getRunningCrawls() {
+        return runningCrawls.get();
+    }
+
+    public int getInFlightFetches() {
+        return inFlightFetches.get();
+    }
+
+    /**
+     * Method to get the highest number of webpages fetched at the same time since the application started
+     * @return peak number of in flight fetches
+     */
+    public int getPeakInFlightFetches() {
+        return peakInFlightFetches.get();
+    }
+
+    /**
+     * Method to get the number of crawls waiting for a fetch permit
+     * @return number of waiting crawls
+     */
+    public int getWaitingCrawls() {
+        return fetchWaiters.size();
+    }
+
+    public long getRejectedCrawls() {
+        return rejectedCrawls.get();
+    }
+
+    public long getDroppedTasks() {
+        return droppedTasks.get();
+    }
+
+    /**
+     * Method to get the number of times a crawl had to wait for a fetch permit
+     * @return number of waits
+     */
+    public long getFetchPermitWaits() {
+        return fetchPermitWaits.get();
+    }
+}
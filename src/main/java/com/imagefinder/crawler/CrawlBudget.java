@@ -0,0 +1,159 @@
+package com.imagefinder.crawler;
+
+import java.util.function.Function;
+
+/**
+ * Limits of a single crawl: the depth of the subpage tree, the number of webpages fetched, the bytes downloaded, the
+ * images found and the time taken. The first limit reached stops the crawl, which completes with the data extracted
+ * so far. The defaults can be overridden with system properties, e.g. -Dimagefinder.budget.maxPages=500; a value
+ * of 0 means no limit, except for the depth.
+ */
+public final class CrawlBudget {
+
+    private static final String PROPERTY_PREFIX = "imagefinder.budget.";
+
+    /**
+     * Budget without any limit but the default depth
+     */
+    public static final CrawlBudget UNLIMITED = new CrawlBudget(2, 0, 0, 0, 0);
+
+    private final int maxDepth;
+    private final long maxPages;
+    private final long maxBytes;
+    private final long maxImages;
+    private final long maxDurationMillis;
+
+    private static final class DefaultHolder {
+        private static final CrawlBudget INSTANCE = fromSystemProperties();
+    }
+
+    /**
+     * Constructor for the CrawlBudget class
+     * @param maxDepth: depth of the subpage tree traversal, 1 to crawl the base webpage only
+     * @param maxPages: number of webpages fetched, 0 for no limit
+     * @param maxBytes: bytes of the webpages downloaded, 0 for no limit
+     * @param maxImages: number of images found, 0 for no limit
+     * @param maxDurationMillis: time after which the crawl is stopped, 0 for no limit
+     */
+    public CrawlBudget(int maxDepth, long maxPages, long maxBytes, long maxImages, long maxDurationMillis) {
+        if (maxDepth < 1 || maxPages < 0 || maxBytes < 0 || maxImages < 0 || maxDurationMillis < 0) {
+            throw new IllegalArgumentException("Invalid crawl budget: depth " + maxDepth + ", pages " + maxPages
+                    + ", bytes " + maxBytes + ", images " + maxImages + ", duration " + maxDurationMillis);
+        }
+        this.maxDepth = maxDepth;
+        this.maxPages = maxPages;
+        this.maxBytes = maxBytes;
+        this.maxImages = maxImages;
+        this.maxDurationMillis = maxDurationMillis;
+    }
+
+    /**
+     * Method to create the budget from the system properties, falling back to the defaults
+     * @return budget of the crawls
+     */
+    public static CrawlBudget fromSystemProperties() {
+        return new CrawlBudget(
+                Integer.getInteger(PROPERTY_PREFIX + "maxDepth", UNLIMITED.maxDepth),
+                Long.getLong(PROPERTY_PREFIX + "maxPages", 0L),
+                Long.getLong(PROPERTY_PREFIX + "maxBytes", 0L),
+                Long.getLong(PROPERTY_PREFIX + "maxImages", 0L),
+                Long.getLong(PROPERTY_PREFIX + "maxDurationMs", 0L));
+    }
+
+    /**
+     * Method to return the budget of the crawls that do not ask for one
+     * @return default budget, read from the system properties on first use
+     */
+    public static CrawlBudget getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Method to narrow this budget down with the limits asked for by a request. A request can only lower the
+     * limits of this budget, so that a client cannot tie up the crawl threads for longer than the service allows.
+     * @param parameters: values of the request parameters maxDepth, maxPages, maxBytes, maxImages and timeoutMs by
+     *                  name, null for the absent ones
+     * @return the narrowed budget, this budget if the request asks for no limit
+     * @throws IllegalArgumentException if a parameter is not a positive number
+     */
+    public CrawlBudget narrow(Function<String, String> parameters) {
+        CrawlBudget narrowed = new CrawlBudget(
+                (int) Math.min(maxDepth, parse(parameters, "maxDepth", maxDepth)),
+                narrow(maxPages, parse(parameters, "maxPages", 0)),
+                narrow(maxBytes, parse(parameters, "maxBytes", 0)),
+                narrow(maxImages, parse(parameters, "maxImages", 0)),
+                narrow(maxDurationMillis, parse(parameters, "timeoutMs", 0)));
+        return narrowed.equals(this) ? this : narrowed;
+    }
+
+    private static long narrow(long limit, long requested) {
+        if (requested == 0) {
+            return limit;
+        }
+        return limit == 0 ? requested : Math.min(limit, requested);
+    }
+
+    private static long parse(Function<String, String> parameters, String name, long absent) {
+        String value = parameters.apply(name);
+        if (value == null || value.trim().isEmpty()) {
+            return absent;
+        }
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("The " + name + " parameter must be a positive number, got: " + value);
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getMaxPages() {
+        return maxPages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxImages() {
+        return maxImages;
+    }
+
+    public long getMaxDurationMillis() {
+        return maxDurationMillis;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CrawlBudget)) {
+            return false;
+        }
+        CrawlBudget budget = (CrawlBudget) other;
+        return maxDepth == budget.maxDepth && maxPages == budget.maxPages && maxBytes == budget.maxBytes
+                && maxImages == budget.maxImages && maxDurationMillis == budget.maxDurationMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = maxDepth;
+        hash = 31 * hash + Long.hashCode(maxPages);
+        hash = 31 * hash + Long.hashCode(maxBytes);
+        hash = 31 * hash + Long.hashCode(maxImages);
+        return 31 * hash + Long.hashCode(maxDurationMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + maxDepth + ",pages=" + maxPages + ",bytes=" + maxBytes + ",images=" + maxImages
+                + ",durationMs=" + maxDurationMillis;
+    }
+}
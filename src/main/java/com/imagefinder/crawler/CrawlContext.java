@@ -0,0 +1,554 @@
+package com.imagefinder.crawler;
+
+import com.imagefinder.cache.PageCache;
+import com.imagefinder.checkpoint.CrawlCheckpoint;
+import com.imagefinder.cluster.ClusterCrawl;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.dedup.DedupConfig;
+import com.imagefinder.dedup.NearDuplicateIndex;
+import com.imagefinder.dedup.SimHash;
+import com.imagefinder.fetcher.PageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.IHTMLParser;
+import com.imagefinder.htmlparsers.IStreamingHTMLParser;
+import com.imagefinder.htmlparsers.LinkParser;
+import com.imagefinder.htmlparsers.PageTags;
+import com.imagefinder.metrics.CrawlMetrics;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.robots.RobotsCache;
+import com.imagefinder.urls.CanonicalUrl;
+import com.imagefinder.urls.UrlCanonicalizer;
+import com.imagefinder.urls.UrlFingerprintSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * State of a single crawl, shared by all the tasks of that crawl and by nothing else. Every crawl gets its own
+ * context, so concurrent crawls (even of the same base URL) never see each other's visited URLs.
+ * The context also keeps the account of the budget of the crawl. Once the webpages, bytes or images of the budget are
+ * spent, the frontier is closed: the webpages in flight finish but no new one is started. Once its deadline is
+ * reached, the frontier is cancelled right away. Either way the crawl completes with the data extracted so far.
+ * The SimHash fingerprints of the webpages crawled are kept as well, so that the webpages of the crawl that are
+ * duplicates of another one (e.g. pagination, tag or query string variants of a template) are not fully processed.
+ * A crawl spread over a cluster has a partition: the subpages owned by other nodes are handed over to them, and the
+ * crawl completes once all the nodes are done with it rather than once the frontier of this node is drained.
+ * A checkpointed crawl records the webpages it schedules and those it is done with, so that it can be resumed after
+ * a restart with its visited urls and pending webpages.
+ * @param <T> Type of data we are attempting to extract from the webpages
+ */
+public class CrawlContext<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlContext.class);
+
+    private final String baseUrl;
+    // canonical fingerprints of the URLs already scheduled in this crawl
+    private final UrlFingerprintSet visitedUrls;
+    private final IHTMLParser<T> dataParser;
+    private final LinkParser linkParser;
+    private final CrawlDataStorage<T> crawlDataStorage;
+    // stage run on the data of every webpage before it is stored, null if the data is stored as extracted
+    private final DataEnricher<T> dataEnricher;
+    private final CrawlFrontier frontier;
+    // services (threads, politeness, fetcher) shared with the other crawls
+    private final CrawlServices services;
+    // webpages whose response was handed to the parsers
+    private final LongAdder fetchedPages = new LongAdder();
+    private final CrawlBudget budget;
+    // webpages whose fetch was started, checked against the budget
+    private final AtomicLong startedPages = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    // guards the check of the number of images against the budget with the store
+    private final Object imagesLock = new Object();
+    // first limit that stopped the crawl, null while it is running or if it completed on its own
+    private final AtomicReference<StopReason> stopReason = new AtomicReference<>();
+    private volatile ScheduledFuture<?> deadline;
+    // fingerprints of the webpages crawled, null if the duplicates are processed like any other webpage
+    private final NearDuplicateIndex nearDuplicates;
+    // webpages with fewer images and links than this are not fingerprinted
+    private final int minDuplicateFeatures;
+    private final LongAdder duplicatePages = new LongAdder();
+    // state of the crawl in the cluster, null if the crawl runs on this node only
+    private volatile ClusterCrawl partition;
+    // progress of the crawl recorded on disk, null if the crawl is not checkpointed
+    private volatile CrawlCheckpoint checkpoint;
+
+    /**
+     * Constructor for the CrawlContext class
+     * @param baseUrl: base url the crawl starts from
+     * @param dataParser: dataParser object to extract data from the HTML documents
+     * @param crawlDataStorage: object to store the data extracted from the HTML documents
+     * @param services: services shared by the crawls, used to run the tasks of this crawl
+     */
+    public CrawlContext(String baseUrl, IHTMLParser<T> dataParser, CrawlDataStorage<T> crawlDataStorage,
+                        CrawlServices services) {
+        this(baseUrl, dataParser, crawlDataStorage, null, services);
+    }
+
+    /**
+     * Constructor for the CrawlContext class with an enrichment stage
+     * @param baseUrl: base url the crawl starts from
+     * @param dataParser: dataParser object to extract data from the HTML documents
+     * @param crawlDataStorage: object to store the data extracted from the HTML documents
+     * @param dataEnricher: stage run on the data of every webpage before it is stored, null if there is none
+     * @param services: services shared by the crawls, used to run the tasks of this crawl
+     */
+    public CrawlContext(String baseUrl, IHTMLParser<T> dataParser, CrawlDataStorage<T> crawlDataStorage,
+                        DataEnricher<T> dataEnricher, CrawlServices services) {
+        this(baseUrl, dataParser, crawlDataStorage, dataEnricher, CrawlBudget.getDefault(), services);
+    }
+
+    /**
+     * Constructor for the CrawlContext class with an enrichment stage and a budget
+     * @param baseUrl: base url the crawl starts from
+     * @param dataParser: dataParser object to extract data from the HTML documents
+     * @param crawlDataStorage: object to store the data extracted from the HTML documents
+     * @param dataEnricher: stage run on the data of every webpage before it is stored, null if there is none
+     * @param budget: limits of the crawl
+     * @param services: services shared by the crawls, used to run the tasks of this crawl
+     */
+    public CrawlContext(String baseUrl, IHTMLParser<T> dataParser, CrawlDataStorage<T> crawlDataStorage,
+                        DataEnricher<T> dataEnricher, CrawlBudget budget, CrawlServices services) {
+        this.baseUrl = baseUrl;
+        this.budget = budget;
+        this.dataEnricher = dataEnricher;
+        this.visitedUrls = new UrlFingerprintSet();
+        this.dataParser = dataParser;
+        this.crawlDataStorage = crawlDataStorage;
+        this.services = services;
+        this.frontier = new CrawlFrontier(services.getCrawlExecutor(), services.getPolitenessScheduler(),
+                services.getRateLimiter(), services.getMaxConcurrencyPerCrawl(), services.getAdmissionController());
+        this.linkParser = new LinkParser(this);
+        DedupConfig dedupConfig = DedupConfig.getDefault();
+        this.nearDuplicates = dedupConfig.isEnabled() ? new NearDuplicateIndex(dedupConfig.getMaxDistance()) : null;
+        this.minDuplicateFeatures = dedupConfig.getMinFeatures();
+    }
+
+    /**
+     * Method to mark a url as visited in this crawl. The different spellings of a webpage (fragment, default port,
+     * case, trailing slash, www. prefix) are the same visited url.
+     * @param url: url to mark
+     * @return true if the url had not been visited in this crawl before, false otherwise
+     */
+    public boolean markVisited(String url) {
+        CanonicalUrl canonical = UrlCanonicalizer.canonicalize(url);
+        return canonical == null ? visitedUrls.add(url) : visitedUrls.add(canonical.getFingerprint());
+    }
+
+    /**
+     * Method to schedule a webpage on the frontier of this crawl. The webpage is recorded in the checkpoint first,
+     * so that it is recorded before the crawl is done with it.
+     * @param url: url of the webpage, already marked as visited
+     * @param depth: depth of the webpage
+     * @param priority: score of the webpage, the webpages with the highest priority are fetched first
+     * @return false if the webpage was dropped because the crawl is stopped or its queue is full
+     */
+    public boolean schedule(String url, int depth, double priority) {
+        CrawlCheckpoint crawlCheckpoint = checkpoint;
+        if (crawlCheckpoint != null && !frontier.isClosed()) {
+            crawlCheckpoint.recordPage(url, depth, priority);
+        }
+        return frontier.schedule(new CrawlTask<>(url, depth, this, priority));
+    }
+
+    /**
+     * Method to record in the checkpoint that the crawl is done with a webpage: its data is stored and its subpages
+     * are scheduled, so it is not fetched again if the crawl is resumed
+     * @param url: url of the webpage
+     */
+    public void recordPageDone(String url) {
+        CrawlCheckpoint crawlCheckpoint = checkpoint;
+        if (crawlCheckpoint != null && !frontier.isCancelled()) {
+            crawlCheckpoint.recordPageDone(url);
+        }
+    }
+
+    /**
+     * Method to resume the crawl interrupted by a restart from its checkpoint: its urls are visited again, the
+     * webpages it was done with are taken out of the budget and the pending ones are scheduled. The images of the
+     * crawl are restored by the owner of its storage.
+     * @param interrupted: checkpoint of the interrupted crawl
+     * @return number of webpages scheduled
+     */
+    public int resume(CrawlCheckpoint interrupted) {
+        for (String url : interrupted.getVisitedUrls()) {
+            markVisited(url);
+        }
+        startedPages.addAndGet(interrupted.getCompletedPages());
+        int scheduled = 0;
+        for (CrawlCheckpoint.Page page : interrupted.getPendingPages()) {
+            // already recorded in the checkpoint
+            if (frontier.schedule(new CrawlTask<>(page.getUrl(), page.getDepth(), this, page.getPriority()))) {
+                scheduled++;
+            }
+        }
+        return scheduled;
+    }
+
+    /**
+     * Method to check if a url has already been visited in this crawl
+     * @param url: url to check
+     * @return true if the url has been visited
+     */
+    public boolean isVisited(String url) {
+        CanonicalUrl canonical = UrlCanonicalizer.canonicalize(url);
+        return canonical == null ? visitedUrls.contains(url) : isVisited(canonical);
+    }
+
+    /**
+     * Method to check if an already canonicalized url has been visited in this crawl
+     * @param url: canonical url to check
+     * @return true if the url has been visited
+     */
+    public boolean isVisited(CanonicalUrl url) {
+        return visitedUrls.contains(url.getFingerprint());
+    }
+
+    /**
+     * Method to check, without waiting, if the robots.txt rules of the host of a url are known to disallow it, so
+     * that the url is not queued at all. Such urls are counted as skipped.
+     * @param url: url to check
+     * @return true if the url is known to be disallowed, false if it is allowed or its rules are not known yet
+     */
+    public boolean isKnownDisallowed(String url) {
+        RobotsCache robotsCache = services.getRobotsCache();
+        if (robotsCache == null || !robotsCache.isKnownDisallowed(url)) {
+            return false;
+        }
+        robotsCache.recordDisallowed();
+        return true;
+    }
+
+    /**
+     * Method to store the data extracted from a webpage. With an enrichment stage, the data is stored once it has
+     * gone through the stage, while the crawl goes on; the crawl completes once it is stored.
+     * @param data: data extracted from a webpage
+     * @return estimate of the number of new data points of the webpage, i.e. not extracted from another webpage of
+     * the crawl before. The data of the webpages stored concurrently may be counted, and the data going through the
+     * enrichment stage is all counted as new.
+     */
+    public int storeData(Collection<T> data) {
+        if (dataEnricher == null || data.isEmpty()) {
+            return storeWithinBudget(data);
+        }
+        frontier.track(dataEnricher.enrich(data).thenAccept(enriched -> {
+            if (!frontier.isCancelled()) {
+                storeWithinBudget(enriched);
+            }
+        }));
+        return data.size();
+    }
+
+    /**
+     * Method to store data, keeping the number of data points within the budget. The data beyond the budget is
+     * dropped and stops the crawl.
+     * @param data: data to store
+     * @return growth of the storage, i.e. the number of data points that were not stored yet
+     */
+    private int storeWithinBudget(Collection<T> data) {
+        long maxImages = budget.getMaxImages();
+        if (maxImages == 0) {
+            int sizeBefore = crawlDataStorage.size();
+            crawlDataStorage.storeMultipleData(data);
+            return crawlDataStorage.size() - sizeBefore;
+        }
+        synchronized (imagesLock) {
+            int sizeBefore = crawlDataStorage.size();
+            long remaining = maxImages - sizeBefore;
+            Collection<T> kept = data;
+            if (data.size() > remaining) {
+                List<T> head = new ArrayList<>((int) Math.max(0, remaining));
+                for (Iterator<T> iterator = data.iterator(); head.size() < remaining; ) {
+                    head.add(iterator.next());
+                }
+                kept = head;
+            }
+            if (!kept.isEmpty()) {
+                crawlDataStorage.storeMultipleData(kept);
+            }
+            int sizeAfter = crawlDataStorage.size();
+            if (sizeAfter >= maxImages) {
+                stop(StopReason.MAX_IMAGES);
+            }
+            return sizeAfter - sizeBefore;
+        }
+    }
+
+    /**
+     * Method to start the clock of the crawl: the crawl is stopped once the duration of its budget has elapsed
+     */
+    public void startDeadline() {
+        long maxDuration = budget.getMaxDurationMillis();
+        if (maxDuration == 0) {
+            return;
+        }
+        try {
+            deadline = services.getPolitenessScheduler().schedule(() -> stop(StopReason.DEADLINE), maxDuration,
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.error("Timer rejected the deadline of the crawl of the url: {}", baseUrl, e);
+            return;
+        }
+        // the timer does not outlive the crawl
+        onCompletion().thenRun(() -> deadline.cancel(false));
+    }
+
+    /**
+     * Method to take a webpage out of the budget before it is fetched
+     * @return true if the webpage can be fetched, false if the budget of webpages is spent (the crawl is stopped)
+     */
+    public boolean tryStartPage() {
+        long maxPages = budget.getMaxPages();
+        if (maxPages > 0 && startedPages.incrementAndGet() > maxPages) {
+            stop(StopReason.MAX_PAGES);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Method to account for the bytes of a response. The crawl is stopped once the budget of bytes is spent, the
+     * response itself is still processed.
+     * @param bytes: size of the body of the response
+     */
+    public void recordBytes(long bytes) {
+        long maxBytes = budget.getMaxBytes();
+        if (downloadedBytes.addAndGet(bytes) >= maxBytes && maxBytes > 0) {
+            stop(StopReason.MAX_BYTES);
+        }
+    }
+
+    /**
+     * Method to stop the crawl. The first reason is kept. A cancelled crawl or a crawl past its deadline drops the
+     * webpages in flight, the other limits let them finish.
+     * @param reason: why the crawl is stopped
+     */
+    public void stop(StopReason reason) {
+        if (!stopReason.compareAndSet(null, reason)) {
+            return;
+        }
+        if (reason.isBudgetLimit()) {
+            LOGGER.info("Stopping the crawl of the base URL: {} on its budget ({}): {}", baseUrl, budget, reason);
+        }
+        if (reason == StopReason.CANCELLED || reason == StopReason.DEADLINE) {
+            frontier.cancel();
+        } else {
+            frontier.close();
+        }
+        ClusterCrawl clusterCrawl = partition;
+        if (clusterCrawl != null) {
+            clusterCrawl.onStopped(reason);
+        }
+    }
+
+    /**
+     * Method to get notified once the crawl is complete, without blocking a thread
+     * @return future completed once the frontier is drained, or once all the nodes are done with the crawl if it is
+     * spread over a cluster
+     */
+    public CompletableFuture<Void> onCompletion() {
+        ClusterCrawl clusterCrawl = partition;
+        return clusterCrawl != null && clusterCrawl.isCoordinating()
+                ? clusterCrawl.onTermination() : frontier.onCompletion();
+    }
+
+    /**
+     * Method to block the calling thread until the crawl is complete
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        try {
+            onCompletion().get();
+        } catch (ExecutionException e) {
+            // the completion futures are never completed exceptionally
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Method to spread the crawl over a cluster
+     * @param partition: state of the crawl in the cluster
+     */
+    public void setPartition(ClusterCrawl partition) {
+        this.partition = partition;
+    }
+
+    /**
+     * Method to record the progress of the crawl in a checkpoint
+     * @param checkpoint: checkpoint of the crawl, null if the crawl is not checkpointed
+     */
+    public void setCheckpoint(CrawlCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Method to get the state of the crawl in the cluster
+     * @return the partition of the crawl, null if the crawl runs on this node only
+     */
+    public ClusterCrawl getPartition() {
+        return partition;
+    }
+
+    /**
+     * Method to get why the crawl stopped
+     * @return the limit that stopped the crawl, CANCELLED if it was cancelled, COMPLETED otherwise (also while it
+     * is running)
+     */
+    public StopReason getStopReason() {
+        StopReason reason = stopReason.get();
+        return reason != null ? reason : (frontier.isCancelled() ? StopReason.CANCELLED : StopReason.COMPLETED);
+    }
+
+    public CrawlBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Method to get the number of bytes of the responses of this crawl
+     * @return bytes downloaded so far
+     */
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    /**
+     * Method to record a webpage of this crawl whose response is handed to the parsers
+     */
+    public void recordPageFetched() {
+        fetchedPages.increment();
+        CrawlMetrics.getInstance().recordPageFetched();
+    }
+
+    /**
+     * Method to check if the webpages of this crawl are checked for duplicates
+     * @return true if the webpages are fingerprinted
+     */
+    public boolean isDuplicateDetection() {
+        return nearDuplicates != null;
+    }
+
+    /**
+     * Method to check if a webpage is a duplicate of a webpage already crawled, comparing the SimHash of their images
+     * and links. The fingerprint of the webpage is kept if it is not.
+     * @param url: url of the webpage
+     * @param tags: tags of the webpage
+     * @return number of bits by which the fingerprint of the webpage differs from the nearest one: 0 for a duplicate,
+     * up to the maximum distance of the configuration for a near-duplicate; -1 if the webpage is not a duplicate
+     */
+    public int checkDuplicate(String url, PageTags tags) {
+        if (nearDuplicates == null || tags.imageCount() + tags.linkCount() < minDuplicateFeatures) {
+            return -1;
+        }
+        int distance = nearDuplicates.addIfAbsent(SimHash.of(tags));
+        if (distance >= 0) {
+            LOGGER.debug("The url:{} is a duplicate (distance {}) of a webpage already crawled", url, distance);
+            duplicatePages.increment();
+            CrawlMetrics.getInstance().recordDuplicatePage(distance == 0, tags.imageCount(), tags.linkCount());
+        }
+        return distance;
+    }
+
+    /**
+     * Method to get the number of webpages of this crawl found to be duplicates or near-duplicates of another one
+     * @return number of duplicate webpages
+     */
+    public long getDuplicatePages() {
+        return duplicatePages.sum();
+    }
+
+    /**
+     * Method to get the priority of a subpage on the frontier of this crawl
+     * @param url: canonical url of the subpage
+     * @param linkText: text of the link to the subpage, null if unknown (e.g. for the webpages of the sitemaps)
+     * @param parentImages: number of new images found on the webpage linking to the subpage
+     * @param depth: depth of the subpage
+     * @return score of the subpage, the same for all of them if the crawls fetch their subpages in order
+     */
+    public double scoreLink(String url, String linkText, int parentImages, int depth) {
+        LinkScorer linkScorer = services.getLinkScorer();
+        return linkScorer == null ? 0 : linkScorer.score(url, linkText, parentImages, depth);
+    }
+
+    /**
+     * Method to get the number of webpages of this crawl handed to the parsers so far
+     * @return number of webpages fetched
+     */
+    public long getFetchedPages() {
+        return fetchedPages.sum();
+    }
+
+    /**
+     * Method to check if the webpages of this crawl are extracted with the single pass streaming extractor. This
+     * is the case when it is the configured engine and both parsers support it.
+     * @return true if the streaming extractor is used, false if the webpages are parsed into a Jsoup document
+     */
+    public boolean isStreamingExtraction() {
+        return services.getExtractionEngine() == ExtractionEngine.STREAMING
+                && dataParser instanceof IStreamingHTMLParser && linkParser instanceof IStreamingHTMLParser;
+    }
+
+    /**
+     * Method to get the cache of the extracted webpages. Cached webpages are replayed through the streaming parsers,
+     * so the cache is only used when both parsers support them.
+     * @return the page cache, null if webpages are always downloaded and parsed
+     */
+    public PageCache getPageCache() {
+        boolean streamingParsers = dataParser instanceof IStreamingHTMLParser
+                && linkParser instanceof IStreamingHTMLParser;
+        return streamingParsers ? services.getPageCache() : null;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public UrlFingerprintSet getVisitedUrls() {
+        return visitedUrls;
+    }
+
+    public IHTMLParser<T> getDataParser() {
+        return dataParser;
+    }
+
+    public LinkParser getLinkParser() {
+        return linkParser;
+    }
+
+    public CrawlDataStorage<T> getCrawlDataStorage() {
+        return crawlDataStorage;
+    }
+
+    public CrawlFrontier getFrontier() {
+        return frontier;
+    }
+
+    public HostRateLimiter getRateLimiter() {
+        return services.getRateLimiter();
+    }
+
+    public PageFetcher getPageFetcher() {
+        return services.getPageFetcher();
+    }
+
+    public Executor getCrawlExecutor() {
+        return services.getCrawlExecutor();
+    }
+
+    public RobotsCache getRobotsCache() {
+        return services.getRobotsCache();
+    }
+}
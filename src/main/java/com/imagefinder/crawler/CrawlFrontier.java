@@ -0,0 +1,415 @@
+package com.imagefinder.crawler;
+
+import com.imagefinder.politeness.HostRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frontier of the pending work for a single crawl. Every work item is a CrawlTask holding the (url, depth) pair
+ * to crawl. Work items are queued here and drained onto the shared executor by at most maxConcurrency workers at a
+ * time, so a crawl never has more than maxConcurrency webpages in flight regardless of the shape of the site.
+ * The queued work items are run best-first: the one with the highest priority (the score of its link) goes first,
+ * and work items of equal priority go in the order they were scheduled, so a crawl whose tasks all have the same
+ * priority is a plain breadth-first crawl.
+ * A task never waits for the tasks it spawns: the crawl is complete once the number of outstanding work items
+ * (queued or running) drops to zero. When the crawl is spread over a cluster, work may come back from the other
+ * nodes: the frontier then reports every drop to zero to its idle listener instead of completing.
+ * Before a work item is run, a permit is reserved from the per-host rate limiter. If the host is not ready yet, the
+ * work item keeps its worker slot and is handed back to the frontier by a timer once the delay has elapsed, so
+ * waiting for politeness never blocks a thread.
+ * Only then does the work item take one of the fetch permits shared by all the crawls, so that the politeness delays
+ * of a crawl never hold permits the other crawls could fetch with. If none is free, the frontier registers itself
+ * with the admission controller and dispatches again once a permit is released.
+ * At most maxQueuedTasks work items are kept queued: the subpages found beyond that are dropped.
+ * A cancelled frontier drops its queued work items and completes right away; the work items already running stop at
+ * their next step (they neither extract data nor schedule subpages anymore). A closed frontier drops its queued work
+ * items and accepts no new ones, but lets the running ones finish: it completes once they are done.
+ */
+public class CrawlFrontier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlFrontier.class);
+
+    // highest priority first, then first scheduled first
+    private static final Comparator<CrawlTask<?>> BEST_FIRST = Comparator
+            .comparingDouble((CrawlTask<?> task) -> -task.getPriority())
+            .thenComparingLong(CrawlTask::getSequence);
+
+    // work items scheduled but not yet reserved from the rate limiter
+    private final Queue<CrawlTask<?>> pendingTasks = new PriorityBlockingQueue<>(16, BEST_FIRST);
+    // work items holding a worker slot whose host is ready, waiting for a fetch permit
+    private final Queue<CrawlTask<?>> readyTasks = new ConcurrentLinkedQueue<>();
+    // number of work items ever scheduled, giving the order of the work items of equal priority
+    private final AtomicLong scheduledTasks = new AtomicLong();
+    // number of work items that are either queued or running
+    private final AtomicInteger outstandingTasks = new AtomicInteger();
+    // number of work items holding a worker slot: waiting for their host or a fetch permit, or on the executor
+    private final AtomicInteger runningTasks = new AtomicInteger();
+    // number of work items in pendingTasks, whose size() takes the lock of the queue
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+    // number of work items dropped because the queue was full
+    private final AtomicInteger droppedTasks = new AtomicInteger();
+    // true while this frontier is registered as a waiter for a fetch permit
+    private final AtomicBoolean waitingForFetchPermit = new AtomicBoolean();
+    // completed once there is no outstanding work left in the frontier
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final Executor executor;
+    // timer used to delay work items of hosts that are not ready to receive another request
+    private final ScheduledExecutorService scheduler;
+    private final HostRateLimiter rateLimiter;
+    private final int maxConcurrency;
+    // global limits shared with the other crawls
+    private final AdmissionController admissionController;
+    private final int maxQueuedTasks;
+    private volatile boolean cancelled;
+    private volatile boolean closed;
+    // notified instead of completing once there is no outstanding work left, null if the frontier completes then
+    private volatile Runnable idleListener;
+
+    /**
+     * Constructor for the CrawlFrontier class
+     * @param executor: executor whose threads run the crawl tasks
+     * @param scheduler: timer used to delay the tasks until their host is ready to receive another request
+     * @param rateLimiter: per-host rate limiter consulted before running a task
+     * @param maxConcurrency: maximum number of tasks of this crawl allowed to be in flight at the same time
+     * @param admissionController: fetch permits and queue limit shared with the other crawls
+     */
+    public CrawlFrontier(Executor executor, ScheduledExecutorService scheduler, HostRateLimiter rateLimiter,
+                         int maxConcurrency, AdmissionController admissionController) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1, got " + maxConcurrency);
+        }
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.rateLimiter = rateLimiter;
+        this.maxConcurrency = maxConcurrency;
+        this.admissionController = admissionController;
+        this.maxQueuedTasks = admissionController.getMaxQueuedTasksPerCrawl();
+    }
+
+    /**
+     * Method to add a work item to the frontier. The method never blocks, the task is run once a worker slot of
+     * this crawl is free, its host is ready and a fetch permit is free.
+     * @param task: task crawling a single webpage
+     * @return false if the task was dropped because the crawl is cancelled or closed, or its queue is full
+     */
+    public boolean schedule(CrawlTask<?> task) {
+        if (cancelled || closed) {
+            return false;
+        }
+        if (queuedTasks.incrementAndGet() > maxQueuedTasks) {
+            queuedTasks.decrementAndGet();
+            if (droppedTasks.incrementAndGet() == 1) {
+                LOGGER.warn("Queue of the crawl is full ({} work items), dropping the url: {} and the next ones",
+                        maxQueuedTasks, task.getUrl());
+            }
+            admissionController.recordDroppedTask();
+            return false;
+        }
+        outstandingTasks.incrementAndGet();
+        task.setSequence(scheduledTasks.getAndIncrement());
+        pendingTasks.offer(task);
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Method to reserve the host of queued work items while this crawl has free worker slots, then hand over the
+     * work items whose host is ready to the executor while fetch permits are free.
+     */
+    private void dispatch() {
+        if (cancelled || closed) {
+            dropPendingTasks();
+            return;
+        }
+        while (!pendingTasks.isEmpty()) {
+            int running = runningTasks.get();
+            if (running >= maxConcurrency) {
+                // a running task calls dispatch again once it completes
+                break;
+            }
+            if (!runningTasks.compareAndSet(running, running + 1)) {
+                continue;
+            }
+            CrawlTask<?> task = pendingTasks.poll();
+            if (task == null) {
+                // another thread drained the queue in the meantime, give the slot back and check again
+                runningTasks.decrementAndGet();
+                continue;
+            }
+            queuedTasks.decrementAndGet();
+            long delayNanos = rateLimiter.reserve(task.getHost());
+            if (delayNanos > 0) {
+                try {
+                    scheduler.schedule(() -> onHostReady(task), delayNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    LOGGER.error("Timer rejected the crawl task for the url: {}", task.getUrl(), e);
+                    releaseSlot();
+                }
+            } else {
+                readyTasks.offer(task);
+            }
+        }
+        runReadyTasks();
+    }
+
+    /**
+     * Method called by the timer once the host of a work item is ready to receive its request
+     * @param task: task holding a worker slot
+     */
+    private void onHostReady(CrawlTask<?> task) {
+        readyTasks.offer(task);
+        dispatch();
+    }
+
+    /**
+     * Method to hand over the work items whose host is ready to the executor, each with a fetch permit
+     */
+    private void runReadyTasks() {
+        while (!readyTasks.isEmpty()) {
+            if (!admissionController.tryAcquireFetch()) {
+                if (waitingForFetchPermit.compareAndSet(false, true)) {
+                    admissionController.awaitFetchPermit(this::onFetchPermitAvailable);
+                }
+                return;
+            }
+            CrawlTask<?> task = readyTasks.poll();
+            if (task == null) {
+                // another thread drained the queue in the meantime, give the permit back and check again
+                admissionController.releaseFetch();
+                continue;
+            }
+            execute(task);
+        }
+    }
+
+    /**
+     * Method to hand over a work item holding a worker slot to the executor
+     * @param task: task to run
+     */
+    private void execute(CrawlTask<?> task) {
+        try {
+            executor.execute(() -> startTask(task));
+        } catch (RejectedExecutionException e) {
+            LOGGER.error("Executor rejected the crawl task for the url: {}", task.getUrl(), e);
+            releaseTask();
+        }
+    }
+
+    /**
+     * Method run on the executor thread for every work item. The task only starts the fetch of its webpage, the
+     * worker slot is released once the returned future completes.
+     * @param task: task to run
+     */
+    private void startTask(CrawlTask<?> task) {
+        CompletableFuture<Void> crawl;
+        try {
+            crawl = cancelled ? CompletableFuture.completedFuture(null) : task.crawl();
+        } catch (RuntimeException e) {
+            crawl = new CompletableFuture<>();
+            crawl.completeExceptionally(e);
+        }
+        crawl.whenComplete((result, failure) -> {
+            if (failure != null) {
+                LOGGER.error("Crawl task failed for the url: {}", task.getUrl(), failure);
+            }
+            releaseTask();
+        });
+    }
+
+    /**
+     * Method to give back the worker slot and the fetch permit of a work item once it is processed
+     */
+    private void releaseTask() {
+        admissionController.releaseFetch();
+        releaseSlot();
+    }
+
+    /**
+     * Method to give back the worker slot of a work item that did not get a fetch permit
+     */
+    private void releaseSlot() {
+        runningTasks.decrementAndGet();
+        completeTask();
+    }
+
+    /**
+     * Method called back by the admission controller once a fetch permit is released
+     */
+    private void onFetchPermitAvailable() {
+        waitingForFetchPermit.set(false);
+        dispatch();
+    }
+
+    /**
+     * Method to account for a finished work item. Child tasks are always scheduled before their parent finishes,
+     * so the outstanding count can only reach zero once the whole crawl is done.
+     */
+    private void completeTask() {
+        if (outstandingTasks.decrementAndGet() == 0) {
+            onIdle();
+        } else {
+            dispatch();
+        }
+    }
+
+    /**
+     * Method called whenever the outstanding work drops to zero: the frontier completes, unless an idle listener
+     * decides when the crawl is over
+     */
+    private void onIdle() {
+        Runnable listener = idleListener;
+        if (listener == null || cancelled) {
+            completion.complete(null);
+        } else {
+            listener.run();
+        }
+    }
+
+    /**
+     * Method to be notified whenever the frontier runs out of outstanding work, instead of having it complete. Used
+     * by the crawls spread over a cluster, which may receive more work from the other nodes after being idle.
+     * @param listener: called on the thread finishing the last outstanding work item, null to complete then
+     */
+    public void setIdleListener(Runnable listener) {
+        this.idleListener = listener;
+    }
+
+    /**
+     * Method to keep the crawl open until some asynchronous work started by its tasks (e.g. the enrichment of the
+     * data of a webpage) is done. The work does not hold a worker slot nor a fetch permit.
+     * @param work: future completed once the work is done
+     * @return false if the crawl is cancelled, the work is then not waited for
+     */
+    public boolean track(CompletableFuture<?> work) {
+        if (cancelled) {
+            return false;
+        }
+        outstandingTasks.incrementAndGet();
+        work.whenComplete((result, failure) -> {
+            if (failure != null) {
+                LOGGER.error("Asynchronous work of the crawl failed", failure);
+            }
+            completeTask();
+        });
+        return true;
+    }
+
+    /**
+     * Method to cancel the crawl: queued work items are dropped, running ones stop at their next step and the crawl
+     * is reported complete right away
+     */
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        LOGGER.info("Cancelling the crawl, dropping {} queued work items", queuedTasks.get());
+        dropPendingTasks();
+        completion.complete(null);
+    }
+
+    /**
+     * Method to close the frontier, e.g. once the budget of the crawl is spent: queued work items are dropped and no
+     * new ones are accepted, while the running ones finish and their data is kept
+     */
+    public void close() {
+        if (closed || cancelled) {
+            return;
+        }
+        closed = true;
+        LOGGER.info("Closing the crawl, dropping {} queued work items", queuedTasks.get());
+        dropPendingTasks();
+    }
+
+    /**
+     * Method to check if the frontier was closed or cancelled, i.e. it accepts no new work items
+     * @return true if the frontier was closed or cancelled
+     */
+    public boolean isClosed() {
+        return closed || cancelled;
+    }
+
+    /**
+     * Method to check if the crawl was cancelled
+     * @return true if the crawl was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void dropPendingTasks() {
+        while (pendingTasks.poll() != null) {
+            queuedTasks.decrementAndGet();
+            if (outstandingTasks.decrementAndGet() == 0) {
+                onIdle();
+            }
+        }
+        // the work items waiting for their host are dropped once it is ready
+        while (readyTasks.poll() != null) {
+            runningTasks.decrementAndGet();
+            if (outstandingTasks.decrementAndGet() == 0) {
+                onIdle();
+            }
+        }
+    }
+
+    /**
+     * Method to block the calling thread until every work item of the crawl has been processed
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        try {
+            completion.get();
+        } catch (ExecutionException e) {
+            // the completion future is never completed exceptionally
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Method to get notified once every work item of the crawl has been processed, without blocking a thread
+     * @return future completed once the frontier is drained
+     */
+    public CompletableFuture<Void> onCompletion() {
+        // a dependent stage, so that callers cannot complete the frontier's own future
+        return completion.thenApply(result -> result);
+    }
+
+    /**
+     * Method to get the number of work items that are either queued or running
+     * @return number of outstanding work items
+     */
+    public int getOutstandingTasks() {
+        return outstandingTasks.get();
+    }
+
+    /**
+     * Method to get the number of work items waiting for a worker slot or a fetch permit
+     * @return number of queued work items
+     */
+    public int getQueuedTasks() {
+        return queuedTasks.get();
+    }
+
+    /**
+     * Method to get the number of work items dropped because the queue of the crawl was full
+     * @return number of dropped work items
+     */
+    public int getDroppedTasks() {
+        return droppedTasks.get();
+    }
+}
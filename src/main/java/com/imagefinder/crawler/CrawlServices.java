@@ -0,0 +1,251 @@
+package com.imagefinder.crawler;
+
+import com.imagefinder.cache.PageCache;
+import com.imagefinder.cluster.ClusterConfig;
+import com.imagefinder.cluster.ClusterNode;
+import com.imagefinder.cluster.ConsistentHashRing;
+import com.imagefinder.cluster.HttpClusterTransport;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PageFetcher;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.robots.RobotsCache;
+import com.imagefinder.robots.RobotsConfig;
+import com.imagefinder.utils.DaemonThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Services shared by all the crawls of the application: the threads parsing the webpages, the politeness timer and
+ * rate limiter, the fetcher downloading the webpages, the cache of the extracted webpages, the admission controller
+ * limiting the load of the crawls, the cache of the robots.txt rules, the scorer ranking the subpages and, in
+ * cluster mode, the node spreading the crawls over the cluster.
+ */
+public class CrawlServices {
+
+    // maximum number of webpages a single crawl may have in flight (being fetched or parsed) at the same time
+    private static final int DEFAULT_MAX_CONCURRENCY_PER_CRAWL = 64;
+
+    private final ExecutorService crawlExecutor;
+    private final ScheduledExecutorService politenessScheduler;
+    private final HostRateLimiter rateLimiter;
+    private final PageFetcher pageFetcher;
+    private final int maxConcurrencyPerCrawl;
+    private final ExtractionEngine extractionEngine;
+    // extraction of the crawled webpages, revalidated with conditional requests; null if disabled
+    private final PageCache pageCache;
+    private final AdmissionController admissionController;
+    // robots.txt rules of the hosts, null if the robots.txt files are ignored
+    private final RobotsCache robotsCache;
+    // ranks the subpages of the crawls so that the most promising ones are fetched first, null to fetch them in order
+    private final LinkScorer linkScorer;
+    // node of the cluster the crawls are spread over, null if they run on this node only
+    private final ClusterNode clusterNode;
+
+    private static final class DefaultHolder {
+        private static final CrawlServices INSTANCE = createDefault();
+
+        private static CrawlServices createDefault() {
+            PageFetcher pageFetcher = new PooledPageFetcher(FetcherConfig.fromSystemProperties());
+            RobotsConfig robotsConfig = RobotsConfig.fromSystemProperties();
+            return new CrawlServices(
+                    // the crawl threads only parse the fetched webpages, so a thread per core is enough
+                    Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2,
+                            new DaemonThreadFactory("crawl-worker-")),
+                    Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("crawl-politeness-timer-")),
+                    HostRateLimiter.getInstance(),
+                    pageFetcher,
+                    Integer.getInteger("imagefinder.crawl.maxConcurrency", DEFAULT_MAX_CONCURRENCY_PER_CRAWL),
+                    ExtractionEngine.fromSystemProperties(),
+                    Boolean.parseBoolean(System.getProperty("imagefinder.pageCache.enabled", "true"))
+                            ? PageCache.getInstance() : null,
+                    AdmissionController.fromSystemProperties(),
+                    robotsConfig.isEnabled()
+                            ? new RobotsCache(pageFetcher, HostRateLimiter.getInstance(), robotsConfig) : null,
+                    Boolean.parseBoolean(System.getProperty("imagefinder.frontier.bestFirst", "true"))
+                            ? new LinkScorer() : null,
+                    createClusterNode(ClusterConfig.getDefault()));
+        }
+
+        private static ClusterNode createClusterNode(ClusterConfig config) {
+            if (!config.isEnabled()) {
+                return null;
+            }
+            return new ClusterNode(config.getNodeId(),
+                    new ConsistentHashRing(config.getNodes().keySet(), config.getVirtualNodes()),
+                    config.getShardBy(),
+                    new HttpClusterTransport(config.getNodes(), config.getTimeoutMs(), config.getSecret(),
+                            Executors.newCachedThreadPool(new DaemonThreadFactory("cluster-sender-"))));
+        }
+    }
+
+    /**
+     * Constructor for the CrawlServices class
+     * @param crawlExecutor: executor running the crawl tasks (parsing and scheduling of the subpages)
+     * @param politenessScheduler: timer delaying the tasks until their host is ready to receive another request
+     * @param rateLimiter: per-host rate limiter
+     * @param pageFetcher: fetcher downloading the webpages
+     * @param maxConcurrencyPerCrawl: maximum number of webpages a single crawl may have in flight
+     * @param extractionEngine: way of extracting data from the fetched webpages
+     * @param pageCache: cache of the extracted webpages, null to download and parse every webpage
+     */
+    public CrawlServices(ExecutorService crawlExecutor, ScheduledExecutorService politenessScheduler,
+                         HostRateLimiter rateLimiter, PageFetcher pageFetcher, int maxConcurrencyPerCrawl,
+                         ExtractionEngine extractionEngine, PageCache pageCache) {
+        this(crawlExecutor, politenessScheduler, rateLimiter, pageFetcher, maxConcurrencyPerCrawl, extractionEngine,
+                pageCache, AdmissionController.unlimited());
+    }
+
+    /**
+     * Constructor for the CrawlServices class with admission control
+     * @param crawlExecutor: executor running the crawl tasks (parsing and scheduling of the subpages)
+     * @param politenessScheduler: timer delaying the tasks until their host is ready to receive another request
+     * @param rateLimiter: per-host rate limiter
+     * @param pageFetcher: fetcher downloading the webpages
+     * @param maxConcurrencyPerCrawl: maximum number of webpages a single crawl may have in flight
+     * @param extractionEngine: way of extracting data from the fetched webpages
+     * @param pageCache: cache of the extracted webpages, null to download and parse every webpage
+     * @param admissionController: limits on the crawls, their queues and the fetches in flight
+     */
+    public CrawlServices(ExecutorService crawlExecutor, ScheduledExecutorService politenessScheduler,
+                         HostRateLimiter rateLimiter, PageFetcher pageFetcher, int maxConcurrencyPerCrawl,
+                         ExtractionEngine extractionEngine, PageCache pageCache,
+                         AdmissionController admissionController) {
+        this(crawlExecutor, politenessScheduler, rateLimiter, pageFetcher, maxConcurrencyPerCrawl, extractionEngine,
+                pageCache, admissionController, null);
+    }
+
+    /**
+     * Constructor for the CrawlServices class with admission control and robots.txt rules
+     * @param crawlExecutor: executor running the crawl tasks (parsing and scheduling of the subpages)
+     * @param politenessScheduler: timer delaying the tasks until their host is ready to receive another request
+     * @param rateLimiter: per-host rate limiter
+     * @param pageFetcher: fetcher downloading the webpages
+     * @param maxConcurrencyPerCrawl: maximum number of webpages a single crawl may have in flight
+     * @param extractionEngine: way of extracting data from the fetched webpages
+     * @param pageCache: cache of the extracted webpages, null to download and parse every webpage
+     * @param admissionController: limits on the crawls, their queues and the fetches in flight
+     * @param robotsCache: robots.txt rules of the hosts, null to ignore the robots.txt files and the sitemaps
+     */
+    public CrawlServices(ExecutorService crawlExecutor, ScheduledExecutorService politenessScheduler,
+                         HostRateLimiter rateLimiter, PageFetcher pageFetcher, int maxConcurrencyPerCrawl,
+                         ExtractionEngine extractionEngine, PageCache pageCache,
+                         AdmissionController admissionController, RobotsCache robotsCache) {
+        this(crawlExecutor, politenessScheduler, rateLimiter, pageFetcher, maxConcurrencyPerCrawl, extractionEngine,
+                pageCache, admissionController, robotsCache, null);
+    }
+
+    /**
+     * Constructor for the CrawlServices class with admission control, robots.txt rules and best-first crawls
+     * @param crawlExecutor: executor running the crawl tasks (parsing and scheduling of the subpages)
+     * @param politenessScheduler: timer delaying the tasks until their host is ready to receive another request
+     * @param rateLimiter: per-host rate limiter
+     * @param pageFetcher: fetcher downloading the webpages
+     * @param maxConcurrencyPerCrawl: maximum number of webpages a single crawl may have in flight
+     * @param extractionEngine: way of extracting data from the fetched webpages
+     * @param pageCache: cache of the extracted webpages, null to download and parse every webpage
+     * @param admissionController: limits on the crawls, their queues and the fetches in flight
+     * @param robotsCache: robots.txt rules of the hosts, null to ignore the robots.txt files and the sitemaps
+     * @param linkScorer: scorer of the subpages, the best ones being fetched first; null to fetch them in the order
+     *                    they are found
+     */
+    public CrawlServices(ExecutorService crawlExecutor, ScheduledExecutorService politenessScheduler,
+                         HostRateLimiter rateLimiter, PageFetcher pageFetcher, int maxConcurrencyPerCrawl,
+                         ExtractionEngine extractionEngine, PageCache pageCache,
+                         AdmissionController admissionController, RobotsCache robotsCache, LinkScorer linkScorer) {
+        this(crawlExecutor, politenessScheduler, rateLimiter, pageFetcher, maxConcurrencyPerCrawl, extractionEngine,
+                pageCache, admissionController, robotsCache, linkScorer, null);
+    }
+
+    /**
+     * Constructor for the CrawlServices class with admission control, robots.txt rules, best-first crawls and a
+     * cluster. The node of the cluster is started with these services.
+     * @param crawlExecutor: executor running the crawl tasks (parsing and scheduling of the subpages)
+     * @param politenessScheduler: timer delaying the tasks until their host is ready to receive another request
+     * @param rateLimiter: per-host rate limiter
+     * @param pageFetcher: fetcher downloading the webpages
+     * @param maxConcurrencyPerCrawl: maximum number of webpages a single crawl may have in flight
+     * @param extractionEngine: way of extracting data from the fetched webpages
+     * @param pageCache: cache of the extracted webpages, null to download and parse every webpage
+     * @param admissionController: limits on the crawls, their queues and the fetches in flight
+     * @param robotsCache: robots.txt rules of the hosts, null to ignore the robots.txt files and the sitemaps
+     * @param linkScorer: scorer of the subpages, the best ones being fetched first; null to fetch them in the order
+     *                    they are found
+     * @param clusterNode: node of the cluster the crawls are spread over, null to run them on this node only
+     */
+    public CrawlServices(ExecutorService crawlExecutor, ScheduledExecutorService politenessScheduler,
+                         HostRateLimiter rateLimiter, PageFetcher pageFetcher, int maxConcurrencyPerCrawl,
+                         ExtractionEngine extractionEngine, PageCache pageCache,
+                         AdmissionController admissionController, RobotsCache robotsCache, LinkScorer linkScorer,
+                         ClusterNode clusterNode) {
+        this.crawlExecutor = crawlExecutor;
+        this.politenessScheduler = politenessScheduler;
+        this.rateLimiter = rateLimiter;
+        this.pageFetcher = pageFetcher;
+        this.maxConcurrencyPerCrawl = maxConcurrencyPerCrawl;
+        this.extractionEngine = extractionEngine;
+        this.pageCache = pageCache;
+        this.admissionController = admissionController;
+        this.robotsCache = robotsCache;
+        this.linkScorer = linkScorer;
+        this.clusterNode = clusterNode;
+        if (clusterNode != null) {
+            clusterNode.start(this);
+        }
+    }
+
+    /**
+     * Method to return the services used by the crawls of the application
+     * @return default services, created on first use
+     */
+    public static CrawlServices getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public ExecutorService getCrawlExecutor() {
+        return crawlExecutor;
+    }
+
+    public ScheduledExecutorService getPolitenessScheduler() {
+        return politenessScheduler;
+    }
+
+    public HostRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public PageFetcher getPageFetcher() {
+        return pageFetcher;
+    }
+
+    public int getMaxConcurrencyPerCrawl() {
+        return maxConcurrencyPerCrawl;
+    }
+
+    public ExtractionEngine getExtractionEngine() {
+        return extractionEngine;
+    }
+
+    public PageCache getPageCache() {
+        return pageCache;
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    public RobotsCache getRobotsCache() {
+        return robotsCache;
+    }
+
+    public LinkScorer getLinkScorer() {
+        return linkScorer;
+    }
+
+    public ClusterNode getClusterNode() {
+        return clusterNode;
+    }
+}
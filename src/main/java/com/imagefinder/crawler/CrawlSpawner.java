@@ -1,13 +1,27 @@
 package com.imagefinder.crawler;
 
+import com.imagefinder.checkpoint.CrawlCheckpoint;
+import com.imagefinder.cluster.ClusterCrawl;
+import com.imagefinder.cluster.ClusterMessage;
+import com.imagefinder.cluster.ClusterNode;
 import com.imagefinder.htmlparsers.IHTMLParser;
-import com.imagefinder.htmlparsers.LinkParser;
+import com.imagefinder.htmlparsers.ImageParser;
 import com.imagefinder.cache.LocalCache;
 import com.imagefinder.crawleddata.CrawlDataStorage;
-import com.imagefinder.urls.VisitedUrls;
+import com.imagefinder.metrics.CrawlMetrics;
+import com.imagefinder.robots.RobotsCache;
+import com.imagefinder.robots.RobotsRules;
+import com.imagefinder.robots.SitemapReader;
+import com.imagefinder.utils.URLUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.util.concurrent.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * class to spawn the thread that starts crawling webpages starting from the base URL (provided within the request)
@@ -19,9 +33,18 @@ public class CrawlSpawner<T> {
     private final CrawlDataStorage<T> crawlDataStorage;
     private final String baseUrl;
     private final IHTMLParser<T> dataParser;
-    static final ExecutorService executorService = Executors.newFixedThreadPool(1000); // Multi-threading
+    // stage run on the data of every webpage before it is stored, null if there is none
+    private final DataEnricher<T> dataEnricher;
+    // limits of the crawl
+    private final CrawlBudget budget;
+    // threads, politeness and fetcher used to run the crawl
+    private final CrawlServices services;
+    // context of the running crawl, null until the crawl is started
+    private volatile CrawlContext<T> context;
+    private volatile boolean cancelled;
+    // checkpoint the progress of the crawl is recorded to, null if the crawl is not checkpointed
+    private volatile CrawlCheckpoint checkpoint;
     private static final LocalCache localCache = LocalCache.getInstance();
-    private static final VisitedUrls visitedUrls = VisitedUrls.getInstance();
     private static final Logger LOGGER = LoggerFactory.getLogger(CrawlSpawner.class);
 
     /**
@@ -32,9 +55,51 @@ public class CrawlSpawner<T> {
      *                  data from the webpage.
      */
     public CrawlSpawner(String baseUrl, CrawlDataStorage<T> crawlDataStorage, IHTMLParser<T> dataParser) {
+        this(baseUrl, crawlDataStorage, dataParser, CrawlServices.getDefault());
+    }
+
+    /**
+     * constructor to create an object of the class CrawlSpawner running on specific services
+     * @param baseUrl: base url provided within the request to extract data from
+     * @param crawlDataStorage: object to store the extracted data
+     * @param dataParser: parser object to parse data from a webpage.
+     * @param services: threads, politeness and fetcher used to run the crawl
+     */
+    public CrawlSpawner(String baseUrl, CrawlDataStorage<T> crawlDataStorage, IHTMLParser<T> dataParser,
+                        CrawlServices services) {
+        this(baseUrl, crawlDataStorage, dataParser, null, services);
+    }
+
+    /**
+     * constructor to create an object of the class CrawlSpawner with an enrichment stage
+     * @param baseUrl: base url provided within the request to extract data from
+     * @param crawlDataStorage: object to store the extracted data
+     * @param dataParser: parser object to parse data from a webpage.
+     * @param dataEnricher: stage run on the data of every webpage before it is stored, null if there is none
+     * @param services: threads, politeness and fetcher used to run the crawl
+     */
+    public CrawlSpawner(String baseUrl, CrawlDataStorage<T> crawlDataStorage, IHTMLParser<T> dataParser,
+                        DataEnricher<T> dataEnricher, CrawlServices services) {
+        this(baseUrl, crawlDataStorage, dataParser, dataEnricher, CrawlBudget.getDefault(), services);
+    }
+
+    /**
+     * constructor to create an object of the class CrawlSpawner with an enrichment stage and a budget
+     * @param baseUrl: base url provided within the request to extract data from
+     * @param crawlDataStorage: object to store the extracted data
+     * @param dataParser: parser object to parse data from a webpage.
+     * @param dataEnricher: stage run on the data of every webpage before it is stored, null if there is none
+     * @param budget: limits of the crawl (depth, webpages, bytes, images and duration)
+     * @param services: threads, politeness and fetcher used to run the crawl
+     */
+    public CrawlSpawner(String baseUrl, CrawlDataStorage<T> crawlDataStorage, IHTMLParser<T> dataParser,
+                        DataEnricher<T> dataEnricher, CrawlBudget budget, CrawlServices services) {
         this.baseUrl = baseUrl;
         this.crawlDataStorage = crawlDataStorage;
         this.dataParser = dataParser;
+        this.dataEnricher = dataEnricher;
+        this.budget = budget;
+        this.services = services;
     }
 
     /**
@@ -42,33 +107,265 @@ public class CrawlSpawner<T> {
      * @return object containing the collection of data crawled from the webpage and its subpages.
      */
     public CrawlDataStorage<T> startCrawl() {
-        // checking time taken to complete the crawling request
+        CrawlDataStorage<T> cachedData = getCachedData();
+        if (cachedData != null) {
+            return cachedData;
+        }
+        CrawlDataStorage<T> crawledData = crawl();
+        if (isComplete()) {
+            localCache.addData(this.baseUrl, crawledData);
+        }
+        return crawledData;
+    }
+
+    /**
+     * Method to start crawling data from the base webpage without blocking the calling thread. The data is added to
+     * the storage of this spawner as it is extracted, unless it is served from the cache.
+     * @return future completed with the object containing the collection of data crawled from the webpage and its
+     * subpages: the cached data, or the storage of this spawner once the crawl is complete
+     */
+    public CompletableFuture<CrawlDataStorage<T>> startCrawlAsync() {
+        CrawlDataStorage<T> cachedData = getCachedData();
+        if (cachedData != null) {
+            return CompletableFuture.completedFuture(cachedData);
+        }
         long startTime = System.currentTimeMillis();
+        return seedCrawl().onCompletion().thenApply(done -> {
+            CrawlDataStorage<T> crawledData = completeCrawl(startTime);
+            if (isComplete()) {
+                // the partial data of a cancelled crawl, or of a crawl stopped on its budget, is not cached
+                localCache.addData(this.baseUrl, crawledData);
+            }
+            return crawledData;
+        });
+    }
+
+    /**
+     * Method to cancel the crawl: the webpages not fetched yet are dropped and the crawl completes with the data
+     * extracted so far, which is not cached
+     */
+    public void cancel() {
+        this.cancelled = true;
+        CrawlContext<T> runningContext = this.context;
+        if (runningContext != null) {
+            runningContext.stop(StopReason.CANCELLED);
+        }
+    }
+
+    /**
+     * Method to record the progress of the crawl in a checkpoint, before the crawl is started. A checkpoint
+     * recovered after a restart resumes the interrupted crawl instead of starting from the base url.
+     * @param checkpoint: checkpoint of the crawl
+     */
+    public void setCheckpoint(CrawlCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Method to check if the crawl was cancelled
+     * @return true if cancel was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Method to get why the crawl stopped
+     * @return the limit of the budget that stopped the crawl, CANCELLED if it was cancelled, COMPLETED if it
+     * completed on its own or was served from the cache
+     */
+    public StopReason getStopReason() {
+        CrawlContext<T> runningContext = this.context;
+        if (runningContext == null) {
+            return this.cancelled ? StopReason.CANCELLED : StopReason.COMPLETED;
+        }
+        return runningContext.getStopReason();
+    }
+
+    /**
+     * Method to check if the crawl completed on its own with the default budget, so that its data can be cached.
+     * A crawl with a narrower budget (e.g. a lower depth) may complete with a subset of the data of the base url.
+     * @return false if the crawl was cancelled, stopped on its budget or ran with a budget other than the default
+     */
+    private boolean isComplete() {
+        return !this.cancelled && getStopReason() == StopReason.COMPLETED && usesDefaultBudget();
+    }
+
+    /**
+     * Method to check if the crawl runs with the default budget, the budget of the data held by the cache
+     * @return true if the budget of the crawl is the default one
+     */
+    private boolean usesDefaultBudget() {
+        return this.budget.equals(CrawlBudget.getDefault());
+    }
+
+    /**
+     * Method to get the data cached for the base url, refreshing it in the background if it is expired. The cache
+     * only serves the crawls with the default budget: the cached data would exceed the limits of a narrower one.
+     * @return the cached data, null if the base url has to be crawled
+     */
+    private CrawlDataStorage<T> getCachedData() {
         LOGGER.info("Spawning web crawl from the base URL: {}", baseUrl);
-        // clearing the collection of data from the visitedUrls objects, so that new crawl from a different webpage
-        // does not get effected by the existing set of visited URLS.
-        visitedUrls.clearVisitedUrls();
+        if (!usesDefaultBudget()) {
+            return null;
+        }
         // checking if our local cache contains data corresponding to the baseURL we are attempting to crawl
-        if (localCache.isVisited(baseUrl)) {
+        CrawlDataStorage<T> cachedData = localCache.getData(baseUrl);
+        if (cachedData != null) {
             LOGGER.info("Local cache already contains data corresponding to the this base url: {}", baseUrl);
-            return localCache.getData(baseUrl);
+            if (!localCache.isFresh(baseUrl)) {
+                // serving the expired data right away while this spawner's (still empty) storage is filled by a
+                // background crawl that replaces the cache entry once complete
+                localCache.refreshInBackground(baseUrl, () -> {
+                    CrawlDataStorage<T> refreshedData = crawl();
+                    return isComplete() ? refreshedData : null;
+                });
+            }
         }
-        else{
-            // creating a thread to start crawling from the base URL
-            Future<?> baseFuture = executorService.submit(new CrawlTask<>(this.baseUrl, 0, this.dataParser,
-                    new LinkParser(), this.crawlDataStorage));
-            try {
-                // waiting for the thread to complete crawling
-                baseFuture.get();
-            }catch (ExecutionException | InterruptedException e) {
-                LOGGER.error("Crawl failed at base URL with exception: ", e);
+        return cachedData;
+    }
+
+    /**
+     * Method to crawl the base webpage and its subpages into the storage of this spawner, bypassing the cache
+     * @return object containing the collection of data crawled from the webpage and its subpages.
+     */
+    private CrawlDataStorage<T> crawl() {
+        // checking time taken to complete the crawling request
+        long startTime = System.currentTimeMillis();
+        CrawlContext<T> context = seedCrawl();
+        try {
+            // waiting for the frontier to drain, or for all the nodes of the cluster to be done with the crawl
+            context.awaitCompletion();
+        } catch (InterruptedException e) {
+            LOGGER.error("Crawl failed at base URL with exception: ", e);
+            Thread.currentThread().interrupt();
+        }
+        return completeCrawl(startTime);
+    }
+
+    /**
+     * Method to create the context of the crawl (own visited URLs and frontier, so that concurrent crawls do not
+     * affect each other) and seed its frontier with the base URL. When the robots.txt files are honoured, the
+     * webpages listed by the sitemaps of the website are seeded as well, once its robots.txt file is read, unless
+     * the budget of the crawl only covers the base webpage (a depth of 1).
+     * In cluster mode, the image crawls are spread over the nodes: the webpages owned by other nodes, the base URL
+     * included, are handed over to them. Such crawls are not checkpointed, their state being spread over the nodes.
+     * A crawl resumed from its checkpoint is seeded with the webpages it had not fetched instead of the base URL; its
+     * sitemaps are read again, the webpages it already visited being skipped.
+     * @return context of the started crawl
+     */
+    private CrawlContext<T> seedCrawl() {
+        CrawlContext<T> context = new CrawlContext<>(this.baseUrl, this.dataParser, this.crawlDataStorage,
+                this.dataEnricher, this.budget, this.services);
+        this.context = context;
+        ClusterNode clusterNode = this.services.getClusterNode();
+        // the other nodes send back images, the only data they extract
+        ClusterCrawl partition = clusterNode != null && this.dataParser instanceof ImageParser
+                ? clusterNode.coordinate(context) : null;
+        CrawlCheckpoint crawlCheckpoint = this.checkpoint;
+        if (crawlCheckpoint != null && partition != null) {
+            crawlCheckpoint.finish();
+        } else if (crawlCheckpoint != null) {
+            context.setCheckpoint(crawlCheckpoint);
+        }
+        if (this.cancelled) {
+            // cancelled before the crawl started
+            context.stop(StopReason.CANCELLED);
+        }
+        context.startDeadline();
+        // keeps the crawl open while it is seeded: the first webpages may be done with before the next ones (the
+        // other pending webpages of a resumed crawl, or the sitemaps) are scheduled
+        CompletableFuture<Void> seeding = new CompletableFuture<>();
+        context.getFrontier().track(seeding);
+        try {
+            boolean resumed = crawlCheckpoint != null && crawlCheckpoint.isResumed() && partition == null;
+            if (resumed) {
+                int pending = context.resume(crawlCheckpoint);
+                LOGGER.info("Resumed the crawl of the base URL: {} with {} pending webpages, {} webpages done",
+                        this.baseUrl, pending, crawlCheckpoint.getCompletedPages());
+                crawlCheckpoint.releaseRecoveredState();
+            } else {
+                context.markVisited(this.baseUrl);
+                if (partition != null && !partition.isLocal(this.baseUrl)) {
+                    partition.forward(Collections.singletonList(new ClusterMessage.Link(this.baseUrl, 0, 0)));
+                } else {
+                    context.schedule(this.baseUrl, 0, 0);
+                }
+            }
+            RobotsCache robotsCache = this.services.getRobotsCache();
+            if (robotsCache != null && robotsCache.getConfig().isSitemapsEnabled() && this.budget.getMaxDepth() > 1) {
+                context.getFrontier().track(robotsCache.rulesFor(this.baseUrl)
+                        .thenCompose(rules -> seedSitemapPages(context, rules)));
             }
+        } finally {
+            // a crawl resumed once every webpage was done with completes here
+            seeding.complete(null);
         }
+        if (partition != null) {
+            // nothing may have been scheduled, e.g. if the crawl was cancelled before it started
+            partition.checkIdle();
+        }
+        return context;
+    }
+
+    /**
+     * Method to schedule the webpages of the sitemaps of the website. They are crawled at the last depth of the
+     * budget, the links they hold are not followed. They count against the budget of webpages: the reading stops
+     * once the sitemaps seeded maxPages webpages, which the crawl could not fetch anyway.
+     * @param context: context of the crawl
+     * @param rules: robots.txt rules of the base URL, listing the sitemaps of the website
+     * @return future completed once the sitemaps are read
+     */
+    private CompletableFuture<Integer> seedSitemapPages(CrawlContext<T> context, RobotsRules rules) {
+        Collection<String> sitemaps = rules.getSitemaps();
+        if (sitemaps.isEmpty()) {
+            // the conventional location, for the websites that do not declare their sitemaps
+            String origin = URLUtils.getOrigin(this.baseUrl);
+            if (origin == null || !rules.isAllowed(origin + "/sitemap.xml")) {
+                return CompletableFuture.completedFuture(0);
+            }
+            sitemaps = Collections.singletonList(origin + "/sitemap.xml");
+        }
+        SitemapReader reader = new SitemapReader(this.services.getPageFetcher(), this.services.getCrawlExecutor(),
+                this.services.getRobotsCache().getConfig());
+        ClusterCrawl partition = context.getPartition();
+        // webpages owned by the other nodes of the cluster, handed over once the sitemaps are read
+        List<ClusterMessage.Link> remotePages = Collections.synchronizedList(new ArrayList<>());
+        long maxPages = this.budget.getMaxPages();
+        AtomicLong seededPages = new AtomicLong();
+        return reader.read(sitemaps, url -> {
+            if (context.getFrontier().isClosed() || (maxPages > 0 && seededPages.get() >= maxPages)) {
+                return false;
+            }
+            if (URLUtils.isSameDomain(this.baseUrl, url) && context.markVisited(url)
+                    && !context.isKnownDisallowed(url)) {
+                int depth = this.budget.getMaxDepth() - 1;
+                double priority = context.scoreLink(url, null, 0, depth);
+                seededPages.incrementAndGet();
+                if (partition != null && !partition.isLocal(url)) {
+                    remotePages.add(new ClusterMessage.Link(url, depth, priority));
+                } else {
+                    context.schedule(url, depth, priority);
+                }
+            }
+            return true;
+        }).thenApply(pages -> {
+            LOGGER.info("Read {} webpages from the sitemaps of the base URL: {}", pages, this.baseUrl);
+            if (!remotePages.isEmpty()) {
+                partition.forward(remotePages);
+            }
+            return pages;
+        });
+    }
+
+    private CrawlDataStorage<T> completeCrawl(long startTime) {
         LOGGER.info("Completed crawling the base URL ({}) and its subpages", this.baseUrl);
         LOGGER.info("Collected a total of {} data points  for this base url", this.crawlDataStorage.size());
-        localCache.addData(this.baseUrl, this.crawlDataStorage);
         long endTime = System.currentTimeMillis();
         LOGGER.info("Total time taken for crawling the base URL : {} is: {} ms.", this.baseUrl,endTime - startTime);
+        CrawlMetrics.getInstance().recordCrawl(this.context.getFetchedPages(), this.crawlDataStorage.size(),
+                endTime - startTime);
+        CrawlMetrics.getInstance().recordCrawlStop(this.context.getStopReason());
         return this.crawlDataStorage;
     }
 
@@ -1,143 +1,451 @@
 package com.imagefinder.crawler;
-import com.imagefinder.htmlparsers.IHTMLParser;
-import com.imagefinder.crawleddata.CrawlDataStorage;
-import com.imagefinder.urls.VisitedUrls;
+import com.imagefinder.cache.CachedPage;
+import com.imagefinder.cache.PageCache;
+import com.imagefinder.cluster.ClusterCrawl;
+import com.imagefinder.cluster.ClusterMessage;
+import com.imagefinder.fetcher.FetchResponse;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.IStreamingHTMLParser;
+import com.imagefinder.htmlparsers.PageTags;
+import com.imagefinder.htmlparsers.StreamingTagExtractor;
+import com.imagefinder.metrics.CrawlMetrics;
+import com.imagefinder.politeness.RetryAfter;
+import com.imagefinder.robots.RobotsCache;
+import com.imagefinder.urls.CanonicalUrl;
+import com.imagefinder.urls.UrlCanonicalizer;
+import com.imagefinder.utils.URLUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Class implementing Runnable interface that can be used to create threads for crawling a webpage based on the URL.
+ * Class representing the crawl of a single webpage: the webpage is fetched asynchronously through the PageFetcher
+ * of the crawl, then parsed on the crawl threads and its subpages are scheduled on the frontier.
  * @param <T> Type of data we are attempting to extract from the webpage
  */
-public class CrawlTask<T> implements Runnable {
+public class CrawlTask<T> {
 
-    // Depth limit for the subpage tree traversal
-    private static final int DEPTH_LIMIT = 2;
-    // Politeness delay in milliseconds before hitting the webpage again to prevent overwhelming the webpage
-    private static final int RECRAWL_POLITENESS_DELAY = 100;
+    // Number of times a webpage is requested again after the host asked us to back off (429/503)
+    private static final int MAX_RETRIES = 2;
     private static final Logger LOGGER = LoggerFactory.getLogger(CrawlTask.class);
-    private CrawlDataStorage<T> crawlDataStorage;
+    private static final CrawlMetrics METRICS = CrawlMetrics.getInstance();
     private final String url;
     private final int currentDepth;
-    private final IHTMLParser<T> dataParser;
-    private final IHTMLParser<String> linkParser;
-    // Singleton object of the VisitedUrls to maintain the set of visited URLs in the current crawl and prevent
-    // repetition
-    private static final VisitedUrls visitedUrls = VisitedUrls.getInstance();
+    // host of the url, used for the per-host politeness
+    private final String host;
+    // number of times this webpage has already been requested
+    private int attempts;
+    // extraction of the webpage cached by a previous crawl, revalidated by the request; null if there is none
+    private CachedPage cachedPage;
+    // state of the crawl this task belongs to: parsers, storage, visited URLs and frontier
+    private final CrawlContext<T> context;
+    // score of the webpage, the frontier runs the tasks with the highest priority first
+    private final double priority;
+    // order in which the frontier received the task, breaking the ties between equal priorities
+    private long sequence;
+    // attempt after which the webpage was scheduled again, so that the attempt does not complete the webpage
+    private volatile int retriedAttempt;
 
 
     /**
      * Constructor for the CrawlTask class
      * @param url: url that the current object has to crawl
      * @param depthLevel: the current depth level in the subpage tree traversal
-     * @param dataParser: dataParser object to extract data from the HTML document
-     * @param linkParser: linkParser object to extract hyperlinks from the HTML document
-     * @param crawlDataStorage: object to store the data extracted from the HTML document
+     * @param context: context of the crawl this task belongs to
      */
-    public CrawlTask(String url, int depthLevel, IHTMLParser<T> dataParser, IHTMLParser<String> linkParser,
-                     CrawlDataStorage<T> crawlDataStorage) {
+    public CrawlTask(String url, int depthLevel, CrawlContext<T> context) {
+        this(url, depthLevel, context, 0);
+    }
+
+    /**
+     * Constructor for the CrawlTask class with a priority
+     * @param url: url that the current object has to crawl
+     * @param depthLevel: the current depth level in the subpage tree traversal
+     * @param context: context of the crawl this task belongs to
+     * @param priority: score of the webpage, the tasks with the highest priority are run first
+     */
+    public CrawlTask(String url, int depthLevel, CrawlContext<T> context, double priority) {
         this.url = url;
         this.currentDepth = depthLevel;
-        this.dataParser = dataParser;
-        this.linkParser = linkParser;
-        this.crawlDataStorage = crawlDataStorage;
+        this.host = URLUtils.getHost(url);
+        this.context = context;
+        this.priority = priority;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getCurrentDepth() {
+        return currentDepth;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public double getPriority() {
+        return priority;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Method to fetch the webpage @ url. The status and the latency of the response are reported to the per-host
+     * rate limiter, and the webpage is scheduled again if the host asked us to back off. If the webpage is in the
+     * page cache, the request is a conditional one and a 304 response means the cached extraction can be reused.
+     * Redirects are not followed by the fetcher, their target is crawled like a subpage of the webpage.
+     * @return future completed on a crawl thread with the response, or with null if the webpage could not be
+     * scraped
+     */
+    public CompletableFuture<FetchResponse> fetchPage() {
+        attempts++;
+        PageCache pageCache = this.context.getPageCache();
+        this.cachedPage = pageCache == null ? null : pageCache.get(this.url);
+        Map<String, String> requestHeaders = this.cachedPage == null
+                ? Collections.<String, String>emptyMap() : this.cachedPage.conditionalHeaders();
+        return this.context.getPageFetcher().fetchWithoutRedirects(this.url, requestHeaders)
+                .handleAsync(this::checkResponse, this.context.getCrawlExecutor());
+    }
+
+    /**
+     * Method to check that the response of the webpage holds an HTML document we can extract data from
+     * @param response: response received for the webpage, null if the fetch failed
+     * @param failure: exception raised by the fetch, null if a response was received
+     * @return the response, null if the webpage could not be scraped
+     */
+    private FetchResponse checkResponse(FetchResponse response, Throwable failure) {
+        if (failure != null) {
+            this.context.getRateLimiter().onFailure(this.host);
+            METRICS.recordFetchFailure();
+            LOGGER.error("Error occured while scraping the url:{}", this.url, failure);
+            return null;
+        }
+        int statusCode = response.getStatusCode();
+        int bodyBytes = response.getBody() == null ? 0 : response.getBody().length;
+        METRICS.recordFetch(this.host, response.getLatencyNanos(), statusCode, bodyBytes);
+        this.context.recordBytes(bodyBytes);
+        long retryAfter = RetryAfter.parseMillis(response.header("Retry-After"), System.currentTimeMillis());
+        this.context.getRateLimiter().onResponse(this.host, statusCode, response.getLatencyNanos(), retryAfter);
+        if (statusCode == 429 || statusCode == 503) {
+            retry(statusCode);
+            return null;
+        }
+        if (response.isRedirect()) {
+            if (this.cachedPage != null) {
+                this.context.getPageCache().remove(this.url);
+            }
+            followRedirect(response.getRedirectUrl());
+            return null;
+        }
+        if (this.cachedPage != null) {
+            this.context.getPageCache().recordRevalidation(response.isNotModified());
+        }
+        if (response.isNotModified()) {
+            if (this.cachedPage == null) {
+                LOGGER.warn("Received status 304 for the unconditional request of the url:{}", this.url);
+                return null;
+            }
+            this.context.recordPageFetched();
+            return response;
+        }
+        if (statusCode >= 400) {
+            LOGGER.warn("Received status {} while scraping the url:{}", statusCode, this.url);
+            if (this.cachedPage != null) {
+                this.context.getPageCache().remove(this.url);
+            }
+            return null;
+        }
+        if (!response.isHtml()) {
+            LOGGER.debug("Skipping the url:{} as its content type is not HTML: {}", this.url,
+                    response.header("Content-Type"));
+            return null;
+        }
+        this.context.recordPageFetched();
+        return response;
+    }
+
+    /**
+     * Method to crawl the target of a redirect at the depth of this webpage. The target is scheduled on the frontier
+     * (or handed over to the node owning it) like a subpage, so that the visited urls, the politeness of its host and
+     * robots.txt apply to it. Targets outside the domain of the webpage are not followed.
+     * @param redirectUrl: url the webpage redirects to, null if its Location is malformed
+     */
+    private void followRedirect(String redirectUrl) {
+        CanonicalUrl target = redirectUrl == null ? null : UrlCanonicalizer.canonicalize(redirectUrl);
+        if (target == null || !target.getHostKey().equals(UrlCanonicalizer.hostKey(this.url))) {
+            LOGGER.debug("Not following the redirect of the url:{} to the url:{}", this.url, redirectUrl);
+            return;
+        }
+        String targetUrl = target.getUrl();
+        if (!this.context.markVisited(targetUrl) || this.context.isKnownDisallowed(targetUrl)) {
+            return;
+        }
+        LOGGER.debug("Following the redirect of the url:{} to the url:{}", this.url, targetUrl);
+        ClusterCrawl partition = this.context.getPartition();
+        if (partition != null && !partition.isLocal(targetUrl)) {
+            partition.forward(Collections.singletonList(
+                    new ClusterMessage.Link(targetUrl, this.currentDepth, this.priority)));
+        } else {
+            this.context.schedule(targetUrl, this.currentDepth, this.priority);
+        }
     }
 
     /**
-     * Method to scrape the webpage @ url using Jsoup
-     * @return the document object extracted using Jsoup
+     * Method to parse the response into a Jsoup document
+     * @param response: response received for the webpage
+     * @return the document object parsed using Jsoup, null if the webpage could not be parsed
      */
-    public Document extractDocumentByUrl() {
-        Document urlDocument = null;
-        try{
-            // Using Jsoup to scrape the webpage
-            urlDocument = Jsoup.connect(this.url).get();
-        } catch(Exception e){
-            LOGGER.error("Error occured while scraping the url:{}", this.url,e);
+    public Document extractDocument(FetchResponse response) {
+        try {
+            long extractionStart = System.nanoTime();
+            // Jsoup detects the charset from the meta tags if the response does not declare one
+            Document document = Jsoup.parse(new ByteArrayInputStream(response.getBody()), response.getCharset(),
+                    response.getUrl());
+            METRICS.recordExtraction(ExtractionEngine.DOM, System.nanoTime() - extractionStart);
+            return document;
+        } catch (IOException e) {
+            LOGGER.error("Error occured while parsing the url:{}", this.url, e);
+            return null;
+        }
+    }
+
+    /**
+     * Method to schedule this webpage again after the host asked us to back off. The rate limiter delays the
+     * retry according to the Retry-After header. A retry dropped by the frontier leaves the webpage to be recorded as
+     * done, so that the crawl can complete.
+     * @param statusCode: status code of the response that asked us to back off
+     */
+    private void retry(int statusCode) {
+        if (attempts > MAX_RETRIES) {
+            LOGGER.warn("Giving up on the url:{} after {} attempts, last status {}", this.url, attempts, statusCode);
+            return;
+        }
+        LOGGER.debug("Host asked to back off with status {}, scheduling the url:{} again", statusCode, this.url);
+        // flagged before the task is queued, as the retry may run as soon as it is
+        int previousRetriedAttempt = this.retriedAttempt;
+        this.retriedAttempt = attempts;
+        if (!this.context.getFrontier().schedule(this)) {
+            // dropped by the frontier: the webpage is done with, like when giving up
+            LOGGER.debug("Not retrying the url:{} as the crawl no longer takes work items", this.url);
+            this.retriedAttempt = previousRetriedAttempt;
         }
-        return urlDocument;
     }
 
     /**
      * Method to use the dataparser object and extract data from the document object
      * @param document: document object extracted from the url using Jsoup
+     * @return estimate of the number of new data points found on the webpage
+     */
+    public int extractData(Document document) {
+        long parseStart = System.nanoTime();
+        Collection<T> subPageData = this.context.getDataParser().parseHTML(document,this.url);
+        METRICS.recordParse(this.context.getDataParser().getClass(), System.nanoTime() - parseStart);
+        return this.context.storeData(subPageData);
+    }
+
+    /**
+     * Method to use the streaming dataparser and extract data from the tags of the webpage
+     * @param tags: tags extracted from the webpage in a single pass
+     * @return estimate of the number of new data points found on the webpage
      */
-    public void extractData(Document document) {
-        Collection<T> subPageData = this.dataParser.parseHTML(document,this.url);
-        crawlDataStorage.storeMultipleData(subPageData);
+    public int extractData(PageTags tags) {
+        long parseStart = System.nanoTime();
+        Collection<T> subPageData = ((IStreamingHTMLParser<T>) this.context.getDataParser()).parseTags(tags,this.url);
+        METRICS.recordParse(this.context.getDataParser().getClass(), System.nanoTime() - parseStart);
+        return this.context.storeData(subPageData);
     }
 
     /**
      * Method to extract urls of the subpages within the current webpage
      * @param document: document object extracted from the webpage @ url using Jsoup
-     * @return a collection of urls that are subpages/hyperlinks of the current webpage
+     * @return the urls that are subpages/hyperlinks of the current webpage and the text of their links
      */
-    public Collection<String> extractSubPages(Document document) {
-        return this.linkParser.parseHTML(document,this.url);
+    public Map<String, String> extractSubPages(Document document) {
+        long parseStart = System.nanoTime();
+        Map<String, String> subPages = this.context.getLinkParser().parseLinks(document,this.url);
+        METRICS.recordParse(this.context.getLinkParser().getClass(), System.nanoTime() - parseStart);
+        return subPages;
     }
 
     /**
-     * Method to crawl the current webpage @ this.url and then crawl the subpages.
+     * Method to extract urls of the subpages from the tags of the webpage
+     * @param tags: tags extracted from the webpage in a single pass
+     * @return the urls that are subpages/hyperlinks of the current webpage and the text of their links
      */
-    @Override
-    public void run() {
-        // checking if the url has been crawled already
-        if (visitedUrls.isVisited(this.url) || this.currentDepth>=DEPTH_LIMIT){
-            return;
+    public Map<String, String> extractSubPages(PageTags tags) {
+        long parseStart = System.nanoTime();
+        Map<String, String> subPages = this.context.getLinkParser().parseLinks(tags,this.url);
+        METRICS.recordParse(this.context.getLinkParser().getClass(), System.nanoTime() - parseStart);
+        return subPages;
+    }
+
+    /**
+     * Method to crawl the current webpage @ this.url and then schedule the subpages on the frontier.
+     * The url has already been marked as visited when this task was scheduled. Webpages disallowed by the robots.txt
+     * file of their host are skipped, the file being fetched first if the crawl has not reached the host yet.
+     * @return future completed once the webpage has been processed, the subpages are not waited upon
+     */
+    public CompletableFuture<Void> crawl() {
+        if (this.currentDepth>=this.context.getBudget().getMaxDepth() || this.context.getFrontier().isCancelled()){
+            return CompletableFuture.completedFuture(null);
+        }
+        RobotsCache robotsCache = this.context.getRobotsCache();
+        if (robotsCache == null) {
+            return crawlPage();
+        }
+        return robotsCache.rulesFor(this.url).thenCompose(rules -> {
+            if (!rules.isAllowed(this.url)) {
+                LOGGER.debug("Skipping the url:{} as robots.txt disallows it", this.url);
+                robotsCache.recordDisallowed();
+                this.context.recordPageDone(this.url);
+                return CompletableFuture.completedFuture(null);
+            }
+            return crawlPage();
+        });
+    }
+
+    /**
+     * Method to fetch the current webpage, extract its data and schedule its subpages
+     * @return future completed once the webpage has been processed
+     */
+    private CompletableFuture<Void> crawlPage() {
+        // retries of the webpage were already taken out of the budget
+        if (this.context.getFrontier().isCancelled() || (this.attempts == 0 && !this.context.tryStartPage())) {
+            return CompletableFuture.completedFuture(null);
         }
         LOGGER.debug("Running crawl for the page: {}", this.url);
-        visitedUrls.addVisited(this.url);
-        // extracting data using Jsoup
-        Document urlDocument = extractDocumentByUrl();
-        if (urlDocument == null) {
+        int attempt = this.attempts + 1;
+        // fetching the webpage without blocking, the rest runs on a crawl thread once the response is available
+        return fetchPage().thenAccept(response -> {
+            if (response == null || this.context.getFrontier().isCancelled()) {
+                return;
+            }
+            // limiting the subpages tree traversal to the depth of the budget: subpages at that depth would not be
+            // crawled anyway, so they are not scheduled at all
+            boolean crawlSubPages = this.currentDepth + 1 < this.context.getBudget().getMaxDepth()
+                    && !this.context.getFrontier().isClosed();
+            if (response.isNotModified()) {
+                // the webpage did not change since it was cached, reusing its extraction
+                LOGGER.debug("Reusing the cached extraction of the unmodified page: {}", this.url);
+                processTags(this.cachedPage.getTags(), crawlSubPages);
+            } else if (this.context.isStreamingExtraction()) {
+                // tokenizing the webpage once for both parsers, without building a DOM tree
+                long extractionStart = System.nanoTime();
+                PageTags tags = StreamingTagExtractor.extract(response.getBodyAsString(), response.getUrl());
+                METRICS.recordExtraction(ExtractionEngine.STREAMING, System.nanoTime() - extractionStart);
+                cachePage(response, tags);
+                processTags(tags, crawlSubPages);
+            } else {
+                Document urlDocument = extractDocument(response);
+                if (urlDocument == null) {
+                    return;
+                }
+                PageTags tags = null;
+                PageCache pageCache = this.context.getPageCache();
+                if (pageCache != null && pageCache.isCacheable(this.url, response)) {
+                    tags = PageTags.fromDocument(urlDocument, response.getUrl());
+                    cachePage(response, tags);
+                }
+                if (tags == null && this.context.isDuplicateDetection()) {
+                    tags = PageTags.fromDocument(urlDocument, response.getUrl());
+                }
+                int duplicate = tags == null ? -1 : this.context.checkDuplicate(this.url, tags);
+                if (duplicate == 0) {
+                    return;
+                }
+                int newImages = extractData(urlDocument);
+                if (crawlSubPages && duplicate < 0) {
+                    crawlSubPages(extractSubPages(urlDocument), newImages);
+                }
+            }
+        }).thenRun(() -> {
+            // a webpage scheduled again after a back off is not done with yet
+            if (this.retriedAttempt != attempt) {
+                this.context.recordPageDone(this.url);
+            }
+        });
+    }
+
+    /**
+     * Method to extract the data of the webpage from its tags and schedule its subpages. A webpage with the same
+     * images and links as a webpage already crawled is skipped. A near-duplicate one only contributes the images the
+     * crawl has not found yet, and its links are not followed: the few that differ lead to more templated webpages.
+     * @param tags: tags of the webpage
+     * @param crawlSubPages: true if the subpages of the webpage are within the budget of the crawl
+     */
+    private void processTags(PageTags tags, boolean crawlSubPages) {
+        int duplicate = this.context.checkDuplicate(this.url, tags);
+        if (duplicate == 0) {
             return;
         }
-        extractData(urlDocument);
-        // checking if the depth of the tree traversal is less than 2: limiting the subpages tree traversal to a
-        // depth of DEPTH_LIMIT
-        if (this.currentDepth<DEPTH_LIMIT) {
-            crawlSubPages(urlDocument);
+        int newImages = extractData(tags);
+        if (crawlSubPages && duplicate < 0) {
+            crawlSubPages(extractSubPages(tags), newImages);
         }
     }
 
     /**
-     * Method to extract URLs of the subpages within the current document object
-     * @param urlDocument: object of Document extracted from the URL using Jsoup
+     * Method to cache the extraction of the downloaded webpage, so that the next crawls can revalidate it
+     * @param response: response the webpage was extracted from
+     * @param tags: images and links of the webpage
      */
-    private void crawlSubPages(Document urlDocument) {
-        Collection<String> subPages = extractSubPages(urlDocument);
-        // Creating a list of futures, which will be used to wait for the spawned thread to complete
-        List<Future> subPageFutures = new ArrayList<>();
-        // Creating threads for crawling subpages of the current thread
-        for (String subPage : subPages) {
-            if (!visitedUrls.isVisited(subPage)){
-                subPageFutures.add(CrawlSpawner.executorService.submit(new CrawlTask(subPage,
-                        this.currentDepth + 1,this.dataParser,this.linkParser,this.crawlDataStorage)));
-                try {
-                    Thread.sleep(RECRAWL_POLITENESS_DELAY);
-                } catch (InterruptedException e) {
-                    LOGGER.error("Error occurred while waiting for thread to sleep for politeness delay", e);
-                }
-            }
+    private void cachePage(FetchResponse response, PageTags tags) {
+        PageCache pageCache = this.context.getPageCache();
+        if (pageCache != null) {
+            pageCache.put(this.url, response, tags);
         }
+    }
+
+    /**
+     * Method to add the URLs of the subpages of the current webpage to the frontier, each one with the score of its
+     * link: the frontier fetches the most promising subpages of the crawl first. When the crawl is spread over a
+     * cluster, the subpages owned by other nodes are handed over to them in a batch per node instead.
+     * The current task does not wait for the subpages, the frontier keeps track of the outstanding work.
+     * @param subPages: urls of the subpages of the current webpage and the text of their links
+     * @param newImages: number of new images found on the current webpage
+     */
+    private void crawlSubPages(Map<String, String> subPages, int newImages) {
         // TODO: Add JUnits
         // TODO: Add Comments to code extensively
         // TODO: Add writeup at the end of the index.html (What you have implemented, design thought process and further work
-        // waiting for the subthreads to complete before closing the current thread
-        for (int i=0; i<subPageFutures.size(); i++) {
-            try {
-                subPageFutures.get(i).get();
-            } catch (ExecutionException | InterruptedException e) {
-                LOGGER.error("Error occured while waiting for thread " + Thread.currentThread().getId(), e);
+        int depth = this.currentDepth + 1;
+        ClusterCrawl partition = this.context.getPartition();
+        List<ClusterMessage.Link> remoteSubPages = null;
+        for (Map.Entry<String, String> subPage : subPages.entrySet()) {
+            // marking the subpage as visited while scheduling it, so that it is queued only once
+            // the politeness delay is applied by the frontier when the subpage is about to be fetched
+            String subPageUrl = subPage.getKey();
+            if (this.context.markVisited(subPageUrl) && !this.context.isKnownDisallowed(subPageUrl)){
+                double priority = this.context.scoreLink(subPageUrl, subPage.getValue(), newImages, depth);
+                if (partition != null && !partition.isLocal(subPageUrl)) {
+                    if (remoteSubPages == null) {
+                        remoteSubPages = new ArrayList<>();
+                    }
+                    remoteSubPages.add(new ClusterMessage.Link(subPageUrl, depth, priority));
+                } else {
+                    this.context.schedule(subPageUrl, depth, priority);
+                }
             }
         }
+        if (remoteSubPages != null) {
+            partition.forward(remoteSubPages);
+        }
     }
 
 }
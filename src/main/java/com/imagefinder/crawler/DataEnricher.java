@@ -0,0 +1,21 @@
+package com.imagefinder.crawler;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Optional stage run on the data extracted from every webpage before it is stored, e.g. to probe the images found
+ * and drop the tracking pixels. The stage runs asynchronously, concurrently with the rest of the crawl: the crawl
+ * only completes once the data of every webpage has gone through it.
+ * @param <T>: type of data we are attempting to extract
+ */
+public interface DataEnricher<T> {
+
+    /**
+     * Method to enrich the data extracted from a webpage
+     * @param data: data extracted from a webpage
+     * @return future completed with the (possibly enriched) data to store, without the data to drop; it should not
+     * complete exceptionally, the data of the webpage is dropped if it does
+     */
+    CompletableFuture<Collection<T>> enrich(Collection<T> data);
+}
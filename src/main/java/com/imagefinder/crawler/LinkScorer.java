@@ -0,0 +1,141 @@
+package com.imagefinder.crawler;
+
+import com.imagefinder.classifiers.KeywordAutomaton;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Scores the subpages of a crawl by how likely they are to hold new images, so that the frontier fetches the most
+ * promising subpages first and a crawl with a page budget finds more images per fetched webpage.
+ * A subpage is scored from:
+ * - the keywords of the path and query of its url and of the anchor text of its link: galleries, photos, portfolios
+ * or products are promising, while logins, carts, legal notices or feeds hardly ever hold images,
+ * - the number of new images of the webpage linking to it, webpages rich in images usually linking to similar ones,
+ * - its depth, so that between equally promising subpages the shallower ones are fetched first,
+ * - the extension of its url: documents, archives and media files are not HTML webpages at all.
+ * Both texts are scanned in one pass each by a keyword automaton, every keyword being a bit of the match whose weight
+ * is added to the score once, whether it is found in the url, the anchor text or both.
+ */
+public class LinkScorer {
+
+    // weight of the log2 of the number of new images of the parent webpage
+    private static final double PARENT_IMAGES_WEIGHT = 1.0;
+    // score lost for every level below the base url
+    private static final double DEPTH_PENALTY = 0.5;
+    // score lost by urls with a query string, often sorted or filtered copies of another webpage
+    private static final double QUERY_PENALTY = 0.5;
+    // score lost by urls whose extension is not the one of an HTML webpage
+    private static final double NON_HTML_PENALTY = 8.0;
+    // the keywords are matched anywhere in the texts, so they are long enough not to be parts of unrelated words
+    private static final Map<String, Double> KEYWORD_WEIGHTS = new LinkedHashMap<>();
+
+    static {
+        for (String keyword : new String[]{"gallery", "galleries", "photo", "image", "picture", "portfolio", "album",
+                "wallpaper", "lookbook", "artwork", "illustration", "screenshot", "slideshow"}) {
+            KEYWORD_WEIGHTS.put(keyword, 3.0);
+        }
+        for (String keyword : new String[]{"media", "product", "catalog", "collection", "design", "showcase",
+                "project", "recipe", "travel", "shop", "store"}) {
+            KEYWORD_WEIGHTS.put(keyword, 1.5);
+        }
+        for (String keyword : new String[]{"blog", "news", "article", "post", "story", "stories", "event", "team"}) {
+            KEYWORD_WEIGHTS.put(keyword, 0.75);
+        }
+        for (String keyword : new String[]{"login", "logout", "signin", "signup", "register", "password", "account",
+                "cart", "checkout", "basket", "wishlist", "privacy", "terms", "cookie", "legal", "disclaimer",
+                "policy", "contact", "feed", "rss", "print", "search", "calendar", "download", "comment", "reply",
+                "share", "subscribe", "wp-admin", "wp-json", "sitemap"}) {
+            KEYWORD_WEIGHTS.put(keyword, -3.0);
+        }
+    }
+
+    private static final Set<String> NON_HTML_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "pdf", "zip", "gz", "tgz", "tar", "rar", "7z", "exe", "dmg", "apk", "msi", "doc", "docx", "xls", "xlsx",
+            "ppt", "pptx", "csv", "txt", "xml", "json", "css", "js", "ico", "jpg", "jpeg", "png", "gif", "webp",
+            "svg", "bmp", "tif", "tiff", "avif", "mp3", "mp4", "m4a", "m4v", "mov", "avi", "wmv", "webm", "ogg",
+            "wav", "flac", "woff", "woff2", "ttf", "eot"));
+
+    private final KeywordAutomaton automaton;
+    // weight of every keyword, indexed by its bit in the masks of the automaton, so there are at most 64 keywords
+    private final double[] weights;
+
+    /**
+     * Constructor for the LinkScorer class, compiling the automaton of the keywords
+     */
+    public LinkScorer() {
+        Map<String, Long> masks = new LinkedHashMap<>();
+        this.weights = new double[KEYWORD_WEIGHTS.size()];
+        int bit = 0;
+        for (Map.Entry<String, Double> keyword : KEYWORD_WEIGHTS.entrySet()) {
+            masks.put(keyword.getKey(), 1L << bit);
+            weights[bit++] = keyword.getValue();
+        }
+        this.automaton = new KeywordAutomaton(masks);
+    }
+
+    /**
+     * Method to score a subpage, the subpages with the highest scores being fetched first
+     * @param url: canonical url of the subpage
+     * @param anchorText: text of the link to the subpage, null or empty if unknown
+     * @param parentImages: number of new images found on the webpage linking to the subpage
+     * @param depth: depth of the subpage in the crawl
+     * @return score of the subpage, higher is more promising
+     */
+    public double score(String url, String anchorText, int parentImages, int depth) {
+        int pathStart = pathStart(url);
+        String path = url.substring(pathStart);
+        long found = automaton.match(path) | automaton.match(anchorText);
+        double score = 0;
+        while (found != 0) {
+            score += weights[Long.numberOfTrailingZeros(found)];
+            found &= found - 1;
+        }
+        if (parentImages > 0) {
+            score += PARENT_IMAGES_WEIGHT * Math.log(1 + parentImages) / Math.log(2);
+        }
+        score -= DEPTH_PENALTY * depth;
+        int queryStart = path.indexOf('?');
+        if (queryStart >= 0) {
+            score -= QUERY_PENALTY;
+        }
+        if (NON_HTML_EXTENSIONS.contains(extension(queryStart >= 0 ? path.substring(0, queryStart) : path))) {
+            score -= NON_HTML_PENALTY;
+        }
+        return score;
+    }
+
+    /**
+     * Method to find where the path of a url starts, the host being the same for all the subpages of a crawl
+     * @param url: absolute url
+     * @return index of the path, the length of the url if it has none
+     */
+    private static int pathStart(String url) {
+        int schemeEnd = url.indexOf("://");
+        int hostStart = schemeEnd < 0 ? 0 : schemeEnd + 3;
+        for (int i = hostStart; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return url.length();
+    }
+
+    /**
+     * Method to get the lower case extension of the last segment of a path
+     * @param path: path of a url, without its query
+     * @return extension without the dot, empty string if there is none
+     */
+    private static String extension(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) {
+            return "";
+        }
+        int end = path.indexOf('#', dot);
+        return path.substring(dot + 1, end < 0 ? path.length() : end).toLowerCase();
+    }
+}
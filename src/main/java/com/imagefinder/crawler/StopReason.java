@@ -0,0 +1,24 @@
+package com.imagefinder.crawler;
+
+/**
+ * enum representing why a crawl stopped
+ */
+public enum StopReason {
+    // every webpage within the depth limit was crawled
+    COMPLETED,
+    // the crawl was cancelled by its clients
+    CANCELLED,
+    // limits of the crawl budget
+    MAX_PAGES,
+    MAX_BYTES,
+    MAX_IMAGES,
+    DEADLINE;
+
+    /**
+     * Method to check if the crawl stopped on a limit of its budget, i.e. its results are partial
+     * @return true if a limit of the budget stopped the crawl
+     */
+    public boolean isBudgetLimit() {
+        return this != COMPLETED && this != CANCELLED;
+    }
+}
@@ -0,0 +1,66 @@
+package com.imagefinder.dedup;
+
+/**
+ * Configuration of the near-duplicate detection of the crawled webpages. The defaults can be overridden with system
+ * properties, e.g. -Dimagefinder.dedup.maxDistance=2
+ */
+public class DedupConfig {
+
+    private static final String PROPERTY_PREFIX = "imagefinder.dedup.";
+
+    private final boolean enabled;
+    private final int maxDistance;
+    private final int minFeatures;
+
+    private static final class DefaultHolder {
+        private static final DedupConfig INSTANCE = fromSystemProperties();
+    }
+
+    /**
+     * Constructor for the DedupConfig class
+     * @param enabled: true to detect the webpages near-duplicate of another webpage of the same crawl
+     * @param maxDistance: maximum number of bits by which the SimHash of two near-duplicate webpages differ, 0 to 7
+     * @param minFeatures: webpages with fewer images and links than this are never considered duplicates, their
+     *                     fingerprint being too coarse to tell them apart
+     */
+    public DedupConfig(boolean enabled, int maxDistance, int minFeatures) {
+        if (maxDistance < 0 || maxDistance >= NearDuplicateIndex.MAX_BLOCKS) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and "
+                    + (NearDuplicateIndex.MAX_BLOCKS - 1) + ", got " + maxDistance);
+        }
+        this.enabled = enabled;
+        this.maxDistance = maxDistance;
+        this.minFeatures = minFeatures;
+    }
+
+    /**
+     * Method to create the configuration from the system properties, falling back to the defaults
+     * @return configuration of the near-duplicate detection
+     */
+    public static DedupConfig fromSystemProperties() {
+        return new DedupConfig(
+                Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "enabled", "true")),
+                Integer.getInteger(PROPERTY_PREFIX + "maxDistance", 3),
+                Integer.getInteger(PROPERTY_PREFIX + "minFeatures", 8));
+    }
+
+    /**
+     * Method to return the configuration used by the crawls of the application
+     * @return configuration read from the system properties on first use
+     */
+    public static DedupConfig getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    public int getMinFeatures() {
+        return minFeatures;
+    }
+}
@@ -0,0 +1,88 @@
+package com.imagefinder.dedup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SimHash fingerprints of the webpages of a crawl, looked up by Hamming distance. The 64 bits are split into
+ * maxDistance + 1 blocks: two fingerprints differing by at most maxDistance bits have at least one block in common
+ * (pigeonhole principle), so only the fingerprints sharing a block with the one looked up are compared, instead of all
+ * of them.
+ */
+public class NearDuplicateIndex {
+
+    // blocks are at least 8 bits wide
+    static final int MAX_BLOCKS = 8;
+
+    private final int maxDistance;
+    private final int blocks;
+    private final int blockBits;
+    // fingerprints by block: the key is the index of the block in its top byte and the bits of the block below it
+    private final Map<Long, List<Long>> fingerprintsByBlock = new HashMap<>();
+    private int size;
+
+    /**
+     * Constructor for the NearDuplicateIndex class
+     * @param maxDistance: maximum number of bits by which the fingerprints of near-duplicate webpages differ
+     */
+    public NearDuplicateIndex(int maxDistance) {
+        if (maxDistance < 0 || maxDistance >= MAX_BLOCKS) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and " + (MAX_BLOCKS - 1)
+                    + ", got " + maxDistance);
+        }
+        this.maxDistance = maxDistance;
+        this.blocks = maxDistance + 1;
+        this.blockBits = (64 + blocks - 1) / blocks;
+    }
+
+    /**
+     * Method to look up the fingerprint of a webpage and add it to the index if it is not a near-duplicate
+     * @param fingerprint: SimHash of the webpage
+     * @return distance to the nearest fingerprint found within maxDistance bits, -1 if there is none and the
+     * fingerprint was added
+     */
+    public synchronized int addIfAbsent(long fingerprint) {
+        int nearest = -1;
+        for (int block = 0; block < blocks; block++) {
+            List<Long> candidates = fingerprintsByBlock.get(blockKey(fingerprint, block));
+            if (candidates == null) {
+                continue;
+            }
+            for (long candidate : candidates) {
+                int distance = SimHash.distance(fingerprint, candidate);
+                if (distance <= maxDistance && (nearest < 0 || distance < nearest)) {
+                    nearest = distance;
+                    if (distance == 0) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        if (nearest >= 0) {
+            return nearest;
+        }
+        for (int block = 0; block < blocks; block++) {
+            fingerprintsByBlock.computeIfAbsent(blockKey(fingerprint, block), key -> new ArrayList<>(1))
+                    .add(fingerprint);
+        }
+        size++;
+        return -1;
+    }
+
+    /**
+     * Method to get the number of fingerprints in the index, i.e. the webpages that were not near-duplicates
+     * @return number of fingerprints
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private long blockKey(long fingerprint, int block) {
+        int shift = block * blockBits;
+        int width = Math.min(blockBits, 64 - shift);
+        long bits = (fingerprint >>> shift) & (width == 64 ? -1L : (1L << width) - 1);
+        return ((long) block << 56) | bits;
+    }
+}
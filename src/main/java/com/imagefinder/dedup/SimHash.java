@@ -0,0 +1,59 @@
+package com.imagefinder.dedup;
+
+import com.imagefinder.htmlparsers.PageTags;
+import com.imagefinder.urls.UrlFingerprint;
+
+/**
+ * Utility class to compute the SimHash of a webpage: a 64-bit fingerprint such that webpages sharing most of their
+ * features get fingerprints differing by a few bits only, while unrelated webpages differ by about 32 bits.
+ * The features of a webpage are the images and links it holds, i.e. exactly what the crawl extracts from it; its text
+ * is ignored. Templated webpages (pagination, tags, sorted or filtered copies) that only differ by their text or by a
+ * few items therefore get near fingerprints.
+ */
+public final class SimHash {
+
+    // salt of the hash of the images, so that an image and a link with the same url are different features
+    private static final long IMAGE_SALT = 0x9e3779b97f4a7c15L;
+
+    private SimHash() {
+    }
+
+    /**
+     * Method to compute the SimHash of a webpage: every bit of the fingerprint is the majority vote of that bit over
+     * the hashes of the features
+     * @param tags: tags of the webpage
+     * @return 64-bit fingerprint of the webpage, 0 if it has no image nor link
+     */
+    public static long of(PageTags tags) {
+        int[] votes = new int[64];
+        for (int i = 0; i < tags.imageCount(); i++) {
+            vote(votes, UrlFingerprint.of(tags.imageSource(i)) ^ IMAGE_SALT);
+        }
+        for (int i = 0; i < tags.linkCount(); i++) {
+            vote(votes, UrlFingerprint.of(tags.linkHref(i)));
+        }
+        long fingerprint = 0L;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Method to get the number of bits by which two fingerprints differ
+     * @param first: first fingerprint
+     * @param second: second fingerprint
+     * @return Hamming distance of the fingerprints, 0 to 64
+     */
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+
+    private static void vote(int[] votes, long hash) {
+        for (int bit = 0; bit < 64; bit++) {
+            votes[bit] += (int) ((hash >>> bit) & 1L) * 2 - 1;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.imagefinder.fetcher;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * class representing the response received for a webpage
+ */
+public class FetchResponse {
+
+    // number of bytes at the start of the body searched for a meta charset declaration
+    private static final int META_CHARSET_SCAN_BYTES = 1024;
+
+    private final String url;
+    private final int statusCode;
+    // response headers, keys are lower case
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final boolean truncated;
+    private final long latencyNanos;
+
+    /**
+     * Constructor for the FetchResponse class
+     * @param url: final url of the webpage, after following the redirects
+     * @param statusCode: HTTP status code
+     * @param headers: response headers with lower case names
+     * @param body: (decompressed) body of the response, possibly cut at the size limit of the fetcher
+     * @param truncated: true if the body was cut at the size limit of the fetcher
+     * @param latencyNanos: time taken to receive the complete response
+     */
+    public FetchResponse(String url, int statusCode, Map<String, String> headers, byte[] body, boolean truncated,
+                         long latencyNanos) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.body = body;
+        this.truncated = truncated;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * Method to get a response header
+     * @param name: name of the header, case insensitive
+     * @return value of the header, null if absent
+     */
+    public String header(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Method to check if the response is successful (2xx)
+     * @return true for 2xx status codes
+     */
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * Method to check if the response redirects to another url
+     * @return true for 301, 302, 303, 307 and 308 status codes with a Location header
+     */
+    public boolean isRedirect() {
+        return (statusCode == 301 || statusCode == 302 || statusCode == 303 || statusCode == 307
+                || statusCode == 308) && header("location") != null;
+    }
+
+    /**
+     * Method to get the url the response redirects to
+     * @return Location header resolved against the url of the response, null if the response is not a redirect or
+     * its Location is malformed
+     */
+    public String getRedirectUrl() {
+        if (!isRedirect()) {
+            return null;
+        }
+        try {
+            return new URL(new URL(url), header("location")).toString();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method to check if the server answered a conditional request with 304, i.e. the webpage did not change since
+     * it was last fetched
+     * @return true for 304 status codes
+     */
+    public boolean isNotModified() {
+        return statusCode == 304;
+    }
+
+    /**
+     * Method to check if the response holds a document that can be parsed as HTML. Same rule as Jsoup: text/*,
+     * XHTML and XML content types, or no content type at all.
+     * @return true if the body can be parsed as HTML
+     */
+    public boolean isHtml() {
+        String contentType = header("content-type");
+        if (contentType == null) {
+            return true;
+        }
+        String mimeType = contentType.toLowerCase(Locale.ROOT);
+        return mimeType.startsWith("text/") || mimeType.startsWith("application/xhtml+xml")
+                || mimeType.startsWith("application/xml") || mimeType.contains("+xml");
+    }
+
+    /**
+     * Method to get the charset declared in the Content-Type header
+     * @return name of the charset, null if the header does not declare one
+     */
+    public String getCharset() {
+        String contentType = header("content-type");
+        if (contentType == null) {
+            return null;
+        }
+        int index = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if (index < 0) {
+            return null;
+        }
+        String charset = contentType.substring(index + "charset=".length()).trim();
+        int end = charset.indexOf(';');
+        if (end >= 0) {
+            charset = charset.substring(0, end).trim();
+        }
+        charset = charset.replace("\"", "").replace("'", "");
+        try {
+            return charset.isEmpty() || !Charset.isSupported(charset) ? null : charset;
+        } catch (IllegalArgumentException e) {
+            // illegal charset name
+            return null;
+        }
+    }
+
+    /**
+     * Method to decode the body using the charset declared in the Content-Type header or, failing that, in a meta
+     * tag at the start of the document. UTF-8 if none is declared.
+     * @return body as a string
+     */
+    public String getBodyAsString() {
+        String charset = getCharset();
+        if (charset == null) {
+            charset = sniffMetaCharset();
+        }
+        int offset = 0;
+        if (body.length >= 3 && (body[0] & 0xff) == 0xef && (body[1] & 0xff) == 0xbb && (body[2] & 0xff) == 0xbf) {
+            // the UTF-8 byte order mark overrides any declaration
+            charset = StandardCharsets.UTF_8.name();
+            offset = 3;
+        }
+        return new String(body, offset, body.length - offset,
+                charset == null ? StandardCharsets.UTF_8 : Charset.forName(charset));
+    }
+
+    /**
+     * Method to look for a charset declaration (meta charset or http-equiv) in the first KB of the body
+     * @return name of the declared charset, null if there is none or it is not supported
+     */
+    private String sniffMetaCharset() {
+        String head = new String(body, 0, Math.min(body.length, META_CHARSET_SCAN_BYTES), StandardCharsets.ISO_8859_1)
+                .toLowerCase(Locale.ROOT);
+        int index = head.indexOf("charset=");
+        if (index < 0) {
+            return null;
+        }
+        int start = index + "charset=".length();
+        while (start < head.length() && (head.charAt(start) == '"' || head.charAt(start) == '\'')) {
+            start++;
+        }
+        int end = start;
+        while (end < head.length() && (Character.isLetterOrDigit(head.charAt(end)) || head.charAt(end) == '-'
+                || head.charAt(end) == '_' || head.charAt(end) == ':' || head.charAt(end) == '.')) {
+            end++;
+        }
+        String charset = head.substring(start, end);
+        try {
+            return !charset.isEmpty() && Charset.isSupported(charset) ? charset : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
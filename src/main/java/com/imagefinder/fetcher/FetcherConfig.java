@@ -0,0 +1,74 @@
+package com.imagefinder.fetcher;
+
+/**
+ * Configuration of the PooledPageFetcher. The defaults can be overridden with system properties, e.g.
+ * -Dimagefinder.fetch.readTimeoutMs=5000
+ */
+public class FetcherConfig {
+
+    private static final String PROPERTY_PREFIX = "imagefinder.fetch.";
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int maxBodyBytes;
+    private final int maxConnectionsPerHost;
+    private final int ioThreads;
+    private final String userAgent;
+
+    /**
+     * Constructor for the FetcherConfig class
+     * @param connectTimeoutMs: timeout for establishing a connection
+     * @param readTimeoutMs: timeout for every read on an established connection
+     * @param maxBodyBytes: size at which the body of a response is cut
+     * @param maxConnectionsPerHost: maximum number of requests in flight (and connections open) per host
+     * @param ioThreads: number of threads performing the requests, i.e. the maximum number of requests in flight
+     * @param userAgent: User-Agent header sent with every request
+     */
+    public FetcherConfig(int connectTimeoutMs, int readTimeoutMs, int maxBodyBytes, int maxConnectionsPerHost,
+                         int ioThreads, String userAgent) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.ioThreads = ioThreads;
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Method to create the configuration from the system properties, falling back to the defaults
+     * @return configuration of the fetcher
+     */
+    public static FetcherConfig fromSystemProperties() {
+        return new FetcherConfig(
+                Integer.getInteger(PROPERTY_PREFIX + "connectTimeoutMs", 10_000),
+                Integer.getInteger(PROPERTY_PREFIX + "readTimeoutMs", 30_000),
+                Integer.getInteger(PROPERTY_PREFIX + "maxBodyBytes", 2 * 1024 * 1024),
+                Integer.getInteger(PROPERTY_PREFIX + "maxConnectionsPerHost", 8),
+                Integer.getInteger(PROPERTY_PREFIX + "ioThreads", 200),
+                System.getProperty(PROPERTY_PREFIX + "userAgent", "Mozilla/5.0 (compatible; ImageFinder/0.1)"));
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public int getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+}
@@ -0,0 +1,64 @@
+package com.imagefinder.fetcher;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * PageFetcher defines the strategy used by the crawler to download webpages. Implementations complete the returned
+ * future once the response is available instead of blocking the calling thread, so the crawl threads are free to
+ * parse other pages in the meantime.
+ */
+public interface PageFetcher {
+
+    /**
+     * Method to download a webpage
+     * @param url: url of the webpage
+     * @return future completed with the response (whatever its status code), or exceptionally with an IOException
+     * if no response could be received
+     */
+    CompletableFuture<FetchResponse> fetch(String url);
+
+    /**
+     * Method to download a webpage with additional request headers, e.g. the If-None-Match and If-Modified-Since
+     * headers of a conditional request. Fetchers not supporting them ignore the headers, the server then answers
+     * with the full webpage.
+     * @param url: url of the webpage
+     * @param requestHeaders: headers to add to the request
+     * @return future completed with the response (whatever its status code), or exceptionally with an IOException
+     * if no response could be received
+     */
+    default CompletableFuture<FetchResponse> fetch(String url, Map<String, String> requestHeaders) {
+        return fetch(url);
+    }
+
+    /**
+     * Method to download the start of a resource, e.g. the header of an image. The body is cut at the given size
+     * (and the connection dropped) even if the server ignores a Range request header.
+     * @param url: url of the resource
+     * @param requestHeaders: headers to add to the request
+     * @param maxBodyBytes: size at which the body is cut
+     * @return future completed with the response (whatever its status code), or exceptionally with an IOException
+     * if no response could be received
+     */
+    default CompletableFuture<FetchResponse> fetch(String url, Map<String, String> requestHeaders, int maxBodyBytes) {
+        return fetch(url, requestHeaders);
+    }
+
+    /**
+     * Method to download a webpage without following its redirects: a 3xx response is returned as is, for the caller
+     * to request its Location like any other url, e.g. through the frontier of the crawl so that the politeness and
+     * the rules of the crawl apply to it. Fetchers not supporting it follow the redirects.
+     * @param url: url of the webpage
+     * @param requestHeaders: headers to add to the request
+     * @return future completed with the response (whatever its status code), or exceptionally with an IOException
+     * if no response could be received
+     */
+    default CompletableFuture<FetchResponse> fetchWithoutRedirects(String url, Map<String, String> requestHeaders) {
+        return fetch(url, requestHeaders);
+    }
+
+    /**
+     * Method to release the threads and connections held by the fetcher
+     */
+    void shutdown();
+}
@@ -0,0 +1,327 @@
+package com.imagefinder.fetcher;
+
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.imagefinder.utils.URLUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Default PageFetcher implementation. Requests are performed by a dedicated pool of IO threads, so the crawl
+ * threads only get to work once a response is complete. Connections are kept alive and reused per host: every host
+ * gets at most maxConnectionsPerHost requests in flight, and further requests to the host wait in a per-host queue
+ * without holding a thread. The number of idle connections the JDK keeps per destination is a setting of the JVM
+ * (http.maxConnections, 5 by default) that the fetcher leaves to the application launching it.
+ * The targeted Java 8 has no asynchronous HTTP client, hence HttpURLConnection on the IO pool: the number of
+ * requests in flight is bounded by the number of IO threads.
+ */
+public class PooledPageFetcher implements PageFetcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledPageFetcher.class);
+    private static final int MAX_REDIRECTS = 10;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FetcherConfig config;
+    private final ExecutorService ioExecutor;
+    // per-host queues bounding the number of requests in flight to a host, removed once the host is idle
+    private final Map<String, HostQueue> hostQueues = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+
+    /**
+     * Constructor for the PooledPageFetcher class
+     * @param config: timeouts, size limits and pool sizes of the fetcher
+     */
+    public PooledPageFetcher(FetcherConfig config) {
+        this.config = config;
+        this.ioExecutor = Executors.newFixedThreadPool(config.getIoThreads(),
+                new DaemonThreadFactory("page-fetcher-"));
+    }
+
+    @Override
+    public CompletableFuture<FetchResponse> fetch(String url) {
+        return fetch(url, Collections.<String, String>emptyMap());
+    }
+
+    @Override
+    public CompletableFuture<FetchResponse> fetch(String url, Map<String, String> requestHeaders) {
+        return fetch(url, requestHeaders, config.getMaxBodyBytes());
+    }
+
+    @Override
+    public CompletableFuture<FetchResponse> fetch(String url, Map<String, String> requestHeaders, int maxBodyBytes) {
+        return fetch(url, requestHeaders, maxBodyBytes, true);
+    }
+
+    @Override
+    public CompletableFuture<FetchResponse> fetchWithoutRedirects(String url, Map<String, String> requestHeaders) {
+        return fetch(url, requestHeaders, config.getMaxBodyBytes(), false);
+    }
+
+    private CompletableFuture<FetchResponse> fetch(String url, Map<String, String> requestHeaders, int maxBodyBytes,
+                                                   boolean followRedirects) {
+        CompletableFuture<FetchResponse> future = new CompletableFuture<>();
+        String host = URLUtils.getHost(url);
+        PendingRequest request = new PendingRequest(() -> {
+            inFlightRequests.incrementAndGet();
+            try {
+                future.complete(execute(url, requestHeaders, Math.min(maxBodyBytes, config.getMaxBodyBytes()),
+                        followRedirects));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                inFlightRequests.decrementAndGet();
+            }
+        }, future);
+        // a queue removed in the meantime takes no more requests, the next one is created for the host
+        HostQueue hostQueue;
+        do {
+            hostQueue = hostQueues.computeIfAbsent(host, HostQueue::new);
+        } while (!hostQueue.submit(request));
+        return future;
+    }
+
+    @Override
+    public void shutdown() {
+        ioExecutor.shutdownNow();
+    }
+
+    /**
+     * Method to get the number of requests currently performed by the IO threads
+     * @return number of requests in flight
+     */
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    /**
+     * Method to get the number of hosts with requests in flight or waiting
+     * @return number of host queues
+     */
+    int getHostQueues() {
+        return hostQueues.size();
+    }
+
+    /**
+     * Method to perform the request on the current (IO) thread. The redirects followed here are requested from the
+     * same IO thread, outside of the queue of their host: only the requests made outside of the frontier of a crawl
+     * (robots files, sitemaps, image probes) follow them, the webpages of a crawl get the 3xx response instead.
+     * @param url: url of the webpage
+     * @param requestHeaders: headers added to the request, and except for the conditional ones to the requests
+     * following the redirects
+     * @param maxBodyBytes: size at which the body of the final response is cut
+     * @param followRedirects: false to return a 3xx response as is
+     * @return response of the final url
+     * @throws IOException if no response could be received
+     */
+    private FetchResponse execute(String url, Map<String, String> requestHeaders, int maxBodyBytes,
+                                  boolean followRedirects) throws IOException {
+        long startTime = System.nanoTime();
+        String currentUrl = url;
+        Map<String, String> currentHeaders = requestHeaders;
+        for (int redirects = 0; ; redirects++) {
+            HttpURLConnection connection = open(currentUrl, currentHeaders);
+            int statusCode = connection.getResponseCode();
+            String location = connection.getHeaderField("Location");
+            if (followRedirects && isRedirect(statusCode) && location != null) {
+                if (redirects >= MAX_REDIRECTS) {
+                    connection.disconnect();
+                    throw new IOException("Too many redirects for the url: " + url);
+                }
+                // consuming the body so that the connection can be reused for the redirect
+                readBody(connection, statusCode);
+                currentUrl = new URL(new URL(currentUrl), location).toString();
+                // the validators of the cached webpage do not apply to the target of the redirect
+                currentHeaders = withoutConditionalHeaders(currentHeaders);
+                continue;
+            }
+            Map<String, String> headers = readHeaders(connection);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            boolean truncated = readBody(connection, statusCode, body, maxBodyBytes);
+            return new FetchResponse(currentUrl, statusCode, headers, body.toByteArray(), truncated,
+                    System.nanoTime() - startTime);
+        }
+    }
+
+    private HttpURLConnection open(String url, Map<String, String> requestHeaders) throws IOException {
+        URLConnection urlConnection = new URL(url).openConnection();
+        if (!(urlConnection instanceof HttpURLConnection)) {
+            throw new IOException("Only http and https urls can be fetched: " + url);
+        }
+        HttpURLConnection connection = (HttpURLConnection) urlConnection;
+        connection.setConnectTimeout(config.getConnectTimeoutMs());
+        connection.setReadTimeout(config.getReadTimeoutMs());
+        // redirects are followed by hand, HttpURLConnection does not follow them across http and https
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestProperty("User-Agent", config.getUserAgent());
+        connection.setRequestProperty("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return connection;
+    }
+
+    private static Map<String, String> withoutConditionalHeaders(Map<String, String> requestHeaders) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (!"if-none-match".equals(name) && !"if-modified-since".equals(name)) {
+                headers.put(header.getKey(), header.getValue());
+            }
+        }
+        return headers;
+    }
+
+    private static boolean isRedirect(int statusCode) {
+        return statusCode == 301 || statusCode == 302 || statusCode == 303 || statusCode == 307
+                || statusCode == 308;
+    }
+
+    private static Map<String, String> readHeaders(HttpURLConnection connection) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                headers.put(header.getKey().toLowerCase(Locale.ROOT), String.join(", ", header.getValue()));
+            }
+        }
+        return headers;
+    }
+
+    private void readBody(HttpURLConnection connection, int statusCode) throws IOException {
+        readBody(connection, statusCode, null, config.getMaxBodyBytes());
+    }
+
+    /**
+     * Method to read the body of the response up to the size limit. A fully read body returns the connection to
+     * the keep-alive pool, a connection whose body is cut is closed instead.
+     * @param connection: connection to read from
+     * @param statusCode: status code of the response
+     * @param body: stream the body is written to, null to discard the body
+     * @param maxBodyBytes: size limit of the body
+     * @return true if the body was cut at the size limit
+     * @throws IOException if the body could not be read
+     */
+    private boolean readBody(HttpURLConnection connection, int statusCode, ByteArrayOutputStream body,
+                             int maxBodyBytes) throws IOException {
+        InputStream rawStream = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (rawStream == null) {
+            return false;
+        }
+        boolean gzipped = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+        try (InputStream in = gzipped ? new GZIPInputStream(rawStream, BUFFER_SIZE) : rawStream) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                int allowed = (int) Math.min(read, maxBodyBytes - total);
+                if (body != null && allowed > 0) {
+                    body.write(buffer, 0, allowed);
+                }
+                total += read;
+                if (total > maxBodyBytes) {
+                    LOGGER.debug("Body of {} exceeds {} bytes, cutting it", connection.getURL(), maxBodyBytes);
+                    connection.disconnect();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queue of the requests to a single host. At most maxConnectionsPerHost of them are running on the IO pool,
+     * the others wait here without holding a thread. The queue is removed once its last request is done, so that
+     * only the hosts with requests in flight have one.
+     */
+    private final class HostQueue {
+        private final String host;
+        private final Queue<PendingRequest> waiting = new ArrayDeque<>();
+        private int running;
+        // true once the queue is removed, guarded by this
+        private boolean removed;
+
+        private HostQueue(String host) {
+            this.host = host;
+        }
+
+        /**
+         * Method to run a request once fewer than maxConnectionsPerHost requests to the host are running
+         * @param pendingRequest: request to the host
+         * @return false if the queue was removed, the request must go to the current queue of the host
+         */
+        private boolean submit(PendingRequest pendingRequest) {
+            synchronized (this) {
+                if (removed) {
+                    return false;
+                }
+                if (running >= config.getMaxConnectionsPerHost()) {
+                    waiting.offer(pendingRequest);
+                    return true;
+                }
+                running++;
+            }
+            start(pendingRequest);
+            return true;
+        }
+
+        private void onRequestDone() {
+            PendingRequest next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    if (--running == 0) {
+                        removed = true;
+                        hostQueues.remove(host, this);
+                    }
+                    return;
+                }
+            }
+            start(next);
+        }
+
+        private void start(PendingRequest pendingRequest) {
+            try {
+                ioExecutor.execute(() -> {
+                    try {
+                        pendingRequest.request.run();
+                    } finally {
+                        onRequestDone();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pendingRequest.future.completeExceptionally(new IOException("Page fetcher is shut down", e));
+                onRequestDone();
+            }
+        }
+    }
+
+    private static final class PendingRequest {
+        private final Runnable request;
+        private final CompletableFuture<FetchResponse> future;
+
+        private PendingRequest(Runnable request, CompletableFuture<FetchResponse> future) {
+            this.request = request;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.imagefinder.htmlparsers;
+
+import java.util.Locale;
+
+/**
+ * enum representing the ways of extracting data from a fetched webpage
+ */
+public enum ExtractionEngine {
+    // full Jsoup DOM, parsers receive the Document object
+    DOM,
+    // single pass StreamingTagExtractor, parsers implementing IStreamingHTMLParser receive the extracted tags
+    STREAMING;
+
+    /**
+     * Method to get the engine configured with the imagefinder.extraction.engine system property
+     * @return configured engine, STREAMING by default
+     */
+    public static ExtractionEngine fromSystemProperties() {
+        String engine = System.getProperty("imagefinder.extraction.engine", STREAMING.name());
+        return valueOf(engine.trim().toUpperCase(Locale.ROOT));
+    }
+}
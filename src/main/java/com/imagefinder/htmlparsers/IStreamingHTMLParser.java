@@ -0,0 +1,14 @@
+package com.imagefinder.htmlparsers;
+
+import java.util.Collection;
+
+/**
+ * Streaming variant of the IHTMLParser strategy. Instead of a Jsoup document, the parser receives the tags
+ * extracted by a single pass of the StreamingTagExtractor over the markup, so a webpage is tokenized once for all
+ * the parsers and no DOM tree is built.
+ * A parser implementing both variants must return the same data for the same webpage.
+ **/
+public interface IStreamingHTMLParser<T> extends IHTMLParser<T> {
+
+    public Collection<T> parseTags(PageTags tags, String url);
+}
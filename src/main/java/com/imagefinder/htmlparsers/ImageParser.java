@@ -1,7 +1,10 @@
 package com.imagefinder.htmlparsers;
+import com.imagefinder.classifiers.ImageClassifier;
+import com.imagefinder.classifiers.KeywordImageClassifier;
 import com.imagefinder.models.Category;
 import com.imagefinder.models.Image;
-import com.imagefinder.utils.URLUtils;
+import com.imagefinder.urls.CanonicalUrl;
+import com.imagefinder.urls.UrlCanonicalizer;
 
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -12,23 +15,36 @@ import org.slf4j.LoggerFactory;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Parser class to parse image data from the webpages
  */
-public class ImageParser implements IHTMLParser<Image>{
+public class ImageParser implements IStreamingHTMLParser<Image>{
 
     // regex to identify parameters such as /resize:fill:128*128, out of the image URL
     // this regex is used to identify and remove such patterns as the resize parameters leads to
     // duplicate images been displayed. Cleaning the iamge URL in such avoids duplicate images.
     private static final Pattern RESIZE_PATTERN = Pattern.compile("resize:fill:\\d+:\\d+/");
-    // regex to identify logo images based on the url/alt text of the image containing keywords as mentioned below.
-    private static final Pattern LOGO_PATTERN = Pattern.compile(
-            "(?i).*?(logo|brand|icon|symbol|company|badge|emblem|mark|trademark).*?");
     private static final Logger LOGGER = LoggerFactory.getLogger(ImageParser.class);
 
+    private final ImageClassifier classifier;
+
+    /**
+     * Constructor for the ImageParser class, categorizing the images by the keywords of the Category enum
+     */
+    public ImageParser() {
+        this(KeywordImageClassifier.getDefault());
+    }
+
+    /**
+     * Constructor for the ImageParser class
+     * @param classifier: classifier categorizing the images found
+     */
+    public ImageParser(ImageClassifier classifier) {
+        this.classifier = classifier;
+    }
+
     /**
      * Method to clean the url by removing the resize:fill parameter within the url
      * @param url: url of the webpage
@@ -50,18 +66,7 @@ public class ImageParser implements IHTMLParser<Image>{
         try{
             Elements imgElements = document.select("img[src]");
             for (Element img : imgElements) {
-                String src = img.absUrl("src");
-                src = cleanURL(src);
-                if (!src.isEmpty() && URLUtils.isValidURL(src)) {
-                    if (isLogoImage(src,img.attr("alt"))){
-                        LOGGER.debug("Identified logo image from the URL: {} and alt text: {}",
-                                        src, img.attr("alt"));
-                        images.add(new Image(src, Category.LOGO));
-                    }
-                    else{
-                        images.add(new Image(src, Category.GENERAL));
-                    }
-                }
+                addImage(images, img.absUrl("src"), img.attr("alt"), img.attr("class"), img.attr("id"));
             }
         }
         catch(Exception e){
@@ -70,6 +75,46 @@ public class ImageParser implements IHTMLParser<Image>{
         return images;
     }
 
+    /**
+     * Method to parse the img tags collected by the streaming tag extractor
+     * @param tags: tags of the webpage extracted in a single pass over its markup
+     * @param url: url of the webpage to parse
+     * @return returns a collection of Image data, same as parseHTML for the same webpage
+     */
+    @Override
+    public Collection<Image> parseTags(PageTags tags, String url) {
+        Set<Image> images = new HashSet<>();
+        try{
+            for (int i = 0; i < tags.imageCount(); i++) {
+                addImage(images, tags.imageUrl(i), tags.imageAlt(i), tags.imageClass(i), tags.imageId(i));
+            }
+        }
+        catch(Exception e){
+            LOGGER.error("Error occurred while parsing images from the tags of URL: {}",url,e);
+        }
+        return images;
+    }
+
+    /**
+     * Method to clean, validate, canonicalize and categorize an image before adding it to the images of the webpage
+     * @param images: images of the webpage
+     * @param absoluteSrc: absolute url of the image
+     * @param altText: alt text of the image
+     * @param cssClass: class attribute of the img tag
+     * @param id: id attribute of the img tag
+     */
+    private void addImage(Set<Image> images, String absoluteSrc, String altText, String cssClass, String id) {
+        CanonicalUrl canonicalSrc = UrlCanonicalizer.canonicalize(cleanURL(absoluteSrc));
+        if (canonicalSrc != null) {
+            String src = canonicalSrc.getUrl();
+            Category category = classifier.classify(src, altText, cssClass, id);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Categorized image from the URL: {} and alt text: {} as {}", src, altText, category);
+            }
+            images.add(new Image(src, category));
+        }
+    }
+
 
      /**
      * Checks if an image is likely a logo based on its URL or alt text.
@@ -78,13 +123,8 @@ public class ImageParser implements IHTMLParser<Image>{
      * @return True if the image is likely a logo, false otherwise.
      */
     public static boolean isLogoImage(String imageUrl, String altText) {
-        if (imageUrl == null) imageUrl = "";
-        if (altText == null) altText = "";
-        Matcher matcher1 = LOGO_PATTERN.matcher(imageUrl);
-        Matcher matcher2 = LOGO_PATTERN.matcher(altText);
-        boolean urlMatches = matcher1.find();
-        boolean altMatches = matcher2.find();
-        return urlMatches || altMatches;
+        // LOGO is the first category, so it wins over any other category found
+        return KeywordImageClassifier.getDefault().classify(imageUrl, altText, "", "") == Category.LOGO;
     }
 
 }
@@ -1,7 +1,8 @@
 package com.imagefinder.htmlparsers;
 
-import com.imagefinder.urls.VisitedUrls;
-import com.imagefinder.utils.URLUtils;
+import com.imagefinder.crawler.CrawlContext;
+import com.imagefinder.urls.CanonicalUrl;
+import com.imagefinder.urls.UrlCanonicalizer;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
@@ -10,22 +11,26 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Class to parse subpage data i.e hyperlinks within a webpage
  */
-public class LinkParser implements IHTMLParser<String>{
+public class LinkParser implements IStreamingHTMLParser<String>{
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LinkParser.class);
 
-    private final VisitedUrls visitedUrls;
+    // context of the crawl the parser belongs to, used to check if the subpage is already crawled
+    private final CrawlContext<?> context;
 
     /**
-     * visitedUrls object of the singleton class to check if the subpage is already crawled
+     * Constructor for the LinkParser class
+     * @param context: context of the crawl whose visited URLs are used to filter the subpages
      */
-    public LinkParser() {
-        this.visitedUrls = VisitedUrls.getInstance();
+    public LinkParser(CrawlContext<?> context) {
+        this.context = context;
     }
 
     /**
@@ -39,12 +44,9 @@ public class LinkParser implements IHTMLParser<String>{
         Set<String> subPages = new HashSet<>();
         try{
             Elements hyperlinks = document.select("a[href]");
+            String hostKey = UrlCanonicalizer.hostKey(url);
             for (Element hyperlink : hyperlinks) {
-                String subPageURL = hyperlink.absUrl("href");//
-                if(!subPageURL.isEmpty() && !this.visitedUrls.isVisited(subPageURL)
-                        && URLUtils.isSameDomain(subPageURL, url) && URLUtils.isValidURL(subPageURL)) {
-                    subPages.add(subPageURL);
-                }
+                addSubPage(subPages, hyperlink.absUrl("href"), hostKey);
             }
         }
         catch(Exception e){
@@ -53,4 +55,100 @@ public class LinkParser implements IHTMLParser<String>{
 
         return subPages;
     }
+
+    /**
+     * Method to get the subpage URLs from the a tags collected by the streaming tag extractor
+     * @param tags: tags of the webpage extracted in a single pass over its markup
+     * @param url: url of the webpage we are parsing
+     * @return returns a collection of the subpage URLs, same as parseHTML for the same webpage
+     */
+    @Override
+    public Collection<String> parseTags(PageTags tags, String url) {
+        Set<String> subPages = new HashSet<>();
+        try{
+            String hostKey = UrlCanonicalizer.hostKey(url);
+            for (int i = 0; i < tags.linkCount(); i++) {
+                addSubPage(subPages, tags.linkUrl(i), hostKey);
+            }
+        }
+        catch(Exception e){
+            LOGGER.error("Error while parsing tags to extract hyperlinks from the URL: {}",url,e);
+        }
+        return subPages;
+    }
+
+    /**
+     * Method to get the subpage URLs within the document along with the text of their links, used to rank them
+     * @param document: document object extracted using Jsoup
+     * @param url: url of the webpage we are parsing
+     * @return text of the links of every subpage URL, same URLs as parseHTML in document order
+     */
+    public Map<String, String> parseLinks(Document document, String url) {
+        Map<String, String> subPages = new LinkedHashMap<>();
+        try{
+            String hostKey = UrlCanonicalizer.hostKey(url);
+            for (Element hyperlink : document.select("a[href]")) {
+                String text = hyperlink.text();
+                addSubPage(subPages, hyperlink.absUrl("href"), text.isEmpty() ? hyperlink.attr("title") : text,
+                        hostKey);
+            }
+        }
+        catch(Exception e){
+            LOGGER.error("Error while parsing URL to extract hyperlinks from the URL: {}",url,e);
+        }
+        return subPages;
+    }
+
+    /**
+     * Method to get the subpage URLs from the a tags collected by the streaming tag extractor along with the text of
+     * their links
+     * @param tags: tags of the webpage extracted in a single pass over its markup
+     * @param url: url of the webpage we are parsing
+     * @return text of the links of every subpage URL, same URLs as parseTags in document order
+     */
+    public Map<String, String> parseLinks(PageTags tags, String url) {
+        Map<String, String> subPages = new LinkedHashMap<>();
+        try{
+            String hostKey = UrlCanonicalizer.hostKey(url);
+            for (int i = 0; i < tags.linkCount(); i++) {
+                addSubPage(subPages, tags.linkUrl(i), tags.linkText(i), hostKey);
+            }
+        }
+        catch(Exception e){
+            LOGGER.error("Error while parsing tags to extract hyperlinks from the URL: {}",url,e);
+        }
+        return subPages;
+    }
+
+    /**
+     * Method to add the canonical form of a hyperlink to the subpages if it is a valid, not yet visited URL of the
+     * same domain. The hyperlink is validated, canonicalized and fingerprinted in a single pass.
+     * @param subPages: subpages of the webpage
+     * @param subPageURL: absolute url of the hyperlink
+     * @param hostKey: host key of the webpage we are parsing
+     */
+    private void addSubPage(Set<String> subPages, String subPageURL, String hostKey) {
+        CanonicalUrl subPage = UrlCanonicalizer.canonicalize(subPageURL);
+        if(subPage != null && subPage.getHostKey().equals(hostKey) && !this.context.isVisited(subPage)) {
+            subPages.add(subPage.getUrl());
+        }
+    }
+
+    /**
+     * Method to add the canonical form of a hyperlink and the text of its link to the subpages if it is a valid, not
+     * yet visited URL of the same domain. A subpage linked several times keeps the first non empty text.
+     * @param subPages: subpages of the webpage and the text of their links
+     * @param subPageURL: absolute url of the hyperlink
+     * @param text: text of the link
+     * @param hostKey: host key of the webpage we are parsing
+     */
+    private void addSubPage(Map<String, String> subPages, String subPageURL, String text, String hostKey) {
+        CanonicalUrl subPage = UrlCanonicalizer.canonicalize(subPageURL);
+        if(subPage != null && subPage.getHostKey().equals(hostKey) && !this.context.isVisited(subPage)) {
+            String previousText = subPages.get(subPage.getUrl());
+            if (previousText == null || previousText.isEmpty()) {
+                subPages.put(subPage.getUrl(), text);
+            }
+        }
+    }
 }
@@ -0,0 +1,177 @@
+package com.imagefinder.htmlparsers;
+
+import com.imagefinder.utils.URLUtils;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tags of a webpage collected by the StreamingTagExtractor: the img and a tags, with the raw values of the
+ * attributes the parsers are interested in. URLs are resolved against the base URI of the webpage on access, with the
+ * same rules as Jsoup's absUrl, so that the streaming parsers return exactly what the DOM based parsers return.
+ * The text of every link (or its title if it has no text) is kept as well, cut to its first characters, so that the
+ * frontier can tell which subpages are worth fetching first.
+ */
+public class PageTags {
+
+    // number of characters of the text of a link that are kept
+    static final int MAX_LINK_TEXT_LENGTH = 200;
+
+    private final String pageUrl;
+    // base URI set by the first <base href> of the webpage, null if there is none
+    private String baseHref;
+    private final List<String> imageSources = new ArrayList<>();
+    private final List<String> imageAlts = new ArrayList<>();
+    private final List<String> imageClasses = new ArrayList<>();
+    private final List<String> imageIds = new ArrayList<>();
+    private final List<String> linkHrefs = new ArrayList<>();
+    private final List<String> linkTexts = new ArrayList<>();
+
+    /**
+     * Constructor for the PageTags class
+     * @param pageUrl: url the webpage was fetched from
+     */
+    public PageTags(String pageUrl) {
+        this.pageUrl = pageUrl;
+    }
+
+    /**
+     * Method to collect the tags of a webpage already parsed into a Jsoup document. The URLs are stored resolved,
+     * so the tags give the same results as the document to the parsers.
+     * @param document: document of the webpage
+     * @param pageUrl: url the webpage was fetched from
+     * @return tags of the webpage
+     */
+    public static PageTags fromDocument(Document document, String pageUrl) {
+        PageTags tags = new PageTags(pageUrl);
+        for (Element img : document.select("img[src]")) {
+            String src = img.absUrl("src");
+            // an unresolvable url is skipped by the parsers, and would resolve to the webpage itself here
+            if (!src.isEmpty()) {
+                tags.addImage(src, img.attr("alt"), img.attr("class"), img.attr("id"));
+            }
+        }
+        for (Element hyperlink : document.select("a[href]")) {
+            String href = hyperlink.absUrl("href");
+            if (!href.isEmpty()) {
+                String text = hyperlink.text();
+                tags.addLink(href, text.isEmpty() ? hyperlink.attr("title") : text);
+            }
+        }
+        return tags;
+    }
+
+    void setBaseHref(String baseHref) {
+        this.baseHref = baseHref;
+    }
+
+    boolean hasBaseHref() {
+        return baseHref != null;
+    }
+
+    void addImage(String src, String alt, String cssClass, String id) {
+        imageSources.add(src);
+        imageAlts.add(alt);
+        imageClasses.add(cssClass);
+        imageIds.add(id);
+    }
+
+    void addLink(String href, String text) {
+        linkHrefs.add(href);
+        linkTexts.add(text.length() > MAX_LINK_TEXT_LENGTH ? text.substring(0, MAX_LINK_TEXT_LENGTH) : text);
+    }
+
+    public String getPageUrl() {
+        return pageUrl;
+    }
+
+    /**
+     * Method to get the URI relative URLs of the webpage are resolved against
+     * @return url of the first base tag, or the url of the webpage
+     */
+    public String getBaseUri() {
+        return baseHref != null ? baseHref : pageUrl;
+    }
+
+    public int imageCount() {
+        return imageSources.size();
+    }
+
+    /**
+     * Method to get the absolute url of an image, same as Jsoup's img.absUrl("src")
+     * @param index: index of the img tag within the webpage
+     * @return absolute url of the image, empty string if it cannot be resolved
+     */
+    public String imageUrl(int index) {
+        return URLUtils.resolve(getBaseUri(), imageSources.get(index));
+    }
+
+    /**
+     * Method to get the src attribute of an image as written in the webpage
+     * @param index: index of the img tag within the webpage
+     * @return raw url of the image, possibly relative
+     */
+    public String imageSource(int index) {
+        return imageSources.get(index);
+    }
+
+    /**
+     * Method to get the alt text of an image
+     * @param index: index of the img tag within the webpage
+     * @return alt text, empty string if the tag has no alt attribute
+     */
+    public String imageAlt(int index) {
+        return imageAlts.get(index);
+    }
+
+    /**
+     * Method to get the class attribute of an image
+     * @param index: index of the img tag within the webpage
+     * @return class names, empty string if the tag has no class attribute
+     */
+    public String imageClass(int index) {
+        return imageClasses.get(index);
+    }
+
+    /**
+     * Method to get the id attribute of an image
+     * @param index: index of the img tag within the webpage
+     * @return id, empty string if the tag has no id attribute
+     */
+    public String imageId(int index) {
+        return imageIds.get(index);
+    }
+
+    public int linkCount() {
+        return linkHrefs.size();
+    }
+
+    /**
+     * Method to get the absolute url of a hyperlink, same as Jsoup's a.absUrl("href")
+     * @param index: index of the a tag within the webpage
+     * @return absolute url of the hyperlink, empty string if it cannot be resolved
+     */
+    public String linkUrl(int index) {
+        return URLUtils.resolve(getBaseUri(), linkHrefs.get(index));
+    }
+
+    /**
+     * Method to get the href attribute of a hyperlink as written in the webpage
+     * @param index: index of the a tag within the webpage
+     * @return raw url of the hyperlink, possibly relative
+     */
+    public String linkHref(int index) {
+        return linkHrefs.get(index);
+    }
+
+    /**
+     * Method to get the text of a hyperlink, with its whitespace collapsed like Jsoup's a.text()
+     * @param index: index of the a tag within the webpage
+     * @return text of the link, or its title attribute if it has no text; empty string if it has neither
+     */
+    public String linkText(int index) {
+        return linkTexts.get(index);
+    }
+}
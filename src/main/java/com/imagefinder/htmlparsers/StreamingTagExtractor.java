@@ -0,0 +1,308 @@
+package com.imagefinder.htmlparsers;
+
+import com.imagefinder.utils.URLUtils;
+import org.jsoup.parser.Parser;
+
+/**
+ * Single pass tokenizer collecting the img, a and base tags of a webpage without building a DOM tree.
+ * The tokenizer follows the HTML tokenization rules that matter for these tags: comments, doctype and processing
+ * instructions are skipped, the content of raw text elements (script, style, textarea, title...) is not tokenized,
+ * attribute names are case insensitive, the first occurrence of an attribute wins and character references in
+ * attribute values are decoded. Only the values of the attributes we need, and the first characters of the text of
+ * the links, are materialised as strings.
+ */
+public final class StreamingTagExtractor {
+
+    // elements whose content is text, i.e. "<img" within them is not a tag
+    private static final String[] RAW_TEXT_ELEMENTS = {
+            "script", "style", "textarea", "title", "xmp", "iframe", "noembed", "noframes"};
+
+    // number of characters after the start tag of a link that are scanned for its text
+    private static final int MAX_LINK_SCAN_LENGTH = 1024;
+    private static final int TAG_OTHER = 0;
+    private static final int TAG_IMG = 1;
+    private static final int TAG_A = 2;
+    private static final int TAG_BASE = 3;
+
+    private StreamingTagExtractor() {
+    }
+
+    /**
+     * Method to extract the tags of a webpage
+     * @param html: markup of the webpage
+     * @param pageUrl: url the webpage was fetched from, used to resolve relative URLs
+     * @return tags of the webpage
+     */
+    public static PageTags extract(String html, String pageUrl) {
+        PageTags tags = new PageTags(pageUrl);
+        int length = html.length();
+        int position = 0;
+        while (position < length) {
+            int tagStart = html.indexOf('<', position);
+            if (tagStart < 0 || tagStart + 1 >= length) {
+                break;
+            }
+            char next = html.charAt(tagStart + 1);
+            if (next == '!') {
+                position = skipMarkupDeclaration(html, tagStart + 2);
+            } else if (next == '?' || next == '/') {
+                // processing instructions (bogus comments) and end tags: nothing of interest up to the next '>'
+                position = indexAfter(html, '>', tagStart + 2);
+            } else if (isAsciiLetter(next)) {
+                position = parseStartTag(html, tagStart + 1, tags);
+            } else {
+                // a '<' that does not start a tag is plain text
+                position = tagStart + 1;
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Method to skip a comment, a doctype or a CDATA section
+     * @param html: markup of the webpage
+     * @param position: index right after "<!"
+     * @return index right after the declaration
+     */
+    private static int skipMarkupDeclaration(String html, int position) {
+        if (html.startsWith("--", position)) {
+            int contentStart = position + 2;
+            // "<!-->" and "<!--->" are complete (empty) comments
+            if (html.startsWith(">", contentStart)) {
+                return contentStart + 1;
+            }
+            if (html.startsWith("->", contentStart)) {
+                return contentStart + 2;
+            }
+            int end = html.indexOf("-->", contentStart);
+            return end < 0 ? html.length() : end + 3;
+        }
+        return indexAfter(html, '>', position);
+    }
+
+    /**
+     * Method to parse a start tag and record it if it is an img, a or base tag
+     * @param html: markup of the webpage
+     * @param nameStart: index of the first character of the tag name
+     * @param tags: tags of the webpage
+     * @return index right after the tag (and after the content of raw text elements)
+     */
+    private static int parseStartTag(String html, int nameStart, PageTags tags) {
+        int length = html.length();
+        int position = nameStart;
+        while (position < length && !isTagNameEnd(html.charAt(position))) {
+            position++;
+        }
+        int nameEnd = position;
+        int tagType = tagType(html, nameStart, nameEnd);
+
+        String src = null;
+        String alt = null;
+        String cssClass = null;
+        String id = null;
+        String href = null;
+        String title = null;
+        while (true) {
+            while (position < length && (isWhitespace(html.charAt(position)) || html.charAt(position) == '/')) {
+                position++;
+            }
+            if (position >= length) {
+                // a tag cut by the end of the document is dropped
+                return length;
+            }
+            if (html.charAt(position) == '>') {
+                position++;
+                break;
+            }
+            int attributeNameStart = position;
+            // the first character of an attribute name may be '=', the following ones may not
+            position++;
+            while (position < length && !isAttributeNameEnd(html.charAt(position))) {
+                position++;
+            }
+            int attributeNameEnd = position;
+            while (position < length && isWhitespace(html.charAt(position))) {
+                position++;
+            }
+            int valueStart = position;
+            int valueEnd = position;
+            if (position < length && html.charAt(position) == '=') {
+                position++;
+                while (position < length && isWhitespace(html.charAt(position))) {
+                    position++;
+                }
+                if (position >= length) {
+                    return length;
+                }
+                char quote = html.charAt(position);
+                if (quote == '"' || quote == '\'') {
+                    valueStart = position + 1;
+                    valueEnd = html.indexOf(quote, valueStart);
+                    if (valueEnd < 0) {
+                        return length;
+                    }
+                    position = valueEnd + 1;
+                } else {
+                    valueStart = position;
+                    while (position < length && !isWhitespace(html.charAt(position))
+                            && html.charAt(position) != '>') {
+                        position++;
+                    }
+                    valueEnd = position;
+                }
+            }
+            if (tagType == TAG_OTHER) {
+                continue;
+            }
+            // the first occurrence of an attribute wins, the duplicates are ignored
+            if (tagType == TAG_IMG) {
+                if (src == null && nameEquals(html, attributeNameStart, attributeNameEnd, "src")) {
+                    src = attributeValue(html, valueStart, valueEnd);
+                } else if (alt == null && nameEquals(html, attributeNameStart, attributeNameEnd, "alt")) {
+                    alt = attributeValue(html, valueStart, valueEnd);
+                } else if (cssClass == null && nameEquals(html, attributeNameStart, attributeNameEnd, "class")) {
+                    cssClass = attributeValue(html, valueStart, valueEnd);
+                } else if (id == null && nameEquals(html, attributeNameStart, attributeNameEnd, "id")) {
+                    id = attributeValue(html, valueStart, valueEnd);
+                }
+            } else if (href == null && nameEquals(html, attributeNameStart, attributeNameEnd, "href")) {
+                href = attributeValue(html, valueStart, valueEnd);
+            } else if (tagType == TAG_A && title == null
+                    && nameEquals(html, attributeNameStart, attributeNameEnd, "title")) {
+                title = attributeValue(html, valueStart, valueEnd);
+            }
+        }
+
+        if (tagType == TAG_IMG && src != null) {
+            tags.addImage(src, alt == null ? "" : alt, cssClass == null ? "" : cssClass, id == null ? "" : id);
+        } else if (tagType == TAG_A && href != null) {
+            String text = linkText(html, position);
+            tags.addLink(href, text.isEmpty() && title != null ? title.trim() : text);
+        } else if (tagType == TAG_BASE && href != null && !tags.hasBaseHref()) {
+            // like Jsoup, the first base tag whose href resolves sets the base URI of the whole document
+            String baseHref = URLUtils.resolve(tags.getPageUrl(), href);
+            if (!baseHref.isEmpty()) {
+                tags.setBaseHref(baseHref);
+            }
+        } else if (tagType == TAG_OTHER) {
+            return skipRawText(html, nameStart, nameEnd, position);
+        }
+        return position;
+    }
+
+    /**
+     * Method to skip the content of raw text elements up to their end tag
+     * @param html: markup of the webpage
+     * @param nameStart: index of the first character of the tag name
+     * @param nameEnd: index right after the tag name
+     * @param position: index right after the start tag
+     * @return index of the end tag, or the given position for other elements
+     */
+    private static int skipRawText(String html, int nameStart, int nameEnd, int position) {
+        int nameLength = nameEnd - nameStart;
+        if (nameLength == 9 && html.regionMatches(true, nameStart, "plaintext", 0, 9)) {
+            return html.length();
+        }
+        for (String element : RAW_TEXT_ELEMENTS) {
+            if (element.length() == nameLength && html.regionMatches(true, nameStart, element, 0, nameLength)) {
+                int searchFrom = position;
+                while (true) {
+                    int endTag = html.indexOf("</", searchFrom);
+                    if (endTag < 0) {
+                        return html.length();
+                    }
+                    int afterName = endTag + 2 + nameLength;
+                    if (html.regionMatches(true, endTag + 2, element, 0, nameLength)
+                            && (afterName >= html.length() || isTagNameEnd(html.charAt(afterName)))) {
+                        return endTag;
+                    }
+                    searchFrom = endTag + 2;
+                }
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Method to read the text of a link up to its end tag (or the start of the next link), skipping the tags nested in
+     * it. Only the first characters of the link are scanned, the text being only used to rank the subpage.
+     * @param html: markup of the webpage
+     * @param position: index right after the start tag of the link
+     * @return text of the link with its whitespace collapsed, empty string if it has none
+     */
+    private static String linkText(String html, int position) {
+        int limit = Math.min(html.length(), position + MAX_LINK_SCAN_LENGTH);
+        StringBuilder text = new StringBuilder();
+        boolean inTag = false;
+        boolean pendingSpace = false;
+        for (int i = position; i < limit && text.length() < PageTags.MAX_LINK_TEXT_LENGTH; i++) {
+            char c = html.charAt(i);
+            if (inTag) {
+                inTag = c != '>';
+            } else if (c == '<') {
+                int nameStart = i + 1 < limit && html.charAt(i + 1) == '/' ? i + 2 : i + 1;
+                if (nameStart + 1 < html.length() && (html.charAt(nameStart) | 0x20) == 'a'
+                        && isTagNameEnd(html.charAt(nameStart + 1))) {
+                    break;
+                }
+                inTag = true;
+            } else if (isWhitespace(c)) {
+                pendingSpace = text.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    text.append(' ');
+                    pendingSpace = false;
+                }
+                text.append(c);
+            }
+        }
+        String value = text.toString();
+        return value.indexOf('&') < 0 ? value : Parser.unescapeEntities(value, false);
+    }
+
+    private static int tagType(String html, int nameStart, int nameEnd) {
+        int nameLength = nameEnd - nameStart;
+        if (nameLength == 1 && (html.charAt(nameStart) | 0x20) == 'a') {
+            return TAG_A;
+        }
+        // like browsers, Jsoup turns <image> into <img>
+        if ((nameLength == 3 && html.regionMatches(true, nameStart, "img", 0, 3))
+                || (nameLength == 5 && html.regionMatches(true, nameStart, "image", 0, 5))) {
+            return TAG_IMG;
+        }
+        if (nameLength == 4 && html.regionMatches(true, nameStart, "base", 0, 4)) {
+            return TAG_BASE;
+        }
+        return TAG_OTHER;
+    }
+
+    private static String attributeValue(String html, int valueStart, int valueEnd) {
+        String value = html.substring(valueStart, valueEnd);
+        return value.indexOf('&') < 0 ? value : Parser.unescapeEntities(value, true);
+    }
+
+    private static boolean nameEquals(String html, int nameStart, int nameEnd, String name) {
+        return nameEnd - nameStart == name.length() && html.regionMatches(true, nameStart, name, 0, name.length());
+    }
+
+    private static int indexAfter(String html, char character, int position) {
+        int index = html.indexOf(character, position);
+        return index < 0 ? html.length() : index + 1;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isTagNameEnd(char c) {
+        return isWhitespace(c) || c == '/' || c == '>';
+    }
+
+    private static boolean isAttributeNameEnd(char c) {
+        return isWhitespace(c) || c == '/' || c == '>' || c == '=';
+    }
+}
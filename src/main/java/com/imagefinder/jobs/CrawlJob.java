@@ -0,0 +1,269 @@
+package com.imagefinder.jobs;
+
+import com.imagefinder.checkpoint.CrawlCheckpoint;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.ObservableCrawlDataStorage;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.crawler.CrawlSpawner;
+import com.imagefinder.crawler.DataEnricher;
+import com.imagefinder.crawler.StopReason;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A crawl of a base url shared by every request that submitted the same url while it was running. The images are
+ * published to the subscribers as they are found; a subscriber joining late first receives the images published so
+ * far. Every submission attached to the job gets its own CrawlSubmission, and the crawl is only cancelled once every
+ * submission has been cancelled.
+ * A checkpointed job records the images it stores, and a job resumed after a restart starts with the images its
+ * crawl found before the interruption.
+ */
+public class CrawlJob {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlJob.class);
+
+    private final String id;
+    private final String url;
+    // normalized url the submissions are de-duplicated on
+    private final String key;
+    private final long createdAtMillis;
+    // true if the job holds one of the crawl slots of the admission controller
+    private final boolean holdsCrawlSlot;
+    private volatile long finishedAtMillis;
+    private volatile JobStatus status = JobStatus.RUNNING;
+    // storage the images found by the crawl are stored to (and published from)
+    private final CrawlDataStorage<Image> storage;
+    private final CrawlSpawner<Image> spawner;
+    // tokens of the submissions attached to the job and not cancelled
+    private final Set<String> submissionTokens = ConcurrentHashMap.newKeySet();
+    // number of submissions attached to the job and not cancelled
+    private final AtomicInteger submissions = new AtomicInteger();
+    // guarded by this: images published so far, in order
+    private final List<Image> publishedImages = new ArrayList<>();
+    private final List<Consumer<Image>> subscribers = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<CrawlDataStorage<Image>> result = new CompletableFuture<>();
+    // progress of the crawl recorded on disk, null if the job is not checkpointed
+    private final CrawlCheckpoint checkpoint;
+
+    /**
+     * Constructor for the CrawlJob class
+     * @param id: id of the job
+     * @param url: base url to crawl
+     * @param key: normalized base url
+     * @param services: threads, politeness and fetcher used to run the crawl
+     * @param imageEnricher: stage run on the images of every webpage before they are stored, null if there is none
+     * @param budget: limits of the crawl
+     * @param holdsCrawlSlot: true if a crawl slot was reserved for the job, false if it is served from the cache
+     * @param checkpoint: checkpoint of the crawl, recovered if the job resumes an interrupted crawl; null if the job
+     *                  is not checkpointed
+     */
+    CrawlJob(String id, String url, String key, CrawlServices services, DataEnricher<Image> imageEnricher,
+             CrawlBudget budget, boolean holdsCrawlSlot, CrawlCheckpoint checkpoint) {
+        this.id = id;
+        this.url = url;
+        this.key = key;
+        this.holdsCrawlSlot = holdsCrawlSlot;
+        this.createdAtMillis = System.currentTimeMillis();
+        this.checkpoint = checkpoint;
+        ConcurrentImageStorage images = new ConcurrentImageStorage();
+        if (checkpoint != null && checkpoint.isResumed()) {
+            // already recorded, so they are not part of the images recorded by the resumed crawl
+            for (Image image : checkpoint.getImages()) {
+                if (images.storeDataIfAbsent(image)) {
+                    publishedImages.add(image);
+                }
+            }
+        }
+        this.storage = new ObservableCrawlDataStorage<>(images, this::onImageStored);
+        this.spawner = new CrawlSpawner<>(url, storage, new ImageParser(), imageEnricher, budget, services);
+        this.spawner.setCheckpoint(checkpoint);
+    }
+
+    /**
+     * Method to start the crawl without blocking the calling thread
+     * @param onFinished: called once the job is finished, whatever its outcome
+     */
+    void start(Consumer<CrawlJob> onFinished) {
+        CompletableFuture<CrawlDataStorage<Image>> crawl;
+        try {
+            crawl = spawner.startCrawlAsync();
+        } catch (RuntimeException e) {
+            crawl = new CompletableFuture<>();
+            crawl.completeExceptionally(e);
+        }
+        crawl.whenComplete((crawledData, failure) -> {
+            if (checkpoint != null) {
+                // whatever its outcome, the crawl is not resumed
+                checkpoint.finish();
+            }
+            if (failure != null) {
+                LOGGER.error("Crawl job {} for the url: {} failed", id, url, failure);
+                finish(JobStatus.FAILED);
+            } else {
+                if (crawledData != storage) {
+                    // served from the cache: nothing was published during the crawl
+                    for (Image image : crawledData.retrieveData()) {
+                        publish(image);
+                    }
+                }
+                finish(spawner.isCancelled() ? JobStatus.CANCELLED : JobStatus.COMPLETED);
+            }
+            // unregistered before the waiters are notified, so that they can submit the url again right away
+            onFinished.accept(this);
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(crawledData);
+            }
+        });
+    }
+
+    /**
+     * Method to attach a submission of the url to the job
+     * @return handle of the submission, to cancel it
+     */
+    CrawlSubmission attach() {
+        String token = UUID.randomUUID().toString();
+        submissionTokens.add(token);
+        submissions.incrementAndGet();
+        return new CrawlSubmission(this, token);
+    }
+
+    /**
+     * Method to cancel a submission of the job. The crawl is cancelled once no submission is left. Cancelling a
+     * submission again, or a submission of another job, changes nothing.
+     * @param token: token of the submission
+     * @return true if the crawl was cancelled, false if other submissions still wait for it, it is finished or the
+     *         submission was not attached to the job
+     */
+    boolean cancel(String token) {
+        if (status.isFinished() || token == null || !submissionTokens.remove(token)) {
+            return false;
+        }
+        int remaining = submissions.decrementAndGet();
+        if (remaining > 0 || spawner.isCancelled()) {
+            return false;
+        }
+        LOGGER.info("Cancelling the crawl job {} for the url: {}", id, url);
+        spawner.cancel();
+        return true;
+    }
+
+    /**
+     * Method to receive the images of the crawl: the images published so far right away, then every new image as
+     * it is found
+     * @param subscriber: called with every image, on the thread that found it
+     */
+    public synchronized void subscribe(Consumer<Image> subscriber) {
+        for (Image image : publishedImages) {
+            subscriber.accept(image);
+        }
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Consumer<Image> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    private void onImageStored(Image image) {
+        if (checkpoint != null) {
+            checkpoint.recordImage(image);
+        }
+        publish(image);
+    }
+
+    private synchronized void publish(Image image) {
+        if (status.isFinished()) {
+            // e.g. a background refresh of the cached data crawling into the storage of a finished job
+            return;
+        }
+        publishedImages.add(image);
+        for (Consumer<Image> subscriber : subscribers) {
+            subscriber.accept(image);
+        }
+    }
+
+    private void finish(JobStatus finalStatus) {
+        this.finishedAtMillis = System.currentTimeMillis();
+        this.status = finalStatus;
+    }
+
+    /**
+     * Method to get the images found so far
+     * @return copy of the images published so far
+     */
+    public synchronized List<Image> publishedImages() {
+        return new ArrayList<>(publishedImages);
+    }
+
+    public synchronized int getImageCount() {
+        return publishedImages.size();
+    }
+
+    /**
+     * Method to get the result of the crawl
+     * @return future completed with the crawled data once the job is finished
+     */
+    public CompletableFuture<CrawlDataStorage<Image>> getResult() {
+        // a dependent stage, so that callers cannot complete the job's own future
+        return result.thenApply(crawledData -> crawledData);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    boolean holdsCrawlSlot() {
+        return holdsCrawlSlot;
+    }
+
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Method to get why the crawl stopped
+     * @return the limit of the budget that stopped the crawl (its results are partial), CANCELLED or COMPLETED
+     */
+    public StopReason getStopReason() {
+        return spawner.getStopReason();
+    }
+
+    public int getSubmissions() {
+        return submissions.get();
+    }
+
+    public long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    /**
+     * Method to get the time at which the job finished
+     * @return timestamp in milliseconds, 0 while the job is running
+     */
+    public long getFinishedAtMillis() {
+        return finishedAtMillis;
+    }
+}
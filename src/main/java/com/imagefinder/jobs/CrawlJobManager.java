@@ -0,0 +1,296 @@
+package com.imagefinder.jobs;
+
+import com.imagefinder.cache.LocalCache;
+import com.imagefinder.checkpoint.CheckpointConfig;
+import com.imagefinder.checkpoint.CheckpointStore;
+import com.imagefinder.checkpoint.CrawlCheckpoint;
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.crawler.DataEnricher;
+import com.imagefinder.models.Image;
+import com.imagefinder.probe.ImageProber;
+import com.imagefinder.utils.URLUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point of every crawl requested by the clients. Submissions of a base url that is already being crawled are
+ * attached to the running job (single-flight), so N identical concurrent requests run a single crawl. Finished jobs
+ * are kept for a while so that their status and results can still be polled.
+ * New crawls are only started while the admission controller has a free crawl slot; beyond that, submissions are
+ * rejected unless the url can be served from the cache.
+ * With checkpoints, the progress of every crawl is recorded on disk, and the crawls interrupted by a restart are
+ * resumed under their job id.
+ */
+public class CrawlJobManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlJobManager.class);
+
+    // running jobs by normalized base url (and budget, if it is not the default one)
+    private final Map<String, CrawlJob> runningJobs = new ConcurrentHashMap<>();
+    // every job not purged yet, by id
+    private final Map<String, CrawlJob> jobs = new ConcurrentHashMap<>();
+    private final CrawlServices services;
+    private final AdmissionController admissionController;
+    // stage run on the images of every webpage before they are stored, null if there is none
+    private final DataEnricher<Image> imageEnricher;
+    // time a finished job stays available for polling
+    private final long retentionMillis;
+    private volatile long lastPurgeMillis;
+    // checkpoints of the crawls, null if the crawls are not checkpointed
+    private final CheckpointStore checkpointStore;
+
+    private static final class InstanceHolder {
+        private static final CrawlJobManager INSTANCE = new CrawlJobManager(CrawlServices.getDefault(),
+                TimeUnit.MINUTES.toMillis(Long.getLong("imagefinder.jobs.retentionMinutes", 30L)),
+                ImageProber.getInstance().getConfig().isEnabled() ? ImageProber.getInstance() : null,
+                openCheckpointStore(CheckpointConfig.getDefault()));
+
+        private static CheckpointStore openCheckpointStore(CheckpointConfig config) {
+            if (!config.isEnabled()) {
+                return null;
+            }
+            try {
+                return CheckpointStore.open(Paths.get(config.getDirectory()), config.getSyncIntervalMillis());
+            } catch (IOException | RuntimeException e) {
+                LOGGER.error("Failed to open the crawl checkpoints at {}, crawls will not be resumable",
+                        config.getDirectory(), e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Constructor for the CrawlJobManager class
+     * @param services: threads, politeness and fetcher used to run the crawls
+     * @param retentionMillis: time a finished job stays available for polling
+     */
+    public CrawlJobManager(CrawlServices services, long retentionMillis) {
+        this(services, retentionMillis, null);
+    }
+
+    /**
+     * Constructor for the CrawlJobManager class with an enrichment stage
+     * @param services: threads, politeness and fetcher used to run the crawls
+     * @param retentionMillis: time a finished job stays available for polling
+     * @param imageEnricher: stage run on the images of every webpage before they are stored (e.g. the ImageProber),
+     *                     null if there is none
+     */
+    public CrawlJobManager(CrawlServices services, long retentionMillis, DataEnricher<Image> imageEnricher) {
+        this(services, retentionMillis, imageEnricher, null);
+    }
+
+    /**
+     * Constructor for the CrawlJobManager class with an enrichment stage and checkpoints
+     * @param services: threads, politeness and fetcher used to run the crawls
+     * @param retentionMillis: time a finished job stays available for polling
+     * @param imageEnricher: stage run on the images of every webpage before they are stored (e.g. the ImageProber),
+     *                     null if there is none
+     * @param checkpointStore: store recording the progress of the crawls, null if they are not checkpointed
+     */
+    public CrawlJobManager(CrawlServices services, long retentionMillis, DataEnricher<Image> imageEnricher,
+                           CheckpointStore checkpointStore) {
+        this.services = services;
+        this.imageEnricher = imageEnricher;
+        this.admissionController = services.getAdmissionController();
+        this.retentionMillis = retentionMillis;
+        this.checkpointStore = checkpointStore;
+    }
+
+    /**
+     * Method to return the single object of this class, created thread-safely on first use
+     * @return returns the single object of this class
+     */
+    public static CrawlJobManager getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Method to submit the crawl of a base url with the default budget. The method never blocks.
+     * @param url: base url to crawl
+     * @return the submission, attached to the running job of the same (normalized) url if there is one, to a new
+     *         started job otherwise
+     * @throws CrawlRejectedException if the maximum number of crawls is running and the url is not cached
+     */
+    public CrawlSubmission submit(String url) {
+        return submit(url, CrawlBudget.getDefault());
+    }
+
+    /**
+     * Method to submit the crawl of a base url. The method never blocks.
+     * @param url: base url to crawl
+     * @param budget: limits of the crawl
+     * @return the submission, attached to the running job of the same (normalized) url and budget if there is one,
+     *         to a new started job otherwise
+     * @throws CrawlRejectedException if the maximum number of crawls is running and the url is not cached
+     */
+    public CrawlSubmission submit(String url, CrawlBudget budget) {
+        purgeFinishedJobs();
+        String key = keyOf(url, budget);
+        CrawlJob[] created = new CrawlJob[1];
+        CrawlSubmission[] submission = new CrawlSubmission[1];
+        CrawlJob job = runningJobs.compute(key, (k, running) -> {
+            if (running != null && !running.getStatus().isFinished()) {
+                submission[0] = running.attach();
+                return running;
+            }
+            boolean crawlSlot = admissionController.tryAcquireCrawl();
+            // only the crawls with the default budget are served from the cache, whose key is then the job key
+            boolean cached = budget.equals(CrawlBudget.getDefault()) && LocalCache.getInstance().isVisited(key);
+            if (!crawlSlot && !cached) {
+                admissionController.recordRejectedCrawl();
+                LOGGER.warn("Rejected the crawl of the url: {}, {} crawls are running", url,
+                        admissionController.getRunningCrawls());
+                throw new CrawlRejectedException(url, admissionController.getRetryAfterSeconds());
+            }
+            String id = UUID.randomUUID().toString();
+            CrawlCheckpoint checkpoint = checkpointStore == null ? null : checkpointStore.create(id, url, budget);
+            created[0] = new CrawlJob(id, url, key, services, imageEnricher, budget, crawlSlot, checkpoint);
+            submission[0] = created[0].attach();
+            return created[0];
+        });
+        if (created[0] != null) {
+            jobs.put(job.getId(), job);
+            LOGGER.info("Started the crawl job {} for the url: {}", job.getId(), url);
+            // started outside of compute: a job served from the cache finishes (and unregisters) right away
+            job.start(this::onFinished);
+        } else {
+            LOGGER.info("Attached the request for the url: {} to the running crawl job {}", url, job.getId());
+        }
+        return submission[0];
+    }
+
+    /**
+     * Method to resume the crawls interrupted by the last shutdown or crash, from their checkpoints. Every crawl is
+     * resumed as a job with its former id, so that its clients can keep polling it. The submissions of the crawl did
+     * not survive the restart: a resumed job runs until it finishes, or until the submissions attached to it since
+     * are cancelled. To be called once, on startup.
+     * @return number of resumed jobs
+     */
+    public int resumeInterruptedJobs() {
+        if (checkpointStore == null) {
+            return 0;
+        }
+        List<CrawlCheckpoint> checkpoints;
+        try {
+            checkpoints = checkpointStore.recover();
+        } catch (IOException e) {
+            LOGGER.error("Failed to list the crawl checkpoints, no crawl is resumed", e);
+            return 0;
+        }
+        int resumed = 0;
+        for (CrawlCheckpoint checkpoint : checkpoints) {
+            String url = checkpoint.getBaseUrl();
+            CrawlBudget budget = checkpoint.getBudget();
+            String key = keyOf(url, budget);
+            // the interrupted crawls run even beyond the crawl slots, they were admitted before the restart
+            boolean crawlSlot = admissionController.tryAcquireCrawl();
+            CrawlJob job = new CrawlJob(checkpoint.getCrawlId(), url, key, services, imageEnricher, budget,
+                    crawlSlot, checkpoint);
+            if (runningJobs.putIfAbsent(key, job) != null) {
+                // another interrupted job of the same url and budget
+                checkpoint.finish();
+                if (crawlSlot) {
+                    admissionController.releaseCrawl();
+                }
+                continue;
+            }
+            jobs.put(job.getId(), job);
+            LOGGER.info("Resumed the crawl job {} for the url: {}", job.getId(), url);
+            job.start(this::onFinished);
+            resumed++;
+        }
+        return resumed;
+    }
+
+    /**
+     * Method to stop recording the progress of the crawls, e.g. on shutdown: the crawls still running are resumed
+     * on the next startup
+     */
+    public void closeCheckpoints() {
+        if (checkpointStore != null) {
+            checkpointStore.close();
+        }
+    }
+
+    /**
+     * Method to get a job
+     * @param id: id of the job
+     * @return the job, null if it is unknown or was purged
+     */
+    public CrawlJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Method to cancel a submission of a job. Cancelling a submission again has no further effect.
+     * @param id: id of the job
+     * @param token: token of the submission, returned by submit
+     * @return the job, null if it is unknown or was purged
+     */
+    public CrawlJob cancel(String id, String token) {
+        CrawlJob job = jobs.get(id);
+        if (job != null) {
+            job.cancel(token);
+        }
+        return job;
+    }
+
+    /**
+     * Method to get the number of running jobs
+     * @return number of crawls in progress
+     */
+    public int getRunningJobs() {
+        return runningJobs.size();
+    }
+
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    public CheckpointStore getCheckpointStore() {
+        return checkpointStore;
+    }
+
+    private static String keyOf(String url, CrawlBudget budget) {
+        // crawls of the same url with different budgets do not share their results
+        return budget.equals(CrawlBudget.getDefault()) ? URLUtils.normalize(url)
+                : URLUtils.normalize(url) + " " + budget;
+    }
+
+    private void onFinished(CrawlJob job) {
+        // later submissions of the url start a new job, served from the cache if the crawl completed
+        runningJobs.remove(job.getKey(), job);
+        if (job.holdsCrawlSlot()) {
+            admissionController.releaseCrawl();
+        }
+        LOGGER.info("Crawl job {} for the url: {} finished with status {} and {} images", job.getId(),
+                job.getUrl(), job.getStatus(), job.getImageCount());
+    }
+
+    private void purgeFinishedJobs() {
+        long now = System.currentTimeMillis();
+        // at most once a second, the purge walks every job
+        if (now - lastPurgeMillis < 1000) {
+            return;
+        }
+        lastPurgeMillis = now;
+        long oldestKept = now - retentionMillis;
+        for (Iterator<CrawlJob> iterator = jobs.values().iterator(); iterator.hasNext(); ) {
+            CrawlJob job = iterator.next();
+            if (job.getStatus().isFinished() && job.getFinishedAtMillis() < oldestKept) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.imagefinder.jobs;
+
+/**
+ * Thrown when a crawl is submitted while the maximum number of crawls is already running. The client should submit
+ * it again after the advised delay.
+ */
+public class CrawlRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    // delay after which the client may submit the crawl again
+    private final int retryAfterSeconds;
+
+    /**
+     * Constructor for the CrawlRejectedException class
+     * @param url: url whose crawl was rejected
+     * @param retryAfterSeconds: delay after which the client may submit the crawl again
+     */
+    public CrawlRejectedException(String url, int retryAfterSeconds) {
+        super("Too many crawls in progress, rejected the crawl of the url: " + url);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
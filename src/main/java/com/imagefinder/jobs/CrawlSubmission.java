@@ -0,0 +1,35 @@
+package com.imagefinder.jobs;
+
+/**
+ * Handle of a submission attached to a crawl job. Only the holder of the handle (or of its token) can cancel the
+ * submission, and cancelling it more than once has no further effect, so a client cannot cancel the crawl for the
+ * other submissions waiting for it.
+ */
+public class CrawlSubmission {
+
+    private final CrawlJob job;
+    // secret identifying the submission, handed out to its client only
+    private final String token;
+
+    CrawlSubmission(CrawlJob job, String token) {
+        this.job = job;
+        this.token = token;
+    }
+
+    /**
+     * Method to cancel the submission. The crawl is cancelled once no submission is left.
+     * @return true if the crawl was cancelled, false if other submissions still wait for it, it is finished or the
+     *         submission was already cancelled
+     */
+    public boolean cancel() {
+        return job.cancel(token);
+    }
+
+    public CrawlJob getJob() {
+        return job;
+    }
+
+    public String getToken() {
+        return token;
+    }
+}
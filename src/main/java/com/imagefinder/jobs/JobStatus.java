@@ -0,0 +1,15 @@
+package com.imagefinder.jobs;
+
+/**
+ * enum representing the states of a crawl job
+ */
+public enum JobStatus {
+    RUNNING,
+    COMPLETED,
+    CANCELLED,
+    FAILED;
+
+    public boolean isFinished() {
+        return this != RUNNING;
+    }
+}
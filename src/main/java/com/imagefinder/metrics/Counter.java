@@ -0,0 +1,28 @@
+package com.imagefinder.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter updated by many threads at once. The count is striped (LongAdder), so the threads incrementing
+ * it do not contend on a single field, and incrementing it does not allocate.
+ */
+public final class Counter {
+
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Method to add to the counter
+     * @param amount: non negative amount to add
+     */
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
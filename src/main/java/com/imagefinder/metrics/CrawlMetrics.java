@@ -0,0 +1,270 @@
+package com.imagefinder.metrics;
+
+import com.imagefinder.crawler.StopReason;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of the crawl pipeline, shared by all the crawls: fetch latency per host, responses and bytes downloaded,
+ * extraction and parse time, local cache lookups, and webpages, images and duration of the crawls. Recording only
+ * increments striped counters of fixed-bucket histograms, so it does not lock nor allocate (apart from the first
+ * response of a host) and can stay on in production. The number of hosts with their own latency histogram is
+ * bounded (imagefinder.metrics.maxHosts, 256 by default), the responses of the other hosts are recorded together.
+ */
+public final class CrawlMetrics {
+
+    private static final String PREFIX = "imagefinder_";
+    static final String OTHER_HOSTS = "other";
+    private static final int DEFAULT_MAX_HOSTS = 256;
+
+    private static final long[] FETCH_BUCKETS_MS = {5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000};
+    // parsing a webpage takes from microseconds to tens of milliseconds
+    private static final long[] PARSE_BUCKETS_NANOS = {50_000, 100_000, 250_000, 500_000, 1_000_000, 2_500_000,
+            5_000_000, 10_000_000, 25_000_000, 50_000_000, 100_000_000, 250_000_000};
+    private static final long[] CRAWL_BUCKETS_MS = {100, 500, 1_000, 2_500, 5_000, 10_000, 30_000, 60_000, 120_000,
+            300_000, 600_000};
+    private static final long[] PAGES_BUCKETS = {1, 5, 10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000};
+    private static final long[] IMAGES_BUCKETS = {0, 10, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 50_000};
+
+    private final int maxHosts;
+    private final Map<String, Histogram> fetchLatencyByHost = new ConcurrentHashMap<>();
+    private final Histogram otherHostsFetchLatency = Histogram.ofMillis(FETCH_BUCKETS_MS);
+    // responses by status class: 1xx to 5xx
+    private final Counter[] responsesByStatusClass = new Counter[5];
+    private final Counter fetchFailures = new Counter();
+    private final Counter bytesDownloaded = new Counter();
+    private final Counter pagesFetched = new Counter();
+    private final Histogram[] extractionTime = new Histogram[ExtractionEngine.values().length];
+    private final ClassValue<Histogram> parseTimeByParser = new ClassValue<Histogram>() {
+        @Override
+        protected Histogram computeValue(Class<?> parserClass) {
+            return parseTimeByParserName.computeIfAbsent(parserClass.getSimpleName(),
+                    name -> new Histogram(PARSE_BUCKETS_NANOS, 1e-9));
+        }
+    };
+    private final Map<String, Histogram> parseTimeByParserName = new ConcurrentHashMap<>();
+    private final Counter localCacheHits = new Counter();
+    private final Counter localCacheMisses = new Counter();
+    private final Histogram crawlDuration = Histogram.ofMillis(CRAWL_BUCKETS_MS);
+    private final Histogram pagesPerCrawl = Histogram.ofCounts(PAGES_BUCKETS);
+    private final Histogram imagesPerCrawl = Histogram.ofCounts(IMAGES_BUCKETS);
+    private final Counter[] crawlsByStopReason = new Counter[StopReason.values().length];
+    private final Counter duplicatePages = new Counter();
+    private final Counter nearDuplicatePages = new Counter();
+    // images and links of the duplicate webpages that were neither parsed nor followed
+    private final Counter duplicateImagesSkipped = new Counter();
+    private final Counter duplicateLinksSkipped = new Counter();
+
+    private static final class InstanceHolder {
+        private static final CrawlMetrics INSTANCE = new CrawlMetrics(
+                Integer.getInteger("imagefinder.metrics.maxHosts", DEFAULT_MAX_HOSTS));
+    }
+
+    /**
+     * Constructor for the CrawlMetrics class
+     * @param maxHosts: maximum number of hosts with their own fetch latency histogram
+     */
+    public CrawlMetrics(int maxHosts) {
+        this.maxHosts = maxHosts;
+        for (int i = 0; i < responsesByStatusClass.length; i++) {
+            responsesByStatusClass[i] = new Counter();
+        }
+        for (int i = 0; i < crawlsByStopReason.length; i++) {
+            crawlsByStopReason[i] = new Counter();
+        }
+        for (int i = 0; i < extractionTime.length; i++) {
+            extractionTime[i] = new Histogram(PARSE_BUCKETS_NANOS, 1e-9);
+        }
+    }
+
+    /**
+     * Method to return the metrics shared by all the crawls of this service
+     * @return shared metrics
+     */
+    public static CrawlMetrics getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Method to record a response received for a webpage
+     * @param host: host that answered
+     * @param latencyNanos: time taken by the host to answer
+     * @param statusCode: HTTP status code of the response
+     * @param bodyBytes: size of the body downloaded
+     */
+    public void recordFetch(String host, long latencyNanos, int statusCode, int bodyBytes) {
+        fetchLatency(host).record(latencyNanos);
+        int statusClass = statusCode / 100;
+        if (statusClass >= 1 && statusClass <= 5) {
+            responsesByStatusClass[statusClass - 1].increment();
+        }
+        bytesDownloaded.add(bodyBytes);
+    }
+
+    /**
+     * Method to record a request that failed without a response (timeouts, connection resets)
+     */
+    public void recordFetchFailure() {
+        fetchFailures.increment();
+    }
+
+    /**
+     * Method to record a webpage whose response was handed to the parsers
+     */
+    public void recordPageFetched() {
+        pagesFetched.increment();
+    }
+
+    /**
+     * Method to record the time taken to turn a webpage into the input of the parsers (a Jsoup document or the tags
+     * of the streaming extractor)
+     * @param engine: extraction engine used
+     * @param nanos: time taken
+     */
+    public void recordExtraction(ExtractionEngine engine, long nanos) {
+        extractionTime[engine.ordinal()].record(nanos);
+    }
+
+    /**
+     * Method to record the time taken by a parser to extract its data from a webpage
+     * @param parserClass: class of the parser, e.g. ImageParser or LinkParser
+     * @param nanos: time taken
+     */
+    public void recordParse(Class<?> parserClass, long nanos) {
+        parseTimeByParser.get(parserClass).record(nanos);
+    }
+
+    /**
+     * Method to record a lookup of a base url in the local cache
+     * @param hit: true if the crawl result was served from the cache
+     */
+    public void recordLocalCacheLookup(boolean hit) {
+        (hit ? localCacheHits : localCacheMisses).increment();
+    }
+
+    /**
+     * Method to record a completed crawl
+     * @param pages: number of webpages fetched by the crawl
+     * @param images: number of images found by the crawl
+     * @param durationMillis: time taken by the crawl
+     */
+    public void recordCrawl(long pages, long images, long durationMillis) {
+        pagesPerCrawl.record(pages);
+        imagesPerCrawl.record(images);
+        crawlDuration.record(TimeUnit.MILLISECONDS.toNanos(durationMillis));
+    }
+
+    /**
+     * Method to record why a completed crawl stopped
+     * @param reason: the limit of the budget that stopped the crawl, COMPLETED or CANCELLED
+     */
+    public void recordCrawlStop(StopReason reason) {
+        crawlsByStopReason[reason.ordinal()].increment();
+    }
+
+    /**
+     * Method to record a webpage found to be a duplicate of another webpage of its crawl. The links of a duplicate
+     * are not followed, and the images of an exact duplicate are not parsed.
+     * @param exact: true if the fingerprints of the webpages are the same, false for a near-duplicate
+     * @param images: number of images of the webpage
+     * @param links: number of links of the webpage
+     */
+    public void recordDuplicatePage(boolean exact, int images, int links) {
+        if (exact) {
+            duplicatePages.increment();
+            duplicateImagesSkipped.add(images);
+        } else {
+            nearDuplicatePages.increment();
+        }
+        duplicateLinksSkipped.add(links);
+    }
+
+    /**
+     * Method to write the metrics in the Prometheus text format
+     * @param writer: writer of the exposition
+     */
+    public void writeTo(PrometheusWriter writer) {
+        writer.family(PREFIX + "fetch_duration_seconds", "histogram", "Time taken by the hosts to answer a request.");
+        // sorting the hosts so that the exposition is stable
+        for (Map.Entry<String, Histogram> host : new TreeMap<>(fetchLatencyByHost).entrySet()) {
+            host.getValue().writeTo(writer, PREFIX + "fetch_duration_seconds",
+                    PrometheusWriter.label("host", host.getKey()));
+        }
+        if (otherHostsFetchLatency.getCount() > 0) {
+            otherHostsFetchLatency.writeTo(writer, PREFIX + "fetch_duration_seconds",
+                    PrometheusWriter.label("host", OTHER_HOSTS));
+        }
+
+        writer.family(PREFIX + "fetch_responses_total", "counter", "Responses received, by status class.");
+        for (int i = 0; i < responsesByStatusClass.length; i++) {
+            writer.sample(PREFIX + "fetch_responses_total", PrometheusWriter.label("status", (i + 1) + "xx"),
+                    responsesByStatusClass[i].get());
+        }
+        writer.single(PREFIX + "fetch_failures_total", "counter", "Requests that failed without a response.",
+                fetchFailures.get());
+        writer.single(PREFIX + "fetch_bytes_total", "counter", "Bytes of the response bodies downloaded.",
+                bytesDownloaded.get());
+        writer.single(PREFIX + "pages_fetched_total", "counter", "Webpages handed to the parsers.",
+                pagesFetched.get());
+
+        writer.family(PREFIX + "extraction_duration_seconds", "histogram",
+                "Time taken to turn a webpage into the input of the parsers, by extraction engine.");
+        for (ExtractionEngine engine : ExtractionEngine.values()) {
+            extractionTime[engine.ordinal()].writeTo(writer, PREFIX + "extraction_duration_seconds",
+                    PrometheusWriter.label("engine", engine.name().toLowerCase(Locale.ROOT)));
+        }
+        writer.family(PREFIX + "parse_duration_seconds", "histogram",
+                "Time taken by a parser to extract its data from a webpage, by parser.");
+        for (Map.Entry<String, Histogram> parser : new TreeMap<>(parseTimeByParserName).entrySet()) {
+            parser.getValue().writeTo(writer, PREFIX + "parse_duration_seconds",
+                    PrometheusWriter.label("parser", parser.getKey()));
+        }
+
+        writer.family(PREFIX + "local_cache_lookups_total", "counter", "Lookups of a base url in the local cache.");
+        writer.sample(PREFIX + "local_cache_lookups_total", PrometheusWriter.label("result", "hit"),
+                localCacheHits.get());
+        writer.sample(PREFIX + "local_cache_lookups_total", PrometheusWriter.label("result", "miss"),
+                localCacheMisses.get());
+
+        writer.family(PREFIX + "crawl_duration_seconds", "histogram", "Time taken by the completed crawls.");
+        crawlDuration.writeTo(writer, PREFIX + "crawl_duration_seconds", "");
+        writer.family(PREFIX + "crawl_pages", "histogram", "Webpages fetched per completed crawl.");
+        pagesPerCrawl.writeTo(writer, PREFIX + "crawl_pages", "");
+        writer.family(PREFIX + "crawl_images", "histogram", "Images found per completed crawl.");
+        imagesPerCrawl.writeTo(writer, PREFIX + "crawl_images", "");
+        writer.family(PREFIX + "crawl_stops_total", "counter", "Completed crawls, by reason they stopped.");
+        for (StopReason reason : StopReason.values()) {
+            writer.sample(PREFIX + "crawl_stops_total",
+                    PrometheusWriter.label("reason", reason.name().toLowerCase(Locale.ROOT)),
+                    crawlsByStopReason[reason.ordinal()].get());
+        }
+
+        writer.family(PREFIX + "duplicate_pages_total", "counter",
+                "Webpages found to be duplicates of another webpage of their crawl, by kind.");
+        writer.sample(PREFIX + "duplicate_pages_total", PrometheusWriter.label("kind", "exact"),
+                duplicatePages.get());
+        writer.sample(PREFIX + "duplicate_pages_total", PrometheusWriter.label("kind", "near"),
+                nearDuplicatePages.get());
+        writer.single(PREFIX + "duplicate_images_skipped_total", "counter",
+                "Images of the exact duplicate webpages that were not parsed.", duplicateImagesSkipped.get());
+        writer.single(PREFIX + "duplicate_links_skipped_total", "counter",
+                "Links of the duplicate webpages that were not followed.", duplicateLinksSkipped.get());
+    }
+
+    private Histogram fetchLatency(String host) {
+        String key = host == null ? "" : host;
+        Histogram histogram = fetchLatencyByHost.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+        if (fetchLatencyByHost.size() >= maxHosts) {
+            return otherHostsFetchLatency;
+        }
+        return fetchLatencyByHost.computeIfAbsent(key, k -> Histogram.ofMillis(FETCH_BUCKETS_MS));
+    }
+}
@@ -0,0 +1,109 @@
+package com.imagefinder.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with fixed buckets, updated by many threads at once. Recording a value finds its bucket with a scan of
+ * the (few) bucket bounds and increments striped counters, so it neither locks nor allocates. Values are longs in
+ * a base unit (e.g. nanoseconds) and are converted to the unit of the exported metric (e.g. seconds) by a scale.
+ */
+public final class Histogram {
+
+    private final long[] upperBounds;
+    // one counter per bucket plus the +Inf bucket, counts are not cumulative
+    private final LongAdder[] bucketCounts;
+    private final LongAdder sum = new LongAdder();
+    private final double scale;
+
+    /**
+     * Constructor for the Histogram class
+     * @param upperBounds: inclusive upper bounds of the buckets in the base unit, in increasing order
+     * @param scale: factor converting the base unit to the unit of the exported metric
+     */
+    public Histogram(long[] upperBounds, double scale) {
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (upperBounds[i] <= upperBounds[i - 1]) {
+                throw new IllegalArgumentException("The bucket bounds must be increasing");
+            }
+        }
+        this.upperBounds = upperBounds.clone();
+        this.bucketCounts = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < bucketCounts.length; i++) {
+            bucketCounts[i] = new LongAdder();
+        }
+        this.scale = scale;
+    }
+
+    /**
+     * Method to create a histogram of durations recorded in nanoseconds and exported in seconds
+     * @param upperBoundsMillis: upper bounds of the buckets in milliseconds
+     * @return histogram of durations
+     */
+    public static Histogram ofMillis(long... upperBoundsMillis) {
+        long[] upperBoundsNanos = new long[upperBoundsMillis.length];
+        for (int i = 0; i < upperBoundsMillis.length; i++) {
+            upperBoundsNanos[i] = upperBoundsMillis[i] * 1_000_000L;
+        }
+        return new Histogram(upperBoundsNanos, 1e-9);
+    }
+
+    /**
+     * Method to create a histogram of counts (e.g. webpages per crawl)
+     * @param upperBounds: upper bounds of the buckets
+     * @return histogram of counts
+     */
+    public static Histogram ofCounts(long... upperBounds) {
+        return new Histogram(upperBounds, 1.0);
+    }
+
+    /**
+     * Method to record a value
+     * @param value: value in the base unit of the histogram
+     */
+    public void record(long value) {
+        int bucket = 0;
+        while (bucket < upperBounds.length && value > upperBounds[bucket]) {
+            bucket++;
+        }
+        bucketCounts[bucket].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Method to write the histogram as a Prometheus histogram: cumulative buckets, sum and count
+     * @param writer: writer of the exposition
+     * @param name: name of the metric family
+     * @param labels: labels of the histogram, e.g. host="example.com", empty if none
+     */
+    public void writeTo(PrometheusWriter writer, String name, String labels) {
+        long cumulative = 0;
+        for (int i = 0; i < upperBounds.length; i++) {
+            cumulative += bucketCounts[i].sum();
+            writer.bucket(name, labels, upperBounds[i] * scale, cumulative);
+        }
+        cumulative += bucketCounts[upperBounds.length].sum();
+        writer.bucket(name, labels, Double.POSITIVE_INFINITY, cumulative);
+        writer.sample(name + "_sum", labels, sum.sum() * scale);
+        writer.sample(name + "_count", labels, cumulative);
+    }
+
+    /**
+     * Method to get the number of values recorded
+     * @return count of the values
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucketCount : bucketCounts) {
+            count += bucketCount.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Method to get the sum of the values recorded
+     * @return sum in the unit of the exported metric
+     */
+    public double getSum() {
+        return sum.sum() * scale;
+    }
+}
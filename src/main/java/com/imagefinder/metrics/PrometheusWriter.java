@@ -0,0 +1,103 @@
+package com.imagefinder.metrics;
+
+/**
+ * Writer of metrics in the Prometheus text exposition format (version 0.0.4)
+ */
+public final class PrometheusWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out = new StringBuilder(8192);
+
+    /**
+     * Method to start a metric family, written before its samples
+     * @param name: name of the metric family
+     * @param type: counter, gauge or histogram
+     * @param help: description of the metric
+     */
+    public void family(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Method to write a sample
+     * @param name: name of the sample
+     * @param labels: labels of the sample, e.g. host="example.com", empty if none
+     * @param value: value of the sample
+     */
+    public void sample(String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        appendValue(value);
+        out.append('\n');
+    }
+
+    /**
+     * Method to write a counter or gauge family holding a single sample
+     */
+    public void single(String name, String type, String help, double value) {
+        family(name, type, help);
+        sample(name, "", value);
+    }
+
+    /**
+     * Method to write a cumulative bucket of a histogram
+     * @param name: name of the histogram family
+     * @param labels: labels of the histogram, empty if none
+     * @param upperBound: inclusive upper bound of the bucket
+     * @param count: number of values lower than or equal to the upper bound
+     */
+    public void bucket(String name, String labels, double upperBound, long count) {
+        out.append(name).append("_bucket{");
+        if (!labels.isEmpty()) {
+            out.append(labels).append(',');
+        }
+        out.append("le=\"");
+        appendValue(upperBound);
+        out.append("\"} ").append(count).append('\n');
+    }
+
+    /**
+     * Method to build a label, escaping its value
+     * @param name: name of the label
+     * @param value: value of the label
+     * @return the label, e.g. host="example.com"
+     */
+    public static String label(String name, String value) {
+        StringBuilder label = new StringBuilder(name.length() + value.length() + 3).append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                label.append('\\').append(c);
+            } else if (c == '\n') {
+                label.append("\\n");
+            } else {
+                label.append(c);
+            }
+        }
+        return label.append('"').toString();
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void appendValue(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            out.append("+Inf");
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            out.append("-Inf");
+        } else if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+    }
+}
@@ -1,10 +1,30 @@
 package com.imagefinder.models;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * enum representing the categories of images
+ * enum representing the categories of images. Each category lists the keywords identifying its images in their url,
+ * alt text, class or id. An image matching the keywords of several categories gets the first one in declaration
+ * order, and an image matching none gets GENERAL. A new category only needs its keywords here: all the keywords are
+ * matched together in a single pass over the image (see KeywordImageClassifier).
  */
 public enum Category {
-    LOGO,
-    GENERAL
+    LOGO("logo", "brand", "icon", "symbol", "company", "badge", "emblem", "mark", "trademark"),
+    GENERAL;
+
+    private final List<String> keywords;
+
+    Category(String... keywords) {
+        this.keywords = Collections.unmodifiableList(Arrays.asList(keywords));
+    }
+
+    /**
+     * Method to get the keywords identifying the images of the category
+     * @return keywords, matched case insensitively anywhere in the url, alt text, class or id of an image
+     */
+    public List<String> getKeywords() {
+        return keywords;
+    }
 }
@@ -1,5 +1,7 @@
 package com.imagefinder.models;
 
+import com.imagefinder.urls.UrlFingerprint;
+
 import java.util.Objects;
 
 /**
@@ -8,6 +10,13 @@ import java.util.Objects;
 public class Image {
     private String url;
     private Category category;
+    // metadata probed from the start of the image, null when unknown or not probed (and then not serialized)
+    private String contentType;
+    private Integer width;
+    private Integer height;
+    private Long byteSize;
+    // fingerprint of the url, computed on first use (0 until then); transient so that it is not serialized
+    private transient volatile long fingerprint;
 
     public Image(String url, Category category) {
         this.url = url;
@@ -20,6 +29,20 @@ public class Image {
 
     public void setUrl(String url) {
         this.url = url;
+        this.fingerprint = 0L;
+    }
+
+    /**
+     * Method to get the 64-bit fingerprint of the url, computed once per image
+     * @return fingerprint of the url
+     */
+    public long fingerprint() {
+        long computed = fingerprint;
+        if (computed == 0L) {
+            computed = UrlFingerprint.of(String.valueOf(url));
+            fingerprint = computed;
+        }
+        return computed;
     }
 
     public Category getCategory() {
@@ -30,6 +53,36 @@ public class Image {
         this.category = category;
     }
 
+    public String getContentType() {
+        return contentType;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public Long getByteSize() {
+        return byteSize;
+    }
+
+    /**
+     * Method to set the metadata probed from the start of the image
+     * @param contentType: content type of the image, null if unknown
+     * @param width: width in pixels, null if unknown
+     * @param height: height in pixels, null if unknown
+     * @param byteSize: size of the whole image in bytes, null if unknown
+     */
+    public void setMetadata(String contentType, Integer width, Integer height, Long byteSize) {
+        this.contentType = contentType;
+        this.width = width;
+        this.height = height;
+        this.byteSize = byteSize;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
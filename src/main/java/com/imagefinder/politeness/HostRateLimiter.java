@@ -0,0 +1,349 @@
+package com.imagefinder.politeness;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-host rate limiter shared by all crawls, so that the politeness towards a website holds across concurrent
+ * crawls of it. Every host gets a token bucket whose rate adapts AIMD-style to the observed behaviour of the host:
+ * the rate grows additively while the host answers quickly and shrinks multiplicatively on slow responses,
+ * failures and 429/503 responses. A Retry-After header blocks the host for the requested time, and the crawl delay
+ * of its robots.txt file caps its rate (without bursts).
+ * The limiter never sleeps: callers reserve a permit and get back the time to wait, which they are expected to
+ * wait without blocking a thread (e.g. by scheduling the request on a timer).
+ * The bucket of a host is dropped once the host has been idle for the idle TTL with a full bucket, so that the
+ * limiter only keeps the hosts recently crawled. What a new bucket would not know (the learned rate, the crawl delay,
+ * a Retry-After block) is kept in a small profile of the host, which seeds its next bucket. A profile is forgotten
+ * after the profile TTL, by which time the robots.txt file of the host is fetched again and sets its crawl delay.
+ */
+public class HostRateLimiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostRateLimiter.class);
+
+    // initial delay between two requests to the same host, i.e. the former fixed politeness delay
+    private static final long INITIAL_POLITENESS_DELAY_MS = 100;
+    // bounds of the adaptive request rate of a host (requests per second)
+    private static final double MIN_RATE = 0.2;
+    private static final double MAX_RATE = 50.0;
+    // number of requests a host may receive back to back after being idle
+    private static final double BURST_SIZE = 2.0;
+    // rate added for every fast response (additive increase)
+    private static final double ADDITIVE_INCREASE = 0.5;
+    // factor applied to the rate for a slow response or a failure
+    private static final double SLOW_RESPONSE_DECREASE = 0.75;
+    // factor applied to the rate when the host asks us to back off (429/503)
+    private static final double BACK_OFF_DECREASE = 0.5;
+    // responses slower than this are considered a sign of an overloaded host
+    private static final long SLOW_RESPONSE_THRESHOLD_MS = 2000;
+    // upper bound of the Retry-After value we honour, so that a misbehaving host cannot stall a crawl forever
+    private static final long MAX_RETRY_AFTER_MS = TimeUnit.MINUTES.toMillis(2);
+
+    // time after which the bucket of an idle host is dropped
+    private static final long DEFAULT_IDLE_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+    // time the profile of a dropped bucket is kept, no shorter than the time the robots.txt rules are cached
+    private static final long PROFILE_TTL_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final Map<String, HostBucket> buckets = new ConcurrentHashMap<>();
+    // what is remembered of the hosts whose bucket was dropped
+    private final Map<String, HostProfile> profiles = new ConcurrentHashMap<>();
+    private final long idleTtlNanos;
+    // time of the next sweep of the idle buckets
+    private final AtomicLong nextSweepNanos;
+    // permits taken by a request: the number of nodes of a cluster sharing the rate of every host, 1 otherwise
+    private volatile int clusterShare = 1;
+
+    private static final class InstanceHolder {
+        private static final HostRateLimiter INSTANCE = new HostRateLimiter();
+    }
+
+    /**
+     * Constructor for the HostRateLimiter class, dropping the buckets of the hosts idle for 10 minutes
+     */
+    public HostRateLimiter() {
+        this(DEFAULT_IDLE_TTL_MS);
+    }
+
+    /**
+     * Constructor for the HostRateLimiter class
+     * @param idleTtlMillis: time after which the bucket of an idle host is dropped
+     */
+    public HostRateLimiter(long idleTtlMillis) {
+        if (idleTtlMillis < 1) {
+            throw new IllegalArgumentException("idleTtlMillis must be positive, got " + idleTtlMillis);
+        }
+        this.idleTtlNanos = TimeUnit.MILLISECONDS.toNanos(idleTtlMillis);
+        this.nextSweepNanos = new AtomicLong(System.nanoTime() + idleTtlNanos);
+    }
+
+    /**
+     * Method to return the rate limiter shared by all the crawls of this service
+     * @return shared rate limiter
+     */
+    public static HostRateLimiter getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Method to reserve a permit for a request to the host. The permit is consumed right away, the request must
+     * not be sent before the returned delay has elapsed.
+     * @param host: host the request is sent to
+     * @return time to wait in nanoseconds before sending the request, 0 if it can be sent right away
+     */
+    public long reserve(String host) {
+        sweepIfDue(System.nanoTime());
+        long delay;
+        do {
+            // a bucket dropped in the meantime takes no more reservations, the next one is created for the host
+            long now = System.nanoTime();
+            delay = bucketFor(host, now).reserve(now, clusterShare);
+        } while (delay < 0);
+        return delay;
+    }
+
+    /**
+     * Method to share the rate of every host with the other nodes of a cluster sending requests to the same hosts:
+     * every request takes as many permits as there are nodes, so that the nodes together stay within the rate of
+     * the host
+     * @param nodes: number of nodes sharing the hosts, 1 when the hosts are not shared
+     */
+    public void setClusterShare(int nodes) {
+        if (nodes < 1) {
+            throw new IllegalArgumentException("nodes must be at least 1, got " + nodes);
+        }
+        this.clusterShare = nodes;
+    }
+
+    /**
+     * Method to report a response received from the host
+     * @param host: host that answered
+     * @param statusCode: HTTP status code of the response
+     * @param latencyNanos: time taken by the host to answer
+     * @param retryAfterMillis: value of the Retry-After header in milliseconds, negative if absent
+     */
+    public void onResponse(String host, int statusCode, long latencyNanos, long retryAfterMillis) {
+        HostBucket bucket = bucketFor(host);
+        long now = System.nanoTime();
+        if (statusCode == 429 || statusCode == 503) {
+            long backOffMillis = Math.min(retryAfterMillis, MAX_RETRY_AFTER_MS);
+            bucket.backOff(now, backOffMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(backOffMillis) : 0);
+            LOGGER.info("Host {} asked to back off (status {}), request rate reduced to {}/s", host, statusCode,
+                    String.format("%.2f", bucket.getRate()));
+        } else if (TimeUnit.NANOSECONDS.toMillis(latencyNanos) > SLOW_RESPONSE_THRESHOLD_MS) {
+            bucket.decrease(now, SLOW_RESPONSE_DECREASE);
+        } else {
+            bucket.increase(now);
+        }
+    }
+
+    /**
+     * Method to report a request to the host that failed without a response (timeouts, connection resets)
+     * @param host: host the request was sent to
+     */
+    public void onFailure(String host) {
+        bucketFor(host).decrease(System.nanoTime(), SLOW_RESPONSE_DECREASE);
+    }
+
+    /**
+     * Method to apply the crawl delay requested by the robots.txt file of a host: the rate of the host never exceeds
+     * one request per delay from now on, and idle time does not let requests go back to back
+     * @param host: host that requested the delay
+     * @param delayMillis: minimum time between two requests, in milliseconds
+     */
+    public void setCrawlDelay(String host, long delayMillis) {
+        if (delayMillis > 0) {
+            bucketFor(host).capRate(System.nanoTime(), 1000.0 / delayMillis);
+        }
+    }
+
+    /**
+     * Method to get the current request rate of a host
+     * @param host: host
+     * @return requests per second currently allowed for the host
+     */
+    public double getRate(String host) {
+        return bucketFor(host).getRate();
+    }
+
+    /**
+     * Method to get the number of hosts the limiter keeps a bucket for
+     * @return number of buckets
+     */
+    public int getHostCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Method to get the number of hosts whose bucket was dropped while they had something to remember
+     * @return number of profiles
+     */
+    public int getProfileCount() {
+        return profiles.size();
+    }
+
+    /**
+     * Method to drop the buckets of the idle hosts and the expired profiles, at most once per idle TTL
+     * @param now: current time in nanoseconds
+     */
+    private void sweepIfDue(long now) {
+        long nextSweep = nextSweepNanos.get();
+        if (now - nextSweep < 0 || !nextSweepNanos.compareAndSet(nextSweep, now + idleTtlNanos)) {
+            return;
+        }
+        profiles.values().removeIf(profile -> now - profile.expiresAtNanos >= 0);
+        int dropped = 0;
+        long expiresAt = now + TimeUnit.MILLISECONDS.toNanos(PROFILE_TTL_MS);
+        for (Map.Entry<String, HostBucket> bucket : buckets.entrySet()) {
+            HostProfile profile = bucket.getValue().tryDrop(now, idleTtlNanos, expiresAt);
+            if (profile == null) {
+                continue;
+            }
+            // stored before the bucket is removed, so that the next bucket of the host is seeded from it
+            if (profile != HostProfile.NONE) {
+                profiles.put(bucket.getKey(), profile);
+            }
+            buckets.remove(bucket.getKey(), bucket.getValue());
+            dropped++;
+        }
+        if (dropped > 0) {
+            LOGGER.debug("Dropped the rate limits of {} idle hosts, {} left, {} profiles", dropped, buckets.size(),
+                    profiles.size());
+        }
+    }
+
+    private HostBucket bucketFor(String host) {
+        return bucketFor(host, System.nanoTime());
+    }
+
+    private HostBucket bucketFor(String host, long now) {
+        String key = host == null ? "" : host;
+        HostBucket bucket = buckets.get(key);
+        return bucket != null ? bucket : buckets.computeIfAbsent(key, k -> new HostBucket(now, profiles.remove(k)));
+    }
+
+    /**
+     * What is remembered of a host whose bucket was dropped: its learned rate, the cap of its crawl delay and the end
+     * of its Retry-After block
+     */
+    private static final class HostProfile {
+        // a host with nothing to remember
+        private static final HostProfile NONE = new HostProfile(0, 0, 0, 0);
+
+        private final double rate;
+        private final double maxRate;
+        private final long blockedUntilNanos;
+        private final long expiresAtNanos;
+
+        private HostProfile(double rate, double maxRate, long blockedUntilNanos, long expiresAtNanos) {
+            this.rate = rate;
+            this.maxRate = maxRate;
+            this.blockedUntilNanos = blockedUntilNanos;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /**
+     * Token bucket of a single host. Tokens may go negative: a negative balance represents permits reserved for
+     * requests that are still waiting for their turn.
+     */
+    private static final class HostBucket {
+        private double rate = 1000.0 / INITIAL_POLITENESS_DELAY_MS;
+        // highest rate of the host, lowered by its crawl delay
+        private double maxRate = MAX_RATE;
+        private double burstSize = BURST_SIZE;
+        private double tokens = 1.0;
+        private long lastRefillNanos;
+        private long blockedUntilNanos;
+        // time of the last reservation for the host
+        private long lastReserveNanos;
+        // true once the bucket is dropped from the limiter
+        private boolean dropped;
+
+        private HostBucket(long now, HostProfile profile) {
+            this.lastRefillNanos = now;
+            this.blockedUntilNanos = now;
+            this.lastReserveNanos = now;
+            if (profile != null) {
+                this.rate = profile.rate;
+                this.maxRate = profile.maxRate;
+                this.burstSize = profile.maxRate < MAX_RATE ? 1.0 : BURST_SIZE;
+                this.blockedUntilNanos = Math.max(now, profile.blockedUntilNanos);
+            }
+        }
+
+        /**
+         * Method to reserve permits for a request
+         * @param now: current time in nanoseconds
+         * @param permits: number of permits taken by the request
+         * @return time to wait in nanoseconds, negative if the bucket was dropped
+         */
+        private synchronized long reserve(long now, int permits) {
+            if (dropped) {
+                return -1;
+            }
+            lastReserveNanos = Math.max(lastReserveNanos, now);
+            refill(now);
+            tokens -= permits;
+            long waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+            return Math.max(waitNanos, blockedUntilNanos - now);
+        }
+
+        private synchronized void increase(long now) {
+            refill(now);
+            rate = Math.min(maxRate, rate + ADDITIVE_INCREASE);
+        }
+
+        private synchronized void decrease(long now, double factor) {
+            refill(now);
+            rate = Math.max(Math.min(MIN_RATE, maxRate), rate * factor);
+        }
+
+        private synchronized void backOff(long now, long backOffNanos) {
+            decrease(now, BACK_OFF_DECREASE);
+            blockedUntilNanos = Math.max(blockedUntilNanos, now + backOffNanos);
+        }
+
+        private synchronized void capRate(long now, double cap) {
+            refill(now);
+            maxRate = Math.min(MAX_RATE, cap);
+            rate = Math.min(rate, maxRate);
+            burstSize = 1.0;
+            tokens = Math.min(tokens, burstSize);
+        }
+
+        private synchronized double getRate() {
+            return rate;
+        }
+
+        /**
+         * Method to drop the bucket if the host is idle with a full bucket
+         * @param now: current time in nanoseconds
+         * @param idleTtlNanos: time without reservation after which the host is idle
+         * @param expiresAtNanos: time after which the profile of the host is forgotten
+         * @return the profile of the host, NONE if a new bucket would hold the same state, null if not dropped
+         */
+        private synchronized HostProfile tryDrop(long now, long idleTtlNanos, long expiresAtNanos) {
+            refill(now);
+            dropped = now - lastReserveNanos >= idleTtlNanos && tokens >= burstSize;
+            if (!dropped) {
+                return null;
+            }
+            if (rate == 1000.0 / INITIAL_POLITENESS_DELAY_MS && maxRate >= MAX_RATE && now - blockedUntilNanos >= 0) {
+                return HostProfile.NONE;
+            }
+            return new HostProfile(rate, maxRate, blockedUntilNanos, expiresAtNanos);
+        }
+
+        private void refill(long now) {
+            long elapsed = now - lastRefillNanos;
+            if (elapsed > 0) {
+                tokens = Math.min(burstSize, tokens + elapsed * rate / TimeUnit.SECONDS.toNanos(1));
+                lastRefillNanos = now;
+            }
+        }
+    }
+}
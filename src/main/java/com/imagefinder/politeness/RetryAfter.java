@@ -0,0 +1,44 @@
+package com.imagefinder.politeness;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Utils class to interpret the Retry-After header of HTTP responses
+ */
+public final class RetryAfter {
+
+    private RetryAfter() {
+    }
+
+    /**
+     * Method to convert the value of a Retry-After header to a delay. The header holds either a number of seconds
+     * or an HTTP date.
+     * @param headerValue: value of the header, can be null
+     * @param nowMillis: current time in epoch milliseconds, used for HTTP dates
+     * @return delay in milliseconds, -1 if the header is absent or cannot be parsed
+     */
+    public static long parseMillis(String headerValue, long nowMillis) {
+        if (headerValue == null) {
+            return -1;
+        }
+        String value = headerValue.trim();
+        if (value.isEmpty()) {
+            return -1;
+        }
+        if (Character.isDigit(value.charAt(0))) {
+            try {
+                return Long.parseLong(value) * 1000L;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        try {
+            long retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, retryAt - nowMillis);
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
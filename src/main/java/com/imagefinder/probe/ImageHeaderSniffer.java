@@ -0,0 +1,262 @@
+package com.imagefinder.probe;
+
+import com.imagefinder.fetcher.FetchResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Sniffer reading the format and pixel dimensions of an image from its first bytes, i.e. from the response to a
+ * range request for the start of the image. It knows the signatures and headers of PNG, GIF, JPEG, WebP, BMP, ICO,
+ * AVIF/HEIF and SVG; the dimensions of a JPEG are only found if its SOF segment lies within the bytes fetched.
+ */
+public final class ImageHeaderSniffer {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    // bytes of the start of a text document searched for an svg element
+    private static final int SVG_SCAN_BYTES = 1024;
+
+    private ImageHeaderSniffer() {
+    }
+
+    /**
+     * Method to read the metadata of an image from the response to the request for its first bytes
+     * @param response: response to the (range) request of the image
+     * @return metadata of the image
+     */
+    public static ImageMetadata sniff(FetchResponse response) {
+        byte[] head = response.getBody();
+        long byteSize = byteSize(response);
+        ImageMetadata sniffed = response.isSuccessful() ? sniff(response.getStatusCode(), head, byteSize) : null;
+        if (sniffed != null) {
+            return sniffed;
+        }
+        return new ImageMetadata(response.getStatusCode(), mimeType(response.header("content-type")), false, -1, -1,
+                byteSize);
+    }
+
+    /**
+     * Method to recognize the format of an image and read its dimensions
+     * @param statusCode: status code of the response
+     * @param head: first bytes of the image
+     * @param byteSize: size of the whole image, -1 if unknown
+     * @return metadata of the image, null if the format is not recognized
+     */
+    static ImageMetadata sniff(int statusCode, byte[] head, long byteSize) {
+        if (startsWith(head, 0, PNG_SIGNATURE)) {
+            // the IHDR chunk always comes first
+            return image(statusCode, "image/png", int32(head, 16), int32(head, 20), byteSize);
+        }
+        if (startsWith(head, 0, "GIF87a") || startsWith(head, 0, "GIF89a")) {
+            return image(statusCode, "image/gif", uint16Le(head, 6), uint16Le(head, 8), byteSize);
+        }
+        if (head.length >= 3 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xd8 && (head[2] & 0xff) == 0xff) {
+            return jpeg(statusCode, head, byteSize);
+        }
+        if (startsWith(head, 0, "RIFF") && startsWith(head, 8, "WEBP")) {
+            return webp(statusCode, head, byteSize);
+        }
+        if (startsWith(head, 0, "BM") && head.length >= 26) {
+            return image(statusCode, "image/bmp", int32Le(head, 18), Math.abs(int32Le(head, 22)), byteSize);
+        }
+        if (head.length >= 8 && head[0] == 0 && head[1] == 0 && head[2] == 1 && head[3] == 0 && head[4] + head[5] > 0) {
+            // dimensions of the first icon of the directory, 0 meaning 256
+            int width = head[6] == 0 ? 256 : head[6] & 0xff;
+            int height = head[7] == 0 ? 256 : head[7] & 0xff;
+            return image(statusCode, "image/x-icon", width, height, byteSize);
+        }
+        if (startsWith(head, 4, "ftyp")) {
+            return isobmff(statusCode, head, byteSize);
+        }
+        if (isSvg(head)) {
+            return new ImageMetadata(statusCode, "image/svg+xml", true, -1, -1, byteSize);
+        }
+        return null;
+    }
+
+    /**
+     * Method to get the size of the whole image from the Content-Range header of a partial response, or from the
+     * body of a complete response
+     * @param response: response to the (range) request of the image
+     * @return size in bytes, -1 if unknown
+     */
+    static long byteSize(FetchResponse response) {
+        String contentRange = response.header("content-range");
+        if (response.getStatusCode() == 206 && contentRange != null) {
+            // bytes 0-8191/146515, the total being * if unknown
+            int slash = contentRange.lastIndexOf('/');
+            return slash < 0 ? -1 : parseLong(contentRange.substring(slash + 1).trim());
+        }
+        if (response.getStatusCode() != 200) {
+            return -1;
+        }
+        if (!response.isTruncated()) {
+            return response.getBody().length;
+        }
+        String contentLength = response.header("content-length");
+        return contentLength == null ? -1 : parseLong(contentLength.trim());
+    }
+
+    private static ImageMetadata jpeg(int statusCode, byte[] head, long byteSize) {
+        int position = 2;
+        while (position + 3 < head.length) {
+            if ((head[position] & 0xff) != 0xff) {
+                break;
+            }
+            int marker = head[position + 1] & 0xff;
+            if (marker == 0xff) {
+                // fill byte
+                position++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7)) {
+                // markers without a segment
+                position += 2;
+                continue;
+            }
+            boolean startOfFrame = marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8
+                    && marker != 0xcc;
+            if (startOfFrame) {
+                if (position + 8 >= head.length) {
+                    break;
+                }
+                return image(statusCode, "image/jpeg", uint16(head, position + 7), uint16(head, position + 5),
+                        byteSize);
+            }
+            if (marker == 0xda || marker == 0xd9) {
+                // start of scan or end of image without a frame header
+                break;
+            }
+            position += 2 + uint16(head, position + 2);
+        }
+        return new ImageMetadata(statusCode, "image/jpeg", true, -1, -1, byteSize);
+    }
+
+    private static ImageMetadata webp(int statusCode, byte[] head, long byteSize) {
+        if (startsWith(head, 12, "VP8 ") && head.length >= 30) {
+            return image(statusCode, "image/webp", uint16Le(head, 26) & 0x3fff, uint16Le(head, 28) & 0x3fff,
+                    byteSize);
+        }
+        if (startsWith(head, 12, "VP8L") && head.length >= 25) {
+            int b0 = head[21] & 0xff;
+            int b1 = head[22] & 0xff;
+            int b2 = head[23] & 0xff;
+            int b3 = head[24] & 0xff;
+            int width = 1 + (((b1 & 0x3f) << 8) | b0);
+            int height = 1 + (((b3 & 0x0f) << 10) | (b2 << 2) | ((b1 & 0xc0) >> 6));
+            return image(statusCode, "image/webp", width, height, byteSize);
+        }
+        if (startsWith(head, 12, "VP8X") && head.length >= 30) {
+            return image(statusCode, "image/webp", 1 + uint24Le(head, 24), 1 + uint24Le(head, 27), byteSize);
+        }
+        return new ImageMetadata(statusCode, "image/webp", true, -1, -1, byteSize);
+    }
+
+    private static ImageMetadata isobmff(int statusCode, byte[] head, long byteSize) {
+        String brand = head.length >= 12 ? new String(head, 8, 4, StandardCharsets.ISO_8859_1) : "";
+        String contentType;
+        if (brand.startsWith("avi")) {
+            contentType = "image/avif";
+        } else if (brand.startsWith("hei") || brand.startsWith("mif") || brand.startsWith("hev")) {
+            contentType = "image/heif";
+        } else {
+            // another ISO media file, e.g. a video
+            return null;
+        }
+        // image spatial extents property: version and flags, then the width and height
+        int ispe = indexOf(head, "ispe");
+        if (ispe >= 0 && ispe + 16 <= head.length) {
+            return image(statusCode, contentType, int32(head, ispe + 8), int32(head, ispe + 12), byteSize);
+        }
+        return new ImageMetadata(statusCode, contentType, true, -1, -1, byteSize);
+    }
+
+    private static boolean isSvg(byte[] head) {
+        int length = Math.min(head.length, SVG_SCAN_BYTES);
+        String start = new String(head, 0, length, StandardCharsets.ISO_8859_1).trim().toLowerCase(Locale.ROOT);
+        if (start.startsWith("\u00ef\u00bb\u00bf")) {
+            start = start.substring(3);
+        }
+        return (start.startsWith("<svg") || start.startsWith("<?xml") || start.startsWith("<!doctype svg")
+                || start.startsWith("<!--")) && start.contains("<svg");
+    }
+
+    private static ImageMetadata image(int statusCode, String contentType, int width, int height, long byteSize) {
+        boolean valid = width >= 0 && height >= 0;
+        return new ImageMetadata(statusCode, contentType, true, valid ? width : -1, valid ? height : -1, byteSize);
+    }
+
+    private static String mimeType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mimeType = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim();
+        return mimeType.isEmpty() ? null : mimeType.toLowerCase(Locale.ROOT);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        if (bytes.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, String prefix) {
+        return startsWith(bytes, offset, prefix.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static int indexOf(byte[] bytes, String text) {
+        byte[] pattern = text.getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            if (startsWith(bytes, i, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // readers returning -1 when the bytes are cut before the value
+
+    private static int int32(byte[] bytes, int offset) {
+        if (offset + 4 > bytes.length) {
+            return -1;
+        }
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8)
+                | (bytes[offset + 3] & 0xff);
+    }
+
+    private static int int32Le(byte[] bytes, int offset) {
+        if (offset + 4 > bytes.length) {
+            return -1;
+        }
+        return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8) | ((bytes[offset + 2] & 0xff) << 16)
+                | ((bytes[offset + 3] & 0xff) << 24);
+    }
+
+    private static int uint16(byte[] bytes, int offset) {
+        return offset + 2 > bytes.length ? -1 : ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+
+    private static int uint16Le(byte[] bytes, int offset) {
+        return offset + 2 > bytes.length ? -1 : (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8);
+    }
+
+    private static int uint24Le(byte[] bytes, int offset) {
+        return offset + 3 > bytes.length ? -1
+                : (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8) | ((bytes[offset + 2] & 0xff) << 16);
+    }
+}
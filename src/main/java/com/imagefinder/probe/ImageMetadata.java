@@ -0,0 +1,93 @@
+package com.imagefinder.probe;
+
+import com.imagefinder.models.Image;
+
+/**
+ * class representing what the probe of an image found out from the start of the image
+ */
+public final class ImageMetadata {
+
+    private static final ImageMetadata UNREACHABLE = new ImageMetadata(0, null, false, -1, -1, -1);
+
+    // status code of the response, 0 if no response was received
+    private final int statusCode;
+    private final String contentType;
+    // true if the content type was recognized from the bytes of the image rather than from the headers
+    private final boolean sniffed;
+    private final int width;
+    private final int height;
+    private final long byteSize;
+
+    /**
+     * Constructor for the ImageMetadata class
+     * @param statusCode: status code of the response, 0 if no response was received
+     * @param contentType: content type of the image, null if unknown
+     * @param sniffed: true if the content type was recognized from the bytes of the image
+     * @param width: width in pixels, -1 if unknown
+     * @param height: height in pixels, -1 if unknown
+     * @param byteSize: size of the whole image in bytes, -1 if unknown
+     */
+    public ImageMetadata(int statusCode, String contentType, boolean sniffed, int width, int height, long byteSize) {
+        this.statusCode = statusCode;
+        this.contentType = contentType;
+        this.sniffed = sniffed;
+        this.width = width;
+        this.height = height;
+        this.byteSize = byteSize;
+    }
+
+    /**
+     * Method to get the metadata of an image that could not be fetched (timeout, connection refused, ...)
+     * @return metadata without any known attribute
+     */
+    public static ImageMetadata unreachable() {
+        return UNREACHABLE;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isSniffed() {
+        return sniffed;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    /**
+     * Method to check if the dimensions of the image are known
+     * @return true if both the width and height were read from the image
+     */
+    public boolean hasDimensions() {
+        return width >= 0 && height >= 0;
+    }
+
+    /**
+     * Method to copy the known attributes to an image of the crawl results
+     * @param image: image the metadata was probed for
+     */
+    public void applyTo(Image image) {
+        image.setMetadata(contentType, hasDimensions() ? Integer.valueOf(width) : null,
+                hasDimensions() ? Integer.valueOf(height) : null, byteSize >= 0 ? Long.valueOf(byteSize) : null);
+    }
+
+    @Override
+    public String toString() {
+        return "ImageMetadata{status=" + statusCode + ", contentType=" + contentType + ", width=" + width
+                + ", height=" + height + ", byteSize=" + byteSize + '}';
+    }
+}
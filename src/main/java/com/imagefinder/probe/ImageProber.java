@@ -0,0 +1,307 @@
+package com.imagefinder.probe;
+
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.crawler.DataEnricher;
+import com.imagefinder.fetcher.FetchResponse;
+import com.imagefinder.fetcher.PageFetcher;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.politeness.RetryAfter;
+import com.imagefinder.utils.URLUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Enrichment stage probing the images found by the crawls: only the first few KB of every image are fetched, with
+ * a range request, to sniff its content type and pixel dimensions and learn its size. Tracking pixels and spacers
+ * (images narrower or shorter than minDimension), broken links (4xx/5xx) and responses that are not images (e.g.
+ * an HTML error page) are dropped from the results; images that could not be fetched at all are kept as they are.
+ * Probes are batched per host: they wait up to lingerMillis for other probes of the same host, and a batch of up to
+ * batchSize probes is sent together once the per-host rate limiter grants it a permit, so that the rate limiter is
+ * consulted once per batch and the probes of a host share its kept alive connections. The metadata of every url is
+ * cached (across the webpages and the crawls), so an image found on many webpages is only probed once.
+ */
+public class ImageProber implements DataEnricher<Image> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageProber.class);
+
+    private final PageFetcher fetcher;
+    private final HostRateLimiter rateLimiter;
+    // timer of the lingering batches and of the batches waiting for their host
+    private final ScheduledExecutorService scheduler;
+    private final ProbeConfig config;
+    private final Map<String, String> requestHeaders;
+    // guarded by itself: metadata of the urls probed (or being probed), least recently used first
+    private final Map<String, CompletableFuture<ImageMetadata>> metadataByUrl;
+    private final Map<String, HostBatch> batches = new ConcurrentHashMap<>();
+    private final LongAdder probesSent = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder imagesDropped = new LongAdder();
+
+    private static final class InstanceHolder {
+        private static final ImageProber INSTANCE = fromSystemProperties();
+    }
+
+    /**
+     * Constructor for the ImageProber class
+     * @param fetcher: fetcher downloading the start of the images
+     * @param rateLimiter: per-host rate limiter granting the batches
+     * @param scheduler: timer delaying the batches
+     * @param config: sizes, delays and filter of the prober
+     */
+    public ImageProber(PageFetcher fetcher, HostRateLimiter rateLimiter, ScheduledExecutorService scheduler,
+                       ProbeConfig config) {
+        this.fetcher = fetcher;
+        this.rateLimiter = rateLimiter;
+        this.scheduler = scheduler;
+        this.config = config;
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Range", "bytes=0-" + (config.getProbeBytes() - 1));
+        headers.put("Accept", "image/avif,image/webp,image/*,*/*;q=0.8");
+        // byte ranges of the image itself rather than of a compressed encoding of it
+        headers.put("Accept-Encoding", "identity");
+        this.requestHeaders = headers;
+        int cacheSize = config.getCacheSize();
+        this.metadataByUrl = new LinkedHashMap<String, CompletableFuture<ImageMetadata>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<ImageMetadata>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    private static ImageProber fromSystemProperties() {
+        CrawlServices services = CrawlServices.getDefault();
+        return new ImageProber(services.getPageFetcher(), services.getRateLimiter(),
+                services.getPolitenessScheduler(), ProbeConfig.fromSystemProperties());
+    }
+
+    /**
+     * Method to return the prober shared by all the crawls, running on the default crawl services
+     * @return shared prober
+     */
+    public static ImageProber getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Method to probe the images of a webpage, without blocking the calling thread
+     * @param images: images extracted from a webpage
+     * @return future completed with the images to keep, enriched with their metadata
+     */
+    @Override
+    public CompletableFuture<Collection<Image>> enrich(Collection<Image> images) {
+        List<Image> probed = new ArrayList<>(images);
+        List<CompletableFuture<ImageMetadata>> probes = new ArrayList<>(probed.size());
+        for (Image image : probed) {
+            probes.add(probe(image.getUrl()));
+        }
+        return CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<Image> kept = new ArrayList<>(probed.size());
+            for (int i = 0; i < probed.size(); i++) {
+                ImageMetadata metadata = probes.get(i).join();
+                if (isKept(metadata)) {
+                    metadata.applyTo(probed.get(i));
+                    kept.add(probed.get(i));
+                } else {
+                    LOGGER.debug("Dropping the image {} ({})", probed.get(i).getUrl(), metadata);
+                    imagesDropped.increment();
+                }
+            }
+            return kept;
+        });
+    }
+
+    /**
+     * Method to get the metadata of an image, probing it unless it is cached
+     * @param url: absolute url of the image
+     * @return future completed with the metadata, never exceptionally
+     */
+    public CompletableFuture<ImageMetadata> probe(String url) {
+        CompletableFuture<ImageMetadata> probe;
+        synchronized (metadataByUrl) {
+            CompletableFuture<ImageMetadata> cached = metadataByUrl.get(url);
+            if (cached != null) {
+                cacheHits.increment();
+                return cached;
+            }
+            probe = new CompletableFuture<>();
+            metadataByUrl.put(url, probe);
+        }
+        String host = URLUtils.getHost(url);
+        batches.computeIfAbsent(host, HostBatch::new).add(new PendingProbe(url, probe));
+        return probe;
+    }
+
+    /**
+     * Method to decide if an image stays in the crawl results
+     * @param metadata: metadata of the image
+     * @return false for broken links, responses that are not images and images below the minimum dimension
+     */
+    public boolean isKept(ImageMetadata metadata) {
+        if (metadata.getStatusCode() == 0) {
+            // not fetched at all (timeout, connection reset): nothing is known against the image
+            return true;
+        }
+        if (metadata.getStatusCode() >= 400) {
+            return false;
+        }
+        if (!metadata.isSniffed() && metadata.getContentType() != null
+                && !metadata.getContentType().toLowerCase(Locale.ROOT).startsWith("image/")) {
+            return false;
+        }
+        return !metadata.hasDimensions() || (metadata.getWidth() >= config.getMinDimension()
+                && metadata.getHeight() >= config.getMinDimension());
+    }
+
+    public ProbeConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Method to get the number of images requested so far
+     * @return number of probes sent
+     */
+    public long getProbesSent() {
+        return probesSent.sum();
+    }
+
+    /**
+     * Method to get the number of images whose metadata was already known or being probed
+     * @return number of cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * Method to get the number of images dropped from the crawl results
+     * @return number of images dropped
+     */
+    public long getImagesDropped() {
+        return imagesDropped.sum();
+    }
+
+    /**
+     * Method to send a batch of probes once its host grants a permit
+     * @param host: host of the images
+     * @param batch: probes to send
+     */
+    private void dispatch(String host, List<PendingProbe> batch) {
+        long delayNanos = rateLimiter.reserve(host);
+        if (delayNanos <= 0) {
+            send(host, batch);
+            return;
+        }
+        try {
+            scheduler.schedule(() -> send(host, batch), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.error("Timer rejected a batch of {} image probes for the host: {}", batch.size(), host, e);
+            for (PendingProbe probe : batch) {
+                probe.future.complete(ImageMetadata.unreachable());
+            }
+        }
+    }
+
+    private void send(String host, List<PendingProbe> batch) {
+        for (PendingProbe probe : batch) {
+            probesSent.increment();
+            fetcher.fetch(probe.url, requestHeaders, config.getProbeBytes()).whenComplete((response, failure) -> {
+                if (failure != null) {
+                    LOGGER.debug("Could not probe the image {}", probe.url, failure);
+                    rateLimiter.onFailure(host);
+                    probe.future.complete(ImageMetadata.unreachable());
+                    return;
+                }
+                reportResponse(host, response);
+                ImageMetadata metadata;
+                try {
+                    metadata = ImageHeaderSniffer.sniff(response);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Could not read the metadata of the image {}", probe.url, e);
+                    metadata = ImageMetadata.unreachable();
+                }
+                probe.future.complete(metadata);
+            });
+        }
+    }
+
+    private void reportResponse(String host, FetchResponse response) {
+        long retryAfter = RetryAfter.parseMillis(response.header("Retry-After"), System.currentTimeMillis());
+        rateLimiter.onResponse(host, response.getStatusCode(), response.getLatencyNanos(), retryAfter);
+    }
+
+    /**
+     * Probes of a host waiting to be sent together
+     */
+    private final class HostBatch {
+        private final String host;
+        // guarded by this
+        private List<PendingProbe> pending = new ArrayList<>();
+        private boolean flushScheduled;
+
+        private HostBatch(String host) {
+            this.host = host;
+        }
+
+        private void add(PendingProbe probe) {
+            List<PendingProbe> full = null;
+            boolean scheduleFlush = false;
+            synchronized (this) {
+                pending.add(probe);
+                if (pending.size() >= config.getBatchSize()) {
+                    full = pending;
+                    pending = new ArrayList<>();
+                } else if (!flushScheduled) {
+                    flushScheduled = true;
+                    scheduleFlush = true;
+                }
+            }
+            if (full != null) {
+                dispatch(host, full);
+            } else if (scheduleFlush) {
+                try {
+                    scheduler.schedule(this::flush, config.getLingerMillis(), TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() {
+            List<PendingProbe> batch;
+            synchronized (this) {
+                flushScheduled = false;
+                batch = pending;
+                pending = new ArrayList<>();
+            }
+            if (!batch.isEmpty()) {
+                dispatch(host, batch);
+            }
+        }
+    }
+
+    private static final class PendingProbe {
+        private final String url;
+        private final CompletableFuture<ImageMetadata> future;
+
+        private PendingProbe(String url, CompletableFuture<ImageMetadata> future) {
+            this.url = url;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.imagefinder.probe;
+
+/**
+ * Configuration of the ImageProber. The defaults can be overridden with system properties, e.g.
+ * -Dimagefinder.probe.enabled=true
+ */
+public class ProbeConfig {
+
+    private static final String PROPERTY_PREFIX = "imagefinder.probe.";
+
+    private final boolean enabled;
+    private final int probeBytes;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final int cacheSize;
+    private final int minDimension;
+
+    /**
+     * Constructor for the ProbeConfig class
+     * @param enabled: true to probe the images found by the crawls
+     * @param probeBytes: number of bytes fetched from the start of every image
+     * @param batchSize: maximum number of probes of a host sent together
+     * @param lingerMillis: time a probe waits for others of the same host before its batch is sent
+     * @param cacheSize: number of urls whose metadata is kept, across pages and crawls
+     * @param minDimension: images narrower or shorter than this (in pixels) are dropped, e.g. 1x1 tracking pixels
+     */
+    public ProbeConfig(boolean enabled, int probeBytes, int batchSize, long lingerMillis, int cacheSize,
+                       int minDimension) {
+        this.enabled = enabled;
+        this.probeBytes = probeBytes;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.cacheSize = cacheSize;
+        this.minDimension = minDimension;
+    }
+
+    /**
+     * Method to create the configuration from the system properties, falling back to the defaults
+     * @return configuration of the prober
+     */
+    public static ProbeConfig fromSystemProperties() {
+        return new ProbeConfig(
+                Boolean.getBoolean(PROPERTY_PREFIX + "enabled"),
+                Integer.getInteger(PROPERTY_PREFIX + "bytes", 8192),
+                Integer.getInteger(PROPERTY_PREFIX + "batchSize", 16),
+                Long.getLong(PROPERTY_PREFIX + "lingerMs", 20L),
+                Integer.getInteger(PROPERTY_PREFIX + "cacheSize", 50_000),
+                Integer.getInteger(PROPERTY_PREFIX + "minDimension", 2));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getProbeBytes() {
+        return probeBytes;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public int getMinDimension() {
+        return minDimension;
+    }
+}
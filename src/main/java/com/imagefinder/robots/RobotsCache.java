@@ -0,0 +1,201 @@
+package com.imagefinder.robots;
+
+import com.imagefinder.fetcher.FetchResponse;
+import com.imagefinder.fetcher.PageFetcher;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.URLUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the robots.txt rules of every host, shared by all the crawls. The robots.txt file of a host is fetched
+ * once when a crawl first reaches the host, and again once its rules expire; the crawls reaching the host while it
+ * is being fetched wait for the same request. The crawl delay of a host is handed to the per-host rate limiter.
+ * As in RFC 9309, a missing robots.txt file (4xx) allows everything, while a file that cannot be fetched (5xx,
+ * network error) disallows everything until it is fetched again, after a shorter delay.
+ * The cache is bounded by a number of hosts, the least recently used ones being evicted first.
+ */
+public class RobotsCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RobotsCache.class);
+
+    private final PageFetcher fetcher;
+    private final HostRateLimiter rateLimiter;
+    private final RobotsConfig config;
+    // guarded by itself: rules of the hosts by origin (scheme, host and port), least recently used first
+    private final Map<String, CachedRules> rulesByOrigin;
+    private final LongAdder robotsFetched = new LongAdder();
+    private final LongAdder disallowedUrls = new LongAdder();
+
+    /**
+     * Constructor for the RobotsCache class
+     * @param fetcher: fetcher downloading the robots.txt files
+     * @param rateLimiter: per-host rate limiter the crawl delays are handed to
+     * @param config: user agent, sizes and expiry of the rules
+     */
+    public RobotsCache(PageFetcher fetcher, HostRateLimiter rateLimiter, RobotsConfig config) {
+        this.fetcher = fetcher;
+        this.rateLimiter = rateLimiter;
+        this.config = config;
+        int cacheSize = config.getCacheSize();
+        this.rulesByOrigin = new LinkedHashMap<String, CachedRules>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedRules> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Method to get the rules of the host of a url, fetching its robots.txt file if they are not cached
+     * @param url: absolute url of a webpage of the host
+     * @return future completed with the rules of the host, never exceptionally; malformed urls get ALLOW_ALL
+     */
+    public CompletableFuture<RobotsRules> rulesFor(String url) {
+        String origin = URLUtils.getOrigin(url);
+        if (origin == null) {
+            return CompletableFuture.completedFuture(RobotsRules.ALLOW_ALL);
+        }
+        long now = System.currentTimeMillis();
+        CompletableFuture<RobotsRules> rules;
+        synchronized (rulesByOrigin) {
+            CachedRules cached = rulesByOrigin.get(origin);
+            if (cached != null && !cached.isExpired(now)) {
+                return cached.rules;
+            }
+            rules = new CompletableFuture<>();
+            rulesByOrigin.put(origin, new CachedRules(rules, Long.MAX_VALUE));
+        }
+        fetchRules(origin, rules);
+        return rules;
+    }
+
+    /**
+     * Method to check, without waiting, if a url is known to be disallowed. Used to avoid queueing the webpages the
+     * crawl would skip anyway.
+     * @param url: absolute url of a webpage
+     * @return true if the rules of its host are cached and disallow the url, false otherwise
+     */
+    public boolean isKnownDisallowed(String url) {
+        String origin = URLUtils.getOrigin(url);
+        if (origin == null) {
+            return false;
+        }
+        CachedRules cached;
+        synchronized (rulesByOrigin) {
+            cached = rulesByOrigin.get(origin);
+        }
+        if (cached == null || !cached.rules.isDone() || cached.isExpired(System.currentTimeMillis())) {
+            return false;
+        }
+        return !cached.rules.join().isAllowed(url);
+    }
+
+    /**
+     * Method to record a webpage skipped because the robots.txt file of its host disallows it
+     */
+    public void recordDisallowed() {
+        disallowedUrls.increment();
+    }
+
+    private void fetchRules(String origin, CompletableFuture<RobotsRules> rules) {
+        String robotsUrl = origin + "/robots.txt";
+        robotsFetched.increment();
+        fetcher.fetch(robotsUrl, Collections.<String, String>emptyMap(), config.getMaxRobotsBytes())
+                .whenComplete((response, failure) -> {
+                    RobotsRules parsed;
+                    long ttl = config.getTtlMillis();
+                    if (failure != null) {
+                        LOGGER.warn("Could not fetch {}, not crawling the host for now", robotsUrl, failure);
+                        parsed = RobotsRules.DISALLOW_ALL;
+                        ttl = config.getErrorTtlMillis();
+                    } else {
+                        parsed = toRules(robotsUrl, response);
+                        if (parsed == RobotsRules.DISALLOW_ALL) {
+                            ttl = config.getErrorTtlMillis();
+                        }
+                    }
+                    if (parsed.getCrawlDelayMillis() > 0) {
+                        String host = URLUtils.getHost(origin);
+                        LOGGER.info("Host {} asks for a crawl delay of {} ms", host, parsed.getCrawlDelayMillis());
+                        rateLimiter.setCrawlDelay(host, parsed.getCrawlDelayMillis());
+                    }
+                    synchronized (rulesByOrigin) {
+                        CachedRules cached = rulesByOrigin.get(origin);
+                        if (cached != null && cached.rules == rules) {
+                            rulesByOrigin.put(origin, new CachedRules(rules, System.currentTimeMillis() + ttl));
+                        }
+                    }
+                    rules.complete(parsed);
+                });
+    }
+
+    private RobotsRules toRules(String robotsUrl, FetchResponse response) {
+        int statusCode = response.getStatusCode();
+        if (statusCode >= 200 && statusCode < 300) {
+            // robots.txt files are UTF-8, which also reads ASCII files
+            String content = new String(response.getBody(), StandardCharsets.UTF_8);
+            return RobotsTxtParser.parse(content, config.getAgent(), response.getUrl());
+        }
+        if (statusCode == 429 || statusCode >= 500) {
+            LOGGER.warn("Received status {} for {}, not crawling the host for now", statusCode, robotsUrl);
+            return RobotsRules.DISALLOW_ALL;
+        }
+        return RobotsRules.ALLOW_ALL;
+    }
+
+    public RobotsConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Method to get the number of robots.txt files requested
+     * @return number of robots.txt requests
+     */
+    public long getRobotsFetched() {
+        return robotsFetched.sum();
+    }
+
+    /**
+     * Method to get the number of webpages skipped because a robots.txt file disallows them
+     * @return number of disallowed webpages
+     */
+    public long getDisallowedUrls() {
+        return disallowedUrls.sum();
+    }
+
+    /**
+     * Method to get the number of hosts whose rules are cached
+     * @return number of hosts
+     */
+    public int size() {
+        synchronized (rulesByOrigin) {
+            return rulesByOrigin.size();
+        }
+    }
+
+    /**
+     * Rules of a host, or the pending fetch of its robots.txt file, with their expiry
+     */
+    private static final class CachedRules {
+        private final CompletableFuture<RobotsRules> rules;
+        // epoch milliseconds, Long.MAX_VALUE while the file is being fetched
+        private final long expiresAt;
+
+        private CachedRules(CompletableFuture<RobotsRules> rules, long expiresAt) {
+            this.rules = rules;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.imagefinder.robots;
+
+/**
+ * Configuration of the robots.txt and sitemap handling. The defaults can be overridden with system properties, e.g.
+ * -Dimagefinder.robots.enabled=false
+ */
+public class RobotsConfig {
+
+    private static final String PROPERTY_PREFIX = "imagefinder.robots.";
+
+    private final boolean enabled;
+    private final String agent;
+    private final int cacheSize;
+    private final long ttlMillis;
+    private final long errorTtlMillis;
+    private final int maxRobotsBytes;
+    private final boolean sitemapsEnabled;
+    private final int maxSitemaps;
+    private final int maxSitemapUrls;
+
+    /**
+     * Constructor for the RobotsConfig class
+     * @param enabled: true to fetch the robots.txt files and honour them
+     * @param agent: product token our user agent is known by in the robots.txt files
+     * @param cacheSize: number of hosts whose rules are kept
+     * @param ttlMillis: time the rules of a host are kept before its robots.txt file is fetched again
+     * @param errorTtlMillis: time a robots.txt file that could not be fetched (crawling the host is disallowed in
+     *                      the meantime) waits before it is fetched again
+     * @param maxRobotsBytes: size of a robots.txt file read, the rest is ignored
+     * @param sitemapsEnabled: true to seed the crawls with the urls of the sitemaps of the base url
+     * @param maxSitemaps: number of sitemap files (sitemap indexes included) read per crawl
+     * @param maxSitemapUrls: number of webpages read from the sitemaps per crawl
+     */
+    public RobotsConfig(boolean enabled, String agent, int cacheSize, long ttlMillis, long errorTtlMillis,
+                        int maxRobotsBytes, boolean sitemapsEnabled, int maxSitemaps, int maxSitemapUrls) {
+        this.enabled = enabled;
+        this.agent = agent;
+        this.cacheSize = cacheSize;
+        this.ttlMillis = ttlMillis;
+        this.errorTtlMillis = errorTtlMillis;
+        this.maxRobotsBytes = maxRobotsBytes;
+        this.sitemapsEnabled = sitemapsEnabled;
+        this.maxSitemaps = maxSitemaps;
+        this.maxSitemapUrls = maxSitemapUrls;
+    }
+
+    /**
+     * Method to create the configuration from the system properties, falling back to the defaults
+     * @return configuration of the robots.txt and sitemap handling
+     */
+    public static RobotsConfig fromSystemProperties() {
+        return new RobotsConfig(
+                Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "enabled", "true")),
+                System.getProperty(PROPERTY_PREFIX + "agent", "ImageFinder"),
+                Integer.getInteger(PROPERTY_PREFIX + "cacheSize", 10_000),
+                Long.getLong(PROPERTY_PREFIX + "ttlMs", 24 * 60 * 60 * 1000L),
+                Long.getLong(PROPERTY_PREFIX + "errorTtlMs", 5 * 60 * 1000L),
+                Integer.getInteger(PROPERTY_PREFIX + "maxBytes", 512 * 1024),
+                Boolean.parseBoolean(System.getProperty(PROPERTY_PREFIX + "sitemaps", "true")),
+                Integer.getInteger(PROPERTY_PREFIX + "maxSitemaps", 50),
+                // on top of the webpages linked from the base url, so that the sitemaps do not dwarf the crawl
+                Integer.getInteger(PROPERTY_PREFIX + "maxSitemapUrls", 500));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getAgent() {
+        return agent;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public long getErrorTtlMillis() {
+        return errorTtlMillis;
+    }
+
+    public int getMaxRobotsBytes() {
+        return maxRobotsBytes;
+    }
+
+    public boolean isSitemapsEnabled() {
+        return sitemapsEnabled;
+    }
+
+    public int getMaxSitemaps() {
+        return maxSitemaps;
+    }
+
+    public int getMaxSitemapUrls() {
+        return maxSitemapUrls;
+    }
+}
@@ -0,0 +1,164 @@
+package com.imagefinder.robots;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rules of a robots.txt file applying to our user agent: the allowed and disallowed paths, the crawl delay and the
+ * sitemaps declared by the website. As in RFC 9309, the longest matching path wins and an allow wins a tie; paths
+ * may use the * wildcard and end with $ to match the end of the url.
+ */
+public final class RobotsRules {
+
+    /**
+     * Rules of a website without a robots.txt file (or with a 4xx one): everything may be crawled
+     */
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(Collections.<PathRule>emptyList(), -1,
+            Collections.<String>emptyList());
+    /**
+     * Rules of a website whose robots.txt file could not be fetched (5xx, network error): nothing may be crawled
+     * until the file can be read again
+     */
+    public static final RobotsRules DISALLOW_ALL = new RobotsRules(
+            Collections.singletonList(new PathRule("/", false)), -1, Collections.<String>emptyList());
+
+    private final List<PathRule> pathRules;
+    private final long crawlDelayMillis;
+    private final List<String> sitemaps;
+
+    /**
+     * Constructor for the RobotsRules class
+     * @param pathRules: allow and disallow rules of our user agent
+     * @param crawlDelayMillis: minimum delay between two requests to the host, negative if none is requested
+     * @param sitemaps: absolute urls of the sitemaps declared by the website
+     */
+    public RobotsRules(List<PathRule> pathRules, long crawlDelayMillis, List<String> sitemaps) {
+        this.pathRules = Collections.unmodifiableList(new ArrayList<>(pathRules));
+        this.crawlDelayMillis = crawlDelayMillis;
+        this.sitemaps = Collections.unmodifiableList(new ArrayList<>(sitemaps));
+    }
+
+    /**
+     * Method to check if a url may be crawled
+     * @param url: absolute url of the webpage
+     * @return true if no rule disallows the url, malformed urls are allowed (they are rejected when fetched)
+     */
+    public boolean isAllowed(String url) {
+        if (pathRules.isEmpty()) {
+            return true;
+        }
+        String path;
+        try {
+            URI uri = new URI(url);
+            path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            if (uri.getRawQuery() != null) {
+                path = path + "?" + uri.getRawQuery();
+            }
+        } catch (URISyntaxException e) {
+            return true;
+        }
+        return isPathAllowed(path);
+    }
+
+    /**
+     * Method to check if a path may be crawled
+     * @param path: path of the url, with its query
+     * @return true if the longest rule matching the path allows it, or if no rule matches
+     */
+    public boolean isPathAllowed(String path) {
+        if ("/robots.txt".equals(path)) {
+            return true;
+        }
+        int longestMatch = -1;
+        boolean allowed = true;
+        for (PathRule rule : pathRules) {
+            int length = rule.getPattern().length();
+            if (length < longestMatch || (length == longestMatch && allowed)) {
+                continue;
+            }
+            if (rule.matches(path)) {
+                longestMatch = length;
+                allowed = rule.isAllow();
+            }
+        }
+        return allowed;
+    }
+
+    public long getCrawlDelayMillis() {
+        return crawlDelayMillis;
+    }
+
+    public List<String> getSitemaps() {
+        return sitemaps;
+    }
+
+    /**
+     * An Allow or Disallow line of a robots.txt file
+     */
+    public static final class PathRule {
+        private final String pattern;
+        private final boolean allow;
+
+        /**
+         * Constructor for the PathRule class
+         * @param pattern: path prefix, possibly holding * wildcards and ending with $
+         * @param allow: true for an Allow line, false for a Disallow line
+         */
+        public PathRule(String pattern, boolean allow) {
+            this.pattern = pattern;
+            this.allow = allow;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public boolean isAllow() {
+            return allow;
+        }
+
+        /**
+         * Method to check if the rule matches the start of a path (or the whole path if the pattern ends with $)
+         * @param path: path of the url, with its query
+         * @return true if the rule applies to the path
+         */
+        boolean matches(String path) {
+            return matches(path, 0, 0);
+        }
+
+        private boolean matches(String path, int pathIndex, int patternIndex) {
+            int p = patternIndex;
+            int i = pathIndex;
+            while (p < pattern.length()) {
+                char c = pattern.charAt(p);
+                if (c == '$' && p == pattern.length() - 1) {
+                    return i == path.length();
+                }
+                if (c == '*') {
+                    // collapsing consecutive wildcards, then trying every length for this one
+                    while (p < pattern.length() && pattern.charAt(p) == '*') {
+                        p++;
+                    }
+                    if (p == pattern.length()) {
+                        return true;
+                    }
+                    for (int start = i; start <= path.length(); start++) {
+                        if (matches(path, start, p)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                if (i >= path.length() || path.charAt(i) != c) {
+                    return false;
+                }
+                i++;
+                p++;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.imagefinder.robots;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Parser of robots.txt files (RFC 9309). The file is a list of groups, every group starting with one or more
+ * User-agent lines followed by its Allow, Disallow and Crawl-delay lines. The groups naming our user agent are used
+ * if there are any, the * groups otherwise. Sitemap lines apply to the whole file. Unknown lines and lines that
+ * cannot be parsed are ignored, so any content (e.g. an HTML error page served with a 200) gives valid rules.
+ */
+public final class RobotsTxtParser {
+
+    // longest crawl delay honoured, so that a website cannot stall a crawl forever
+    private static final long MAX_CRAWL_DELAY_MS = 60_000;
+
+    private RobotsTxtParser() {
+    }
+
+    /**
+     * Method to parse a robots.txt file
+     * @param content: content of the file
+     * @param agent: product token of our user agent, e.g. ImageFinder, matched case-insensitively
+     * @param baseUrl: url of the robots.txt file, used to resolve relative sitemap urls
+     * @return rules of the file applying to our user agent
+     */
+    public static RobotsRules parse(String content, String agent, String baseUrl) {
+        String agentToken = agent.toLowerCase(Locale.ROOT);
+        List<RobotsRules.PathRule> agentRules = new ArrayList<>();
+        List<RobotsRules.PathRule> wildcardRules = new ArrayList<>();
+        List<String> sitemaps = new ArrayList<>();
+        long agentDelay = -1;
+        long wildcardDelay = -1;
+        boolean agentGroupFound = false;
+        // whether the current group applies to our agent / to every agent
+        boolean inAgentGroup = false;
+        boolean inWildcardGroup = false;
+        // true while reading the User-agent lines at the start of a group
+        boolean readingAgents = false;
+
+        int lineStart = 0;
+        int length = content.length();
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && content.charAt(lineEnd) != '\n' && content.charAt(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            String line = content.substring(lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            switch (key) {
+                case "user-agent":
+                    if (!readingAgents) {
+                        inAgentGroup = false;
+                        inWildcardGroup = false;
+                        readingAgents = true;
+                    }
+                    String product = value.toLowerCase(Locale.ROOT);
+                    int slash = product.indexOf('/');
+                    if (slash >= 0) {
+                        product = product.substring(0, slash).trim();
+                    }
+                    if ("*".equals(product)) {
+                        inWildcardGroup = true;
+                    } else if (!product.isEmpty() && product.equals(agentToken)) {
+                        inAgentGroup = true;
+                        agentGroupFound = true;
+                    }
+                    break;
+                case "allow":
+                case "disallow":
+                    readingAgents = false;
+                    // an empty Disallow allows everything, it adds no rule
+                    if (!value.isEmpty()) {
+                        RobotsRules.PathRule rule = new RobotsRules.PathRule(value, "allow".equals(key));
+                        if (inAgentGroup) {
+                            agentRules.add(rule);
+                        }
+                        if (inWildcardGroup) {
+                            wildcardRules.add(rule);
+                        }
+                    }
+                    break;
+                case "crawl-delay":
+                    readingAgents = false;
+                    long delay = parseDelayMillis(value);
+                    if (delay >= 0 && inAgentGroup) {
+                        agentDelay = delay;
+                    }
+                    if (delay >= 0 && inWildcardGroup) {
+                        wildcardDelay = delay;
+                    }
+                    break;
+                case "sitemap":
+                    String sitemap = resolve(baseUrl, value);
+                    if (sitemap != null) {
+                        sitemaps.add(sitemap);
+                    }
+                    break;
+                default:
+                    // other directives end the User-agent lines of a group without starting a new one
+                    readingAgents = false;
+                    break;
+            }
+        }
+        return agentGroupFound ? new RobotsRules(agentRules, agentDelay, sitemaps)
+                : new RobotsRules(wildcardRules, wildcardDelay, sitemaps);
+    }
+
+    /**
+     * Method to parse the value of a Crawl-delay line, a number of seconds possibly with decimals
+     * @param value: value of the line
+     * @return delay in milliseconds, capped at MAX_CRAWL_DELAY_MS; -1 if the value cannot be parsed
+     */
+    private static long parseDelayMillis(String value) {
+        try {
+            double seconds = Double.parseDouble(value);
+            if (seconds < 0 || Double.isNaN(seconds)) {
+                return -1;
+            }
+            return Math.min(MAX_CRAWL_DELAY_MS, (long) (seconds * 1000));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String resolve(String baseUrl, String url) {
+        if (url.isEmpty()) {
+            return null;
+        }
+        try {
+            return new URL(new URL(baseUrl), url).toString();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+}
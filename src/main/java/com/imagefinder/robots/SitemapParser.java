@@ -0,0 +1,139 @@
+package com.imagefinder.robots;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming parser of sitemaps (sitemaps.org): XML url sets, XML sitemap indexes and plain text sitemaps (one url
+ * per line), possibly gzipped. The locations are handed over one by one as they are read, without building a
+ * document, so a sitemap of any size is parsed in constant memory and the parsing stops as soon as the handler has
+ * read enough. A sitemap cut short (e.g. at the size limit of the fetcher) yields the locations read before the cut.
+ */
+public final class SitemapParser {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = newInputFactory();
+
+    private SitemapParser() {
+    }
+
+    /**
+     * Receiver of the locations read from a sitemap
+     */
+    public interface Handler {
+        /**
+         * Method called for the location of every webpage of a url set
+         * @param url: location of the webpage
+         * @return false to stop the parsing
+         */
+        boolean onPage(String url);
+
+        /**
+         * Method called for the location of every sitemap of a sitemap index
+         * @param url: location of the sitemap
+         */
+        void onSitemap(String url);
+    }
+
+    /**
+     * Method to parse a sitemap
+     * @param in: content of the sitemap, gzipped or not; closed by the caller
+     * @param handler: receiver of the locations
+     * @throws IOException if the content cannot be read or is not a sitemap, after the locations read so far were
+     * handed over
+     */
+    public static void parse(InputStream in, Handler handler) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        InputStream content = first == 0x1f && second == 0x8b ? new BufferedInputStream(new GZIPInputStream(buffered))
+                : buffered;
+        content.mark(1024);
+        int start = firstNonWhitespace(content);
+        content.reset();
+        if (start == '<') {
+            parseXml(content, handler);
+        } else {
+            parseText(content, handler);
+        }
+    }
+
+    private static void parseXml(InputStream in, Handler handler) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            // true inside a <sitemap> entry of an index, false inside a <url> entry
+            boolean inSitemap = false;
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if ("sitemap".equals(name)) {
+                    inSitemap = true;
+                } else if ("url".equals(name)) {
+                    inSitemap = false;
+                } else if ("loc".equals(name)) {
+                    String location = reader.getElementText().trim();
+                    if (location.isEmpty()) {
+                        continue;
+                    }
+                    if (inSitemap) {
+                        handler.onSitemap(location);
+                    } else if (!handler.onPage(location)) {
+                        return;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed sitemap: " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // nothing left to release, the stream is closed by the caller
+                }
+            }
+        }
+    }
+
+    private static void parseText(InputStream in, Handler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String location = line.trim();
+            if (!location.isEmpty() && !handler.onPage(location)) {
+                return;
+            }
+        }
+    }
+
+    private static int firstNonWhitespace(InputStream in) throws IOException {
+        int c = in.read();
+        // skipping the whitespace and the UTF-8 byte order mark
+        while (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == 0xef || c == 0xbb || c == 0xbf) {
+            c = in.read();
+        }
+        return c;
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // sitemaps come from the websites we crawl: no DTDs nor external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
@@ -0,0 +1,137 @@
+package com.imagefinder.robots;
+
+import com.imagefinder.fetcher.FetchResponse;
+import com.imagefinder.fetcher.PageFetcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+/**
+ * Reader of the sitemaps of a single crawl. The sitemaps are fetched one at a time, the sitemaps listed by a sitemap
+ * index being read after the ones already known, and the locations of their webpages are handed over as they are
+ * parsed. Reading stops once maxSitemaps files or maxSitemapUrls webpages have been read, or once the receiver of
+ * the webpages declines one.
+ */
+public class SitemapReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SitemapReader.class);
+
+    private final PageFetcher fetcher;
+    // executor parsing the sitemaps, so that the IO threads of the fetcher are not held by large files
+    private final Executor executor;
+    private final int maxSitemaps;
+    private final int maxSitemapUrls;
+    // sitemaps still to be read
+    private final Deque<String> pendingSitemaps = new ArrayDeque<>();
+    private final Set<String> knownSitemaps = new HashSet<>();
+    private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+    private Predicate<String> pageReceiver;
+    private int sitemapsRead;
+    private int pagesRead;
+    private boolean stopped;
+
+    /**
+     * Constructor for the SitemapReader class
+     * @param fetcher: fetcher downloading the sitemaps
+     * @param executor: executor parsing the sitemaps
+     * @param config: number of sitemaps and webpages read per crawl
+     */
+    public SitemapReader(PageFetcher fetcher, Executor executor, RobotsConfig config) {
+        this.fetcher = fetcher;
+        this.executor = executor;
+        this.maxSitemaps = config.getMaxSitemaps();
+        this.maxSitemapUrls = config.getMaxSitemapUrls();
+    }
+
+    /**
+     * Method to read the sitemaps. A reader reads its sitemaps once.
+     * @param sitemaps: urls of the sitemaps to start from, e.g. the ones declared by the robots.txt file
+     * @param pageReceiver: receiver of the location of every webpage read, returning false to stop the reading
+     * @return future completed with the number of webpages read once the reading is done, never exceptionally
+     */
+    public synchronized CompletableFuture<Integer> read(Collection<String> sitemaps, Predicate<String> pageReceiver) {
+        if (this.pageReceiver != null) {
+            throw new IllegalStateException("The sitemaps were already read");
+        }
+        this.pageReceiver = pageReceiver;
+        for (String sitemap : sitemaps) {
+            addSitemap(sitemap);
+        }
+        readNext();
+        return completion;
+    }
+
+    private void readNext() {
+        String sitemap;
+        synchronized (this) {
+            sitemap = stopped || sitemapsRead >= maxSitemaps ? null : pendingSitemaps.poll();
+            if (sitemap == null) {
+                completion.complete(pagesRead);
+                return;
+            }
+            sitemapsRead++;
+        }
+        fetcher.fetch(sitemap, Collections.<String, String>emptyMap())
+                .whenCompleteAsync((response, failure) -> {
+                    try {
+                        if (failure != null) {
+                            LOGGER.warn("Could not fetch the sitemap: {}", sitemap, failure);
+                        } else if (!response.isSuccessful()) {
+                            LOGGER.debug("Received status {} for the sitemap: {}", response.getStatusCode(), sitemap);
+                        } else {
+                            parse(sitemap, response);
+                        }
+                    } finally {
+                        readNext();
+                    }
+                }, executor);
+    }
+
+    private void parse(String sitemap, FetchResponse response) {
+        try (InputStream in = new ByteArrayInputStream(response.getBody())) {
+            SitemapParser.parse(in, new SitemapParser.Handler() {
+                @Override
+                public boolean onPage(String url) {
+                    return receivePage(url);
+                }
+
+                @Override
+                public void onSitemap(String url) {
+                    addSitemap(url);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not parse the sitemap: {}{}: {}", sitemap,
+                    response.isTruncated() ? " (cut at the size limit)" : "", e.getMessage());
+        }
+    }
+
+    private synchronized boolean receivePage(String url) {
+        if (stopped) {
+            return false;
+        }
+        pagesRead++;
+        if (!pageReceiver.test(url) || pagesRead >= maxSitemapUrls) {
+            stopped = true;
+        }
+        return !stopped;
+    }
+
+    private synchronized void addSitemap(String sitemap) {
+        if (knownSitemaps.size() < maxSitemaps && knownSitemaps.add(sitemap)) {
+            pendingSitemaps.offer(sitemap);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.imagefinder.store;
+
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.models.Image;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * class to serve the image data of a crawl result stored in the segment log. The record stays in the memory mapped
+ * segment until the data is first retrieved, so loading a result from disk costs a lookup in the index only.
+ */
+public class PersistedImageStorage implements CrawlDataStorage<Image> {
+
+    // read-only view of the record within the mapped segment, released once the record is decoded
+    private ByteBuffer record;
+    private final int imageCount;
+    private final long timestampMillis;
+    // images of the record, decoded on first use
+    private Collection<Image> data;
+
+    /**
+     * Constructor for the PersistedImageStorage class
+     * @param record: read-only view of the record
+     * @param imageCount: number of images within the record
+     * @param timestampMillis: time at which the result was crawled
+     */
+    PersistedImageStorage(ByteBuffer record, int imageCount, long timestampMillis) {
+        this.record = record;
+        this.imageCount = imageCount;
+        this.timestampMillis = timestampMillis;
+    }
+
+    /**
+     * Method to store data i.e Image data extracted from the webpage.
+     * @param imgData: data to store
+     */
+    @Override
+    public synchronized void storeData(Image imgData) {
+        decodedData().add(imgData);
+    }
+
+    @Override
+    public synchronized boolean storeDataIfAbsent(Image imgData) {
+        return decodedData().add(imgData);
+    }
+
+    /**
+     * Method to store collection of data i.e Image data extracted from the webpage.
+     * @param imgDataCollection: collection of data to store
+     */
+    @Override
+    public synchronized void storeMultipleData(Collection<Image> imgDataCollection) {
+        decodedData().addAll(imgDataCollection);
+    }
+
+    /**
+     * Method to retrieve collection of image data, decoding the record on the first call.
+     * @return a collection of image data
+     */
+    @Override
+    public synchronized Collection<Image> retrieveData() {
+        return decodedData();
+    }
+
+    /**
+     * Method to return the amount of image data, known from the index without decoding the record.
+     * @return: size of the data
+     */
+    @Override
+    public synchronized int size() {
+        return data == null ? imageCount : data.size();
+    }
+
+    /**
+     * Method to get the time at which the stored result was crawled
+     * @return timestamp in milliseconds
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    private Collection<Image> decodedData() {
+        if (data == null) {
+            data = new HashSet<>(SegmentRecords.decodeImages(record));
+            record = null;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,414 @@
+package com.imagefinder.store;
+
+import com.imagefinder.models.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistent store of crawl results, so that the cache survives restarts of the application.
+ * Results are appended to a log split into segments (segment-N.log) and never modified in place. Every segment has
+ * an index file (segment-N.idx) holding, for each record, its base url, position, length, timestamp and number of
+ * images. On startup only the index files are read: records are read through memory mapped segments and decoded
+ * when their data is first used. Records replaced by a newer result for the same base url, or older than the
+ * retention, are dropped by compaction, which copies the live records into a new segment and deletes the old ones.
+ */
+public class SegmentLogStore implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentLogStore.class);
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String SEGMENT_PREFIX = "segment-";
+    // bytes of an index entry besides its url: url length, offset, length, timestamp and image count
+    private static final int INDEX_ENTRY_BYTES = 4 + 8 + 4 + 8 + 4;
+    // compaction only rewrites the log once this share of its bytes is dead
+    private static final double MIN_DEAD_RATIO = 0.5;
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    // latest record of every base url
+    private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    // appends and compaction exclude each other, lookups run concurrently
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Segment activeSegment;
+    private long totalBytes;
+    private boolean closed;
+
+    /**
+     * Constructor for the SegmentLogStore class, use open to create a store.
+     * @param directory: directory holding the segments
+     * @param maxSegmentBytes: size after which a new segment is started
+     */
+    private SegmentLogStore(Path directory, long maxSegmentBytes) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Method to open the store held by a directory, reading the index of its segments
+     * @param directory: directory holding the segments, created if needed
+     * @param maxSegmentBytes: size after which a new segment is started
+     * @return the opened store
+     * @throws IOException if the directory or its index files cannot be read
+     */
+    public static SegmentLogStore open(Path directory, long maxSegmentBytes) throws IOException {
+        if (maxSegmentBytes < 1 || maxSegmentBytes > Integer.MAX_VALUE / 2) {
+            // segments are mapped as a whole, and a segment may exceed the limit by one record
+            throw new IllegalArgumentException("maxSegmentBytes must be between 1 and 1GB, got " + maxSegmentBytes);
+        }
+        Files.createDirectories(directory);
+        SegmentLogStore store = new SegmentLogStore(directory, maxSegmentBytes);
+        store.loadSegments();
+        LOGGER.info("Opened the crawl result store at {} with {} results in {} segments", directory,
+                store.index.size(), store.segments.size());
+        return store;
+    }
+
+    /**
+     * Method to append a crawl result to the log. The result replaces the previous one of the same base url.
+     * @param baseUrl: base url of the crawl
+     * @param timestampMillis: time at which the result was crawled
+     * @param images: images of the crawl
+     * @throws IOException if the result cannot be written
+     */
+    public void append(String baseUrl, long timestampMillis, Collection<Image> images) throws IOException {
+        byte[] record = SegmentRecords.encode(baseUrl, timestampMillis, images);
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (activeSegment == null || activeSegment.size >= maxSegmentBytes) {
+                rollSegment();
+            }
+            IndexEntry entry = activeSegment.write(baseUrl, record, timestampMillis, images.size());
+            totalBytes += record.length;
+            index.put(baseUrl, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method to get the stored result of a base url. The record is not decoded until its data is retrieved.
+     * @param baseUrl: base url of the crawl
+     * @return the stored result, null if there is none or if it cannot be read
+     */
+    public PersistedImageStorage get(String baseUrl) {
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return null;
+            }
+            IndexEntry entry = index.get(baseUrl);
+            if (entry == null) {
+                return null;
+            }
+            return new PersistedImageStorage(entry.segment.read(entry.offset, entry.length), entry.imageCount,
+                    entry.timestampMillis);
+        } catch (IOException e) {
+            LOGGER.error("Failed to read the stored result of the url: {}", baseUrl, e);
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method to compact the log if enough of it is dead. The live records are copied, without being decoded, into a
+     * new segment, then the segments they were copied from are deleted.
+     * @param minTimestampMillis: records crawled before this time are dropped
+     * @return true if the log was rewritten
+     * @throws IOException if the live records cannot be copied
+     */
+    public boolean compact(long minTimestampMillis) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            long liveBytes = 0;
+            List<IndexEntry> liveEntries = new ArrayList<>();
+            for (IndexEntry entry : index.values()) {
+                if (entry.timestampMillis >= minTimestampMillis) {
+                    liveEntries.add(entry);
+                    liveBytes += entry.length;
+                }
+            }
+            long deadBytes = totalBytes - liveBytes;
+            if (totalBytes == 0 || (double) deadBytes / totalBytes < MIN_DEAD_RATIO) {
+                return false;
+            }
+            List<Segment> oldSegments = new ArrayList<>(segments.values());
+            rollSegment();
+            Segment compacted = activeSegment;
+            Map<String, IndexEntry> compactedIndex = new HashMap<>();
+            for (IndexEntry entry : liveEntries) {
+                ByteBuffer record = entry.segment.read(entry.offset, entry.length);
+                byte[] bytes = new byte[entry.length];
+                record.get(bytes);
+                compactedIndex.put(entry.baseUrl, compacted.write(entry.baseUrl, bytes, entry.timestampMillis,
+                        entry.imageCount));
+            }
+            compacted.sync();
+            index.clear();
+            index.putAll(compactedIndex);
+            totalBytes = compacted.size;
+            // the copies are durable, the old segments can go
+            for (Segment segment : oldSegments) {
+                segments.remove(segment.id);
+                segment.delete();
+            }
+            LOGGER.info("Compacted the crawl result store: kept {} results, dropped {} bytes", liveEntries.size(),
+                    deadBytes);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method to get the number of stored results
+     * @return number of base urls having a stored result
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Method to flush the active segment and release the files of the store
+     * @throws IOException if the active segment cannot be flushed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (activeSegment != null) {
+                activeSegment.seal();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The crawl result store is closed");
+        }
+    }
+
+    /**
+     * Method to seal the active segment and start a new one
+     * @throws IOException if a segment cannot be created
+     */
+    private void rollSegment() throws IOException {
+        long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        if (activeSegment != null) {
+            activeSegment.seal();
+        }
+        activeSegment = Segment.create(directory, id);
+        segments.put(id, activeSegment);
+    }
+
+    /**
+     * Method to read the index files of the segments, oldest first so that newer records replace older ones. Index
+     * entries pointing past the end of their segment (a crash between the two writes) are ignored. Appends always go
+     * to a new segment, so a partially written segment is never appended to.
+     * @throws IOException if the directory cannot be listed
+     */
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - LOG_SUFFIX.length()));
+                    segments.put(id, new Segment(id, file, indexPath(directory, id), Files.size(file)));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("Ignoring the unexpected file {} in the crawl result store", file);
+                }
+            }
+        }
+        for (Segment segment : segments.values()) {
+            for (IndexEntry entry : segment.readIndex()) {
+                index.put(entry.baseUrl, entry);
+            }
+            totalBytes += segment.size;
+        }
+    }
+
+    private static Path indexPath(Path directory, long id) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, INDEX_SUFFIX));
+    }
+
+    /**
+     * Location of the latest record of a base url
+     */
+    private static final class IndexEntry {
+        private final String baseUrl;
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        private final long timestampMillis;
+        private final int imageCount;
+
+        private IndexEntry(String baseUrl, Segment segment, long offset, int length, long timestampMillis,
+                           int imageCount) {
+            this.baseUrl = baseUrl;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.timestampMillis = timestampMillis;
+            this.imageCount = imageCount;
+        }
+    }
+
+    /**
+     * A log file and its index file. Only the active segment has open writers, every segment is mapped read-only on
+     * its first read and remapped when a record past the mapped region is read.
+     */
+    private static final class Segment {
+        private final long id;
+        private final Path logPath;
+        private final Path indexPath;
+        private FileChannel logChannel;
+        private DataOutputStream indexOut;
+        private long size;
+        private MappedByteBuffer mapped;
+
+        private Segment(long id, Path logPath, Path indexPath, long size) {
+            this.id = id;
+            this.logPath = logPath;
+            this.indexPath = indexPath;
+            this.size = size;
+        }
+
+        private static Segment create(Path directory, long id) throws IOException {
+            Path logPath = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, LOG_SUFFIX));
+            Segment segment = new Segment(id, logPath, indexPath(directory, id), 0);
+            segment.logChannel = FileChannel.open(logPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            OutputStream indexFile = Files.newOutputStream(segment.indexPath, StandardOpenOption.CREATE_NEW);
+            segment.indexOut = new DataOutputStream(new BufferedOutputStream(indexFile));
+            return segment;
+        }
+
+        /**
+         * Method to append a record to the log and its entry to the index, the record first so that an index entry
+         * never points to data that was not written
+         */
+        private IndexEntry write(String baseUrl, byte[] record, long timestampMillis, int imageCount)
+                throws IOException {
+            long offset = size;
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                logChannel.write(buffer, offset + buffer.position());
+            }
+            size += record.length;
+            SegmentRecords.writeString(indexOut, baseUrl);
+            indexOut.writeLong(offset);
+            indexOut.writeInt(record.length);
+            indexOut.writeLong(timestampMillis);
+            indexOut.writeInt(imageCount);
+            indexOut.flush();
+            return new IndexEntry(baseUrl, this, offset, record.length, timestampMillis, imageCount);
+        }
+
+        private List<IndexEntry> readIndex() throws IOException {
+            List<IndexEntry> entries = new ArrayList<>();
+            if (!Files.exists(indexPath)) {
+                return entries;
+            }
+            long remaining = Files.size(indexPath);
+            try (InputStream indexFile = Files.newInputStream(indexPath);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(indexFile))) {
+                while (remaining >= INDEX_ENTRY_BYTES) {
+                    int urlLength = in.readInt();
+                    // checked against the rest of the file before allocating: a length out of range is a torn tail
+                    if (urlLength < 0 || urlLength > remaining - INDEX_ENTRY_BYTES) {
+                        LOGGER.warn("Ignoring the rest of the corrupted index {}", indexPath);
+                        break;
+                    }
+                    byte[] url = new byte[urlLength];
+                    in.readFully(url);
+                    IndexEntry entry = new IndexEntry(new String(url, StandardCharsets.UTF_8), this,
+                            in.readLong(), in.readInt(), in.readLong(), in.readInt());
+                    remaining -= INDEX_ENTRY_BYTES + urlLength;
+                    if (entry.offset >= 0 && entry.length >= 0 && entry.offset + entry.length <= size) {
+                        entries.add(entry);
+                    }
+                }
+            } catch (EOFException e) {
+                // end of the index, cut in the middle of an entry by a crash
+            }
+            return entries;
+        }
+
+        private synchronized ByteBuffer read(long offset, int length) throws IOException {
+            if (mapped == null || mapped.capacity() < offset + length) {
+                try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            ByteBuffer record = mapped.duplicate();
+            record.position((int) offset);
+            record.limit((int) offset + length);
+            return record.slice().asReadOnlyBuffer();
+        }
+
+        private void sync() throws IOException {
+            if (logChannel != null) {
+                logChannel.force(false);
+                indexOut.flush();
+            }
+        }
+
+        private void seal() throws IOException {
+            if (logChannel != null) {
+                sync();
+                logChannel.close();
+                indexOut.close();
+                logChannel = null;
+                indexOut = null;
+            }
+        }
+
+        private void delete() {
+            try {
+                seal();
+                // the index first, so that a segment left behind is ignored on the next startup
+                Files.deleteIfExists(indexPath);
+                // the mapping of the segment stays valid for the results already loaded from it
+                Files.deleteIfExists(logPath);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to delete the compacted segment {}", logPath, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.imagefinder.store;
+
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Binary layout of the records of the segment log. A record is
+ * [payload length][timestamp][base url][image count][(image url, category)...][crc32 of the payload],
+ * strings being written as their UTF-8 length followed by their bytes. The crc makes a record cut by a crash, or
+ * corrupted on disk, read as empty instead of as garbage.
+ */
+final class SegmentRecords {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentRecords.class);
+    private static final Category[] CATEGORIES = Category.values();
+
+    // payload length and crc surrounding the payload
+    static final int FRAMING_BYTES = 8;
+
+    private SegmentRecords() {
+    }
+
+    /**
+     * Method to encode a crawl result as a record
+     * @param baseUrl: base url of the crawl
+     * @param timestampMillis: time at which the result was crawled
+     * @param images: images of the crawl
+     * @return bytes of the record
+     */
+    static byte[] encode(String baseUrl, long timestampMillis, Collection<Image> images) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + images.size() * 96);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            // placeholder for the payload length
+            out.writeInt(0);
+            out.writeLong(timestampMillis);
+            writeString(out, baseUrl);
+            out.writeInt(images.size());
+            for (Image image : images) {
+                writeString(out, image.getUrl());
+                out.writeByte(image.getCategory() == null ? -1 : image.getCategory().ordinal());
+            }
+            out.writeInt(0);
+        } catch (IOException e) {
+            // a ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int payloadLength = record.capacity() - FRAMING_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, payloadLength);
+        record.putInt(0, payloadLength);
+        record.putInt(4 + payloadLength, (int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Method to decode the images of a record
+     * @param record: view of the record, its position is left untouched
+     * @return images of the record, empty if the record is corrupted
+     */
+    static List<Image> decodeImages(ByteBuffer record) {
+        ByteBuffer buffer = record.duplicate();
+        try {
+            int payloadLength = buffer.getInt();
+            if (payloadLength < 0 || payloadLength > buffer.remaining() - 4) {
+                LOGGER.warn("Skipping a truncated record of the crawl result store");
+                return Collections.emptyList();
+            }
+            byte[] payload = new byte[payloadLength];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payloadLength);
+            if ((int) crc.getValue() != buffer.getInt()) {
+                LOGGER.warn("Skipping a corrupted record of the crawl result store");
+                return Collections.emptyList();
+            }
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            in.getLong();
+            readString(in);
+            int imageCount = in.getInt();
+            if (imageCount < 0 || imageCount > in.remaining()) {
+                LOGGER.warn("Skipping an unreadable record of the crawl result store");
+                return Collections.emptyList();
+            }
+            List<Image> images = new ArrayList<>(imageCount);
+            for (int i = 0; i < imageCount; i++) {
+                String url = readString(in);
+                int category = in.get();
+                boolean knownCategory = category >= 0 && category < CATEGORIES.length;
+                images.add(new Image(url, knownCategory ? CATEGORIES[category] : null));
+            }
+            return images;
+        } catch (RuntimeException e) {
+            LOGGER.warn("Skipping an unreadable record of the crawl result store", e);
+            return Collections.emptyList();
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        // checked before allocating, a length beyond the buffer cannot be read anyway
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,217 @@
+package com.imagefinder.streaming;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the messages of a crawl to an asynchronous response as they are produced. Messages are queued by the crawl
+ * threads and written with the non-blocking servlet IO, so a slow client never blocks a crawl thread nor a container
+ * thread: the queue is drained whenever the container reports the connection as writable. The queue is bounded: a
+ * client too slow to keep up with the crawl overflows it and gets its response aborted, which cancels its submission.
+ */
+public class ResultStreamWriter implements WriteListener, AsyncListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultStreamWriter.class);
+    private static final int DEFAULT_MAX_PENDING_MESSAGES = Integer.getInteger("imagefinder.stream.maxPendingMessages",
+            10_000);
+
+    private final AsyncContext asyncContext;
+    private final StreamFormat format;
+    private final ServletOutputStream out;
+    // framed messages waiting for the connection to be writable
+    private final Queue<byte[]> pendingMessages = new ConcurrentLinkedQueue<>();
+    // size of the queue, which ConcurrentLinkedQueue only computes by walking it
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final int maxPendingMessages;
+    // guarded by this
+    private boolean finished;
+    private boolean completed;
+    // true if messages were written since the last flush
+    private boolean unflushed;
+    private volatile boolean closed;
+    // called if the response is closed before finish, e.g. when the client is gone
+    private volatile Runnable abortListener = () -> { };
+
+    /**
+     * Constructor for the ResultStreamWriter class, to be called on the container thread that started the async
+     * request
+     * @param asyncContext: context of the asynchronous request
+     * @param format: format of the messages
+     * @throws IOException if the output stream of the response cannot be opened
+     */
+    public ResultStreamWriter(AsyncContext asyncContext, StreamFormat format) throws IOException {
+        this(asyncContext, format, DEFAULT_MAX_PENDING_MESSAGES);
+    }
+
+    /**
+     * Constructor for the ResultStreamWriter class, to be called on the container thread that started the async
+     * request
+     * @param asyncContext: context of the asynchronous request
+     * @param format: format of the messages
+     * @param maxPendingMessages: largest number of messages waiting for the client before the response is aborted
+     * @throws IOException if the output stream of the response cannot be opened
+     */
+    public ResultStreamWriter(AsyncContext asyncContext, StreamFormat format, int maxPendingMessages)
+            throws IOException {
+        if (maxPendingMessages < 1) {
+            throw new IllegalArgumentException("At least one message must be allowed to wait for the client");
+        }
+        this.asyncContext = asyncContext;
+        this.format = format;
+        this.maxPendingMessages = maxPendingMessages;
+        this.out = asyncContext.getResponse().getOutputStream();
+        asyncContext.addListener(this);
+        this.out.setWriteListener(this);
+    }
+
+    /**
+     * Method to send a message to the client. The method never blocks, the message is written once the connection
+     * is writable. If too many messages already wait for the client, the response is aborted instead.
+     * @param event: type of the message
+     * @param json: message
+     */
+    public void send(String event, String json) {
+        if (closed) {
+            return;
+        }
+        if (pendingCount.incrementAndGet() > maxPendingMessages) {
+            pendingCount.decrementAndGet();
+            LOGGER.warn("Aborting a stream whose client did not read its last {} messages", maxPendingMessages);
+            close();
+            return;
+        }
+        pendingMessages.offer(format.frame(event, json).getBytes(StandardCharsets.UTF_8));
+        drain();
+    }
+
+    /**
+     * Method to send the last message and complete the response once everything is written
+     * @param event: type of the message
+     * @param json: message
+     */
+    public void finish(String event, String json) {
+        synchronized (this) {
+            if (finished || closed) {
+                return;
+            }
+            // queued and flagged at once, so that the response is never completed before this message is written. The
+            // last message is queued past the bound: it is the only one left to send.
+            pendingCount.incrementAndGet();
+            pendingMessages.offer(format.frame(event, json).getBytes(StandardCharsets.UTF_8));
+            finished = true;
+        }
+        drain();
+    }
+
+    /**
+     * Method to get notified if the response is closed before the last message is sent (client gone, timeout)
+     * @param listener: called at most once, on the thread that noticed the failure
+     */
+    public void onAbort(Runnable listener) {
+        this.abortListener = listener;
+    }
+
+    /**
+     * Method to check if the client is gone or the response is complete, in which case messages are dropped
+     * @return true if no more messages can be sent
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void onWritePossible() {
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable failure) {
+        LOGGER.debug("Streaming the results failed, the client is probably gone", failure);
+        close();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        closed = true;
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        LOGGER.warn("Streaming the results timed out");
+        close();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        onError(event.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // nothing to do
+    }
+
+    /**
+     * Method to write the queued messages while the connection is writable. The container calls onWritePossible
+     * again once a write that could not complete right away is done.
+     */
+    private synchronized void drain() {
+        if (closed) {
+            return;
+        }
+        try {
+            while (out.isReady()) {
+                byte[] message = pendingMessages.poll();
+                if (message != null) {
+                    pendingCount.decrementAndGet();
+                    out.write(message);
+                    unflushed = true;
+                } else if (finished) {
+                    complete();
+                    return;
+                } else if (unflushed) {
+                    // pushing the messages written so far to the client
+                    unflushed = false;
+                    out.flush();
+                } else {
+                    return;
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            onError(e);
+        }
+    }
+
+    private void close() {
+        boolean aborted;
+        synchronized (this) {
+            aborted = !closed && !finished;
+            closed = true;
+            pendingMessages.clear();
+            pendingCount.set(0);
+            complete();
+        }
+        if (aborted) {
+            abortListener.run();
+        }
+    }
+
+    private synchronized void complete() {
+        closed = true;
+        if (!completed) {
+            completed = true;
+            asyncContext.complete();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.imagefinder.streaming;
+
+import java.util.Locale;
+
+/**
+ * Formats in which the results of a crawl are streamed to the client
+ */
+public enum StreamFormat {
+    // one JSON object per line, read by fetch() in the UI
+    NDJSON("application/x-ndjson"),
+    // Server-Sent Events, read by an EventSource
+    SSE("text/event-stream");
+
+    private final String contentType;
+
+    StreamFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Method to frame a JSON message in this format
+     * @param event: type of the message, e.g. "image" or "done"
+     * @param json: message
+     * @return framed message
+     */
+    public String frame(String event, String json) {
+        if (this == SSE) {
+            return "event: " + event + "\ndata: " + json + "\n\n";
+        }
+        return json + "\n";
+    }
+
+    /**
+     * Method to pick the format requested by the client
+     * @param format: value of the format parameter, null if absent
+     * @param accept: value of the Accept header, null if absent
+     * @return SSE if requested explicitly or accepted by the client, NDJSON otherwise
+     */
+    public static StreamFormat fromRequest(String format, String accept) {
+        if (format != null) {
+            return "sse".equals(format.toLowerCase(Locale.ROOT)) ? SSE : NDJSON;
+        }
+        return accept != null && accept.contains(SSE.contentType) ? SSE : NDJSON;
+    }
+}
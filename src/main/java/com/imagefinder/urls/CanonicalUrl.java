@@ -0,0 +1,73 @@
+package com.imagefinder.urls;
+
+/**
+ * Result of the canonicalization of a URL: its canonical form, its host and origin, the key of its website and its
+ * fingerprint. The fingerprint identifies the webpage regardless of the spelling of the URL, it is the same for the
+ * www. and bare host and with or without a trailing slash.
+ */
+public final class CanonicalUrl {
+
+    private final String url;
+    private final String hostKey;
+    private final long fingerprint;
+    // bounds of the host within the canonical url, the origin ending where the path starts
+    private final int hostStart;
+    private final int hostEnd;
+    private final int pathStart;
+
+    CanonicalUrl(String url, String hostKey, long fingerprint, int hostStart, int hostEnd, int pathStart) {
+        this.url = url;
+        this.hostKey = hostKey;
+        this.fingerprint = fingerprint;
+        this.hostStart = hostStart;
+        this.hostEnd = hostEnd;
+        this.pathStart = pathStart;
+    }
+
+    /**
+     * Method to get the canonical form of the URL: lower case scheme and host, no default port, no fragment, a "/"
+     * path if it was empty and the path and query percent-encoded where needed
+     * @return canonical url
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Method to get the host of the URL
+     * @return lower case host, without the trailing dot of a fully qualified name nor the port
+     */
+    public String getHost() {
+        return url.substring(hostStart, hostEnd);
+    }
+
+    /**
+     * Method to get the origin of the URL, e.g. to locate the robots.txt file of its host
+     * @return lower case scheme://host[:port], the port only if it is not the default one of the scheme
+     */
+    public String getOrigin() {
+        return url.substring(0, pathStart);
+    }
+
+    /**
+     * Method to get the key of the website of the URL, used to check that two URLs belong to the same website
+     * @return lower case host without the www. prefix nor the port
+     */
+    public String getHostKey() {
+        return hostKey;
+    }
+
+    /**
+     * Method to get the fingerprint of the webpage, computed over the canonical form without the www. prefix of the
+     * host and without the trailing slash of the path
+     * @return 64-bit fingerprint
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
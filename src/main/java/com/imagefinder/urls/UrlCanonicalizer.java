@@ -0,0 +1,341 @@
+package com.imagefinder.urls;
+
+/**
+ * Single pass canonicalizer and validator of the absolute http(s) URLs found in the webpages. A URL is validated,
+ * canonicalized and fingerprinted in one scan over its chars, without java.net.URI/URL objects nor exceptions:
+ * - the scheme and host are lower cased, the trailing dot of the host and the default port are removed
+ * - the fragment is removed and an empty path becomes "/"
+ * - dot segments of the path are resolved
+ * - tabs and line breaks are removed, the percent-encoding escapes are upper cased and the chars not allowed in a
+ *   path or query (spaces, non ASCII chars, ...) are percent-encoded as UTF-8
+ * The fingerprint additionally ignores the www. prefix of the host and the trailing slash of the path, so that the
+ * different spellings of the same webpage are crawled once.
+ */
+public final class UrlCanonicalizer {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    // ASCII chars allowed as is in a path or query: unreserved, sub-delims, ':', '@', '/' and '?'
+    private static final boolean[] ALLOWED = new boolean[128];
+    private static final String WWW_PREFIX = "www.";
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ALLOWED[c] = true;
+            ALLOWED[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            ALLOWED[c] = true;
+        }
+        for (char c : "-._~!$&'()*+,;=:@/?".toCharArray()) {
+            ALLOWED[c] = true;
+        }
+    }
+
+    private UrlCanonicalizer() {
+    }
+
+    /**
+     * Method to validate and canonicalize an absolute URL
+     * @param url: absolute url, e.g. the resolved href of a hyperlink
+     * @return the canonical url, its host key and its fingerprint, null if the url is not a valid http(s) url
+     */
+    public static CanonicalUrl canonicalize(String url) {
+        if (url == null) {
+            return null;
+        }
+        int start = 0;
+        int end = url.length();
+        while (start < end && url.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && url.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int schemeEnd = schemeEnd(url, start, end);
+        if (schemeEnd < 0) {
+            return null;
+        }
+        boolean https = schemeEnd - start == 5;
+        int authorityStart = schemeEnd + 3;
+        StringBuilder out = new StringBuilder(end - start + 8).append(https ? "https://" : "http://");
+
+        // authority: host and port, the user info is not accepted
+        int authorityEnd = authorityStart;
+        while (authorityEnd < end) {
+            char c = url.charAt(authorityEnd);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            if (c == '@' || c == '\\') {
+                return null;
+            }
+            authorityEnd++;
+        }
+        int hostStart = out.length();
+        int portColon = appendHost(url, authorityStart, authorityEnd, out);
+        if (portColon == -2) {
+            return null;
+        }
+        int hostEnd = out.length();
+        if (portColon >= 0 && !appendPort(url, portColon + 1, authorityEnd, https, out)) {
+            return null;
+        }
+
+        // path and query, up to the fragment
+        int pathStart = out.length();
+        if (authorityEnd >= end || url.charAt(authorityEnd) != '/') {
+            out.append('/');
+        }
+        int queryStart = -1;
+        boolean dotSegments = false;
+        for (int i = authorityEnd; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == '#') {
+                break;
+            }
+            if (c == '\t' || c == '\n' || c == '\r') {
+                continue;
+            }
+            if (c == '?' && queryStart < 0) {
+                queryStart = out.length();
+                out.append('?');
+            } else if (c == '%') {
+                if (i + 2 < end && isHexDigit(url.charAt(i + 1)) && isHexDigit(url.charAt(i + 2))) {
+                    out.append('%').append(Character.toUpperCase(url.charAt(i + 1)))
+                            .append(Character.toUpperCase(url.charAt(i + 2)));
+                    i += 2;
+                } else {
+                    // a lone percent sign
+                    out.append("%25");
+                }
+            } else if (c < 128 && ALLOWED[c]) {
+                if (c == '.' && queryStart < 0 && out.charAt(out.length() - 1) == '/') {
+                    // a segment starting with a dot, possibly "." or ".."
+                    dotSegments = true;
+                }
+                out.append(c);
+            } else {
+                i = appendEncoded(url, i, end, out);
+            }
+        }
+        int pathEnd = queryStart < 0 ? out.length() : queryStart;
+        if (dotSegments) {
+            String path = removeDotSegments(out.substring(pathStart, pathEnd));
+            out.replace(pathStart, pathEnd, path);
+            pathEnd = pathStart + path.length();
+        }
+
+        // the fingerprint skips the www. prefix and the trailing slash of the path
+        int hostKeyStart = hasWwwPrefix(out, hostStart, hostEnd) ? hostStart + WWW_PREFIX.length() : hostStart;
+        int fingerprintPathEnd = pathEnd - pathStart > 1 && out.charAt(pathEnd - 1) == '/' ? pathEnd - 1 : pathEnd;
+        long hash = UrlFingerprint.start();
+        hash = UrlFingerprint.update(hash, out, 0, hostStart);
+        hash = UrlFingerprint.update(hash, out, hostKeyStart, fingerprintPathEnd);
+        hash = UrlFingerprint.update(hash, out, pathEnd, out.length());
+
+        // reusing the given string if it already is canonical, which is the common case
+        String canonical = start == 0 && end == url.length() && url.contentEquals(out) ? url : out.toString();
+        return new CanonicalUrl(canonical, out.substring(hostKeyStart, hostEnd), UrlFingerprint.finish(hash),
+                hostStart, hostEnd, pathStart);
+    }
+
+    /**
+     * Method to get the key of the website of a URL
+     * @param url: absolute url
+     * @return lower case host without the www. prefix, empty string if the url is not a valid http(s) url
+     */
+    public static String hostKey(String url) {
+        CanonicalUrl canonical = canonicalize(url);
+        return canonical == null ? "" : canonical.getHostKey();
+    }
+
+    /**
+     * Method to find the end of an http or https scheme followed by "://"
+     * @return index of the colon after the scheme, -1 if the url does not start with http:// or https://
+     */
+    private static int schemeEnd(String url, int start, int end) {
+        int colon;
+        if (end - start > 7 && url.regionMatches(true, start, "http", 0, 4)) {
+            colon = start + 4;
+            if (url.charAt(colon) == 's' || url.charAt(colon) == 'S') {
+                colon++;
+            }
+        } else {
+            return -1;
+        }
+        if (colon + 2 < end && url.charAt(colon) == ':' && url.charAt(colon + 1) == '/'
+                && url.charAt(colon + 2) == '/') {
+            return colon;
+        }
+        return -1;
+    }
+
+    /**
+     * Method to validate and append the lower case host of the authority
+     * @return index of the colon preceding the port, -1 if there is no port, -2 if the host is invalid
+     */
+    private static int appendHost(String url, int start, int end, StringBuilder out) {
+        int hostLength = out.length();
+        int portColon = -1;
+        if (start < end && url.charAt(start) == '[') {
+            // IPv6 literal
+            int close = url.indexOf(']', start);
+            if (close < 0 || close >= end || close == start + 1) {
+                return -2;
+            }
+            out.append('[');
+            for (int i = start + 1; i < close; i++) {
+                char c = Character.toLowerCase(url.charAt(i));
+                if (!isHexDigit(c) && c != ':' && c != '.') {
+                    return -2;
+                }
+                out.append(c);
+            }
+            out.append(']');
+            if (close + 1 < end) {
+                if (url.charAt(close + 1) != ':') {
+                    return -2;
+                }
+                portColon = close + 1;
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                char c = url.charAt(i);
+                if (c == ':') {
+                    portColon = i;
+                    break;
+                }
+                if (c >= 'A' && c <= 'Z') {
+                    c = (char) (c + ('a' - 'A'));
+                } else if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '-' && c != '.' && c != '_') {
+                    return -2;
+                }
+                out.append(c);
+            }
+            // the trailing dot of a fully qualified host name
+            if (out.length() > hostLength && out.charAt(out.length() - 1) == '.') {
+                out.setLength(out.length() - 1);
+            }
+        }
+        return out.length() > hostLength ? portColon : -2;
+    }
+
+    /**
+     * Method to validate the port of the authority and append it unless it is the default port of the scheme
+     * @return false if the port is invalid
+     */
+    private static boolean appendPort(String url, int start, int end, boolean https, StringBuilder out) {
+        if (end - start > 5) {
+            return false;
+        }
+        int port = 0;
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            port = port * 10 + (c - '0');
+        }
+        if (start == end || port == (https ? 443 : 80)) {
+            // an empty port means the default port
+            return true;
+        }
+        if (port == 0 || port > 65535) {
+            return false;
+        }
+        out.append(':').append(port);
+        return true;
+    }
+
+    /**
+     * Method to percent-encode the UTF-8 bytes of the char (or surrogate pair) at index i
+     * @return index of the last char consumed
+     */
+    private static int appendEncoded(String url, int i, int end, StringBuilder out) {
+        char c = url.charAt(i);
+        int codePoint = c;
+        if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(url.charAt(i + 1))) {
+            codePoint = Character.toCodePoint(c, url.charAt(i + 1));
+            i++;
+        } else if (Character.isSurrogate(c)) {
+            // a lone surrogate cannot be encoded, replacing it like browsers do
+            codePoint = 0xFFFD;
+        }
+        if (codePoint < 0x80) {
+            appendEscape(codePoint, out);
+        } else if (codePoint < 0x800) {
+            appendEscape(0xC0 | (codePoint >> 6), out);
+            appendEscape(0x80 | (codePoint & 0x3F), out);
+        } else if (codePoint < 0x10000) {
+            appendEscape(0xE0 | (codePoint >> 12), out);
+            appendEscape(0x80 | ((codePoint >> 6) & 0x3F), out);
+            appendEscape(0x80 | (codePoint & 0x3F), out);
+        } else {
+            appendEscape(0xF0 | (codePoint >> 18), out);
+            appendEscape(0x80 | ((codePoint >> 12) & 0x3F), out);
+            appendEscape(0x80 | ((codePoint >> 6) & 0x3F), out);
+            appendEscape(0x80 | (codePoint & 0x3F), out);
+        }
+        return i;
+    }
+
+    private static void appendEscape(int octet, StringBuilder out) {
+        out.append('%').append(HEX_DIGITS[octet >> 4]).append(HEX_DIGITS[octet & 0xF]);
+    }
+
+    /**
+     * Method to resolve the "." and ".." segments of a path (RFC 3986, section 5.2.4). Only called for the rare
+     * paths holding a segment that starts with a dot.
+     * @param path: path starting with "/"
+     * @return path without dot segments
+     */
+    static String removeDotSegments(String path) {
+        StringBuilder output = new StringBuilder(path.length());
+        int i = 0;
+        int length = path.length();
+        while (i < length) {
+            // i is always at a "/"
+            int next = path.indexOf('/', i + 1);
+            int segmentEnd = next < 0 ? length : next;
+            int segmentLength = segmentEnd - i - 1;
+            boolean last = next < 0;
+            if (segmentLength == 1 && path.charAt(i + 1) == '.') {
+                if (last) {
+                    output.append('/');
+                }
+            } else if (segmentLength == 2 && path.charAt(i + 1) == '.' && path.charAt(i + 2) == '.') {
+                int previous = output.lastIndexOf("/");
+                output.setLength(Math.max(previous, 0));
+                if (last) {
+                    output.append('/');
+                }
+            } else {
+                output.append(path, i, segmentEnd);
+            }
+            i = segmentEnd;
+        }
+        return output.length() == 0 ? "/" : output.toString();
+    }
+
+    private static boolean hasWwwPrefix(CharSequence out, int hostStart, int hostEnd) {
+        if (hostEnd - hostStart <= WWW_PREFIX.length()) {
+            return false;
+        }
+        for (int i = 0; i < WWW_PREFIX.length(); i++) {
+            if (out.charAt(hostStart + i) != WWW_PREFIX.charAt(i)) {
+                return false;
+            }
+        }
+        // only if what remains is still a domain name, e.g. not for www.localhost
+        for (int i = hostStart + WWW_PREFIX.length(); i < hostEnd; i++) {
+            if (out.charAt(i) == '.') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -0,0 +1,73 @@
+package com.imagefinder.urls;
+
+/**
+ * Utility class to compute 64-bit fingerprints of URLs. A fingerprint is used in place of the URL string wherever
+ * we only need to know whether two URLs are equal, e.g. in the set of visited URLs of a crawl. With 64 bits the
+ * probability of a collision stays negligible (~3e-8 for a million URLs).
+ */
+public final class UrlFingerprint {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private UrlFingerprint() {
+    }
+
+    /**
+     * Method to compute the fingerprint of a URL. FNV-1a over the UTF-16 chars followed by the murmur3 finalizer,
+     * so that all the 64 bits are well distributed and can be used both for segment and slot selection.
+     * @param url: url to fingerprint
+     * @return 64-bit fingerprint of the url
+     */
+    public static long of(CharSequence url) {
+        return mix(update(FNV_OFFSET_BASIS, url, 0, url.length()));
+    }
+
+    /**
+     * Method to start an incremental fingerprint, to hash a URL made of several ranges of chars without copying them
+     * @return initial state of the fingerprint
+     */
+    static long start() {
+        return FNV_OFFSET_BASIS;
+    }
+
+    /**
+     * Method to add a range of chars to an incremental fingerprint
+     * @param hash: state of the fingerprint
+     * @param chars: chars to add
+     * @param from: index of the first char to add
+     * @param to: index after the last char to add
+     * @return new state of the fingerprint
+     */
+    static long update(long hash, CharSequence chars, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hash ^= chars.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Method to complete an incremental fingerprint. Hashing a URL in several ranges gives the same fingerprint as
+     * hashing it at once with of.
+     * @param hash: state of the fingerprint
+     * @return fingerprint
+     */
+    static long finish(long hash) {
+        return mix(hash);
+    }
+
+    /**
+     * murmur3 64-bit finalizer
+     * @param hash: hash to mix
+     * @return mixed hash
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,184 @@
+package com.imagefinder.urls;
+
+/**
+ * Concurrent set of 64-bit URL fingerprints. The set is split into lock striped segments, each of them an open
+ * addressing hash table (linear probing) over a primitive long array, so an entry costs 8-16 bytes instead of the
+ * String, its char array and the ConcurrentHashMap node of a set of URL strings.
+ * Threads adding fingerprints of different segments never contend with each other.
+ */
+public class UrlFingerprintSet {
+
+    // number of segments, has to be a power of two
+    private static final int SEGMENT_COUNT = 64;
+    // number of low bits of the fingerprint used to select the segment
+    private static final int SEGMENT_BITS = Integer.numberOfTrailingZeros(SEGMENT_COUNT);
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+    // value marking an empty slot of a segment table
+    private static final long EMPTY = 0L;
+    // fingerprint stored in place of the (valid but unlikely) fingerprint 0, which would otherwise mark an empty slot
+    private static final long ZERO_FINGERPRINT = 0x9e3779b97f4a7c15L;
+
+    private final Segment[] segments;
+
+    /**
+     * Constructor to create an empty set sized for a small crawl
+     */
+    public UrlFingerprintSet() {
+        this(SEGMENT_COUNT * MIN_SEGMENT_CAPACITY / 2);
+    }
+
+    /**
+     * Constructor to create an empty set
+     * @param expectedSize: number of fingerprints the set is expected to hold, used to size the tables up front
+     */
+    public UrlFingerprintSet(int expectedSize) {
+        int segmentCapacity = tableSizeFor(Math.max(MIN_SEGMENT_CAPACITY, 2 * (expectedSize / SEGMENT_COUNT + 1)));
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * Method to add the fingerprint of a URL to the set
+     * @param url: url to add
+     * @return true if the url was not part of the set before, false otherwise
+     */
+    public boolean add(String url) {
+        return add(UrlFingerprint.of(url));
+    }
+
+    /**
+     * Method to check if the fingerprint of a URL is part of the set
+     * @param url: url to check
+     * @return true if the url has been added before
+     */
+    public boolean contains(String url) {
+        return contains(UrlFingerprint.of(url));
+    }
+
+    /**
+     * Method to add a fingerprint to the set
+     * @param fingerprint: fingerprint to add
+     * @return true if the fingerprint was not part of the set before, false otherwise
+     */
+    public boolean add(long fingerprint) {
+        fingerprint = fingerprint == EMPTY ? ZERO_FINGERPRINT : fingerprint;
+        return segmentFor(fingerprint).add(fingerprint);
+    }
+
+    /**
+     * Method to check if a fingerprint is part of the set
+     * @param fingerprint: fingerprint to check
+     * @return true if the fingerprint has been added before
+     */
+    public boolean contains(long fingerprint) {
+        fingerprint = fingerprint == EMPTY ? ZERO_FINGERPRINT : fingerprint;
+        return segmentFor(fingerprint).contains(fingerprint);
+    }
+
+    /**
+     * Method to get the number of fingerprints in the set
+     * @return number of fingerprints
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Method to estimate the heap used by the tables of the set
+     * @return estimated size in bytes
+     */
+    public long estimatedSizeInBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.capacity() * (long) Long.BYTES;
+        }
+        return bytes;
+    }
+
+    private Segment segmentFor(long fingerprint) {
+        return segments[(int) (fingerprint & (SEGMENT_COUNT - 1))];
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        return Math.max(size, MIN_SEGMENT_CAPACITY);
+    }
+
+    /**
+     * A single open addressing table. All access is synchronized on the segment, which keeps lookups cheap and
+     * makes resizing trivial.
+     */
+    private static final class Segment {
+        private long[] table;
+        private int size;
+
+        private Segment(int capacity) {
+            this.table = new long[capacity];
+        }
+
+        private synchronized boolean add(long fingerprint) {
+            int mask = table.length - 1;
+            int slot = slotFor(fingerprint, mask);
+            while (table[slot] != EMPTY) {
+                if (table[slot] == fingerprint) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = fingerprint;
+            size++;
+            // keeping the load factor at most 0.75 to bound the probe sequences
+            if (size * 4L > table.length * 3L) {
+                resize();
+            }
+            return true;
+        }
+
+        private synchronized boolean contains(long fingerprint) {
+            int mask = table.length - 1;
+            int slot = slotFor(fingerprint, mask);
+            while (table[slot] != EMPTY) {
+                if (table[slot] == fingerprint) {
+                    return true;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        private synchronized int size() {
+            return size;
+        }
+
+        private synchronized int capacity() {
+            return table.length;
+        }
+
+        private void resize() {
+            long[] oldTable = table;
+            long[] newTable = new long[oldTable.length * 2];
+            int mask = newTable.length - 1;
+            for (long fingerprint : oldTable) {
+                if (fingerprint != EMPTY) {
+                    int slot = slotFor(fingerprint, mask);
+                    while (newTable[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    newTable[slot] = fingerprint;
+                }
+            }
+            table = newTable;
+        }
+
+        private static int slotFor(long fingerprint, int mask) {
+            // the low bits select the segment, so the slot is taken from the bits above them
+            return (int) (fingerprint >>> SEGMENT_BITS) & mask;
+        }
+    }
+}
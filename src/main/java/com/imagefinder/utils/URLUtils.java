@@ -1,11 +1,9 @@
 package com.imagefinder.utils;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.imagefinder.urls.CanonicalUrl;
+import com.imagefinder.urls.UrlCanonicalizer;
 
 import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
 
 /**
@@ -13,46 +11,89 @@ import java.net.URL;
  */
 public class URLUtils {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(URLUtils.class);
-
     /**
-     * Method to check two URLs are from the same domain
+     * Method to check two URLs are from the same domain, regardless of the case of the hosts and of their www. prefix
      * @param url1: first url
      * @param url2: second url
      * @return return true/false based on the URL comparison.
      */
     public static boolean isSameDomain(String url1, String url2) {
-        try {
-            URI baseURI = new URI(url1);
-            URI targetURI = new URI(url2);
-            return baseURI.getHost().equalsIgnoreCase(targetURI.getHost());
-        } catch (URISyntaxException e) {
-            return false; // Invalid URL format
-        }
-        catch(NullPointerException e){
-            return false;
-        }
-        catch(Exception e){
-            LOGGER.error("Error while comparing the domains of the URLs: {} and {}", url1, url2,e);
-            return false;
-        }
+        CanonicalUrl canonical1 = UrlCanonicalizer.canonicalize(url1);
+        CanonicalUrl canonical2 = UrlCanonicalizer.canonicalize(url2);
+        return canonical1 != null && canonical2 != null && canonical1.getHostKey().equals(canonical2.getHostKey());
     }
 
     /**
      * Method to check the validity of the URL
      * @param url: url to check
-     * @return returns true/false based on the validity of the URL
+     * @return returns true/false based on the validity of the URL as an absolute http(s) url
      */
     public static boolean isValidURL(String url) {
+        return UrlCanonicalizer.canonicalize(url) != null;
+    }
+
+    /**
+     * Method to get the host of a URL
+     * @param url: url to extract the host from
+     * @return host of the url in lower case (see UrlCanonicalizer), empty string if the url is not a valid http(s)
+     * url
+     */
+    public static String getHost(String url) {
+        CanonicalUrl canonical = UrlCanonicalizer.canonicalize(url);
+        return canonical == null ? "" : canonical.getHost();
+    }
+
+    /**
+     * Method to get the origin of a URL, e.g. to locate the robots.txt file of its host
+     * @param url: absolute url
+     * @return scheme://host[:port] in lower case, without the default port; null if the url is not a valid http(s)
+     * url
+     */
+    public static String getOrigin(String url) {
+        CanonicalUrl canonical = UrlCanonicalizer.canonicalize(url);
+        return canonical == null ? null : canonical.getOrigin();
+    }
+
+    /**
+     * Method to resolve a URL found in a webpage against the base URI of the webpage, with the same rules as Jsoup's
+     * absUrl so that the streaming parsers return exactly what the DOM based parsers return
+     * @param baseUrl: base URI of the webpage
+     * @param relUrl: url as written in the webpage, possibly relative
+     * @return absolute url, empty string if it cannot be resolved
+     */
+    public static String resolve(String baseUrl, String relUrl) {
         try {
-            new URL(url).toURI();
-            return true;
-        } catch (MalformedURLException | URISyntaxException e) {
-            return false;
-        } catch(Exception e){
-            LOGGER.error("Exception while checking validity of the URL: ",url,e);
-            return false;
+            URL base;
+            try {
+                base = new URL(baseUrl);
+            } catch (MalformedURLException e) {
+                // the base is unusable, but the url may be absolute on its own
+                return new URL(relUrl).toExternalForm();
+            }
+            if (relUrl.startsWith("?")) {
+                // java.net.URL resolves /path/file + ?query to /path/?query instead of /path/file?query
+                relUrl = base.getPath() + relUrl;
+            }
+            if (relUrl.indexOf('.') == 0 && base.getFile().indexOf('/') != 0) {
+                // java.net.URL resolves //host + ./file to //host/./file instead of //host/file
+                base = new URL(base.getProtocol(), base.getHost(), base.getPort(), "/" + base.getFile());
+            }
+            return new URL(base, relUrl).toExternalForm();
+        } catch (MalformedURLException e) {
+            return "";
         }
     }
 
+    /**
+     * Method to normalize a URL so that the different spellings of the same webpage map to the same key: the
+     * scheme and host are lower cased, the default port and the fragment are removed, an empty path becomes "/" and
+     * the path and query are percent-encoded where needed (see UrlCanonicalizer)
+     * @param url: url to normalize
+     * @return normalized url, the url itself if it is malformed
+     */
+    public static String normalize(String url) {
+        CanonicalUrl canonical = UrlCanonicalizer.canonicalize(url);
+        return canonical == null ? url : canonical.getUrl();
+    }
+
 }
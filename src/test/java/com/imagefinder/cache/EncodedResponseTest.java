@@ -0,0 +1,142 @@
+package com.imagefinder.cache;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Checks that crawl results are encoded as UTF-8 JSON with a gzip variant and an ETag, and that the cache encodes
+ * the data of an entry once, however many times it is served
+ */
+public class EncodedResponseTest {
+
+    @Test
+    public void encodesTheImagesAsJsonWithAGzipVariantAndAnEtag() throws IOException {
+        CrawlDataStorage<Image> images = imagesOf(50);
+        Image probed = new Image("https://example.com/café.png", Category.LOGO);
+        probed.setMetadata("image/png", 16, 16, 512L);
+        images.storeData(probed);
+
+        EncodedResponse encoded = EncodedResponse.encode(images.retrieveData());
+        JsonArray array = new JsonParser().parse(new String(encoded.getJson(), StandardCharsets.UTF_8))
+                .getAsJsonArray();
+        Assert.assertEquals(51, array.size());
+        JsonObject logo = null;
+        for (int i = 0; i < array.size(); i++) {
+            JsonObject image = array.get(i).getAsJsonObject();
+            // the fingerprint is not serialized, nor the metadata that was not probed
+            Assert.assertFalse(image.has("fingerprint"));
+            if (probed.getUrl().equals(image.get("url").getAsString())) {
+                logo = image;
+            } else {
+                Assert.assertFalse(image.has("width"));
+            }
+        }
+        Assert.assertNotNull(logo);
+        Assert.assertEquals("LOGO", logo.get("category").getAsString());
+        Assert.assertEquals(16, logo.get("width").getAsInt());
+
+        Assert.assertNotNull(encoded.getGzip());
+        Assert.assertTrue(encoded.getGzip().length < encoded.getJson().length);
+        Assert.assertArrayEquals(encoded.getJson(), gunzip(encoded.getGzip()));
+        Assert.assertEquals(encoded.getJson().length + encoded.getGzip().length, encoded.byteSize());
+
+        // the ETag only depends on the bytes of the body
+        Assert.assertEquals(encoded.getEtag(), EncodedResponse.encode(images.retrieveData()).getEtag());
+        Assert.assertNotEquals(encoded.getEtag(), EncodedResponse.encode(imagesOf(50).retrieveData()).getEtag());
+        Assert.assertTrue(encoded.getEtag().matches("\"[0-9a-f]{32}\""));
+        // the gzipped representation has an ETag of its own
+        Assert.assertEquals(encoded.getEtag().replace("\"", "") + "-gzip", encoded.getEtag(true).replace("\"", ""));
+        Assert.assertEquals(encoded.getEtag(), encoded.getEtag(false));
+    }
+
+    @Test
+    public void smallBodiesAreNotGzipped() {
+        EncodedResponse encoded = EncodedResponse.encode(imagesOf(1).retrieveData());
+        Assert.assertNull(encoded.getGzip());
+        Assert.assertEquals("[]", new String(EncodedResponse.encode(Collections.emptyList()).getJson(),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void matchesTheConditionalAndEncodingHeaders() {
+        EncodedResponse encoded = EncodedResponse.encode(imagesOf(3).retrieveData());
+        String etag = encoded.getEtag();
+        Assert.assertTrue(encoded.matches(etag, false));
+        Assert.assertTrue(encoded.matches("\"other\", W/" + etag, false));
+        Assert.assertTrue(encoded.matches("*", false));
+        Assert.assertFalse(encoded.matches("\"other\"", false));
+        Assert.assertFalse(encoded.matches(null, false));
+
+        // a client only holds the representation it was served
+        EncodedResponse gzipped = EncodedResponse.encode(imagesOf(50).retrieveData());
+        Assert.assertTrue(gzipped.matches(gzipped.getEtag(true), true));
+        Assert.assertFalse(gzipped.matches(gzipped.getEtag(false), true));
+        Assert.assertFalse(gzipped.matches(gzipped.getEtag(true), false));
+
+        Assert.assertTrue(EncodedResponse.acceptsGzip("gzip, deflate, br"));
+        Assert.assertTrue(EncodedResponse.acceptsGzip("br;q=1.0, GZIP;q=0.5"));
+        Assert.assertFalse(EncodedResponse.acceptsGzip("gzip;q=0, deflate"));
+        Assert.assertFalse(EncodedResponse.acceptsGzip("deflate, br"));
+        Assert.assertFalse(EncodedResponse.acceptsGzip(null));
+    }
+
+    @Test
+    public void cacheEncodesTheDataOfAnEntryOnce() {
+        LocalCache cache = new LocalCache(1_000, TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1), null);
+        String url = "https://example.com";
+        CrawlDataStorage<Image> cached = imagesOf(50);
+        cache.addData(url, cached);
+        Assert.assertEquals(0, cache.getEncodedBytes());
+
+        EncodedResponse encoded = cache.getEncodedData(url, cache.getData(url));
+        Assert.assertSame(encoded, cache.getEncodedData(url, cache.getData(url)));
+        Assert.assertEquals(encoded.byteSize(), cache.getEncodedBytes());
+
+        // data that is not the cached data of the url, e.g. partial data, is not kept
+        CrawlDataStorage<Image> partial = imagesOf(2);
+        EncodedResponse partialEncoded = cache.getEncodedData(url, partial);
+        Assert.assertNotSame(partialEncoded, cache.getEncodedData(url, partial));
+        Assert.assertEquals(encoded.byteSize(), cache.getEncodedBytes());
+
+        // a new crawl result replaces the body of the previous one
+        cache.addData(url, imagesOf(10));
+        Assert.assertEquals(0, cache.getEncodedBytes());
+        Assert.assertNotEquals(encoded.getEtag(), cache.getEncodedData(url, cache.getData(url)).getEtag());
+    }
+
+    private static CrawlDataStorage<Image> imagesOf(int count) {
+        CrawlDataStorage<Image> images = new ConcurrentImageStorage();
+        for (int i = 0; i < count; i++) {
+            images.storeData(new Image("https://example.com/images/" + count + "/" + i + ".jpg", Category.GENERAL));
+        }
+        return images;
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,147 @@
+package com.imagefinder.cache;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the expiry of the cache entries on a clock of the test, the bound on the weight of the cache and the
+ * background refresh of the expired entries
+ */
+public class LocalCacheTest {
+
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_STALE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+
+    @Test
+    public void entryIsServedStaleUntilItsStaleLimit() {
+        LocalCache cache = new LocalCache(1_000, TTL_MILLIS, MAX_STALE_MILLIS, null, now::get);
+        String url = "https://example.com";
+        CrawlDataStorage<Image> images = imagesOf("first", 10);
+        cache.addData(url, images);
+        Assert.assertTrue(cache.isFresh(url));
+
+        now.addAndGet(TTL_MILLIS + 1);
+        Assert.assertFalse(cache.isFresh(url));
+        Assert.assertSame(images, cache.getData(url));
+
+        now.addAndGet(MAX_STALE_MILLIS);
+        Assert.assertNull(cache.getData(url));
+        Assert.assertFalse(cache.isVisited(url));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void spellingsOfAUrlShareOneEntry() {
+        LocalCache cache = new LocalCache(1_000, TTL_MILLIS, MAX_STALE_MILLIS, null, now::get);
+        CrawlDataStorage<Image> images = imagesOf("shared", 10);
+        cache.addData("http://Example.com", images);
+        Assert.assertSame(images, cache.getData("http://example.com/"));
+        Assert.assertTrue(cache.isVisited("HTTP://example.com:80/"));
+        Assert.assertTrue(cache.isFresh("http://example.com/#top"));
+        Assert.assertSame(cache.getEncodedData("http://example.com", images),
+                cache.getEncodedData("http://example.com/", images));
+
+        cache.addData("http://example.com/", imagesOf("replaced", 5));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(5, cache.getWeight());
+    }
+
+    @Test
+    public void evictionKeepsTheWeightWithinItsBound() {
+        LocalCache cache = new LocalCache(100, TTL_MILLIS, MAX_STALE_MILLIS, null, now::get);
+        cache.addData("https://popular.example.com", imagesOf("popular", 10));
+        for (int i = 0; i < 10; i++) {
+            cache.getData("https://popular.example.com");
+        }
+        for (int i = 0; i < 50; i++) {
+            cache.addData("https://site" + i + ".example.com", imagesOf("site" + i, 10));
+            Assert.assertTrue(cache.getWeight() <= 100);
+        }
+        Assert.assertEquals(10, cache.size());
+        Assert.assertNotNull(cache.getData("https://popular.example.com"));
+
+        // a large cache only samples a few entries per eviction
+        LocalCache large = new LocalCache(1_000, TTL_MILLIS, MAX_STALE_MILLIS, null, now::get);
+        for (int i = 0; i < 20_000; i++) {
+            large.addData("https://site" + i + ".example.com", imagesOf("site" + i, 1));
+        }
+        Assert.assertEquals(1_000, large.getWeight());
+        Assert.assertEquals(1_000, large.size());
+    }
+
+    @Test
+    public void entriesPastTheirStaleLimitAreEvictedFirst() {
+        LocalCache cache = new LocalCache(20, TTL_MILLIS, MAX_STALE_MILLIS, null, now::get);
+        cache.addData("https://old.example.com", imagesOf("old", 10));
+        for (int i = 0; i < 10; i++) {
+            cache.getData("https://old.example.com");
+        }
+        now.addAndGet(TTL_MILLIS + MAX_STALE_MILLIS + 1);
+        cache.addData("https://fresh.example.com", imagesOf("fresh", 10));
+        cache.addData("https://new.example.com", imagesOf("new", 10));
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotNull(cache.getData("https://fresh.example.com"));
+        Assert.assertNotNull(cache.getData("https://new.example.com"));
+    }
+
+    @Test
+    public void expiredEntryIsRefreshedOnceInTheBackground() throws InterruptedException {
+        LocalCache cache = new LocalCache(1_000, TTL_MILLIS, MAX_STALE_MILLIS, null, now::get);
+        String url = "https://example.com";
+        CrawlDataStorage<Image> stale = imagesOf("stale", 10);
+        CrawlDataStorage<Image> refreshed = imagesOf("refreshed", 12);
+        cache.addData(url, stale);
+        now.addAndGet(TTL_MILLIS + 1);
+
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadReleased = new CountDownLatch(1);
+        cache.refreshInBackground(url, () -> {
+            loads.incrementAndGet();
+            loadStarted.countDown();
+            try {
+                loadReleased.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return refreshed;
+        });
+        Assert.assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+        // a refresh is already running
+        cache.refreshInBackground(url, () -> {
+            loads.incrementAndGet();
+            return refreshed;
+        });
+        Assert.assertSame(stale, cache.getData(url));
+
+        loadReleased.countDown();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (cache.getData(url) != refreshed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertSame(refreshed, cache.getData(url));
+        Assert.assertTrue(cache.isFresh(url));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(12, cache.getWeight());
+    }
+
+    private static CrawlDataStorage<Image> imagesOf(String prefix, int count) {
+        CrawlDataStorage<Image> images = new ConcurrentImageStorage();
+        for (int i = 0; i < count; i++) {
+            images.storeData(new Image("https://example.com/" + prefix + "/" + i + ".jpg", Category.GENERAL));
+        }
+        return images;
+    }
+}
@@ -0,0 +1,84 @@
+package com.imagefinder.cache;
+
+import com.imagefinder.fetcher.FetchResponse;
+import com.imagefinder.htmlparsers.PageTags;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that the page cache stays within its bound under concurrent use and evicts the webpages that were not used
+ * for the longest time
+ */
+public class PageCacheTest {
+
+    @Test
+    public void evictsTheLeastRecentlyUsedWebpages() throws InterruptedException {
+        PageCache cache = new PageCache(10);
+        for (int i = 0; i < 10; i++) {
+            put(cache, "https://example.com/" + i);
+        }
+        Thread.sleep(1);
+        // used after every other webpage was cached
+        Assert.assertNotNull(cache.get("https://example.com/0"));
+        for (int i = 10; i < 15; i++) {
+            put(cache, "https://example.com/" + i);
+        }
+        Assert.assertEquals(10, cache.size());
+        Assert.assertNotNull(cache.get("https://example.com/0"));
+        for (int i = 10; i < 15; i++) {
+            Assert.assertNotNull(cache.get("https://example.com/" + i));
+        }
+    }
+
+    @Test
+    public void checkingIfAResponseIsCacheableIsNotAUse() throws InterruptedException {
+        PageCache cache = new PageCache(2);
+        put(cache, "https://example.com/old");
+        Thread.sleep(1);
+        put(cache, "https://example.com/recent");
+        Thread.sleep(1);
+        FetchResponse withoutValidators = new FetchResponse("https://example.com/old", 200,
+                Collections.<String, String>emptyMap(), new byte[0], false, 0);
+        Assert.assertTrue(cache.isCacheable("https://example.com/old", withoutValidators));
+        Assert.assertFalse(cache.isCacheable("https://example.com/other", withoutValidators));
+        put(cache, "https://example.com/new");
+        Assert.assertNull(cache.get("https://example.com/old"));
+        Assert.assertNotNull(cache.get("https://example.com/recent"));
+    }
+
+    @Test
+    public void staysWithinItsBoundUnderConcurrentUse() throws Exception {
+        PageCache cache = new PageCache(100);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            writers.add(threads.submit(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    String url = "https://example.com/" + thread + "/" + i;
+                    put(cache, url);
+                    cache.get(url);
+                    cache.get("https://example.com/" + thread + "/" + (i / 2));
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        threads.shutdown();
+        Assert.assertEquals(100, cache.size());
+    }
+
+    private static void put(PageCache cache, String url) {
+        FetchResponse response = new FetchResponse(url, 200, Collections.singletonMap("etag", "\"v1\""),
+                new byte[0], false, 0);
+        cache.put(url, response, new PageTags(url));
+    }
+}
@@ -0,0 +1,272 @@
+package com.imagefinder.checkpoint;
+
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.jobs.CrawlJob;
+import com.imagefinder.jobs.CrawlJobManager;
+import com.imagefinder.jobs.CrawlSubmission;
+import com.imagefinder.jobs.JobStatus;
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the checkpoint of a crawl recovers its pending webpages, visited urls and images, and that a crawl job
+ * interrupted by a restart resumes under its id without fetching again the webpages it was done with
+ */
+public class CrawlCheckpointTest {
+
+    private static final int SUBPAGES = 20;
+    // subpages served before the website stops answering, as if the node crashed while fetching the next ones
+    private static final int PAGES_BEFORE_CRASH = 5;
+    private static final long SYNC_INTERVAL_MILLIS = 20;
+
+    static {
+        // the crawl results cached by the spawners are not persisted to disk by the tests
+        System.setProperty("imagefinder.store.dir", "");
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledPageFetcher fetcher;
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+    private final AtomicInteger subpageRequests = new AtomicInteger();
+    private final AtomicInteger blockedRequests = new AtomicInteger();
+    // released once the node "crashed", letting the blocked requests respond to nobody
+    private final CountDownLatch crashed = new CountDownLatch(1);
+    private final Set<String> servedBeforeCrash = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Set<String> requestedAfterResume = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private volatile boolean resumed;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(new DaemonThreadFactory("test-server-")));
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (resumed) {
+                requestedAfterResume.add(path);
+            }
+            if ("/".equals(path)) {
+                StringBuilder html = new StringBuilder("<html><body><img src='/home.png'>");
+                for (int i = 0; i < SUBPAGES; i++) {
+                    html.append("<a href='/page").append(i).append("'>page</a>");
+                }
+                respond(exchange, html.append("</body></html>").toString());
+                return;
+            }
+            if (!resumed && subpageRequests.incrementAndGet() > PAGES_BEFORE_CRASH) {
+                blockedRequests.incrementAndGet();
+                await(crashed);
+            }
+            boolean beforeCrash = crashed.getCount() > 0;
+            respond(exchange, "<html><body><img src='" + path + ".png'></body></html>");
+            if (beforeCrash) {
+                servedBeforeCrash.add(path);
+            }
+        });
+        server.start();
+        // a base url of its own, so that the crawl is not served from the results cached by the other tests
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/?run=" + System.nanoTime();
+        fetcher = new PooledPageFetcher(new FetcherConfig(5000, 5000, 1024 * 1024, 4, 4, "test"));
+        crawlExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("test-timer-"));
+    }
+
+    @After
+    public void tearDown() {
+        crashed.countDown();
+        server.stop(0);
+        fetcher.shutdown();
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void recoveredCheckpointHoldsThePendingPagesAndImages() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        CrawlBudget budget = new CrawlBudget(3, 100, 0, 50, 0);
+        CheckpointStore store = CheckpointStore.open(directory, SYNC_INTERVAL_MILLIS);
+        CrawlCheckpoint checkpoint = store.create("job-1", "https://example.com", budget);
+        checkpoint.recordPage("https://example.com", 0, 0);
+        checkpoint.recordPage("https://example.com/a", 1, 2.5);
+        checkpoint.recordPage("https://example.com/b", 1, -1);
+        checkpoint.recordImage(new Image("https://example.com/logo.png", Category.LOGO));
+        checkpoint.recordPageDone("https://example.com");
+        checkpoint.recordPage("https://example.com/a/c", 2, 0.5);
+        checkpoint.recordPageDone("https://example.com/a");
+        // a checkpoint finished within the interval never creates its file
+        store.create("job-2", "https://example.org", budget).finish();
+        store.close();
+        Assert.assertEquals(0, store.getQueuedRecords());
+        Assert.assertEquals(Collections.singletonList("job-1.ckpt"), checkpointFiles(directory));
+
+        // a batch cut by a crash is ignored, along with everything after it
+        Path file = directory.resolve("job-1.ckpt");
+        Files.write(file, new byte[]{0, 0, 0, 40, 2, 1}, StandardOpenOption.APPEND);
+
+        CheckpointStore reopened = CheckpointStore.open(directory, SYNC_INTERVAL_MILLIS);
+        List<CrawlCheckpoint> recovered = reopened.recover();
+        Assert.assertEquals(1, recovered.size());
+        CrawlCheckpoint interrupted = recovered.get(0);
+        Assert.assertTrue(interrupted.isResumed());
+        Assert.assertEquals("job-1", interrupted.getCrawlId());
+        Assert.assertEquals("https://example.com", interrupted.getBaseUrl());
+        Assert.assertEquals(budget, interrupted.getBudget());
+        Assert.assertEquals(2, interrupted.getCompletedPages());
+        Assert.assertEquals(4, interrupted.getVisitedUrls().size());
+        List<String> pending = new ArrayList<>();
+        for (CrawlCheckpoint.Page page : interrupted.getPendingPages()) {
+            pending.add(page.getUrl() + "@" + page.getDepth() + "/" + page.getPriority());
+        }
+        Assert.assertEquals(Arrays.asList("https://example.com/b@1/-1.0", "https://example.com/a/c@2/0.5"),
+                pending);
+        Assert.assertEquals(Collections.singletonList(new Image("https://example.com/logo.png", Category.LOGO)),
+                interrupted.getImages());
+        Assert.assertEquals(Category.LOGO, interrupted.getImages().get(0).getCategory());
+
+        // the resumed crawl appends after the valid records, then its file goes once it is finished
+        interrupted.recordPageDone("https://example.com/b");
+        reopened.close();
+        CheckpointStore again = CheckpointStore.open(directory, SYNC_INTERVAL_MILLIS);
+        CrawlCheckpoint resumedAgain = again.recover().get(0);
+        Assert.assertEquals(3, resumedAgain.getCompletedPages());
+        Assert.assertEquals(1, resumedAgain.getPendingPages().size());
+        resumedAgain.finish();
+        again.close();
+        Assert.assertTrue(checkpointFiles(directory).isEmpty());
+    }
+
+    @Test
+    public void interruptedJobResumesWithoutFetchingTheWebpagesItWasDoneWith() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        CheckpointStore store = CheckpointStore.open(directory, SYNC_INTERVAL_MILLIS);
+        CrawlSubmission submission = newManager(store).submit(baseUrl);
+        CrawlJob job = submission.getJob();
+        // both webpages in flight wait for the website, every webpage before them is done with
+        waitUntil(() -> blockedRequests.get() == 2);
+        waitUntil(() -> store.getQueuedRecords() == 0);
+        Thread.sleep(10 * SYNC_INTERVAL_MILLIS);
+        // the node crashes: nothing is recorded anymore and the crawl goes away
+        store.close();
+        submission.cancel();
+        job.getResult().get(30, TimeUnit.SECONDS);
+        crashed.countDown();
+        Assert.assertEquals(PAGES_BEFORE_CRASH, servedBeforeCrash.size());
+        Assert.assertEquals(1, checkpointFiles(directory).size());
+
+        resumed = true;
+        CheckpointStore restartedStore = CheckpointStore.open(directory, SYNC_INTERVAL_MILLIS);
+        CrawlJobManager restarted = newManager(restartedStore);
+        Assert.assertEquals(1, restarted.resumeInterruptedJobs());
+        CrawlJob resumedJob = restarted.getJob(job.getId());
+        Assert.assertNotNull(resumedJob);
+        CrawlDataStorage<Image> result = resumedJob.getResult().get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(JobStatus.COMPLETED, resumedJob.getStatus());
+        Assert.assertEquals(SUBPAGES + 1, result.size());
+        Assert.assertEquals(SUBPAGES + 1, resumedJob.getImageCount());
+
+        // neither the home page nor the subpages served before the crash are fetched again
+        Assert.assertFalse(requestedAfterResume.contains("/"));
+        for (String path : servedBeforeCrash) {
+            Assert.assertFalse(path + " was fetched again", requestedAfterResume.contains(path));
+        }
+        Assert.assertEquals(SUBPAGES - PAGES_BEFORE_CRASH, requestedAfterResume.size());
+        restartedStore.close();
+        Assert.assertTrue(checkpointFiles(directory).isEmpty());
+    }
+
+    private CrawlJobManager newManager(CheckpointStore store) {
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, new UnlimitedRateLimiter(), fetcher,
+                2, ExtractionEngine.STREAMING, null, AdmissionController.unlimited());
+        return new CrawlJobManager(services, TimeUnit.MINUTES.toMillis(1), null, store);
+    }
+
+    private static List<String> checkpointFiles(Path directory) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.ckpt")) {
+            for (Path file : files) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        return names;
+    }
+
+    private static void waitUntil(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.isMet()) {
+            Assert.assertTrue("timed out waiting for the crawl", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String html) throws IOException {
+        byte[] body = html.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    /**
+     * Rate limiter letting every request through right away, all the webpages being on one host
+     */
+    private static final class UnlimitedRateLimiter extends HostRateLimiter {
+        @Override
+        public long reserve(String host) {
+            return 0;
+        }
+    }
+}
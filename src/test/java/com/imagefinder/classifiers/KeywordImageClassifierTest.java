@@ -0,0 +1,90 @@
+package com.imagefinder.classifiers;
+
+import com.imagefinder.models.Category;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the keyword automaton against a regex and the categorization of the images by their attributes
+ */
+public class KeywordImageClassifierTest {
+
+    // the regex the logo images were identified with before the automaton
+    private static final Pattern LOGO_PATTERN = Pattern.compile(
+            "(?i).*?(logo|brand|icon|symbol|company|badge|emblem|mark|trademark).*?");
+
+    @Test
+    public void automatonFindsOverlappingKeywords() {
+        Map<String, Long> keywords = new HashMap<>();
+        keywords.put("he", 1L);
+        keywords.put("she", 2L);
+        keywords.put("hers", 4L);
+        keywords.put("abcd", 8L);
+        keywords.put("bc", 16L);
+        KeywordAutomaton automaton = new KeywordAutomaton(keywords);
+
+        Assert.assertEquals(1L | 2L | 4L, automaton.match("uSHErs"));
+        Assert.assertEquals(16L, automaton.match("abcabc"));
+        Assert.assertEquals(8L | 16L, automaton.match("aabcd"));
+        Assert.assertEquals(0L, automaton.match("h-e s_h e"));
+        Assert.assertEquals(0L, automaton.match(null));
+    }
+
+    @Test
+    public void automatonMatchesTheLogoRegex() {
+        KeywordImageClassifier classifier = KeywordImageClassifier.fromCategories();
+        String alphabet = "lognbradicmsyptekLOGNBRADIC/-._ é0";
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(24);
+            for (int k = 0; k < length; k++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            if (random.nextInt(4) == 0) {
+                List<String> keywords = Category.LOGO.getKeywords();
+                text.insert(random.nextInt(text.length() + 1), keywords.get(random.nextInt(keywords.size())));
+            }
+            boolean expected = LOGO_PATTERN.matcher(text).find();
+            Assert.assertEquals(text.toString(), expected,
+                    classifier.classify(text.toString(), "", "", "") == Category.LOGO);
+            Assert.assertEquals(text.toString(), expected,
+                    classifier.classify("https://example.com/a.png", text.toString(), "", "") == Category.LOGO);
+        }
+    }
+
+    @Test
+    public void imagesAreCategorizedByAllTheirAttributes() {
+        KeywordImageClassifier classifier = KeywordImageClassifier.getDefault();
+        String url = "https://example.com/images/header.png";
+        Assert.assertEquals(Category.GENERAL, classifier.classify(url, "A mountain", "hero", "top"));
+        Assert.assertEquals(Category.LOGO, classifier.classify(url, "", "site-header__Logo", ""));
+        Assert.assertEquals(Category.LOGO, classifier.classify(url, "", "", "BrandMark"));
+        Assert.assertEquals(Category.LOGO, classifier.classify(url, "Company", null, null));
+        // a keyword spanning two attributes is not a match
+        Assert.assertEquals(Category.GENERAL, classifier.classify(url, "lo", "go", ""));
+    }
+
+    @Test
+    public void firstDeclaredCategoryWins() {
+        Map<Category, List<String>> keywords = new EnumMap<>(Category.class);
+        keywords.put(Category.GENERAL, Arrays.asList("photo", "Ünïcode"));
+        keywords.put(Category.LOGO, Collections.singletonList("logo"));
+        KeywordImageClassifier classifier = new KeywordImageClassifier(keywords, null);
+
+        Assert.assertEquals(Category.LOGO, classifier.classify("https://example.com/photo-logo.png", "", "", ""));
+        Assert.assertEquals(Category.LOGO, classifier.classify("https://example.com/photo.png", "", "", "logo"));
+        Assert.assertEquals(Category.GENERAL, classifier.classify("https://example.com/photo.png", "", "", ""));
+        Assert.assertEquals(Category.GENERAL, classifier.classify("https://example.com/a.png", "üNÏCODE", "", ""));
+        Assert.assertNull(classifier.classify("https://example.com/a.png", "", "", ""));
+    }
+}
@@ -0,0 +1,393 @@
+package com.imagefinder.cluster;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.crawler.CrawlSpawner;
+import com.imagefinder.crawler.StopReason;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that a crawl spread over several nodes, in the same JVM or over HTTP on localhost ports, finds the same images
+ * as a crawl on a single node, with every webpage fetched by a single node, that a stop on any node stops the
+ * whole crawl, that the nodes only accept the messages of the cluster and that joining a crawl takes a crawl slot
+ */
+public class ClusterCrawlTest {
+
+    static {
+        // the crawl results are not persisted
+        System.setProperty("imagefinder.store.dir", "");
+    }
+
+    private static final List<String> NODE_IDS = Arrays.asList("a", "b", "c");
+    private static final int SECTIONS = 30;
+    private static final int ARTICLES_PER_SECTION = 3;
+    // the home page, the sections and their articles, whose links are followed
+    private static final CrawlBudget DEPTH_4 = new CrawlBudget(4, 0, 0, 0, 0);
+    private static final String SECRET = "test-secret";
+
+    private HttpServer site;
+    private String baseUrl;
+    // number of requests of every path, and the nodes (user agents) that sent them
+    private final Map<String, AtomicInteger> requestsByPath = new ConcurrentHashMap<>();
+    private final Set<String> requestingNodes = ConcurrentHashMap.newKeySet();
+    private final List<ExecutorService> executors = new ArrayList<>();
+    private final List<PooledPageFetcher> fetchers = new ArrayList<>();
+    private final List<HttpServer> nodeServers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        site = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        site.setExecutor(executor("test-site-", 8));
+        site.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            requestsByPath.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+            requestingNodes.add(exchange.getRequestHeaders().getFirst("User-Agent"));
+            StringBuilder html = new StringBuilder("<html><body>");
+            if ("/".equals(path)) {
+                for (int i = 0; i < SECTIONS; i++) {
+                    html.append("<a href='/section/").append(i).append("'>section</a>");
+                }
+            } else if (path.startsWith("/section/")) {
+                String section = path.substring("/section/".length());
+                html.append("<img src='/img/").append(section).append("-a.png'>");
+                html.append("<img src='/img/").append(section).append("-b.png'>");
+                for (int i = 0; i < ARTICLES_PER_SECTION; i++) {
+                    html.append("<a href='/article/").append(section).append('/').append(i).append("'>article</a>");
+                }
+            } else if (path.startsWith("/article/")) {
+                html.append("<img src='/img").append(path).append(".png'>");
+                // a link back to the section, already crawled by the node owning it
+                String section = path.substring("/article/".length(), path.lastIndexOf('/'));
+                html.append("<a href='/section/").append(section).append("'>up</a>");
+            }
+            byte[] body = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        site.start();
+        baseUrl = "http://127.0.0.1:" + site.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void tearDown() {
+        site.stop(0);
+        for (HttpServer server : nodeServers) {
+            server.stop(0);
+        }
+        for (PooledPageFetcher fetcher : fetchers) {
+            fetcher.shutdown();
+        }
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ringIsDeterministicAndBalanced() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODE_IDS, 64);
+        ConsistentHashRing reversed = new ConsistentHashRing(Arrays.asList("c", "b", "a"), 64);
+        Map<String, Integer> keysByNode = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            String key = "host" + i + ".example.com";
+            Assert.assertEquals(ring.ownerOf(key), reversed.ownerOf(key));
+            keysByNode.merge(ring.ownerOf(key), 1, Integer::sum);
+        }
+        for (String node : NODE_IDS) {
+            int keys = keysByNode.getOrDefault(node, 0);
+            Assert.assertTrue(node + " owns " + keys + " keys", keys > 600 && keys < 1400);
+        }
+        // removing a node only moves its own keys
+        ConsistentHashRing smaller = new ConsistentHashRing(Arrays.asList("a", "b"), 64);
+        for (int i = 0; i < 3000; i++) {
+            String key = "host" + i + ".example.com";
+            if (!"c".equals(ring.ownerOf(key))) {
+                Assert.assertEquals(ring.ownerOf(key), smaller.ownerOf(key));
+            }
+        }
+    }
+
+    @Test
+    public void nodesInOneJvmFindTheImagesOfASingleNode() throws Exception {
+        Set<String> expected = imageUrls(crawl(services("single", null), DEPTH_4));
+        Assert.assertEquals(SECTIONS * (2 + ARTICLES_PER_SECTION), expected.size());
+        resetRequests();
+
+        LocalClusterTransport transport = new LocalClusterTransport(executor("test-transport-", 2));
+        List<CrawlServices> cluster = new ArrayList<>();
+        for (String nodeId : NODE_IDS) {
+            ClusterNode node = new ClusterNode(nodeId, new ConsistentHashRing(NODE_IDS, 64), ShardBy.URL, transport);
+            transport.register(node);
+            cluster.add(services(nodeId, node));
+        }
+        Assert.assertEquals(expected, imageUrls(crawl(cluster.get(0), DEPTH_4)));
+        assertFetchedOnceBySeveralNodes();
+        // the other nodes drop the crawl once they are told it is complete
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (CrawlServices services : cluster) {
+            while (services.getClusterNode().getActiveCrawls() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0, services.getClusterNode().getActiveCrawls());
+        }
+    }
+
+    @Test
+    public void nodesOnLocalhostPortsFindTheImagesOfASingleNode() throws Exception {
+        Set<String> expected = imageUrls(crawl(services("single", null), DEPTH_4));
+        resetRequests();
+
+        Map<String, String> nodeUrls = new LinkedHashMap<>();
+        for (String nodeId : NODE_IDS) {
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.setExecutor(executor("test-node-" + nodeId + "-", 4));
+            nodeServers.add(server);
+            nodeUrls.put(nodeId, "http://127.0.0.1:" + server.getAddress().getPort());
+        }
+        HttpClusterTransport transport = new HttpClusterTransport(nodeUrls, 5000, SECRET,
+                executor("test-sender-", 8));
+        List<CrawlServices> cluster = new ArrayList<>();
+        for (int i = 0; i < NODE_IDS.size(); i++) {
+            ClusterNode node = new ClusterNode(NODE_IDS.get(i), new ConsistentHashRing(nodeUrls.keySet(), 64),
+                    ShardBy.URL, transport);
+            serve(nodeServers.get(i), node, new ClusterGuard(SECRET, 64 * 1024));
+            cluster.add(services(NODE_IDS.get(i), node));
+        }
+        Assert.assertEquals(expected, imageUrls(crawl(cluster.get(1), DEPTH_4)));
+        assertFetchedOnceBySeveralNodes();
+    }
+
+    @Test
+    public void stopOfANodeStopsTheCluster() throws Exception {
+        LocalClusterTransport transport = new LocalClusterTransport(executor("test-transport-", 2));
+        List<CrawlServices> cluster = new ArrayList<>();
+        for (String nodeId : NODE_IDS) {
+            ClusterNode node = new ClusterNode(nodeId, new ConsistentHashRing(NODE_IDS, 64), ShardBy.URL, transport);
+            transport.register(node);
+            cluster.add(services(nodeId, node));
+        }
+        CrawlSpawner<Image> spawner = new CrawlSpawner<>(baseUrl + "?stop", new ConcurrentImageStorage(),
+                new ImageParser(), null, new CrawlBudget(3, 8, 0, 0, 0), cluster.get(0));
+        spawner.startCrawlAsync().get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(StopReason.MAX_PAGES, spawner.getStopReason());
+        int fetched = 0;
+        for (AtomicInteger requests : requestsByPath.values()) {
+            fetched += requests.get();
+        }
+        // every node spends the budget on its own, the first one to spend it stops the others
+        Assert.assertTrue("fetched " + fetched, fetched <= NODE_IDS.size() * 8);
+    }
+
+    @Test
+    public void nodesOnlyAcceptTheMessagesOfTheCluster() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor("test-node-", 2));
+        nodeServers.add(server);
+        Map<String, String> nodeUrls = new LinkedHashMap<>();
+        nodeUrls.put("a", "http://127.0.0.1:" + server.getAddress().getPort());
+        nodeUrls.put("b", "http://127.0.0.1:1");
+        ClusterNode node = new ClusterNode("a", new ConsistentHashRing(nodeUrls.keySet(), 64), ShardBy.URL,
+                new LocalClusterTransport(executor("test-transport-", 1)));
+        services("a", node);
+        serve(server, node, new ClusterGuard(SECRET, 1024));
+        ExecutorService sender = executor("test-sender-", 2);
+        ClusterMessage stop = ClusterMessage.stop("b-1", "b", "b", StopReason.CANCELLED);
+
+        // the secret is checked in constant time, whatever its length
+        ClusterGuard guard = new ClusterGuard(SECRET, 1024);
+        Assert.assertTrue(guard.isAuthentic(SECRET));
+        Assert.assertFalse(guard.isAuthentic("test-secreT"));
+        Assert.assertFalse(guard.isAuthentic(""));
+        Assert.assertFalse(guard.isAuthentic(null));
+
+        new HttpClusterTransport(nodeUrls, 5000, SECRET, sender).send("a", stop).get(10, TimeUnit.SECONDS);
+        assertRejected(new HttpClusterTransport(nodeUrls, 5000, "wrong", sender).send("a", stop), 401);
+        // a message too large for the node is not read to the end
+        List<ClusterMessage.Link> links = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            links.add(new ClusterMessage.Link(baseUrl + "article/" + i, 1, 0));
+        }
+        assertRejected(new HttpClusterTransport(nodeUrls, 5000, SECRET, sender).send("a",
+                ClusterMessage.links("b-1", "b", "b", baseUrl, DEPTH_4, links)), 413);
+        // a node outside the ring cannot start a crawl on the node, even with the secret
+        assertRejected(new HttpClusterTransport(nodeUrls, 5000, SECRET, sender).send("a",
+                ClusterMessage.links("x-1", "x", "x", baseUrl, DEPTH_4, links.subList(0, 1))), 403);
+        node.receive(ClusterMessage.links("x-1", "x", "x", baseUrl, DEPTH_4, links.subList(0, 1)));
+        Assert.assertEquals(0, node.getActiveCrawls());
+        Assert.assertEquals(0, node.getLinksReceived());
+    }
+
+    @Test
+    public void joiningACrawlTakesACrawlSlot() throws Exception {
+        Set<String> expected = imageUrls(crawl(services("single", null), DEPTH_4));
+        resetRequests();
+
+        LocalClusterTransport transport = new LocalClusterTransport(executor("test-transport-", 2));
+        List<String> nodeIds = Arrays.asList("a", "b");
+        AdmissionController joinerAdmission = new AdmissionController(1, Integer.MAX_VALUE, Integer.MAX_VALUE, 1);
+        List<CrawlServices> cluster = new ArrayList<>();
+        for (String nodeId : nodeIds) {
+            ClusterNode node = new ClusterNode(nodeId, new ConsistentHashRing(nodeIds, 64), ShardBy.URL, transport);
+            transport.register(node);
+            cluster.add(services(nodeId, node,
+                    "b".equals(nodeId) ? joinerAdmission : AdmissionController.unlimited()));
+        }
+        ClusterNode joiner = cluster.get(1).getClusterNode();
+
+        // with its only slot taken, the node acknowledges the subpages it is handed without crawling them
+        Assert.assertTrue(joinerAdmission.tryAcquireCrawl());
+        Set<String> partial = imageUrls(crawl(cluster.get(0), DEPTH_4));
+        Assert.assertTrue(partial.size() < expected.size());
+        Assert.assertTrue(joinerAdmission.getRejectedCrawls() > 0);
+        Assert.assertEquals(0, joiner.getActiveCrawls());
+        Assert.assertFalse(requestingNodes.contains("node-b"));
+        joinerAdmission.releaseCrawl();
+
+        // with a slot, the node takes part in the crawl, and gives the slot back once the crawl is complete
+        resetRequests();
+        Assert.assertEquals(expected, imageUrls(crawl(cluster.get(0), DEPTH_4)));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (joiner.getActiveCrawls() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, joiner.getActiveCrawls());
+        Assert.assertEquals(0, joinerAdmission.getRunningCrawls());
+    }
+
+    private CrawlDataStorage<Image> crawl(CrawlServices services, CrawlBudget budget) throws Exception {
+        // a base url of its own for every crawl, so that it is not served from the local cache
+        String crawlUrl = baseUrl + "?run=" + System.nanoTime();
+        return new CrawlSpawner<>(crawlUrl, new ConcurrentImageStorage(), new ImageParser(), null, budget, services)
+                .startCrawlAsync().get(30, TimeUnit.SECONDS);
+    }
+
+    private CrawlServices services(String nodeId, ClusterNode node) {
+        return services(nodeId, node, AdmissionController.unlimited());
+    }
+
+    private CrawlServices services(String nodeId, ClusterNode node, AdmissionController admissionController) {
+        PooledPageFetcher fetcher = new PooledPageFetcher(new FetcherConfig(2000, 2000, 1024 * 1024, 4, 4,
+                "node-" + nodeId));
+        fetchers.add(fetcher);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("test-timer-" + nodeId + "-"));
+        executors.add(scheduler);
+        return new CrawlServices(executor("test-crawl-" + nodeId + "-", 2), scheduler, new UnlimitedRateLimiter(),
+                fetcher, 4, ExtractionEngine.STREAMING, null, admissionController, null, null, node);
+    }
+
+    /**
+     * Method to receive the messages of the cluster on a server, answering like ClusterServlet
+     * @param server: server of the node
+     * @param node: node processing the messages
+     * @param guard: checks of the requests
+     */
+    private static void serve(HttpServer server, ClusterNode node, ClusterGuard guard) {
+        server.createContext("/cluster", exchange -> {
+            int status = 204;
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (!guard.isAuthentic(exchange.getRequestHeaders().getFirst(ClusterGuard.SECRET_HEADER))) {
+                status = 401;
+            } else {
+                String json = guard.readMessage(exchange.getRequestBody(),
+                        length == null ? -1 : Long.parseLong(length));
+                if (json == null) {
+                    status = 413;
+                } else {
+                    ClusterMessage message = ClusterMessage.fromJson(json);
+                    if (node.isMember(message)) {
+                        node.receive(message);
+                    } else {
+                        status = 403;
+                    }
+                }
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    private static void assertRejected(CompletableFuture<Void> sent, int status) throws Exception {
+        try {
+            sent.get(10, TimeUnit.SECONDS);
+            Assert.fail("the message was accepted");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getMessage(), e.getCause().getMessage().endsWith("status " + status));
+        }
+    }
+
+    private ExecutorService executor(String prefix, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory(prefix));
+        executors.add(executor);
+        return executor;
+    }
+
+    private void assertFetchedOnceBySeveralNodes() {
+        for (Map.Entry<String, AtomicInteger> path : requestsByPath.entrySet()) {
+            Assert.assertEquals("requests of " + path.getKey(), 1, path.getValue().get());
+        }
+        Assert.assertEquals(1 + SECTIONS * (1 + ARTICLES_PER_SECTION), requestsByPath.size());
+        Assert.assertTrue("fetched by " + requestingNodes, requestingNodes.size() > 1);
+    }
+
+    private void resetRequests() {
+        requestsByPath.clear();
+        requestingNodes.clear();
+    }
+
+    private static Set<String> imageUrls(CrawlDataStorage<Image> storage) {
+        Set<String> urls = new HashSet<>();
+        for (Image image : storage.retrieveData()) {
+            urls.add(image.getUrl());
+        }
+        return urls;
+    }
+
+    /**
+     * Rate limiter letting every request through right away, all the webpages of the test being on one host
+     */
+    private static final class UnlimitedRateLimiter extends HostRateLimiter {
+        @Override
+        public long reserve(String host) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.imagefinder.crawleddata;
+
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the concurrent storage neither loses nor duplicates images when written by many threads at once, and
+ * that snapshots can be taken while it is being written
+ */
+public class ConcurrentImageStorageTest {
+
+    @Test
+    public void imagesAreDeduplicatedByUrl() {
+        ConcurrentImageStorage storage = new ConcurrentImageStorage();
+        Image logo = new Image("https://example.com/logo.png", Category.LOGO);
+        Assert.assertTrue(storage.storeDataIfAbsent(logo));
+        Assert.assertFalse(storage.storeDataIfAbsent(new Image("https://example.com/logo.png", Category.GENERAL)));
+        storage.storeMultipleData(Arrays.asList(logo, new Image("https://example.com/photo.jpg", Category.GENERAL)));
+        Assert.assertEquals(2, storage.size());
+        for (Image image : storage.retrieveData()) {
+            if (image.equals(logo)) {
+                // the first image stored is kept
+                Assert.assertEquals(Category.LOGO, image.getCategory());
+            }
+        }
+    }
+
+    @Test
+    public void concurrentWritersNeitherLoseNorDuplicateImages() throws InterruptedException {
+        ConcurrentImageStorage storage = new ConcurrentImageStorage();
+        int threads = 32;
+        int imagesPerThread = 5000;
+        AtomicInteger stored = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread writer = new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < imagesPerThread; i++) {
+                    // every image is stored by two threads
+                    int id = (offset / 2) * imagesPerThread + i;
+                    if (storage.storeDataIfAbsent(new Image("https://example.com/" + id + ".png", Category.GENERAL))) {
+                        stored.incrementAndGet();
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        int expected = threads / 2 * imagesPerThread;
+        Assert.assertEquals(expected, stored.get());
+        Assert.assertEquals(expected, storage.size());
+        Collection<Image> images = storage.retrieveData();
+        Assert.assertEquals(expected, images.size());
+        Assert.assertEquals(expected, new HashSet<>(images).size());
+    }
+
+    @Test
+    public void snapshotsAreConsistentWhileImagesAreStored() throws InterruptedException {
+        ConcurrentImageStorage storage = new ConcurrentImageStorage();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 100000; i++) {
+                storage.storeData(new Image("https://example.com/" + i + ".png", Category.GENERAL));
+            }
+            done.set(true);
+        });
+        writer.start();
+        int previousSize = 0;
+        while (!done.get()) {
+            Collection<Image> snapshot = storage.retrieveData();
+            Assert.assertTrue(snapshot.size() >= previousSize);
+            for (Image image : snapshot) {
+                Assert.assertNotNull(image);
+            }
+            previousSize = snapshot.size();
+        }
+        writer.join();
+        Assert.assertEquals(100000, storage.retrieveData().size());
+        try {
+            storage.retrieveData().add(new Image("https://example.com/other.png", Category.GENERAL));
+            Assert.fail("snapshots should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.imagefinder.crawleddata;
+
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Contention benchmark of the image storages: W writer threads store the images of a crawl at once, half of them
+ * found twice (the same image on several webpages), while a reader takes snapshots. Run it after mvn test-compile
+ * with java -cp target/imagefinder-0.1.0-SNAPSHOT/WEB-INF/classes:target/test-classes
+ *     com.imagefinder.crawleddata.StorageContentionBenchmark
+ * It is not a unit test: surefire only runs the classes ending with Test.
+ */
+public final class StorageContentionBenchmark {
+
+    private static final int[] WRITERS = {1, 10, 100, 1000};
+    private static final int IMAGES = 1_000_000;
+    private static final int ROUNDS = 5;
+
+    private StorageContentionBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // the images are built up front so that the benchmark measures the storage only
+        Image[] images = new Image[IMAGES];
+        for (int i = 0; i < IMAGES; i++) {
+            images[i] = new Image("https://example.com/images/" + (i / 2) + ".png", Category.GENERAL);
+        }
+        System.out.printf("%-28s %8s %14s %12s%n", "storage", "writers", "inserts/s", "snapshots");
+        for (int writers : WRITERS) {
+            run("synchronized HashSet", writers, images,
+                    () -> new CrawlResultImageStorage(Collections.synchronizedSet(new HashSet<>())));
+            run("ConcurrentImageStorage", writers, images, ConcurrentImageStorage::new);
+        }
+    }
+
+    private static void run(String name, int writers, Image[] images, Supplier<CrawlDataStorage<Image>> factory)
+            throws InterruptedException {
+        long bestNanos = Long.MAX_VALUE;
+        int snapshots = 0;
+        // the first round warms the JIT up
+        for (int round = 0; round <= ROUNDS; round++) {
+            CrawlDataStorage<Image> storage = factory.get();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[writers];
+            for (int w = 0; w < writers; w++) {
+                int from = (int) ((long) images.length * w / writers);
+                int to = (int) ((long) images.length * (w + 1) / writers);
+                threads[w] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = from; i < to; i++) {
+                        storage.storeData(images[i]);
+                    }
+                });
+                threads[w].start();
+            }
+            long startNanos = System.nanoTime();
+            start.countDown();
+            int roundSnapshots = 0;
+            while (isAlive(threads)) {
+                // a client polling the results of the running crawl
+                Collection<Image> data = storage.retrieveData();
+                if (!(storage instanceof ConcurrentImageStorage)) {
+                    // the synchronized set is a live view, copied under its lock
+                    synchronized (data) {
+                        data = new ArrayList<>(data);
+                    }
+                }
+                roundSnapshots++;
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (storage.size() != images.length / 2) {
+                throw new IllegalStateException(name + " stored " + storage.size() + " images");
+            }
+            if (round > 0 && elapsedNanos < bestNanos) {
+                bestNanos = elapsedNanos;
+                snapshots = roundSnapshots;
+            }
+        }
+        System.out.printf("%-28s %8d %,14.0f %12d%n", name, writers, images.length * 1e9 / bestNanos, snapshots);
+    }
+
+    private static boolean isAlive(Thread[] threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,189 @@
+package com.imagefinder.crawler;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.fetcher.FetchResponse;
+import com.imagefinder.fetcher.PageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the crawls share the global fetch permits, that a crawl waiting for its host holds none of them, and
+ * that a crawl never queues more work than allowed
+ */
+public class AdmissionControllerTest {
+
+    private static final int SUBPAGES = 20;
+
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+    private SlowFetcher fetcher;
+
+    @Before
+    public void setUp() {
+        crawlExecutor = Executors.newFixedThreadPool(4, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newScheduledThreadPool(2, new DaemonThreadFactory("test-timer-"));
+        fetcher = new SlowFetcher();
+    }
+
+    @After
+    public void tearDown() {
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void crawlsShareTheInFlightFetchCap() throws InterruptedException {
+        AdmissionController admission = new AdmissionController(10, 1000, 3, 1);
+        // every host ready right away, so that the crawls contend for the fetch permits
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, new UnlimitedRateLimiter(), fetcher,
+                8, ExtractionEngine.STREAMING, null, admission);
+        List<CrawlContext<Image>> crawls = new ArrayList<>();
+        for (String baseUrl : new String[]{"http://first.test/", "http://second.test/", "http://third.test/"}) {
+            CrawlContext<Image> context = new CrawlContext<>(baseUrl, new ImageParser(),
+                    new ConcurrentImageStorage(), services);
+            context.markVisited(baseUrl);
+            context.getFrontier().schedule(new CrawlTask<>(baseUrl, 0, context));
+            crawls.add(context);
+        }
+        for (CrawlContext<Image> context : crawls) {
+            context.getFrontier().awaitCompletion();
+            Assert.assertEquals(SUBPAGES + 1, context.getCrawlDataStorage().size());
+        }
+        Assert.assertEquals(3 * (SUBPAGES + 1), fetcher.fetches.get());
+        Assert.assertTrue(fetcher.peakInFlight.get() <= 3);
+        Assert.assertEquals(3, admission.getPeakInFlightFetches());
+        Assert.assertTrue(admission.getFetchPermitWaits() > 0);
+        Assert.assertEquals(0, admission.getInFlightFetches());
+        Assert.assertEquals(0, admission.getWaitingCrawls());
+    }
+
+    @Test
+    public void crawlWaitingForItsHostHoldsNoFetchPermit() throws Exception {
+        AdmissionController admission = new AdmissionController(10, 1000, 1, 1);
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, new SlowHostRateLimiter(), fetcher,
+                8, ExtractionEngine.STREAMING, null, admission);
+        CrawlContext<Image> slow = new CrawlContext<>(SlowHostRateLimiter.SLOW_URL, new ImageParser(),
+                new ConcurrentImageStorage(), services);
+        slow.markVisited(SlowHostRateLimiter.SLOW_URL);
+        slow.getFrontier().schedule(new CrawlTask<>(SlowHostRateLimiter.SLOW_URL, 0, slow));
+        String baseUrl = "http://fast.test/";
+        CrawlContext<Image> fast = new CrawlContext<>(baseUrl, new ImageParser(), new ConcurrentImageStorage(),
+                services);
+        fast.markVisited(baseUrl);
+        fast.getFrontier().schedule(new CrawlTask<>(baseUrl, 0, fast));
+
+        // the only fetch permit goes to the crawl whose host is ready
+        fast.getFrontier().onCompletion().get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(SUBPAGES + 1, fast.getCrawlDataStorage().size());
+        Assert.assertEquals(SUBPAGES + 1, fetcher.fetches.get());
+        Assert.assertEquals(1, slow.getFrontier().getOutstandingTasks());
+        slow.getFrontier().cancel();
+    }
+
+    @Test
+    public void subpagesBeyondTheQueueLimitAreDropped() throws InterruptedException {
+        AdmissionController admission = new AdmissionController(10, 5, 100, 1);
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, HostRateLimiter.getInstance(), fetcher,
+                1, ExtractionEngine.STREAMING, null, admission);
+        String baseUrl = "http://queue.test/";
+        CrawlContext<Image> context = new CrawlContext<>(baseUrl, new ImageParser(),
+                new ConcurrentImageStorage(), services);
+        context.markVisited(baseUrl);
+        context.getFrontier().schedule(new CrawlTask<>(baseUrl, 0, context));
+        context.getFrontier().awaitCompletion();
+
+        // the home page holds the only worker slot while its subpages are scheduled
+        Assert.assertEquals(SUBPAGES - 5, context.getFrontier().getDroppedTasks());
+        Assert.assertEquals(SUBPAGES - 5, admission.getDroppedTasks());
+        Assert.assertEquals(6, context.getCrawlDataStorage().size());
+        Assert.assertEquals(0, context.getFrontier().getQueuedTasks());
+    }
+
+    @Test
+    public void crawlSlotsAreLimited() {
+        AdmissionController admission = new AdmissionController(2, 10, 10, 1);
+        Assert.assertTrue(admission.tryAcquireCrawl());
+        Assert.assertTrue(admission.tryAcquireCrawl());
+        Assert.assertFalse(admission.tryAcquireCrawl());
+        Assert.assertTrue(admission.isSaturated());
+        admission.releaseCrawl();
+        Assert.assertFalse(admission.isSaturated());
+        Assert.assertTrue(admission.tryAcquireCrawl());
+    }
+
+    /**
+     * Rate limiter letting every request through right away
+     */
+    private static final class UnlimitedRateLimiter extends HostRateLimiter {
+        @Override
+        public long reserve(String host) {
+            return 0;
+        }
+    }
+
+    /**
+     * Rate limiter keeping the slow host waiting long after the other crawls are done, and letting every request to
+     * the other hosts through right away
+     */
+    private static final class SlowHostRateLimiter extends HostRateLimiter {
+        private static final String SLOW_URL = "http://slow.test/";
+
+        @Override
+        public long reserve(String host) {
+            return "slow.test".equals(host) ? TimeUnit.SECONDS.toNanos(30) : 0;
+        }
+    }
+
+    /**
+     * Fetcher answering every url after a short delay with a webpage holding one image and, for the home page,
+     * links to the subpages
+     */
+    private final class SlowFetcher implements PageFetcher {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger peakInFlight = new AtomicInteger();
+        private final AtomicInteger fetches = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<FetchResponse> fetch(String url) {
+            fetches.incrementAndGet();
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            StringBuilder html = new StringBuilder("<html><body><img src='").append(url).append(".png'>");
+            if (url.endsWith(".test/")) {
+                for (int i = 0; i < SUBPAGES; i++) {
+                    html.append("<a href='/page").append(i).append("'>page</a>");
+                }
+            }
+            byte[] body = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+            CompletableFuture<FetchResponse> response = new CompletableFuture<>();
+            scheduler.schedule(() -> {
+                inFlight.decrementAndGet();
+                response.complete(new FetchResponse(url, 200, Collections.<String, String>emptyMap(), body, false,
+                        TimeUnit.MILLISECONDS.toNanos(5)));
+            }, 5, TimeUnit.MILLISECONDS);
+            return response;
+        }
+
+        @Override
+        public void shutdown() {
+            // nothing to release
+        }
+    }
+}
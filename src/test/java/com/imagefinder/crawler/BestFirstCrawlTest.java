@@ -0,0 +1,139 @@
+package com.imagefinder.crawler;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Checks that the best-first frontier fetches the subpages rich in images first, so that a crawl with a page budget
+ * finds more images than when the subpages are fetched in the order they are linked
+ */
+public class BestFirstCrawlTest {
+
+    static {
+        // the crawl results are not persisted
+        System.setProperty("imagefinder.store.dir", "");
+    }
+
+    private static final int LINKS_PER_KIND = 6;
+    private static final int GALLERY_IMAGES = 10;
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledPageFetcher fetcher;
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            StringBuilder html = new StringBuilder("<html><body><img src='/logo.png'>");
+            if ("/".equals(path)) {
+                // the links to the webpages without images come first in the markup
+                for (int i = 0; i < LINKS_PER_KIND; i++) {
+                    html.append("<a href='/legal/terms-").append(i).append("'>Terms of use</a>");
+                    html.append("<a href='/account/login?next=").append(i).append("'>Sign in</a>");
+                }
+                for (int i = 0; i < LINKS_PER_KIND; i++) {
+                    html.append("<a href='/p/").append(i).append("'><span>Photo</span> gallery ").append(i)
+                            .append("</a>");
+                }
+            } else if (path.startsWith("/p/")) {
+                for (int i = 0; i < GALLERY_IMAGES; i++) {
+                    html.append("<img src='").append(path).append("/photo").append(i).append(".jpg'>");
+                }
+            }
+            byte[] body = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        fetcher = new PooledPageFetcher(new FetcherConfig(2000, 2000, 1024 * 1024, 4, 4, "test"));
+        crawlExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("test-timer-"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        fetcher.shutdown();
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void bestFirstFindsMoreImagesPerPage() {
+        // the base url and 3 subpages
+        CrawlBudget budget = new CrawlBudget(2, 4, 0, 0, 0);
+        CrawlDataStorage<Image> inOrder = crawl(null, budget);
+        CrawlDataStorage<Image> bestFirst = crawl(new LinkScorer(), budget);
+        // in order, the 3 subpages are legal notices and logins showing the logo only
+        Assert.assertEquals(1, inOrder.size());
+        // best-first, they are the galleries
+        Assert.assertEquals(1 + 3 * GALLERY_IMAGES, bestFirst.size());
+    }
+
+    @Test
+    public void bestFirstCrawlsEverySubpageWithoutBudget() {
+        CrawlDataStorage<Image> bestFirst = crawl(new LinkScorer(), CrawlBudget.UNLIMITED);
+        Assert.assertEquals(1 + LINKS_PER_KIND * GALLERY_IMAGES, bestFirst.size());
+    }
+
+    @Test
+    public void scoresPromisingLinksHigher() {
+        LinkScorer scorer = new LinkScorer();
+        double gallery = scorer.score("http://site.test/portfolio/2021", "Wedding photos", 0, 1);
+        double plain = scorer.score("http://site.test/page/2", "Next", 0, 1);
+        double login = scorer.score("http://site.test/account/login", "Sign in", 0, 1);
+        double document = scorer.score("http://site.test/files/report.pdf", "Annual report", 0, 1);
+        Assert.assertTrue(gallery > plain);
+        Assert.assertTrue(plain > login);
+        Assert.assertTrue(login > document);
+        // subpages of webpages rich in images and shallower subpages come first
+        Assert.assertTrue(scorer.score("http://site.test/page/2", "Next", 20, 1) > plain);
+        Assert.assertTrue(plain > scorer.score("http://site.test/page/2", "Next", 0, 2));
+    }
+
+    private CrawlDataStorage<Image> crawl(LinkScorer linkScorer, CrawlBudget budget) {
+        // a single webpage in flight, so that the order of the subpages decides which ones fit in the budget
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, new UnlimitedRateLimiter(), fetcher, 1,
+                ExtractionEngine.STREAMING, null, AdmissionController.unlimited(), null, linkScorer);
+        return new CrawlSpawner<>(baseUrl, new ConcurrentImageStorage(), new ImageParser(), null, budget, services)
+                .startCrawl();
+    }
+
+    /**
+     * Rate limiter letting every request through right away, all the webpages of the test being on one host
+     */
+    private static final class UnlimitedRateLimiter extends HostRateLimiter {
+        @Override
+        public long reserve(String host) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.imagefinder.crawler;
+
+import com.imagefinder.cache.LocalCache;
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the crawls stop on the first limit of their budget with the data extracted so far
+ */
+public class CrawlBudgetTest {
+
+    static {
+        // the crawl results are not persisted
+        System.setProperty("imagefinder.store.dir", "");
+    }
+
+    private static final int SUBPAGES = 20;
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledPageFetcher fetcher;
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+    private final AtomicInteger fetchedPages = new AtomicInteger();
+    private volatile long subPageDelayMillis;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            fetchedPages.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            StringBuilder html = new StringBuilder("<html><body>");
+            if ("/".equals(path)) {
+                for (int i = 0; i < SUBPAGES; i++) {
+                    html.append("<a href='/page").append(i).append("'>page</a>");
+                }
+            } else {
+                sleep(subPageDelayMillis);
+            }
+            for (int i = 0; i < 3; i++) {
+                html.append("<img src='").append(path).append("/image").append(i).append(".png'>");
+            }
+            byte[] body = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        fetcher = new PooledPageFetcher(new FetcherConfig(2000, 2000, 1024 * 1024, 4, 4, "test"));
+        crawlExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("test-timer-"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        fetcher.shutdown();
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void unlimitedCrawlCompletes() {
+        CrawlSpawner<Image> spawner = spawner(CrawlBudget.UNLIMITED);
+        Assert.assertEquals(3 * (SUBPAGES + 1), spawner.startCrawl().size());
+        Assert.assertEquals(StopReason.COMPLETED, spawner.getStopReason());
+        Assert.assertEquals(SUBPAGES + 1, fetchedPages.get());
+        Assert.assertNotNull(LocalCache.getInstance().getData(baseUrl));
+    }
+
+    @Test
+    public void depthLimitsTheCrawl() {
+        CrawlSpawner<Image> spawner = spawner(new CrawlBudget(1, 0, 0, 0, 0));
+        Assert.assertEquals(3, spawner.startCrawl().size());
+        Assert.assertEquals(StopReason.COMPLETED, spawner.getStopReason());
+        Assert.assertEquals(1, fetchedPages.get());
+        // complete within its depth, but only a subset of the data of the default budget
+        Assert.assertNull(LocalCache.getInstance().getData(baseUrl));
+        CrawlSpawner<Image> defaultSpawner = spawner(CrawlBudget.getDefault());
+        Assert.assertEquals(3 * (SUBPAGES + 1), defaultSpawner.startCrawl().size());
+        Assert.assertEquals(SUBPAGES + 2, fetchedPages.get());
+    }
+
+    @Test
+    public void narrowerBudgetsAreNotServedFromTheCache() {
+        Assert.assertEquals(3 * (SUBPAGES + 1), spawner(CrawlBudget.getDefault()).startCrawl().size());
+        Assert.assertNotNull(LocalCache.getInstance().getData(baseUrl));
+        Assert.assertEquals(SUBPAGES + 1, fetchedPages.get());
+
+        // crawled within its own limits instead of getting the whole cached data
+        CrawlSpawner<Image> spawner = spawner(new CrawlBudget(2, 0, 0, 5, 0));
+        Assert.assertEquals(5, spawner.startCrawl().size());
+        Assert.assertEquals(StopReason.MAX_IMAGES, spawner.getStopReason());
+        Assert.assertTrue(fetchedPages.get() > SUBPAGES + 1);
+        // the default budget is still served from the cache
+        spawner(CrawlBudget.getDefault()).startCrawl();
+        int fetched = fetchedPages.get();
+        Assert.assertEquals(3 * (SUBPAGES + 1), spawner(CrawlBudget.getDefault()).startCrawl().size());
+        Assert.assertEquals(fetched, fetchedPages.get());
+    }
+
+    @Test
+    public void pagesStopTheCrawl() {
+        CrawlSpawner<Image> spawner = spawner(new CrawlBudget(2, 5, 0, 0, 0));
+        CrawlDataStorage<Image> result = spawner.startCrawl();
+        Assert.assertEquals(StopReason.MAX_PAGES, spawner.getStopReason());
+        Assert.assertEquals(5, fetchedPages.get());
+        Assert.assertEquals(15, result.size());
+        // partial results are not cached
+        Assert.assertNull(LocalCache.getInstance().getData(baseUrl));
+    }
+
+    @Test
+    public void imagesStopTheCrawl() {
+        CrawlSpawner<Image> spawner = spawner(new CrawlBudget(2, 0, 0, 7, 0));
+        Assert.assertEquals(7, spawner.startCrawl().size());
+        Assert.assertEquals(StopReason.MAX_IMAGES, spawner.getStopReason());
+        Assert.assertTrue(fetchedPages.get() < SUBPAGES + 1);
+    }
+
+    @Test
+    public void bytesStopTheCrawl() {
+        CrawlSpawner<Image> spawner = spawner(new CrawlBudget(2, 0, 1, 0, 0));
+        spawner.startCrawl();
+        Assert.assertEquals(StopReason.MAX_BYTES, spawner.getStopReason());
+        // the webpage that spent the budget is still processed, its subpages are not crawled
+        Assert.assertEquals(1, fetchedPages.get());
+    }
+
+    @Test
+    public void deadlineStopsTheCrawlPromptly() {
+        subPageDelayMillis = 300;
+        CrawlSpawner<Image> spawner = spawner(new CrawlBudget(2, 0, 0, 0, 400));
+        long start = System.nanoTime();
+        CrawlDataStorage<Image> result = spawner.startCrawl();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        Assert.assertEquals(StopReason.DEADLINE, spawner.getStopReason());
+        Assert.assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 1500);
+        Assert.assertTrue(result.size() >= 3 && result.size() < 3 * (SUBPAGES + 1));
+    }
+
+    @Test
+    public void requestsCanOnlyNarrowTheBudget() {
+        CrawlBudget service = new CrawlBudget(3, 100, 0, 0, 60_000);
+        Map<String, String> parameters = new HashMap<>();
+        Assert.assertSame(service, service.narrow(parameters::get));
+
+        parameters.put("maxDepth", "5");
+        parameters.put("maxPages", "10");
+        parameters.put("maxImages", "50");
+        parameters.put("timeoutMs", "120000");
+        Assert.assertEquals(new CrawlBudget(3, 10, 0, 50, 60_000), service.narrow(parameters::get));
+
+        parameters.put("maxPages", "-1");
+        try {
+            service.narrow(parameters::get);
+            Assert.fail("negative limits are rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("maxPages"));
+        }
+    }
+
+    private CrawlSpawner<Image> spawner(CrawlBudget budget) {
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, new UnlimitedRateLimiter(), fetcher, 2,
+                ExtractionEngine.STREAMING, null);
+        return new CrawlSpawner<>(baseUrl, new ConcurrentImageStorage(), new ImageParser(), null, budget, services);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Rate limiter letting every request through right away, all the webpages of the test being on one host
+     */
+    private static final class UnlimitedRateLimiter extends HostRateLimiter {
+        @Override
+        public long reserve(String host) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.imagefinder.crawler;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the different spellings of the hyperlinks to a webpage lead to a single fetch of that webpage, and that
+ * the targets of redirects are crawled through the frontier like the other webpages
+ */
+public class CrawlDeduplicationTest {
+
+    private static final Map<String, String> REDIRECTS = new HashMap<>();
+
+    static {
+        REDIRECTS.put("/r/old", "/r/new");
+        REDIRECTS.put("/r/away", "http://elsewhere.test/r/new");
+        REDIRECTS.put("/r/loop", "/r/loop-back");
+        REDIRECTS.put("/r/loop-back", "/r/loop");
+    }
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledPageFetcher fetcher;
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+    private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+        int port = server.getAddress().getPort();
+        baseUrl = "http://127.0.0.1:" + port + "/";
+        String links = "<a href='/about'>a</a><a href='/about/'>b</a><a href='/about#team'>c</a>"
+                + "<a href='HTTP://127.0.0.1:" + port + "/about'>d</a><a href='/./about'>e</a>"
+                + "<a href='/#top'>f</a><a href='" + baseUrl + "'>g</a><a href='mailto:a@example.com'>h</a>";
+        server.createContext("/", exchange -> {
+            fetches.computeIfAbsent(exchange.getRequestURI().getPath(), path -> new AtomicInteger()).incrementAndGet();
+            byte[] body = ("<html><body><img src='/logo.png#x'><img src='/LOGO.png'>" + links + "</body></html>")
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // webpages redirecting within the website, out of it and in a loop
+        server.createContext("/r/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            fetches.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+            String location = REDIRECTS.get(path);
+            if (location != null) {
+                exchange.getResponseHeaders().add("Location", location);
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+                return;
+            }
+            String html = "/r/".equals(path)
+                    ? "<img src='/home.png'><a href='/r/old'>a</a><a href='/r/away'>b</a><a href='/r/loop'>c</a>"
+                    : "<img src='" + path + ".png'><a href='/r/'>home</a>";
+            byte[] body = ("<html><body>" + html + "</body></html>").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        fetcher = new PooledPageFetcher(new FetcherConfig(2000, 2000, 1024 * 1024, 4, 4, "test"));
+        crawlExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("test-timer-"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        fetcher.shutdown();
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void everyWebpageIsFetchedOnce() throws InterruptedException {
+        for (ExtractionEngine engine : ExtractionEngine.values()) {
+            fetches.clear();
+            CrawlServices services = new CrawlServices(crawlExecutor, scheduler, HostRateLimiter.getInstance(),
+                    fetcher, 4, engine, null);
+            CrawlContext<Image> context = new CrawlContext<>(baseUrl, new ImageParser(),
+                    new ConcurrentImageStorage(), services);
+            context.markVisited(baseUrl);
+            context.getFrontier().schedule(new CrawlTask<>(baseUrl, 0, context));
+            context.getFrontier().awaitCompletion();
+
+            // the home page and a single spelling of the about page
+            Assert.assertEquals(engine.name(), 2, fetches.size());
+            int fetchCount = 0;
+            for (AtomicInteger count : fetches.values()) {
+                fetchCount += count.get();
+            }
+            Assert.assertEquals(engine.name(), 2, fetchCount);
+            // the fragment is not part of the image url, the case of the path is
+            Assert.assertEquals(engine.name(), 2, context.getCrawlDataStorage().size());
+        }
+    }
+
+    @Test
+    public void redirectTargetsAreCrawledThroughTheFrontier() throws InterruptedException {
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, HostRateLimiter.getInstance(), fetcher,
+                4, ExtractionEngine.STREAMING, null);
+        String redirectingUrl = baseUrl + "r/";
+        CrawlContext<Image> context = new CrawlContext<>(redirectingUrl, new ImageParser(),
+                new ConcurrentImageStorage(), services);
+        context.markVisited(redirectingUrl);
+        context.getFrontier().schedule(new CrawlTask<>(redirectingUrl, 0, context));
+        context.getFrontier().awaitCompletion();
+
+        // the redirect out of the website is not followed, the loop ends at the visited url
+        Assert.assertEquals(new HashSet<>(Arrays.asList("/r/", "/r/old", "/r/new", "/r/away", "/r/loop",
+                "/r/loop-back")), fetches.keySet());
+        for (Map.Entry<String, AtomicInteger> path : fetches.entrySet()) {
+            Assert.assertEquals(path.getKey(), 1, path.getValue().get());
+        }
+        Assert.assertEquals(2, context.getCrawlDataStorage().size());
+    }
+}
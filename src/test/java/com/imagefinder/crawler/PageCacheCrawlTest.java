@@ -0,0 +1,131 @@
+package com.imagefinder.crawler;
+
+import com.imagefinder.cache.PageCache;
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that re-crawls revalidate the cached webpages and reuse their extraction on 304 responses
+ */
+public class PageCacheCrawlTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledPageFetcher fetcher;
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private volatile boolean sendValidators = true;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            String html = "/".equals(path)
+                    ? "<html><body><img src='/home.png'><a href='/a'>a</a><a href='/b'>b</a></body></html>"
+                    : "<html><body><img src='" + path + ".png' alt='company logo'></body></html>";
+            respond(exchange, html);
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        fetcher = new PooledPageFetcher(new FetcherConfig(2000, 2000, 1024 * 1024, 4, 4, "test"));
+        crawlExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("test-timer-"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        fetcher.shutdown();
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void recrawlReusesExtractionOfUnmodifiedPages() throws InterruptedException {
+        for (ExtractionEngine engine : ExtractionEngine.values()) {
+            PageCache pageCache = new PageCache(100);
+            fullResponses.set(0);
+            notModifiedResponses.set(0);
+            Collection<Image> firstCrawl = crawl(engine, pageCache);
+            Assert.assertEquals(engine.name(), 3, fullResponses.get());
+            Assert.assertEquals(engine.name(), 3, pageCache.size());
+
+            Collection<Image> secondCrawl = crawl(engine, pageCache);
+            Assert.assertEquals(engine.name(), 3, fullResponses.get());
+            Assert.assertEquals(engine.name(), 3, notModifiedResponses.get());
+            Assert.assertEquals(engine.name(), 3, pageCache.getRevalidatedPages());
+            Assert.assertEquals(engine.name(), 3, firstCrawl.size());
+            Assert.assertEquals(engine.name(), firstCrawl, secondCrawl);
+        }
+    }
+
+    @Test
+    public void pagesWithoutValidatorsAreNotCached() throws InterruptedException {
+        sendValidators = false;
+        PageCache pageCache = new PageCache(100);
+        crawl(ExtractionEngine.STREAMING, pageCache);
+        crawl(ExtractionEngine.STREAMING, pageCache);
+        Assert.assertEquals(0, pageCache.size());
+        Assert.assertEquals(6, fullResponses.get());
+        Assert.assertEquals(0, notModifiedResponses.get());
+    }
+
+    private Collection<Image> crawl(ExtractionEngine engine, PageCache pageCache) throws InterruptedException {
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, HostRateLimiter.getInstance(), fetcher,
+                4, engine, pageCache);
+        CrawlContext<Image> context = new CrawlContext<>(baseUrl, new ImageParser(),
+                new ConcurrentImageStorage(), services);
+        context.markVisited(baseUrl);
+        context.getFrontier().schedule(new CrawlTask<>(baseUrl, 0, context));
+        context.getFrontier().awaitCompletion();
+        return new HashSet<>(context.getCrawlDataStorage().retrieveData());
+    }
+
+    private void respond(HttpExchange exchange, String html) throws IOException {
+        if (sendValidators && ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModifiedResponses.incrementAndGet();
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        fullResponses.incrementAndGet();
+        byte[] body = html.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+        if (sendValidators) {
+            exchange.getResponseHeaders().add("ETag", ETAG);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.imagefinder.dedup;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.crawler.CrawlSpawner;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.htmlparsers.PageTags;
+import com.imagefinder.htmlparsers.StreamingTagExtractor;
+import com.imagefinder.metrics.CrawlMetrics;
+import com.imagefinder.metrics.PrometheusWriter;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the webpages of a crawl sharing the template of another one are detected by their SimHash, and that
+ * their data is not extracted twice and their links are not followed
+ */
+public class NearDuplicateCrawlTest {
+
+    static {
+        // the crawl results are not persisted
+        System.setProperty("imagefinder.store.dir", "");
+    }
+
+    private static final int TAG_PAGES = 10;
+    private static final int TEMPLATE_IMAGES = 20;
+    private static final int TEMPLATE_LINKS = 40;
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledPageFetcher fetcher;
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+    private final AtomicInteger morePagesFetched = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            StringBuilder html = new StringBuilder("<html><body>");
+            if ("/".equals(path)) {
+                for (int i = 0; i < TAG_PAGES; i++) {
+                    html.append("<a href='/tag/").append(i).append("'>tag</a>");
+                }
+            } else if (path.startsWith("/tag/") && !path.endsWith("/more")) {
+                html.append(template());
+                // the only difference between the tag pages, e.g. the link to their next page
+                html.append("<a href='").append(path).append("/more'>more</a>");
+            } else if (path.endsWith("/more")) {
+                morePagesFetched.incrementAndGet();
+            }
+            byte[] body = html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        fetcher = new PooledPageFetcher(new FetcherConfig(2000, 2000, 1024 * 1024, 4, 4, "test"));
+        crawlExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("test-timer-"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        fetcher.shutdown();
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void templatedPagesHaveNearFingerprints() {
+        long first = SimHash.of(StreamingTagExtractor.extract(template() + "<a href='/tag/1/more'>more</a>",
+                "http://site.test/tag/1"));
+        long second = SimHash.of(StreamingTagExtractor.extract(template() + "<a href='/tag/2/more'>more</a>",
+                "http://site.test/tag/2"));
+        PageTags other = StreamingTagExtractor.extract("<img src='/a.png'><a href='/b'>b</a><a href='/c'>c</a>",
+                "http://site.test/");
+        Assert.assertTrue(SimHash.distance(first, second) <= 3);
+        Assert.assertTrue(SimHash.distance(first, SimHash.of(other)) > 10);
+    }
+
+    @Test
+    public void indexFindsTheNearestFingerprintWithinTheDistance() {
+        NearDuplicateIndex index = new NearDuplicateIndex(3);
+        long fingerprint = 0x5deece66dL * 0x9e3779b97f4a7c15L;
+        Assert.assertEquals(-1, index.addIfAbsent(fingerprint));
+        Assert.assertEquals(0, index.addIfAbsent(fingerprint));
+        // bits spread over several blocks
+        Assert.assertEquals(3, index.addIfAbsent(fingerprint ^ 1L ^ (1L << 30) ^ (1L << 63)));
+        Assert.assertEquals(-1, index.addIfAbsent(fingerprint ^ 0xfL));
+        Assert.assertEquals(2, index.size());
+        // nearer to the second fingerprint than to the first one
+        Assert.assertEquals(1, index.addIfAbsent(fingerprint ^ 0x1fL));
+    }
+
+    @Test
+    public void nearDuplicatePagesAreNotExpanded() {
+        long duplicatesBefore = duplicatePages();
+        CrawlDataStorage<Image> result = crawl();
+        // the template images are found once
+        Assert.assertEquals(TEMPLATE_IMAGES, result.size());
+        // only the tag pages that are not near-duplicates have their links followed
+        Assert.assertTrue("fetched " + morePagesFetched.get(), morePagesFetched.get() < TAG_PAGES / 2);
+        Assert.assertTrue(duplicatePages() - duplicatesBefore >= TAG_PAGES / 2);
+    }
+
+    private static String template() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < TEMPLATE_IMAGES; i++) {
+            html.append("<img src='/static/header").append(i).append(".png'>");
+        }
+        for (int i = 0; i < TEMPLATE_LINKS; i++) {
+            html.append("<a href='/section/").append(i).append("'>section</a>");
+        }
+        return html.toString();
+    }
+
+    private CrawlDataStorage<Image> crawl() {
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, new UnlimitedRateLimiter(), fetcher, 2,
+                ExtractionEngine.STREAMING, null, AdmissionController.unlimited(), null, null);
+        // deep enough to follow the links of the tag pages, the sections being out of the test
+        CrawlBudget budget = new CrawlBudget(3, 0, 0, 0, 0);
+        return new CrawlSpawner<>(baseUrl, new ConcurrentImageStorage(), new ImageParser(), null, budget, services)
+                .startCrawl();
+    }
+
+    private static long duplicatePages() {
+        PrometheusWriter writer = new PrometheusWriter();
+        CrawlMetrics.getInstance().writeTo(writer);
+        Matcher matcher = Pattern.compile("imagefinder_duplicate_pages_total\\{kind=\"(exact|near)\"} (\\d+)")
+                .matcher(writer.toString());
+        long total = 0;
+        while (matcher.find()) {
+            total += Long.parseLong(matcher.group(2));
+        }
+        return total;
+    }
+
+    /**
+     * Rate limiter letting every request through right away, all the webpages of the test being on one host
+     */
+    private static final class UnlimitedRateLimiter extends HostRateLimiter {
+        @Override
+        public long reserve(String host) {
+            return 0;
+        }
+    }
+}
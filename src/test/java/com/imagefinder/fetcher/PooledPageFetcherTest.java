@@ -0,0 +1,195 @@
+package com.imagefinder.fetcher;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+public class PooledPageFetcherTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledPageFetcher fetcher;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+    private final List<String> conditionalHeaders = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/redirect", exchange -> {
+            exchange.getResponseHeaders().add("Location", "/page");
+            respond(exchange, 302, "text/html", new byte[0]);
+        });
+        server.createContext("/conditional", exchange -> {
+            conditionalHeaders.add(exchange.getRequestURI().getPath() + " "
+                    + exchange.getRequestHeaders().getFirst("If-None-Match"));
+            exchange.getResponseHeaders().add("Location", "/page");
+            respond(exchange, 301, "text/html", new byte[0]);
+        });
+        server.createContext("/page", exchange -> {
+            conditionalHeaders.add("/page " + exchange.getRequestHeaders().getFirst("If-None-Match"));
+            respond(exchange, 200, "text/html; charset=UTF-8",
+                    "<html><body>hello</body></html>".getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext("/large", exchange -> respond(exchange, 200, "text/html", new byte[64 * 1024]));
+        server.createContext("/gzip", exchange -> {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write("compressed body".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            respond(exchange, 200, "text/html", compressed.toByteArray());
+        });
+        server.createContext("/slow", exchange -> {
+            int concurrent = concurrentRequests.incrementAndGet();
+            maxConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+            try {
+                Thread.sleep(Long.parseLong(exchange.getRequestURI().getQuery()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            concurrentRequests.decrementAndGet();
+            respond(exchange, 200, "text/html", "done".getBytes(StandardCharsets.UTF_8));
+        });
+        server.setExecutor(Executors.newFixedThreadPool(16));
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        fetcher = new PooledPageFetcher(new FetcherConfig(1000, 500, 16 * 1024, 2, 8, "test-agent"));
+    }
+
+    @After
+    public void tearDown() {
+        fetcher.shutdown();
+        server.stop(0);
+    }
+
+    private void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    public void fetchesBodyStatusAndHeaders() throws Exception {
+        FetchResponse response = fetcher.fetch(baseUrl + "/page").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.getStatusCode());
+        Assert.assertEquals("UTF-8", response.getCharset());
+        Assert.assertTrue(response.isHtml());
+        Assert.assertEquals("<html><body>hello</body></html>", response.getBodyAsString());
+        Assert.assertFalse(response.isTruncated());
+    }
+
+    @Test
+    public void followsRedirects() throws Exception {
+        FetchResponse response = fetcher.fetch(baseUrl + "/redirect").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.getStatusCode());
+        Assert.assertEquals(baseUrl + "/page", response.getUrl());
+    }
+
+    @Test
+    public void returnsRedirectsToTheCrawl() throws Exception {
+        FetchResponse response = fetcher.fetchWithoutRedirects(baseUrl + "/redirect",
+                Collections.<String, String>emptyMap()).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(302, response.getStatusCode());
+        Assert.assertTrue(response.isRedirect());
+        Assert.assertEquals(baseUrl + "/page", response.getRedirectUrl());
+        Assert.assertEquals(baseUrl + "/redirect", response.getUrl());
+    }
+
+    @Test
+    public void dropsTheConditionalHeadersOnRedirect() throws Exception {
+        FetchResponse response = fetcher.fetch(baseUrl + "/conditional",
+                Collections.singletonMap("If-None-Match", "\"v1\"")).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(200, response.getStatusCode());
+        Assert.assertEquals(Arrays.asList("/conditional \"v1\"", "/page null"), conditionalHeaders);
+    }
+
+    @Test
+    public void cutsBodyAtSizeLimit() throws Exception {
+        FetchResponse response = fetcher.fetch(baseUrl + "/large").get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(response.isTruncated());
+        Assert.assertEquals(16 * 1024, response.getBody().length);
+    }
+
+    @Test
+    public void decompressesGzipBodies() throws Exception {
+        FetchResponse response = fetcher.fetch(baseUrl + "/gzip").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals("compressed body", response.getBodyAsString());
+    }
+
+    @Test
+    public void failsOnReadTimeout() throws Exception {
+        CompletableFuture<FetchResponse> future = fetcher.fetch(baseUrl + "/slow?2000");
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the fetch to time out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void reusesConnectionsAndBoundsRequestsPerHost() throws Exception {
+        List<CompletableFuture<FetchResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(fetcher.fetch(baseUrl + "/slow?20"));
+        }
+        for (CompletableFuture<FetchResponse> future : futures) {
+            Assert.assertEquals(200, future.get(10, TimeUnit.SECONDS).getStatusCode());
+        }
+        Assert.assertTrue("at most 2 requests in flight per host", maxConcurrentRequests.get() <= 2);
+        Assert.assertTrue("keep-alive connections are reused", clientPorts.size() < 20);
+    }
+
+    @Test
+    public void dropsTheQueueOfAnIdleHost() throws Exception {
+        List<CompletableFuture<FetchResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(fetcher.fetch(baseUrl + "/slow?20"));
+        }
+        Assert.assertEquals(1, fetcher.getHostQueues());
+        for (CompletableFuture<FetchResponse> future : futures) {
+            Assert.assertEquals(200, future.get(10, TimeUnit.SECONDS).getStatusCode());
+        }
+        // the queue is removed right after the last response completes its future
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (fetcher.getHostQueues() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(0, fetcher.getHostQueues());
+        Assert.assertEquals(200, fetcher.fetch(baseUrl + "/page").get(5, TimeUnit.SECONDS).getStatusCode());
+    }
+
+    @Test
+    public void leavesTheConnectionSettingsOfTheJvmAlone() {
+        String maxConnections = System.getProperty("http.maxConnections");
+        new PooledPageFetcher(new FetcherConfig(1000, 500, 16 * 1024, 32, 1, "test-agent")).shutdown();
+        Assert.assertEquals(maxConnections, System.getProperty("http.maxConnections"));
+    }
+}
@@ -0,0 +1,148 @@
+package com.imagefinder.htmlparsers;
+
+import com.imagefinder.crawleddata.CrawlResultImageStorage;
+import com.imagefinder.crawler.CrawlContext;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.models.Image;
+import com.imagefinder.utils.URLUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Checks that the streaming parsers return exactly what the DOM based parsers return on the fixture corpus
+ */
+public class StreamingTagExtractorTest {
+
+    private static final Map<String, String> FIXTURES = new LinkedHashMap<>();
+
+    static {
+        FIXTURES.put("basic.html", "https://www.example.com/blog/post.html");
+        FIXTURES.put("tricky-markup.html", "http://tricky.example.com/dir/page.html");
+        FIXTURES.put("base-href.html", "http://tricky.example.com/dir/page.html");
+        FIXTURES.put("gallery.html", "https://www.photosite.test/gallery?page=1");
+    }
+
+    static String readFixture(String name) throws IOException {
+        try (InputStream in = StreamingTagExtractorTest.class.getResourceAsStream("/fixtures/" + name);
+             Scanner scanner = new Scanner(in, "UTF-8")) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+
+    private static CrawlContext<Image> contextFor(String url) {
+        return new CrawlContext<>(url, new ImageParser(), new CrawlResultImageStorage(new HashSet<>()),
+                CrawlServices.getDefault());
+    }
+
+    @Test
+    public void imagesMatchDomParser() throws IOException {
+        ImageParser parser = new ImageParser();
+        for (Map.Entry<String, String> fixture : FIXTURES.entrySet()) {
+            String html = readFixture(fixture.getKey());
+            Document document = Jsoup.parse(html, fixture.getValue());
+            PageTags tags = StreamingTagExtractor.extract(html, fixture.getValue());
+            Collection<Image> expected = parser.parseHTML(document, fixture.getValue());
+            Collection<Image> actual = parser.parseTags(tags, fixture.getValue());
+            Assert.assertFalse(fixture.getKey(), expected.isEmpty());
+            Assert.assertEquals(fixture.getKey(), expected, actual);
+            Assert.assertEquals(fixture.getKey(), categories(expected), categories(actual));
+        }
+    }
+
+    @Test
+    public void linksMatchDomParser() throws IOException {
+        for (Map.Entry<String, String> fixture : FIXTURES.entrySet()) {
+            LinkParser parser = new LinkParser(contextFor(fixture.getValue()));
+            String html = readFixture(fixture.getKey());
+            Document document = Jsoup.parse(html, fixture.getValue());
+            PageTags tags = StreamingTagExtractor.extract(html, fixture.getValue());
+            Collection<String> expected = parser.parseHTML(document, fixture.getValue());
+            Assert.assertFalse(fixture.getKey(), expected.isEmpty());
+            Assert.assertEquals(fixture.getKey(), expected, parser.parseTags(tags, fixture.getValue()));
+        }
+    }
+
+    @Test
+    public void linkTextsMatchDomParser() throws IOException {
+        for (Map.Entry<String, String> fixture : FIXTURES.entrySet()) {
+            LinkParser parser = new LinkParser(contextFor(fixture.getValue()));
+            String html = readFixture(fixture.getKey());
+            Document document = Jsoup.parse(html, fixture.getValue());
+            PageTags tags = StreamingTagExtractor.extract(html, fixture.getValue());
+            Assert.assertEquals(fixture.getKey(), parser.parseLinks(document, fixture.getValue()),
+                    parser.parseLinks(tags, fixture.getValue()));
+        }
+    }
+
+    @Test
+    public void tagsCollectedFromDocumentMatchDomParser() throws IOException {
+        ImageParser imageParser = new ImageParser();
+        for (Map.Entry<String, String> fixture : FIXTURES.entrySet()) {
+            LinkParser linkParser = new LinkParser(contextFor(fixture.getValue()));
+            Document document = Jsoup.parse(readFixture(fixture.getKey()), fixture.getValue());
+            PageTags tags = PageTags.fromDocument(document, fixture.getValue());
+            Assert.assertEquals(fixture.getKey(), categories(imageParser.parseHTML(document, fixture.getValue())),
+                    categories(imageParser.parseTags(tags, fixture.getValue())));
+            Assert.assertEquals(fixture.getKey(), linkParser.parseHTML(document, fixture.getValue()),
+                    linkParser.parseTags(tags, fixture.getValue()));
+        }
+    }
+
+    @Test
+    public void skipsCommentsScriptsAndRawText() throws IOException {
+        String url = FIXTURES.get("tricky-markup.html");
+        PageTags tags = StreamingTagExtractor.extract(readFixture("tricky-markup.html"), url);
+        List<String> images = new ArrayList<>();
+        for (int i = 0; i < tags.imageCount(); i++) {
+            images.add(tags.imageUrl(i));
+        }
+        Assert.assertTrue(images.contains("http://tricky.example.com/Upper/Case.PNG"));
+        Assert.assertTrue(images.contains("http://tricky.example.com/entities.png?a=1&b=2<3"));
+        for (String image : images) {
+            Assert.assertFalse(image, image.contains("in-script") || image.contains("commented")
+                    || image.contains("in-title") || image.contains("in-textarea") || image.contains("in-plaintext"));
+        }
+    }
+
+    @Test
+    public void resolvesAgainstFirstBaseHref() throws IOException {
+        PageTags tags = StreamingTagExtractor.extract(readFixture("base-href.html"), FIXTURES.get("base-href.html"));
+        Assert.assertEquals("https://static.example.net/assets/", tags.getBaseUri());
+    }
+
+    @Test
+    public void resolvesUrlsLikeJsoup() {
+        String[] bases = {"https://example.com/dir/page.html?x=1", "https://example.com", "not a url"};
+        String[] urls = {"?page=2", "./img/a.png", "../up.png", "//cdn.example.com/b.png", "/root.png", "#top",
+                "https://other.example.com/c.png", "javascript:void(0)", "http://[bad", ""};
+        for (String base : bases) {
+            for (String url : urls) {
+                Document document = Jsoup.parse("<a href=''></a>", base);
+                document.select("a").first().attr("href", url);
+                Assert.assertEquals(base + " + " + url, document.select("a").first().absUrl("href"),
+                        URLUtils.resolve(base, url));
+            }
+        }
+    }
+
+    private static List<String> categories(Collection<Image> images) {
+        List<String> categories = new ArrayList<>();
+        for (Image image : images) {
+            categories.add(image.getUrl() + "=" + image.getCategory());
+        }
+        categories.sort(null);
+        return categories;
+    }
+}
@@ -0,0 +1,237 @@
+package com.imagefinder.jobs;
+
+import com.imagefinder.cache.PageCache;
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that identical concurrent submissions share a single crawl, that cancelling every submission of a job stops
+ * its crawl (and that only the token of a submission cancels it) and that new crawls are rejected once the maximum
+ * number of crawls is running
+ */
+public class CrawlJobManagerTest {
+
+    private static final int SUBPAGES = 20;
+
+    static {
+        // the crawl results cached by the spawners are not persisted to disk by the tests
+        System.setProperty("imagefinder.store.dir", "");
+    }
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledPageFetcher fetcher;
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+    private CrawlJobManager manager;
+    private final AtomicInteger homeRequests = new AtomicInteger();
+    private final AtomicInteger subpageRequests = new AtomicInteger();
+    // released to let the home page respond
+    private final CountDownLatch homeReleased = new CountDownLatch(1);
+    private final CountDownLatch homeRequested = new CountDownLatch(1);
+    private volatile long subpageDelayMillis;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(new DaemonThreadFactory("test-server-")));
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if ("/".equals(path)) {
+                homeRequests.incrementAndGet();
+                homeRequested.countDown();
+                await(homeReleased);
+                StringBuilder html = new StringBuilder("<html><body><img src='/home.png'>");
+                for (int i = 0; i < SUBPAGES; i++) {
+                    html.append("<a href='/page").append(i).append("'>page</a>");
+                }
+                respond(exchange, html.append("</body></html>").toString());
+            } else {
+                subpageRequests.incrementAndGet();
+                sleep(subpageDelayMillis);
+                respond(exchange, "<html><body><img src='" + path + ".png'></body></html>");
+            }
+        });
+        server.start();
+        // unique per test, so that the crawls are never served from the cache of a previous test
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        fetcher = new PooledPageFetcher(new FetcherConfig(5000, 5000, 1024 * 1024, 4, 4, "test"));
+        crawlExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("test-timer-"));
+        manager = newManager(AdmissionController.unlimited());
+    }
+
+    @After
+    public void tearDown() {
+        homeReleased.countDown();
+        server.stop(0);
+        fetcher.shutdown();
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void identicalConcurrentSubmissionsShareOneCrawl() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        List<Future<CrawlJob>> submissions = new ArrayList<>();
+        String[] variants = {baseUrl, baseUrl + "#top", baseUrl.replace("http://", "HTTP://"),
+                baseUrl.substring(0, baseUrl.length() - 1)};
+        for (int i = 0; i < 16; i++) {
+            String url = variants[i % variants.length];
+            submissions.add(clients.submit(() -> manager.submit(url).getJob()));
+        }
+        CrawlJob job = submissions.get(0).get();
+        for (Future<CrawlJob> submission : submissions) {
+            Assert.assertSame(job, submission.get());
+        }
+        clients.shutdown();
+        Assert.assertEquals(16, job.getSubmissions());
+        Assert.assertEquals(1, manager.getRunningJobs());
+
+        List<Image> streamed = new ArrayList<>();
+        job.subscribe(image -> {
+            synchronized (streamed) {
+                streamed.add(image);
+            }
+        });
+        homeReleased.countDown();
+        Assert.assertEquals(SUBPAGES + 1, job.getResult().get(30, TimeUnit.SECONDS).size());
+        Assert.assertEquals(JobStatus.COMPLETED, job.getStatus());
+        Assert.assertEquals(1, homeRequests.get());
+        Assert.assertEquals(SUBPAGES, subpageRequests.get());
+        Assert.assertEquals(SUBPAGES + 1, streamed.size());
+        Assert.assertSame(job, manager.getJob(job.getId()));
+        Assert.assertEquals(0, manager.getRunningJobs());
+    }
+
+    @Test
+    public void crawlIsCancelledOnceEverySubmissionIsCancelled() throws Exception {
+        subpageDelayMillis = 200;
+        CrawlSubmission first = manager.submit(baseUrl);
+        CrawlSubmission second = manager.submit(baseUrl);
+        CrawlJob job = first.getJob();
+        Assert.assertSame(job, second.getJob());
+        Assert.assertNotEquals(first.getToken(), second.getToken());
+        await(homeRequested);
+        homeReleased.countDown();
+        // letting the crawl start on the subpages
+        sleep(300);
+
+        // another submission still waits for the crawl, however often the first one is cancelled
+        Assert.assertFalse(first.cancel());
+        Assert.assertFalse(first.cancel());
+        Assert.assertSame(job, manager.cancel(job.getId(), first.getToken()));
+        Assert.assertEquals(JobStatus.RUNNING, job.getStatus());
+        Assert.assertEquals(1, job.getSubmissions());
+        Assert.assertTrue(second.cancel());
+        job.getResult().get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(JobStatus.CANCELLED, job.getStatus());
+        Assert.assertTrue(job.getFinishedAtMillis() > 0);
+        // the subpages queued when the job was cancelled are never fetched
+        sleep(500);
+        Assert.assertTrue(subpageRequests.get() < SUBPAGES);
+        Assert.assertFalse(second.cancel());
+
+        // the partial results of the cancelled crawl are not cached: a new submission crawls again
+        CrawlJob next = manager.submit(baseUrl).getJob();
+        Assert.assertNotSame(job, next);
+        next.getResult().get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(JobStatus.COMPLETED, next.getStatus());
+        Assert.assertEquals(2, homeRequests.get());
+    }
+
+    @Test
+    public void onlyTheTokenOfASubmissionCancelsIt() throws Exception {
+        CrawlSubmission submission = manager.submit(baseUrl);
+        CrawlJob job = submission.getJob();
+        await(homeRequested);
+        Assert.assertSame(job, manager.cancel(job.getId(), "not-a-submission"));
+        Assert.assertSame(job, manager.cancel(job.getId(), null));
+        Assert.assertNull(manager.cancel("unknown-job", submission.getToken()));
+        Assert.assertEquals(1, job.getSubmissions());
+        homeReleased.countDown();
+        job.getResult().get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(JobStatus.COMPLETED, job.getStatus());
+    }
+
+    @Test
+    public void newCrawlsAreRejectedWhileTheCrawlSlotsAreTaken() throws Exception {
+        AdmissionController admission = new AdmissionController(1, 1000, 100, 7);
+        manager = newManager(admission);
+        CrawlJob job = manager.submit(baseUrl).getJob();
+        try {
+            manager.submit(baseUrl + "other");
+            Assert.fail("the crawl of another url should have been rejected");
+        } catch (CrawlRejectedException e) {
+            Assert.assertEquals(7, e.getRetryAfterSeconds());
+        }
+        // attaching to the running crawl does not need another slot
+        Assert.assertSame(job, manager.submit(baseUrl).getJob());
+        Assert.assertEquals(1, admission.getRejectedCrawls());
+        Assert.assertTrue(admission.isSaturated());
+
+        homeReleased.countDown();
+        job.getResult().get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(0, admission.getRunningCrawls());
+        CrawlJob other = manager.submit(baseUrl + "other").getJob();
+        other.getResult().get(30, TimeUnit.SECONDS);
+        Assert.assertEquals(JobStatus.COMPLETED, other.getStatus());
+    }
+
+    private CrawlJobManager newManager(AdmissionController admission) {
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, HostRateLimiter.getInstance(), fetcher,
+                2, ExtractionEngine.STREAMING, new PageCache(100), admission);
+        return new CrawlJobManager(services, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    private static void respond(HttpExchange exchange, String html) throws IOException {
+        byte[] body = html.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
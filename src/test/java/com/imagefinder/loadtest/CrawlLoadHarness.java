@@ -0,0 +1,361 @@
+package com.imagefinder.loadtest;
+
+import com.imagefinder.checkpoint.CheckpointConfig;
+import com.imagefinder.checkpoint.CheckpointStore;
+import com.imagefinder.checkpoint.CrawlCheckpoint;
+import com.imagefinder.cluster.ClusterNode;
+import com.imagefinder.cluster.ConsistentHashRing;
+import com.imagefinder.cluster.LocalClusterTransport;
+import com.imagefinder.cluster.ShardBy;
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.ObservableCrawlDataStorage;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.crawler.CrawlSpawner;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End-to-end load test of the crawler: concurrent crawls driven through CrawlSpawner.startCrawl against synthetic
+ * websites served on the loopback interface, for every combination of site shape and number of crawl threads. Every
+ * run reports the webpages fetched per second, the p50/p99 duration of a whole crawl, and the peak number of threads
+ * and peak heap usage of the JVM. Run it after mvn test-compile with
+ *     java -cp target/imagefinder-0.1.0-SNAPSHOT/WEB-INF/classes:target/test-classes:$(cat cp.txt)
+ *     com.imagefinder.loadtest.CrawlLoadHarness
+ * where cp.txt is written by mvn dependency:build-classpath -Dmdep.outputFile=cp.txt. It is configured with:
+ * - loadtest.shapes: site shapes (small, wide, heavy, slow, flaky, custom), default small,wide,slow,flaky
+ * - loadtest.threads: numbers of crawl threads, default 1,2,4,8,16
+ * - loadtest.crawls: concurrent crawls of a round, default 4
+ * - loadtest.rounds: measured rounds of every run, after a warm-up round, default 3
+ * - loadtest.politeness: true to space the requests with the per-host rate limiter, default false (all the
+ *   webpages are on the same host, so politeness would make the load test measure the rate limiter)
+ * - loadtest.serverThreads, loadtest.connections, loadtest.maxConcurrency: threads of the synthetic website,
+ *   connections of the fetcher and webpages in flight per crawl, default 64, 64 and 64
+ * - loadtest.nodes: number of cluster nodes the crawls are spread over, default 1 (no cluster). The nodes run in this
+ *   JVM, each with its own crawl threads, fetcher and webpages in flight, and share the webpages by url; the crawls
+ *   are started on the nodes in turn
+ * - loadtest.checkpoint: true to checkpoint every crawl to a temporary directory, default false. The records, bytes,
+ *   fsyncs and time spent in fsync by the writer thread are reported under every run, so that the pages/s with and
+ *   without checkpoints can be compared. A crawl over within a sync interval never writes its file. Cluster crawls
+ *   are not checkpointed
+ * - loadtest.checkpointSyncMs: sync interval of the checkpoints, default imagefinder.checkpoint.syncIntervalMs
+ * The custom shape is set with the loadtest.site.* properties (see SiteShape). Crawls are limited to the crawl depth,
+ * so only the home page and the webpages it links to are fetched. It is not a unit test: surefire only runs the
+ * classes ending with Test.
+ */
+public final class CrawlLoadHarness {
+
+    // hops from the home page fetched by a crawl: the home page and the webpages it links to
+    private static final int CRAWL_DEPTH = 1;
+    private static final AtomicInteger CRAWL_IDS = new AtomicInteger();
+
+    private CrawlLoadHarness() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        if (System.getProperty("imagefinder.store.dir") == null) {
+            // the crawl results are not persisted
+            System.setProperty("imagefinder.store.dir", "");
+        }
+        String[] shapes = System.getProperty("loadtest.shapes", "small,wide,slow,flaky").split(",");
+        int[] threadCounts = parseInts(System.getProperty("loadtest.threads", "1,2,4,8,16"));
+        int crawls = Integer.getInteger("loadtest.crawls", 4);
+        int rounds = Integer.getInteger("loadtest.rounds", 3);
+        int serverThreads = Integer.getInteger("loadtest.serverThreads", 64);
+        int nodes = Integer.getInteger("loadtest.nodes", 1);
+
+        System.out.printf("%-8s %7s %7s %9s %10s %10s %10s %8s %9s%n", "shape", "threads", "pages", "pages/s",
+                "p50 ms", "p99 ms", "errors", "threads", "heap MB");
+        for (String name : shapes) {
+            SiteShape shape = SiteShape.named(name.trim());
+            try (SyntheticSite site = new SyntheticSite(shape, serverThreads)) {
+                System.out.println("# " + shape + ", " + site.pagesWithinDepth(CRAWL_DEPTH)
+                        + " webpages per crawl, " + serverThreads + " server threads, " + nodes + " nodes");
+                for (int threads : threadCounts) {
+                    RunResult result = run(site, threads, crawls, rounds, nodes);
+                    System.out.printf(Locale.ROOT, "%-8s %7d %7d %9.1f %10d %10d %10d %8d %9.1f%n", shape.getName(),
+                            threads, result.pages, result.pagesPerSecond(), result.percentile(0.50),
+                            result.percentile(0.99), result.errors, result.peakThreads,
+                            result.peakHeapBytes / (1024.0 * 1024.0));
+                    if (result.checkpointRecords > 0) {
+                        System.out.printf(Locale.ROOT,
+                                "#   checkpoints: %d records, %.1f KB, %d fsyncs, %.1f ms in fsync%n",
+                                result.checkpointRecords, result.checkpointBytes / 1024.0, result.checkpointSyncs,
+                                result.checkpointSyncNanos / 1e6);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to run the rounds of concurrent crawls of a website with a number of crawl threads, on a single node
+     * @param site: website to crawl
+     * @param threads: number of crawl threads
+     * @param crawls: number of concurrent crawls of a round
+     * @param rounds: number of measured rounds
+     * @return the measures of the measured rounds
+     */
+    static RunResult run(SyntheticSite site, int threads, int crawls, int rounds)
+            throws InterruptedException, ExecutionException {
+        return run(site, threads, crawls, rounds, 1);
+    }
+
+    /**
+     * Method to run the rounds of concurrent crawls of a website with a number of crawl threads
+     * @param site: website to crawl
+     * @param threads: number of crawl threads of every node
+     * @param crawls: number of concurrent crawls of a round
+     * @param rounds: number of measured rounds
+     * @param nodes: number of cluster nodes, 1 to run the crawls without a cluster
+     * @return the measures of the measured rounds
+     */
+    static RunResult run(SyntheticSite site, int threads, int crawls, int rounds, int nodes)
+            throws InterruptedException, ExecutionException {
+        List<ExecutorService> executors = new ArrayList<>();
+        List<PooledPageFetcher> fetchers = new ArrayList<>();
+        ExecutorService crawlers = Executors.newFixedThreadPool(crawls, new DaemonThreadFactory("load-crawler-"));
+        executors.add(crawlers);
+        List<CrawlServices> services = new ArrayList<>();
+        LocalClusterTransport transport = null;
+        List<String> nodeIds = new ArrayList<>();
+        if (nodes > 1) {
+            ExecutorService transportExecutor = Executors.newFixedThreadPool(2,
+                    new DaemonThreadFactory("load-transport-"));
+            executors.add(transportExecutor);
+            transport = new LocalClusterTransport(transportExecutor);
+            for (int node = 0; node < nodes; node++) {
+                nodeIds.add("node" + node);
+            }
+        }
+        for (int node = 0; node < nodes; node++) {
+            ExecutorService crawlExecutor = Executors.newFixedThreadPool(threads,
+                    new DaemonThreadFactory("load-crawl-"));
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new DaemonThreadFactory("load-timer-"));
+            executors.add(crawlExecutor);
+            executors.add(scheduler);
+            int connections = Integer.getInteger("loadtest.connections", 64);
+            PooledPageFetcher fetcher = new PooledPageFetcher(new FetcherConfig(5_000, 30_000, 4 * 1024 * 1024,
+                    connections, connections, "ImageFinder-loadtest"));
+            fetchers.add(fetcher);
+            HostRateLimiter rateLimiter = Boolean.getBoolean("loadtest.politeness")
+                    ? new HostRateLimiter() : new UnlimitedRateLimiter();
+            ClusterNode clusterNode = null;
+            if (transport != null) {
+                // all the webpages are on the same host, so they are spread by url
+                clusterNode = new ClusterNode(nodeIds.get(node), new ConsistentHashRing(nodeIds, 64), ShardBy.URL,
+                        transport);
+                transport.register(clusterNode);
+            }
+            services.add(new CrawlServices(crawlExecutor, scheduler, rateLimiter, fetcher,
+                    Integer.getInteger("loadtest.maxConcurrency", 64), ExtractionEngine.STREAMING, null,
+                    AdmissionController.unlimited(), null, null, clusterNode));
+        }
+        CheckpointStore checkpoints = null;
+        try {
+            if (Boolean.getBoolean("loadtest.checkpoint")) {
+                checkpoints = CheckpointStore.open(Files.createTempDirectory("loadtest-checkpoints"),
+                        Long.getLong("loadtest.checkpointSyncMs",
+                                CheckpointConfig.getDefault().getSyncIntervalMillis()));
+            }
+            // warming the JIT and the connection pool up
+            runRound(site, services, crawlers, crawls, checkpoints);
+
+            System.gc();
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            threadBean.resetPeakThreadCount();
+            List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                    heapPools.add(pool);
+                }
+            }
+            long requestsBefore = site.getRequests();
+            long errorsBefore = site.getErrors();
+            long recordsBefore = checkpoints == null ? 0 : checkpoints.getWrittenRecords();
+            long bytesBefore = checkpoints == null ? 0 : checkpoints.getWrittenBytes();
+            long syncsBefore = checkpoints == null ? 0 : checkpoints.getSyncs();
+            long syncNanosBefore = checkpoints == null ? 0 : checkpoints.getSyncNanos();
+            List<Long> durations = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                durations.addAll(runRound(site, services, crawlers, crawls, checkpoints));
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            RunResult result;
+
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : heapPools) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+            result = new RunResult(site.getRequests() - requestsBefore, site.getErrors() - errorsBefore, elapsedNanos,
+                    durations, threadBean.getPeakThreadCount(), peakHeap);
+            if (checkpoints != null) {
+                // the records of the last crawls are written with the next batch
+                checkpoints.close();
+                result.setCheckpointMeasures(checkpoints.getWrittenRecords() - recordsBefore,
+                        checkpoints.getWrittenBytes() - bytesBefore, checkpoints.getSyncs() - syncsBefore,
+                        checkpoints.getSyncNanos() - syncNanosBefore);
+            }
+            return result;
+        } catch (IOException e) {
+            throw new ExecutionException("Could not open the checkpoint store", e);
+        } finally {
+            if (checkpoints != null) {
+                checkpoints.close();
+            }
+            for (ExecutorService executor : executors) {
+                executor.shutdownNow();
+            }
+            for (PooledPageFetcher fetcher : fetchers) {
+                fetcher.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Method to run concurrent crawls of a website, each from its own base url so that none is served from the cache
+     * @param services: services of every node, the crawls being started on the nodes in turn
+     * @param checkpoints: store checkpointing every crawl, null to run the crawls without checkpoints
+     * @return duration of every crawl in milliseconds
+     */
+    private static List<Long> runRound(SyntheticSite site, List<CrawlServices> services, ExecutorService crawlers,
+                                       int crawls, CheckpointStore checkpoints)
+            throws InterruptedException, ExecutionException {
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < crawls; i++) {
+            int crawlId = CRAWL_IDS.incrementAndGet();
+            String baseUrl = site.getBaseUrl() + "?crawl=" + crawlId;
+            CrawlServices nodeServices = services.get(i % services.size());
+            futures.add(crawlers.submit(() -> {
+                long start = System.nanoTime();
+                if (checkpoints == null) {
+                    new CrawlSpawner<>(baseUrl, new ConcurrentImageStorage(), new ImageParser(), nodeServices)
+                            .startCrawl();
+                } else {
+                    CrawlCheckpoint checkpoint = checkpoints.create("load-" + crawlId, baseUrl,
+                            CrawlBudget.getDefault());
+                    CrawlSpawner<Image> spawner = new CrawlSpawner<>(baseUrl,
+                            new ObservableCrawlDataStorage<>(new ConcurrentImageStorage(), checkpoint::recordImage),
+                            new ImageParser(), nodeServices);
+                    spawner.setCheckpoint(checkpoint);
+                    spawner.startCrawl();
+                    checkpoint.finish();
+                }
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }));
+        }
+        List<Long> durations = new ArrayList<>();
+        for (Future<Long> future : futures) {
+            durations.add(future.get());
+        }
+        return durations;
+    }
+
+    private static int[] parseInts(String values) {
+        String[] parts = values.split(",");
+        int[] ints = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ints[i] = Integer.parseInt(parts[i].trim());
+        }
+        return ints;
+    }
+
+    /**
+     * Rate limiter letting every request through right away, all the webpages of the load test being on one host
+     */
+    private static final class UnlimitedRateLimiter extends HostRateLimiter {
+        @Override
+        public long reserve(String host) {
+            return 0;
+        }
+    }
+
+    /**
+     * Measures of the rounds of a run
+     */
+    static final class RunResult {
+        private final long pages;
+        private final long errors;
+        private final long elapsedNanos;
+        private final long[] sortedDurations;
+        private final int peakThreads;
+        private final long peakHeapBytes;
+        private long checkpointRecords;
+        private long checkpointBytes;
+        private long checkpointSyncs;
+        private long checkpointSyncNanos;
+
+        RunResult(long pages, long errors, long elapsedNanos, List<Long> durations, int peakThreads,
+                  long peakHeapBytes) {
+            this.pages = pages;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedDurations = new long[durations.size()];
+            for (int i = 0; i < sortedDurations.length; i++) {
+                sortedDurations[i] = durations.get(i);
+            }
+            Arrays.sort(sortedDurations);
+            this.peakThreads = peakThreads;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        void setCheckpointMeasures(long records, long bytes, long syncs, long syncNanos) {
+            this.checkpointRecords = records;
+            this.checkpointBytes = bytes;
+            this.checkpointSyncs = syncs;
+            this.checkpointSyncNanos = syncNanos;
+        }
+
+        long getPages() {
+            return pages;
+        }
+
+        long getCheckpointRecords() {
+            return checkpointRecords;
+        }
+
+        double pagesPerSecond() {
+            return pages * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Method to get a percentile of the crawl durations (nearest rank)
+         * @param fraction: percentile between 0 and 1
+         * @return duration of a crawl in milliseconds
+         */
+        long percentile(double fraction) {
+            if (sortedDurations.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(fraction * sortedDurations.length);
+            return sortedDurations[Math.max(rank, 1) - 1];
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.imagefinder.loadtest;
+
+import java.util.Locale;
+
+/**
+ * Shape of a synthetic website: size and link structure of its webpages, and how its server behaves (latency
+ * distribution and error rate). The same shape and seed always generate the same website.
+ */
+public class SiteShape {
+
+    private static final String PROPERTY_PREFIX = "loadtest.site.";
+
+    private final String name;
+    private final int pages;
+    private final int fanOut;
+    private final int imagesPerPage;
+    private final int pageBytes;
+    private final int medianLatencyMs;
+    private final int p99LatencyMs;
+    private final double errorRate;
+    private final long seed;
+
+    /**
+     * Constructor for the SiteShape class
+     * @param name: name of the shape in the reports
+     * @param pages: number of webpages of the website
+     * @param fanOut: number of hyperlinks to other webpages of the website on every webpage
+     * @param imagesPerPage: number of images of every webpage, on top of the logo shared by all the webpages
+     * @param pageBytes: approximate size of every webpage, padded with text
+     * @param medianLatencyMs: median time taken by the server to answer
+     * @param p99LatencyMs: 99th percentile of the time taken by the server to answer (log-normal distribution)
+     * @param errorRate: fraction of the requests answered with a 500
+     * @param seed: seed of the cross links of the webpages
+     */
+    public SiteShape(String name, int pages, int fanOut, int imagesPerPage, int pageBytes, int medianLatencyMs,
+                     int p99LatencyMs, double errorRate, long seed) {
+        if (pages < 1 || fanOut < 0 || imagesPerPage < 0 || pageBytes < 0 || medianLatencyMs < 0
+                || p99LatencyMs < medianLatencyMs || errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Invalid site shape: " + name);
+        }
+        this.name = name;
+        this.pages = pages;
+        this.fanOut = fanOut;
+        this.imagesPerPage = imagesPerPage;
+        this.pageBytes = pageBytes;
+        this.medianLatencyMs = medianLatencyMs;
+        this.p99LatencyMs = p99LatencyMs;
+        this.errorRate = errorRate;
+        this.seed = seed;
+    }
+
+    /**
+     * Method to get one of the predefined shapes, or the custom shape configured with the loadtest.site.* system
+     * properties (pages, fanOut, imagesPerPage, pageBytes, medianLatencyMs, p99LatencyMs, errorRate, seed)
+     * @param name: small, wide, heavy, slow, flaky or custom
+     * @return shape of the website
+     */
+    public static SiteShape named(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "small":
+                return new SiteShape("small", 51, 50, 10, 20_000, 5, 50, 0.0, 1L);
+            case "wide":
+                return new SiteShape("wide", 1_001, 1_000, 20, 40_000, 5, 50, 0.0, 1L);
+            case "heavy":
+                return new SiteShape("heavy", 201, 200, 60, 250_000, 10, 100, 0.0, 1L);
+            case "slow":
+                return new SiteShape("slow", 201, 200, 20, 40_000, 200, 2_000, 0.0, 1L);
+            case "flaky":
+                return new SiteShape("flaky", 201, 200, 20, 40_000, 20, 500, 0.1, 1L);
+            case "custom":
+                return fromSystemProperties();
+            default:
+                throw new IllegalArgumentException("Unknown site shape: " + name);
+        }
+    }
+
+    /**
+     * Method to create the shape from the system properties, falling back to the small shape
+     * @return shape of the website
+     */
+    public static SiteShape fromSystemProperties() {
+        return new SiteShape("custom",
+                Integer.getInteger(PROPERTY_PREFIX + "pages", 51),
+                Integer.getInteger(PROPERTY_PREFIX + "fanOut", 50),
+                Integer.getInteger(PROPERTY_PREFIX + "imagesPerPage", 10),
+                Integer.getInteger(PROPERTY_PREFIX + "pageBytes", 20_000),
+                Integer.getInteger(PROPERTY_PREFIX + "medianLatencyMs", 5),
+                Integer.getInteger(PROPERTY_PREFIX + "p99LatencyMs", 50),
+                Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "errorRate", "0")),
+                Long.getLong(PROPERTY_PREFIX + "seed", 1L));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPages() {
+        return pages;
+    }
+
+    public int getFanOut() {
+        return fanOut;
+    }
+
+    public int getImagesPerPage() {
+        return imagesPerPage;
+    }
+
+    public int getPageBytes() {
+        return pageBytes;
+    }
+
+    public int getMedianLatencyMs() {
+        return medianLatencyMs;
+    }
+
+    public int getP99LatencyMs() {
+        return p99LatencyMs;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s(pages=%d, fanOut=%d, images=%d, bytes=%d, latency p50/p99=%d/%dms, "
+                        + "errors=%.0f%%)", name, pages, fanOut, imagesPerPage, pageBytes, medianLatencyMs,
+                p99LatencyMs, errorRate * 100);
+    }
+}
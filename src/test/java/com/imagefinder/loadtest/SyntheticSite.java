@@ -0,0 +1,238 @@
+package com.imagefinder.loadtest;
+
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Website generated from a SiteShape and served by an embedded HTTP server on the loopback interface, so that the
+ * crawls can be load tested without any network and against the same website every time. Webpage i links to its
+ * children i * fanOut + 1 ... i * fanOut + fanOut, so that the website is a tree when crawled from /, and the links
+ * beyond the last webpage are cross links to seeded random webpages other than the home page. Every webpage has its
+ * own images and the logo shared by the whole website. Any query of the home page url serves the home page, so that
+ * every crawl can start from its own base url.
+ */
+public class SyntheticSite implements AutoCloseable {
+
+    private static final double Z_99 = 2.326;
+
+    private final SiteShape shape;
+    private final HttpServer server;
+    private final ExecutorService serverExecutor;
+    private final int serverThreads;
+    // webpages served, with a 200 or a 500
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    // sigma of the log-normal latency distribution
+    private final double latencySigma;
+
+    /**
+     * Constructor to start serving a synthetic website
+     * @param shape: shape of the website
+     * @param serverThreads: number of threads of the server, requests are queued beyond them
+     * @throws IOException if the server cannot be started
+     */
+    public SyntheticSite(SiteShape shape, int serverThreads) throws IOException {
+        this.shape = shape;
+        this.serverThreads = serverThreads;
+        this.latencySigma = shape.getMedianLatencyMs() == 0 ? 0
+                : Math.log((double) shape.getP99LatencyMs() / shape.getMedianLatencyMs()) / Z_99;
+        this.serverExecutor = Executors.newFixedThreadPool(serverThreads, new DaemonThreadFactory("synthetic-site-"));
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        this.server.setExecutor(serverExecutor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * Method to get the url of the home page of the website
+     * @return base url to crawl
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public SiteShape getShape() {
+        return shape;
+    }
+
+    public int getServerThreads() {
+        return serverThreads;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    /**
+     * Method to get the hyperlinks of a webpage
+     * @param page: index of the webpage
+     * @return indexes of the webpages it links to
+     */
+    public int[] linksOf(int page) {
+        int[] links = new int[shape.getFanOut()];
+        for (int k = 0; k < links.length; k++) {
+            long child = (long) page * shape.getFanOut() + 1 + k;
+            links[k] = child < shape.getPages() ? (int) child : crossLink(page, k);
+        }
+        return links;
+    }
+
+    /**
+     * Method to count the webpages reachable from the home page within a number of hops, i.e. the webpages a crawl
+     * limited to that depth fetches
+     * @param depth: maximum number of hops from the home page
+     * @return number of reachable webpages
+     */
+    public int pagesWithinDepth(int depth) {
+        boolean[] reached = new boolean[shape.getPages()];
+        reached[0] = true;
+        int count = 1;
+        Deque<int[]> queue = new ArrayDeque<>();
+        queue.add(new int[]{0, 0});
+        while (!queue.isEmpty()) {
+            int[] entry = queue.poll();
+            if (entry[1] == depth) {
+                continue;
+            }
+            for (int link : linksOf(entry[0])) {
+                if (!reached[link]) {
+                    reached[link] = true;
+                    count++;
+                    queue.add(new int[]{link, entry[1] + 1});
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method to generate the markup of a webpage
+     * @param page: index of the webpage
+     * @return html of the webpage
+     */
+    public String render(int page) {
+        StringBuilder html = new StringBuilder(shape.getPageBytes() + 1024)
+                .append("<!DOCTYPE html><html><head><title>Page ").append(page).append("</title></head><body>")
+                .append("<header><img src=\"/static/logo.png\" alt=\"Synthetic logo\"></header>");
+        for (int link : linksOf(page)) {
+            html.append("<a href=\"").append(pathOf(link)).append("\">Page ").append(link).append("</a> ");
+        }
+        for (int k = 0; k < shape.getImagesPerPage(); k++) {
+            html.append("<img src=\"/images/").append(page).append('-').append(k).append(".jpg\" alt=\"Photo ")
+                    .append(k).append("\">");
+        }
+        while (html.length() < shape.getPageBytes()) {
+            html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor "
+                    + "incididunt ut labore et dolore magna aliqua.</p>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    /**
+     * Method to get the path of a webpage
+     * @param page: index of the webpage
+     * @return path of the webpage, "/" for the home page
+     */
+    public static String pathOf(int page) {
+        return page == 0 ? "/" : "/page/" + page;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            int page = pageOf(exchange.getRequestURI().getPath());
+            if (page < 0) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            sleepQuietly(sampleLatencyMs());
+            requests.incrementAndGet();
+            if (shape.getErrorRate() > 0 && ThreadLocalRandom.current().nextDouble() < shape.getErrorRate()) {
+                errors.incrementAndGet();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            byte[] body = render(page).getBytes(StandardCharsets.UTF_8);
+            bytesServed.addAndGet(body.length);
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private int pageOf(String path) {
+        if ("/".equals(path)) {
+            return 0;
+        }
+        if (!path.startsWith("/page/")) {
+            return -1;
+        }
+        try {
+            int page = Integer.parseInt(path.substring("/page/".length()));
+            return page > 0 && page < shape.getPages() ? page : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int crossLink(int page, int k) {
+        // splitmix64 of the seed, webpage and link, so that the cross links are the same on every run
+        long z = shape.getSeed() + 0x9e3779b97f4a7c15L * (((long) page << 16) + k + 1);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        z = z ^ (z >>> 31);
+        // never the home page, so that a crawl started from any url of the home page does not fetch it twice
+        return shape.getPages() == 1 ? 0 : 1 + (int) Math.floorMod(z, (long) shape.getPages() - 1);
+    }
+
+    private long sampleLatencyMs() {
+        if (shape.getMedianLatencyMs() == 0) {
+            return 0;
+        }
+        double latency = shape.getMedianLatencyMs()
+                * Math.exp(latencySigma * ThreadLocalRandom.current().nextGaussian());
+        return Math.round(latency);
+    }
+
+    private static void sleepQuietly(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
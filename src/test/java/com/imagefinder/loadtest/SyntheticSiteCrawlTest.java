@@ -0,0 +1,81 @@
+package com.imagefinder.loadtest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the synthetic website is generated as shaped and that the load test harness crawls it completely
+ */
+public class SyntheticSiteCrawlTest {
+
+    static {
+        // the crawl results are not persisted
+        System.setProperty("imagefinder.store.dir", "");
+    }
+
+    @Test
+    public void websiteIsATreeOfTheShape() throws Exception {
+        SiteShape shape = new SiteShape("tree", 21, 4, 3, 2_000, 0, 0, 0.0, 7L);
+        try (SyntheticSite site = new SyntheticSite(shape, 4)) {
+            Assert.assertEquals(21, site.pagesWithinDepth(2));
+            Assert.assertEquals(5, site.pagesWithinDepth(1));
+            Assert.assertArrayEquals(new int[]{1, 2, 3, 4}, site.linksOf(0));
+            for (int link : site.linksOf(20)) {
+                // cross links never lead back to the home page
+                Assert.assertTrue(link > 0 && link < 21);
+            }
+            Assert.assertTrue(site.render(3).length() >= 2_000);
+            Assert.assertArrayEquals(site.linksOf(17), new SyntheticSite(shape, 1).linksOf(17));
+        }
+    }
+
+    @Test
+    public void harnessFetchesEveryWebpageOncePerCrawl() throws Exception {
+        // the home page links to all the other webpages, so that a crawl fetches all of them
+        SiteShape shape = new SiteShape("star", 21, 20, 3, 2_000, 1, 5, 0.0, 7L);
+        try (SyntheticSite site = new SyntheticSite(shape, 8)) {
+            CrawlLoadHarness.RunResult result = CrawlLoadHarness.run(site, 2, 2, 1);
+            // the warm-up round is not measured
+            Assert.assertEquals(2 * 21, result.getPages());
+            Assert.assertEquals(4 * 21, site.getRequests());
+            Assert.assertTrue(result.percentile(0.99) >= result.percentile(0.5));
+            Assert.assertTrue(result.pagesPerSecond() > 0);
+        }
+    }
+
+    @Test
+    public void clusterFetchesEveryWebpageOncePerCrawl() throws Exception {
+        SiteShape shape = new SiteShape("star", 21, 20, 3, 2_000, 1, 5, 0.0, 7L);
+        try (SyntheticSite site = new SyntheticSite(shape, 8)) {
+            CrawlLoadHarness.RunResult result = CrawlLoadHarness.run(site, 2, 2, 1, 3);
+            // the webpages are spread over the nodes, not fetched by each of them
+            Assert.assertEquals(2 * 21, result.getPages());
+            Assert.assertEquals(4 * 21, site.getRequests());
+        }
+    }
+
+    @Test
+    public void harnessMeasuresTheCheckpointsOfTheCrawls() throws Exception {
+        SiteShape shape = new SiteShape("star", 21, 20, 3, 2_000, 1, 5, 0.0, 7L);
+        System.setProperty("loadtest.checkpoint", "true");
+        // a crawl over within a sync interval would not write its file
+        System.setProperty("loadtest.checkpointSyncMs", "1");
+        try (SyntheticSite site = new SyntheticSite(shape, 8)) {
+            CrawlLoadHarness.RunResult result = CrawlLoadHarness.run(site, 2, 2, 1);
+            Assert.assertEquals(2 * 21, result.getPages());
+            Assert.assertTrue(result.getCheckpointRecords() > 0);
+        } finally {
+            System.clearProperty("loadtest.checkpoint");
+            System.clearProperty("loadtest.checkpointSyncMs");
+        }
+    }
+
+    @Test
+    public void crawlsCompleteDespiteServerErrors() throws Exception {
+        SiteShape shape = new SiteShape("flaky", 21, 20, 3, 2_000, 0, 0, 0.3, 7L);
+        try (SyntheticSite site = new SyntheticSite(shape, 8)) {
+            CrawlLoadHarness.RunResult result = CrawlLoadHarness.run(site, 2, 2, 2);
+            Assert.assertTrue(result.getPages() <= 4 * 21);
+        }
+    }
+}
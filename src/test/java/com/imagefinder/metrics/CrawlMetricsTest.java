@@ -0,0 +1,88 @@
+package com.imagefinder.metrics;
+
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the histograms and the Prometheus exposition of the crawl metrics
+ */
+public class CrawlMetricsTest {
+
+    @Test
+    public void histogramBucketsAreCumulative() {
+        Histogram histogram = Histogram.ofMillis(5, 10, 25);
+        histogram.record(1_000_000L);
+        histogram.record(7_000_000L);
+        histogram.record(10_000_000L);
+        histogram.record(40_000_000L);
+        PrometheusWriter writer = new PrometheusWriter();
+        histogram.writeTo(writer, "latency_seconds", PrometheusWriter.label("host", "example.com"));
+        String text = writer.toString();
+
+        Assert.assertTrue(text, text.contains("latency_seconds_bucket{host=\"example.com\",le=\"0.005\"} 1\n"));
+        Assert.assertTrue(text, text.contains("latency_seconds_bucket{host=\"example.com\",le=\"0.01\"} 3\n"));
+        Assert.assertTrue(text, text.contains("latency_seconds_bucket{host=\"example.com\",le=\"0.025\"} 3\n"));
+        Assert.assertTrue(text, text.contains("latency_seconds_bucket{host=\"example.com\",le=\"+Inf\"} 4\n"));
+        Assert.assertTrue(text, text.contains("latency_seconds_count{host=\"example.com\"} 4\n"));
+        Assert.assertEquals(4, histogram.getCount());
+        Assert.assertEquals(0.058, histogram.getSum(), 1e-9);
+    }
+
+    @Test
+    public void labelValuesAreEscaped() {
+        Assert.assertEquals("host=\"a\\\"b\\\\c\\nd\"", PrometheusWriter.label("host", "a\"b\\c\nd"));
+    }
+
+    @Test
+    public void hostsBeyondTheLimitAreRecordedTogether() {
+        CrawlMetrics metrics = new CrawlMetrics(2);
+        metrics.recordFetch("a.com", 1_000_000L, 200, 100);
+        metrics.recordFetch("b.com", 1_000_000L, 404, 50);
+        metrics.recordFetch("c.com", 1_000_000L, 200, 10);
+        metrics.recordFetch("d.com", 1_000_000L, 503, 0);
+        metrics.recordFetch("a.com", 1_000_000L, 301, 0);
+        PrometheusWriter writer = new PrometheusWriter();
+        metrics.writeTo(writer);
+        String text = writer.toString();
+
+        Assert.assertTrue(text, text.contains("imagefinder_fetch_duration_seconds_count{host=\"a.com\"} 2\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_fetch_duration_seconds_count{host=\"b.com\"} 1\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_fetch_duration_seconds_count{host=\"other\"} 2\n"));
+        Assert.assertFalse(text, text.contains("host=\"c.com\""));
+        Assert.assertTrue(text, text.contains("imagefinder_fetch_responses_total{status=\"2xx\"} 2\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_fetch_responses_total{status=\"3xx\"} 1\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_fetch_responses_total{status=\"4xx\"} 1\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_fetch_responses_total{status=\"5xx\"} 1\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_fetch_bytes_total 160\n"));
+    }
+
+    @Test
+    public void stagesAndCrawlsAreExported() {
+        CrawlMetrics metrics = new CrawlMetrics(16);
+        metrics.recordExtraction(ExtractionEngine.STREAMING, 200_000L);
+        metrics.recordParse(ImageParser.class, 80_000L);
+        metrics.recordParse(ImageParser.class, 120_000L);
+        metrics.recordLocalCacheLookup(true);
+        metrics.recordLocalCacheLookup(false);
+        metrics.recordLocalCacheLookup(false);
+        metrics.recordPageFetched();
+        metrics.recordCrawl(12, 40, 1_500);
+        PrometheusWriter writer = new PrometheusWriter();
+        metrics.writeTo(writer);
+        String text = writer.toString();
+
+        Assert.assertTrue(text, text.contains("# TYPE imagefinder_parse_duration_seconds histogram\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_parse_duration_seconds_count{parser=\"ImageParser\"} 2\n"));
+        Assert.assertTrue(text, text.contains(
+                "imagefinder_extraction_duration_seconds_count{engine=\"streaming\"} 1\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_local_cache_lookups_total{result=\"hit\"} 1\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_local_cache_lookups_total{result=\"miss\"} 2\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_pages_fetched_total 1\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_crawl_pages_bucket{le=\"10\"} 0\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_crawl_pages_bucket{le=\"25\"} 1\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_crawl_images_sum 40\n"));
+        Assert.assertTrue(text, text.contains("imagefinder_crawl_duration_seconds_sum 1.5\n"));
+    }
+}
@@ -0,0 +1,55 @@
+package com.imagefinder.politeness;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the rate limiter drops the buckets of the idle hosts, and that it remembers their crawl delay, back
+ * off and learned rate
+ */
+public class HostRateLimiterTest {
+
+    private static final long IDLE_TTL_MILLIS = 50;
+    // past the idle TTL and the time a bucket takes to refill from empty at the initial rate
+    private static final long IDLE_TIME_MILLIS = 400;
+
+    @Test
+    public void dropsTheBucketsOfIdleHosts() throws InterruptedException {
+        HostRateLimiter rateLimiter = new HostRateLimiter(IDLE_TTL_MILLIS);
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.reserve("host" + i + ".test");
+        }
+        Assert.assertEquals(100, rateLimiter.getHostCount());
+        // the first reservation after the idle TTL sweeps the buckets, refilled by then
+        Thread.sleep(IDLE_TIME_MILLIS);
+        Assert.assertEquals(0, rateLimiter.reserve("active.test"));
+        Assert.assertEquals(1, rateLimiter.getHostCount());
+        // a dropped host starts over with a full bucket
+        Assert.assertEquals(0, rateLimiter.reserve("host0.test"));
+        Assert.assertEquals(2, rateLimiter.getHostCount());
+    }
+
+    @Test
+    public void remembersTheCrawlDelaysBackOffsAndLearnedRatesOfDroppedHosts() throws InterruptedException {
+        HostRateLimiter rateLimiter = new HostRateLimiter(IDLE_TTL_MILLIS);
+        // robots.txt files are fetched before the first request to their host
+        rateLimiter.setCrawlDelay("delayed.test", TimeUnit.SECONDS.toMillis(10));
+        rateLimiter.onResponse("busy.test", 429, 0, TimeUnit.SECONDS.toMillis(30));
+        rateLimiter.onResponse("fast.test", 200, 0, -1);
+        rateLimiter.reserve("idle.test");
+        Thread.sleep(IDLE_TIME_MILLIS);
+        rateLimiter.reserve("active.test");
+        Assert.assertEquals(1, rateLimiter.getHostCount());
+        Assert.assertEquals(3, rateLimiter.getProfileCount());
+
+        // the next buckets of the hosts start from their profile
+        Assert.assertEquals(0.1, rateLimiter.getRate("delayed.test"), 1e-9);
+        Assert.assertEquals(5.0, rateLimiter.getRate("busy.test"), 1e-9);
+        Assert.assertTrue(rateLimiter.reserve("busy.test") > TimeUnit.SECONDS.toNanos(20));
+        Assert.assertEquals(10.5, rateLimiter.getRate("fast.test"), 1e-9);
+        Assert.assertEquals(10.0, rateLimiter.getRate("idle.test"), 1e-9);
+        Assert.assertEquals(0, rateLimiter.getProfileCount());
+    }
+}
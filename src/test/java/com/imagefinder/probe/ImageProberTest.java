@@ -0,0 +1,295 @@
+package com.imagefinder.probe;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.CrawlDataStorage;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.crawler.CrawlSpawner;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the sniffing of the image headers, and the probing and filtering of the images found by a crawl
+ */
+public class ImageProberTest {
+
+    static {
+        // the crawl results are not persisted
+        System.setProperty("imagefinder.store.dir", "");
+    }
+
+    private static final int PROBE_BYTES = 1024;
+
+    private HttpServer server;
+    private String baseUrl;
+    private PooledPageFetcher fetcher;
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+    private final Map<String, byte[]> images = new HashMap<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final List<Integer> bodyBytesSent = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        images.put("/pixel.gif", gif(1, 1));
+        images.put("/photo.png", png(640, 480));
+        images.put("/photo.jpg", jpeg(400, 300));
+        images.put("/spacer.gif", gif(1, 40));
+        // larger than the probe, served without honouring the range
+        byte[] big = Arrays.copyOf(png(1920, 1080), 256 * 1024);
+        images.put("/big.png", big);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        fetcher = new PooledPageFetcher(new FetcherConfig(2000, 2000, 1024 * 1024, 4, 4, "test"));
+        crawlExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("test-timer-"));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        fetcher.shutdown();
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void sniffsFormatsAndDimensions() {
+        assertDimensions("image/png", 640, 480, ImageHeaderSniffer.sniff(206, png(640, 480), 5000));
+        assertDimensions("image/gif", 1, 1, ImageHeaderSniffer.sniff(200, gif(1, 1), 43));
+        assertDimensions("image/jpeg", 400, 300, ImageHeaderSniffer.sniff(206, jpeg(400, 300), -1));
+        byte[] webp = new byte[30];
+        System.arraycopy("RIFF".getBytes(StandardCharsets.ISO_8859_1), 0, webp, 0, 4);
+        System.arraycopy("WEBPVP8X".getBytes(StandardCharsets.ISO_8859_1), 0, webp, 8, 8);
+        // canvas of 1024x768, stored minus one on 24 bits
+        webp[24] = (byte) 0xff;
+        webp[25] = 0x03;
+        webp[27] = (byte) 0xff;
+        webp[28] = 0x02;
+        assertDimensions("image/webp", 1024, 768, ImageHeaderSniffer.sniff(200, webp, 30));
+        byte[] svg = "<?xml version=\"1.0\"?>\n<svg xmlns=\"http://www.w3.org/2000/svg\"></svg>"
+                .getBytes(StandardCharsets.UTF_8);
+        assertDimensions("image/svg+xml", -1, -1, ImageHeaderSniffer.sniff(200, svg, svg.length));
+        // a JPEG whose frame header lies beyond the bytes fetched
+        ImageMetadata cut = ImageHeaderSniffer.sniff(206, Arrays.copyOf(jpeg(400, 300), 10), -1);
+        assertDimensions("image/jpeg", -1, -1, cut);
+        Assert.assertNull(ImageHeaderSniffer.sniff(200, "<html>".getBytes(StandardCharsets.UTF_8), 6));
+    }
+
+    @Test
+    public void probesAreFilteredAndDeduplicated() {
+        ImageProber prober = newProber();
+        List<Image> page1 = images("/pixel.gif", "/photo.png", "/photo.jpg", "/missing.png", "/not-found.jpg",
+                "/big.png", "/spacer.gif");
+        List<Image> page2 = images("/photo.png", "/pixel.gif");
+        Collection<Image> kept1 = prober.enrich(page1).join();
+        Collection<Image> kept2 = prober.enrich(page2).join();
+
+        Assert.assertEquals(urls("/photo.png", "/photo.jpg", "/big.png"), urlsOf(kept1));
+        Assert.assertEquals(urls("/photo.png"), urlsOf(kept2));
+        Image photo = kept1.iterator().next();
+        Assert.assertEquals("image/png", photo.getContentType());
+        Assert.assertEquals(Integer.valueOf(640), photo.getWidth());
+        Assert.assertEquals(Integer.valueOf(480), photo.getHeight());
+        Assert.assertEquals(Long.valueOf(images.get("/photo.png").length), photo.getByteSize());
+        for (Image image : kept1) {
+            if (image.getUrl().endsWith("/big.png")) {
+                Assert.assertEquals(Integer.valueOf(1920), image.getWidth());
+                Assert.assertEquals(Long.valueOf(256 * 1024), image.getByteSize());
+            }
+        }
+
+        // every image is requested once, whatever the number of webpages it is found on
+        for (Map.Entry<String, AtomicInteger> path : requests.entrySet()) {
+            Assert.assertEquals(path.getKey(), 1, path.getValue().get());
+        }
+        Assert.assertEquals(7, prober.getProbesSent());
+        Assert.assertEquals(2, prober.getCacheHits());
+        Assert.assertEquals(5, prober.getImagesDropped());
+    }
+
+    @Test
+    public void crawlStoresTheProbedImagesOnly() {
+        ImageProber prober = newProber();
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, new UnlimitedRateLimiter(), fetcher, 4,
+                ExtractionEngine.STREAMING, null);
+        CrawlDataStorage<Image> result = new CrawlSpawner<>(baseUrl + "/?probe", new ConcurrentImageStorage(),
+                new ImageParser(), prober, services).startCrawl();
+
+        Assert.assertEquals(urls("/photo.png", "/photo.jpg"), urlsOf(result.retrieveData()));
+        for (Image image : result.retrieveData()) {
+            Assert.assertNotNull(image.getWidth());
+            Assert.assertEquals(Category.GENERAL, image.getCategory());
+        }
+    }
+
+    private ImageProber newProber() {
+        return new ImageProber(fetcher, new UnlimitedRateLimiter(), scheduler,
+                new ProbeConfig(true, PROBE_BYTES, 4, 5, 1000, 2));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if ("/".equals(path)) {
+                byte[] body = ("<html><body><img src='/pixel.gif'><img src='/photo.png'><img src='/photo.jpg'>"
+                        + "<img src='/missing.png'><img src='/spacer.gif'></body></html>")
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+            requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            if ("/not-found.jpg".equals(path)) {
+                // a soft 404: an HTML page served with a 200
+                byte[] body = "<html><body>Not found</body></html>".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "text/html");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                return;
+            }
+            byte[] image = images.get(path);
+            if (image == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            byte[] body = image;
+            if (range != null && !"/big.png".equals(path)) {
+                int end = Math.min(image.length, Integer.parseInt(range.substring(range.indexOf('-') + 1)) + 1);
+                body = Arrays.copyOf(image, end);
+                exchange.getResponseHeaders().add("Content-Range", "bytes 0-" + (end - 1) + "/" + image.length);
+                exchange.sendResponseHeaders(206, body.length);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+            }
+            synchronized (bodyBytesSent) {
+                bodyBytesSent.add(body.length);
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            } catch (IOException e) {
+                // the prober drops the connection once it has read enough of an image ignoring the range
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private List<Image> images(String... paths) {
+        List<Image> list = new ArrayList<>();
+        for (String path : paths) {
+            list.add(new Image(baseUrl + path, Category.GENERAL));
+        }
+        return list;
+    }
+
+    private List<String> urls(String... paths) {
+        List<String> list = new ArrayList<>();
+        for (String path : paths) {
+            list.add(baseUrl + path);
+        }
+        list.sort(null);
+        return list;
+    }
+
+    private static List<String> urlsOf(Collection<Image> images) {
+        List<String> list = new ArrayList<>();
+        for (Image image : images) {
+            list.add(image.getUrl());
+        }
+        list.sort(null);
+        return list;
+    }
+
+    private static void assertDimensions(String contentType, int width, int height, ImageMetadata metadata) {
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals(contentType, metadata.getContentType());
+        Assert.assertEquals(width, metadata.getWidth());
+        Assert.assertEquals(height, metadata.getHeight());
+    }
+
+    private static byte[] png(int width, int height) {
+        byte[] png = new byte[64];
+        byte[] header = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'};
+        System.arraycopy(header, 0, png, 0, header.length);
+        writeInt(png, 16, width);
+        writeInt(png, 20, height);
+        return png;
+    }
+
+    private static byte[] gif(int width, int height) {
+        byte[] gif = new byte[43];
+        System.arraycopy("GIF89a".getBytes(StandardCharsets.ISO_8859_1), 0, gif, 0, 6);
+        gif[6] = (byte) width;
+        gif[7] = (byte) (width >> 8);
+        gif[8] = (byte) height;
+        gif[9] = (byte) (height >> 8);
+        return gif;
+    }
+
+    private static byte[] jpeg(int width, int height) {
+        byte[] jpeg = new byte[64];
+        // SOI, then an APP0 segment of 16 bytes and the SOF0 frame header
+        byte[] start = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, 0, 16};
+        System.arraycopy(start, 0, jpeg, 0, start.length);
+        int sof = 4 + 16;
+        jpeg[sof] = (byte) 0xff;
+        jpeg[sof + 1] = (byte) 0xc0;
+        jpeg[sof + 3] = 17;
+        jpeg[sof + 4] = 8;
+        jpeg[sof + 5] = (byte) (height >> 8);
+        jpeg[sof + 6] = (byte) height;
+        jpeg[sof + 7] = (byte) (width >> 8);
+        jpeg[sof + 8] = (byte) width;
+        return jpeg;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Rate limiter letting every request through right away, all the images of the test being on one host
+     */
+    private static final class UnlimitedRateLimiter extends HostRateLimiter {
+        @Override
+        public long reserve(String host) {
+            return 0;
+        }
+    }
+}
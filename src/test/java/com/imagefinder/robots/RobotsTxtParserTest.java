@@ -0,0 +1,152 @@
+package com.imagefinder.robots;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks the parsing of the robots.txt files and of the sitemaps
+ */
+public class RobotsTxtParserTest {
+
+    private static final String ROBOTS_URL = "https://example.com/robots.txt";
+
+    @Test
+    public void agentGroupWinsOverWildcardGroup() {
+        String robots = "# comment\n"
+                + "User-agent: *\n"
+                + "Disallow: /\n"
+                + "Crawl-delay: 10\n"
+                + "\n"
+                + "User-agent: OtherBot\n"
+                + "User-agent: imagefinder/0.1\n"
+                + "Disallow: /private/\n"
+                + "Allow: /private/public-*.html$\n"
+                + "Crawl-delay: 0.5\n"
+                + "Sitemap: /sitemap.xml\n";
+        RobotsRules rules = RobotsTxtParser.parse(robots, "ImageFinder", ROBOTS_URL);
+
+        Assert.assertTrue(rules.isAllowed("https://example.com/"));
+        Assert.assertTrue(rules.isAllowed("https://example.com/images/a.html"));
+        Assert.assertFalse(rules.isAllowed("https://example.com/private/a.html"));
+        Assert.assertTrue(rules.isAllowed("https://example.com/private/public-a.html"));
+        Assert.assertFalse(rules.isAllowed("https://example.com/private/public-a.html?page=2"));
+        Assert.assertEquals(500, rules.getCrawlDelayMillis());
+        Assert.assertEquals(Arrays.asList("https://example.com/sitemap.xml"), rules.getSitemaps());
+
+        RobotsRules otherAgent = RobotsTxtParser.parse(robots, "SomeCrawler", ROBOTS_URL);
+        Assert.assertFalse(otherAgent.isAllowed("https://example.com/images/a.html"));
+        Assert.assertTrue(otherAgent.isAllowed("https://example.com/robots.txt"));
+        Assert.assertEquals(10_000, otherAgent.getCrawlDelayMillis());
+    }
+
+    @Test
+    public void longestMatchWinsAndAllowWinsTies() {
+        String robots = "User-agent: *\n"
+                + "Disallow: /*.gif$\n"
+                + "Disallow: /shop\n"
+                + "Allow: /shop\n"
+                + "Disallow: /search?\n"
+                + "Disallow:\n"
+                + "Allow: /assets/*/logo.gif$\n";
+        RobotsRules rules = RobotsTxtParser.parse(robots, "ImageFinder", ROBOTS_URL);
+
+        Assert.assertFalse(rules.isPathAllowed("/a/b.gif"));
+        Assert.assertTrue(rules.isPathAllowed("/a/b.gif?size=2"));
+        Assert.assertTrue(rules.isPathAllowed("/assets/v2/logo.gif"));
+        Assert.assertTrue(rules.isPathAllowed("/shop/cart"));
+        Assert.assertFalse(rules.isPathAllowed("/search?q=cats"));
+        Assert.assertTrue(rules.isPathAllowed("/search"));
+    }
+
+    @Test
+    public void unparseableContentAllowsEverything() {
+        RobotsRules rules = RobotsTxtParser.parse("<html><body>Not found: try http://example.com</body></html>",
+                "ImageFinder", ROBOTS_URL);
+        Assert.assertTrue(rules.isAllowed("https://example.com/any/page"));
+        Assert.assertEquals(-1, rules.getCrawlDelayMillis());
+        Assert.assertTrue(rules.getSitemaps().isEmpty());
+    }
+
+    @Test
+    public void sitemapsAreStreamedUntilTheHandlerStops() throws IOException {
+        String urlSet = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n"
+                + "  <url><loc>https://example.com/a</loc><lastmod>2024-01-01</lastmod></url>\n"
+                + "  <url><loc> https://example.com/b?x=1&amp;y=2 </loc></url>\n"
+                + "  <url><loc>https://example.com/c</loc></url>\n"
+                + "</urlset>";
+        RecordingHandler handler = new RecordingHandler(2);
+        SitemapParser.parse(new ByteArrayInputStream(gzip(urlSet)), handler);
+        Assert.assertEquals(Arrays.asList("https://example.com/a", "https://example.com/b?x=1&y=2"), handler.pages);
+
+        String index = "<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">"
+                + "<sitemap><loc>https://example.com/s1.xml</loc></sitemap>"
+                + "<sitemap><loc>https://example.com/s2.xml.gz</loc></sitemap></sitemapindex>";
+        handler = new RecordingHandler(10);
+        SitemapParser.parse(new ByteArrayInputStream(index.getBytes(StandardCharsets.UTF_8)), handler);
+        Assert.assertEquals(Arrays.asList("https://example.com/s1.xml", "https://example.com/s2.xml.gz"),
+                handler.sitemaps);
+        Assert.assertTrue(handler.pages.isEmpty());
+
+        handler = new RecordingHandler(10);
+        SitemapParser.parse(new ByteArrayInputStream("https://example.com/a\n\nhttps://example.com/b\n"
+                .getBytes(StandardCharsets.UTF_8)), handler);
+        Assert.assertEquals(Arrays.asList("https://example.com/a", "https://example.com/b"), handler.pages);
+
+        // a sitemap cut in the middle yields the locations read before the cut
+        handler = new RecordingHandler(10);
+        byte[] cut = Arrays.copyOf(urlSet.getBytes(StandardCharsets.UTF_8),
+                urlSet.indexOf("<url><loc>https://example.com/c"));
+        try {
+            SitemapParser.parse(new ByteArrayInputStream(cut), handler);
+            Assert.fail("The sitemap is cut");
+        } catch (IOException e) {
+            Assert.assertEquals(2, handler.pages.size());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void externalEntitiesAreNotResolved() throws IOException {
+        String xxe = "<?xml version=\"1.0\"?><!DOCTYPE urlset [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>"
+                + "<urlset><url><loc>&xxe;</loc></url></urlset>";
+        SitemapParser.parse(new ByteArrayInputStream(xxe.getBytes(StandardCharsets.UTF_8)), new RecordingHandler(10));
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final class RecordingHandler implements SitemapParser.Handler {
+        private final int maxPages;
+        private final List<String> pages = new ArrayList<>();
+        private final List<String> sitemaps = new ArrayList<>();
+
+        private RecordingHandler(int maxPages) {
+            this.maxPages = maxPages;
+        }
+
+        @Override
+        public boolean onPage(String url) {
+            pages.add(url);
+            return pages.size() < maxPages;
+        }
+
+        @Override
+        public void onSitemap(String url) {
+            sitemaps.add(url);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.imagefinder.robots;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawler.AdmissionController;
+import com.imagefinder.crawler.CrawlBudget;
+import com.imagefinder.crawler.CrawlServices;
+import com.imagefinder.crawler.CrawlSpawner;
+import com.imagefinder.fetcher.FetcherConfig;
+import com.imagefinder.fetcher.PooledPageFetcher;
+import com.imagefinder.htmlparsers.ExtractionEngine;
+import com.imagefinder.htmlparsers.ImageParser;
+import com.imagefinder.models.Image;
+import com.imagefinder.politeness.HostRateLimiter;
+import com.imagefinder.utils.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks that the crawls honour the robots.txt files and are seeded with the webpages of the sitemaps
+ */
+public class SitemapCrawlTest {
+
+    static {
+        // the crawl results are not persisted
+        System.setProperty("imagefinder.store.dir", "");
+    }
+
+    private HttpServer server;
+    private String origin;
+    private PooledPageFetcher fetcher;
+    private ExecutorService crawlExecutor;
+    private ScheduledExecutorService scheduler;
+    private HostRateLimiter rateLimiter;
+    private RobotsCache robotsCache;
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        origin = "http://127.0.0.1:" + server.getAddress().getPort();
+        fetcher = new PooledPageFetcher(new FetcherConfig(2000, 2000, 1024 * 1024, 4, 4, "test"));
+        crawlExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("test-crawl-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("test-timer-"));
+        rateLimiter = new HostRateLimiter();
+        robotsCache = new RobotsCache(fetcher, rateLimiter,
+                new RobotsConfig(true, "ImageFinder", 100, 60_000, 1000, 64 * 1024, true, 10, 100));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        fetcher.shutdown();
+        crawlExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void crawlHonoursRobotsAndReadsSitemaps() {
+        Collection<Image> images = crawl(origin + "/");
+
+        Assert.assertEquals(paths("/home.png", "/a.png", "/deep/1.png", "/deep/2.png"), imagePaths(images));
+        // disallowed webpages are never requested, whether they are linked or listed by a sitemap
+        Assert.assertNull(requests.get("/private/b"));
+        Assert.assertNull(requests.get("/private/3"));
+        // the webpages of the sitemaps are crawled without following their links
+        Assert.assertNull(requests.get("/deep/1/more"));
+        Assert.assertEquals(1, requests.get("/sitemap1.xml.gz").get());
+        Assert.assertEquals(2, robotsCache.getDisallowedUrls());
+        // the crawl delay of 50 ms caps the rate of the host at 20 requests per second
+        Assert.assertTrue(rateLimiter.getRate("127.0.0.1") <= 20.0);
+
+        // the rules of the host are cached across the crawls
+        crawl(origin + "/a");
+        Assert.assertEquals(1, requests.get("/robots.txt").get());
+        Assert.assertEquals(1, robotsCache.getRobotsFetched());
+    }
+
+    @Test
+    public void unreachableRobotsDisallowsTheHost() {
+        robotsFailure = true;
+        Assert.assertTrue(crawl(origin + "/").isEmpty());
+        Assert.assertNull(requests.get("/"));
+        Assert.assertTrue(robotsCache.isKnownDisallowed(origin + "/a"));
+    }
+
+    @Test
+    public void budgetLimitsTheSitemapPages() {
+        // the base webpage only: the sitemaps are not read at all
+        Assert.assertEquals(paths("/home.png"), imagePaths(crawl(origin + "/", new CrawlBudget(1, 0, 0, 0, 0))));
+        Assert.assertEquals(1, requests.get("/robots.txt").get());
+        Assert.assertNull(requests.get("/sitemap_index.xml"));
+        Assert.assertNull(requests.get("/a"));
+        Assert.assertNull(requests.get("/deep/1"));
+
+        // the sitemap webpages count against maxPages like the linked ones
+        crawl(origin + "/", new CrawlBudget(2, 2, 0, 0, 0));
+        Assert.assertEquals(1, requests.get("/sitemap1.xml.gz").get());
+        int fetchedPages = 0;
+        for (String path : new String[]{"/", "/a", "/deep/1", "/deep/2"}) {
+            AtomicInteger pageRequests = requests.get(path);
+            fetchedPages += pageRequests == null ? 0 : pageRequests.get();
+        }
+        // the base webpage of the first crawl and the two webpages of the budget of the second one
+        Assert.assertEquals(3, fetchedPages);
+    }
+
+    private volatile boolean robotsFailure;
+
+    private Collection<Image> crawl(String baseUrl) {
+        return crawl(baseUrl, CrawlBudget.getDefault());
+    }
+
+    private Collection<Image> crawl(String baseUrl, CrawlBudget budget) {
+        CrawlServices services = new CrawlServices(crawlExecutor, scheduler, rateLimiter, fetcher, 4,
+                ExtractionEngine.STREAMING, null, AdmissionController.unlimited(), robotsCache);
+        return new CrawlSpawner<>(baseUrl, new ConcurrentImageStorage(), new ImageParser(), null, budget, services)
+                .startCrawl().retrieveData();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+        String sitemapNs = "xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\"";
+        if ("/robots.txt".equals(path)) {
+            if (robotsFailure) {
+                respond(exchange, 503, "text/plain", new byte[0]);
+            } else {
+                respond(exchange, 200, "text/plain", ("User-agent: *\nDisallow: /private\nCrawl-delay: 0.05\n"
+                        + "Sitemap: /sitemap_index.xml\n").getBytes(StandardCharsets.UTF_8));
+            }
+        } else if ("/sitemap_index.xml".equals(path)) {
+            respond(exchange, 200, "application/xml", ("<sitemapindex " + sitemapNs + ">"
+                    + "<sitemap><loc>" + origin + "/sitemap1.xml.gz</loc></sitemap>"
+                    + "<sitemap><loc>" + origin + "/sitemap1.xml.gz</loc></sitemap>"
+                    + "</sitemapindex>").getBytes(StandardCharsets.UTF_8));
+        } else if ("/sitemap1.xml.gz".equals(path)) {
+            respond(exchange, 200, "application/x-gzip", gzip("<urlset " + sitemapNs + ">"
+                    + "<url><loc>" + origin + "/deep/1</loc></url>"
+                    + "<url><loc>" + origin + "/deep/2</loc></url>"
+                    + "<url><loc>" + origin + "/private/3</loc></url>"
+                    + "<url><loc>http://other.example/x</loc></url>"
+                    + "<url><loc>" + origin + "/</loc></url>"
+                    + "</urlset>"));
+        } else if ("/".equals(path)) {
+            respond(exchange, 200, "text/html", ("<html><body><img src='/home.png'><a href='/a'>a</a>"
+                    + "<a href='/private/b'>b</a></body></html>").getBytes(StandardCharsets.UTF_8));
+        } else {
+            respond(exchange, 200, "text/html", ("<html><body><img src='" + path + ".png'><a href='" + path
+                    + "/more'>more</a></body></html>").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private List<String> paths(String... paths) {
+        List<String> urls = new ArrayList<>();
+        for (String path : paths) {
+            urls.add(origin + path);
+        }
+        Collections.sort(urls);
+        return urls;
+    }
+
+    private static List<String> imagePaths(Collection<Image> images) {
+        List<String> urls = new ArrayList<>();
+        for (Image image : images) {
+            urls.add(image.getUrl());
+        }
+        Collections.sort(urls);
+        return urls;
+    }
+}
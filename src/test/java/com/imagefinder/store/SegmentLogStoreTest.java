@@ -0,0 +1,155 @@
+package com.imagefinder.store;
+
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class SegmentLogStoreTest {
+
+    private static final long SEGMENT_BYTES = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storedResultIsServedAfterReopening() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        List<Image> images = Arrays.asList(new Image("https://example.com/logo.png", Category.LOGO),
+                new Image("https://example.com/photo.jpg", Category.GENERAL));
+        try (SegmentLogStore store = SegmentLogStore.open(directory, SEGMENT_BYTES)) {
+            store.append("https://example.com", 1000L, images);
+        }
+        try (SegmentLogStore store = SegmentLogStore.open(directory, SEGMENT_BYTES)) {
+            PersistedImageStorage stored = store.get("https://example.com");
+            Assert.assertNotNull(stored);
+            Assert.assertEquals(1000L, stored.getTimestampMillis());
+            Assert.assertEquals(2, stored.size());
+            Assert.assertEquals(new HashSet<>(images), stored.retrieveData());
+            for (Image image : stored.retrieveData()) {
+                Category expected = image.getUrl().endsWith("logo.png") ? Category.LOGO : Category.GENERAL;
+                Assert.assertEquals(expected, image.getCategory());
+            }
+            Assert.assertNull(store.get("https://other.example.com"));
+        }
+    }
+
+    @Test
+    public void newerResultReplacesOlderOneAcrossSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        // tiny segments so that every append starts a new segment
+        try (SegmentLogStore store = SegmentLogStore.open(directory, 1)) {
+            store.append("https://example.com", 1000L, images("old", 3));
+            store.append("https://example.com", 2000L, images("new", 5));
+        }
+        try (SegmentLogStore store = SegmentLogStore.open(directory, 1)) {
+            PersistedImageStorage stored = store.get("https://example.com");
+            Assert.assertEquals(2000L, stored.getTimestampMillis());
+            Assert.assertEquals(new HashSet<>(images("new", 5)), stored.retrieveData());
+        }
+    }
+
+    @Test
+    public void compactionDropsReplacedAndExpiredResults() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SegmentLogStore store = SegmentLogStore.open(directory, 4096)) {
+            for (int i = 0; i < 50; i++) {
+                store.append("https://example.com", 1000L + i, images("v" + i, 10));
+            }
+            store.append("https://expired.example.com", 10L, images("expired", 10));
+            PersistedImageStorage loadedBeforeCompaction = store.get("https://example.com");
+            long bytesBefore = directorySize(directory);
+
+            Assert.assertTrue(store.compact(100L));
+            Assert.assertTrue(directorySize(directory) < bytesBefore / 10);
+            Assert.assertNull(store.get("https://expired.example.com"));
+            Assert.assertEquals(new HashSet<>(images("v49", 10)), store.get("https://example.com").retrieveData());
+            // results loaded before the compaction still read from the mapping of the deleted segment
+            Assert.assertEquals(new HashSet<>(images("v49", 10)), loadedBeforeCompaction.retrieveData());
+            // nothing left to drop
+            Assert.assertFalse(store.compact(100L));
+            store.append("https://after.example.com", 3000L, images("after", 1));
+        }
+        try (SegmentLogStore store = SegmentLogStore.open(directory, 4096)) {
+            Assert.assertEquals(2, store.size());
+            Assert.assertEquals(1, store.get("https://after.example.com").size());
+            Assert.assertEquals(1049L, store.get("https://example.com").getTimestampMillis());
+        }
+    }
+
+    @Test
+    public void recordCutByACrashIsIgnored() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SegmentLogStore store = SegmentLogStore.open(directory, SEGMENT_BYTES)) {
+            store.append("https://example.com", 1000L, images("first", 2));
+            store.append("https://cut.example.com", 2000L, images("cut", 2));
+        }
+        Path log;
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, "*.log")) {
+            log = logs.iterator().next();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(log.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        try (SegmentLogStore store = SegmentLogStore.open(directory, SEGMENT_BYTES)) {
+            Assert.assertNull(store.get("https://cut.example.com"));
+            Assert.assertEquals(2, store.get("https://example.com").retrieveData().size());
+        }
+    }
+
+    @Test
+    public void indexEntryWithALengthBeyondTheFileIsATornTail() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SegmentLogStore store = SegmentLogStore.open(directory, SEGMENT_BYTES)) {
+            store.append("https://example.com", 1000L, images("first", 2));
+        }
+        Path index;
+        try (DirectoryStream<Path> indexes = Files.newDirectoryStream(directory, "*.idx")) {
+            index = indexes.iterator().next();
+        }
+        // a url length of 2GB, then a few bytes of garbage
+        try (RandomAccessFile file = new RandomAccessFile(index.toFile(), "rw")) {
+            file.seek(file.length());
+            file.writeInt(Integer.MAX_VALUE);
+            file.write(new byte[40]);
+        }
+        try (SegmentLogStore store = SegmentLogStore.open(directory, SEGMENT_BYTES)) {
+            Assert.assertEquals(1, store.size());
+            Assert.assertEquals(2, store.get("https://example.com").retrieveData().size());
+            store.append("https://after.example.com", 2000L, images("after", 1));
+        }
+        try (SegmentLogStore store = SegmentLogStore.open(directory, SEGMENT_BYTES)) {
+            Assert.assertEquals(2, store.size());
+        }
+    }
+
+    private static List<Image> images(String prefix, int count) {
+        List<Image> images = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            images.add(new Image("https://example.com/" + prefix + "/" + i + ".png", Category.GENERAL));
+        }
+        return images;
+    }
+
+    private static long directorySize(Path directory) throws IOException {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                size += Files.size(file);
+            }
+        }
+        return size;
+    }
+}
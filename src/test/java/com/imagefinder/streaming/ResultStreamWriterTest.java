@@ -0,0 +1,180 @@
+package com.imagefinder.streaming;
+
+import com.imagefinder.crawleddata.ConcurrentImageStorage;
+import com.imagefinder.crawleddata.ObservableCrawlDataStorage;
+import com.imagefinder.models.Category;
+import com.imagefinder.models.Image;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ResultStreamWriterTest {
+
+    private AsyncContext asyncContext;
+    private RecordingOutputStream out;
+    private int completions;
+
+    @Before
+    public void setUp() {
+        out = new RecordingOutputStream();
+        ServletResponse response = (ServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ServletResponse.class},
+                (proxy, method, args) -> "getOutputStream".equals(method.getName()) ? out : null);
+        asyncContext = (AsyncContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{AsyncContext.class}, (proxy, method, args) -> {
+                    if ("getResponse".equals(method.getName())) {
+                        return response;
+                    }
+                    if ("complete".equals(method.getName())) {
+                        completions++;
+                    }
+                    return null;
+                });
+    }
+
+    @Test
+    public void messagesWaitUntilTheConnectionIsWritable() throws IOException {
+        ResultStreamWriter writer = new ResultStreamWriter(asyncContext, StreamFormat.NDJSON);
+        out.ready = false;
+        writer.send("image", "{\"url\":\"a\"}");
+        writer.finish("done", "{\"done\":true}");
+        Assert.assertEquals("", out.written());
+        Assert.assertEquals(0, completions);
+
+        out.ready = true;
+        writer.onWritePossible();
+        Assert.assertEquals("{\"url\":\"a\"}\n{\"done\":true}\n", out.written());
+        Assert.assertEquals(1, completions);
+        // nothing is written once the response is complete
+        writer.send("image", "{\"url\":\"b\"}");
+        Assert.assertFalse(out.written().contains("\"b\""));
+    }
+
+    @Test
+    public void serverSentEventsAreFramedWithTheirEventType() throws IOException {
+        ResultStreamWriter writer = new ResultStreamWriter(asyncContext, StreamFormat.SSE);
+        writer.send("image", "{\"url\":\"a\"}");
+        writer.finish("done", "{\"done\":true}");
+        Assert.assertEquals("event: image\ndata: {\"url\":\"a\"}\n\nevent: done\ndata: {\"done\":true}\n\n",
+                out.written());
+        Assert.assertTrue(out.flushes > 0);
+    }
+
+    @Test
+    public void clientErrorCompletesTheResponseAndDropsMessages() throws IOException {
+        ResultStreamWriter writer = new ResultStreamWriter(asyncContext, StreamFormat.NDJSON);
+        out.ready = false;
+        writer.send("image", "{\"url\":\"a\"}");
+        writer.onError(new IOException("broken pipe"));
+        Assert.assertTrue(writer.isClosed());
+        out.ready = true;
+        writer.onWritePossible();
+        Assert.assertEquals("", out.written());
+        Assert.assertEquals(1, completions);
+    }
+
+    @Test
+    public void slowClientOverflowingThePendingMessagesAbortsTheStream() throws IOException {
+        ResultStreamWriter writer = new ResultStreamWriter(asyncContext, StreamFormat.NDJSON, 3);
+        int[] aborts = new int[1];
+        writer.onAbort(() -> aborts[0]++);
+        out.ready = false;
+        for (int i = 0; i < 3; i++) {
+            writer.send("image", "{\"url\":\"" + i + "\"}");
+        }
+        Assert.assertFalse(writer.isClosed());
+        Assert.assertEquals(0, aborts[0]);
+
+        writer.send("image", "{\"url\":\"overflow\"}");
+        Assert.assertTrue(writer.isClosed());
+        Assert.assertEquals(1, aborts[0]);
+        Assert.assertEquals(1, completions);
+        out.ready = true;
+        writer.onWritePossible();
+        writer.finish("done", "{\"done\":true}");
+        Assert.assertEquals("", out.written());
+        Assert.assertEquals(1, aborts[0]);
+    }
+
+    @Test
+    public void writtenMessagesMakeRoomForNewOnes() throws IOException {
+        ResultStreamWriter writer = new ResultStreamWriter(asyncContext, StreamFormat.NDJSON, 2);
+        out.ready = false;
+        writer.send("image", "{\"url\":\"a\"}");
+        writer.send("image", "{\"url\":\"b\"}");
+        out.ready = true;
+        writer.onWritePossible();
+        out.ready = false;
+        writer.send("image", "{\"url\":\"c\"}");
+        writer.send("image", "{\"url\":\"d\"}");
+        // the last message is queued past the bound
+        writer.finish("done", "{\"done\":true}");
+        Assert.assertFalse(writer.isClosed());
+
+        out.ready = true;
+        writer.onWritePossible();
+        Assert.assertEquals("{\"url\":\"a\"}\n{\"url\":\"b\"}\n{\"url\":\"c\"}\n{\"url\":\"d\"}\n{\"done\":true}\n",
+                out.written());
+        Assert.assertEquals(1, completions);
+    }
+
+    @Test
+    public void observableStorageNotifiesNewImagesOnly() {
+        List<Image> notified = new ArrayList<>();
+        ObservableCrawlDataStorage<Image> storage = new ObservableCrawlDataStorage<>(new ConcurrentImageStorage(),
+                notified::add);
+        Image logo = new Image("https://example.com/logo.png", Category.LOGO);
+        Image photo = new Image("https://example.com/photo.jpg", Category.GENERAL);
+        storage.storeMultipleData(Arrays.asList(logo, photo));
+        storage.storeData(new Image("https://example.com/logo.png", Category.LOGO));
+        Assert.assertEquals(Arrays.asList(logo, photo), notified);
+        Assert.assertEquals(2, storage.size());
+    }
+
+    private static final class RecordingOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private volatile boolean ready = true;
+        private int flushes;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            // the tests call onWritePossible themselves
+        }
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b) {
+            bytes.write(b, 0, b.length);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        private String written() {
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.imagefinder.urls;
+
+import com.imagefinder.utils.URLUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the canonical form, host, origin, host key and fingerprint of the URLs, and that invalid URLs are rejected
+ */
+public class UrlCanonicalizerTest {
+
+    @Test
+    public void canonicalFormIsNormalized() {
+        assertCanonical("https://example.com/", "https://example.com");
+        assertCanonical("https://example.com/", "HTTPS://Example.COM:443/#top");
+        assertCanonical("http://example.com/a?b=c", "http://example.com:80/a?b=c#frag");
+        assertCanonical("http://example.com:8080/", "http://example.com.:8080");
+        assertCanonical("https://example.com/a/c/", "https://example.com/a/./b/../c/");
+        assertCanonical("https://example.com/.well-known/x", "https://example.com/.well-known/x");
+        assertCanonical("https://example.com/a%20b/%C3%A9?q=%3F%25", "https://example.com/a b/é?q=%3f%");
+        assertCanonical("https://example.com/?a=1?b", " https://example.com?a=1?b\n");
+        assertCanonical("http://[::1]:8080/", "http://[::1]:8080");
+    }
+
+    @Test
+    public void canonicalUrlsAreReused() {
+        String url = "https://example.com/images/logo.png";
+        Assert.assertSame(url, UrlCanonicalizer.canonicalize(url).getUrl());
+    }
+
+    @Test
+    public void spellingsOfTheSameWebpageShareTheirFingerprint() {
+        CanonicalUrl page = UrlCanonicalizer.canonicalize("https://example.com/about");
+        String[] spellings = {"https://www.example.com/about", "https://EXAMPLE.com:443/about/",
+                "https://www.Example.com/about#team", "https://example.com/./about"};
+        for (String spelling : spellings) {
+            CanonicalUrl canonical = UrlCanonicalizer.canonicalize(spelling);
+            Assert.assertEquals(spelling, page.getFingerprint(), canonical.getFingerprint());
+            Assert.assertEquals(spelling, "example.com", canonical.getHostKey());
+        }
+        Assert.assertNotEquals(page.getFingerprint(),
+                UrlCanonicalizer.canonicalize("http://example.com/about").getFingerprint());
+        Assert.assertNotEquals(page.getFingerprint(),
+                UrlCanonicalizer.canonicalize("https://example.com/about?x=1").getFingerprint());
+        Assert.assertNotEquals(page.getFingerprint(),
+                UrlCanonicalizer.canonicalize("https://example.com:8443/about").getFingerprint());
+        Assert.assertEquals("www.localhost", UrlCanonicalizer.hostKey("http://www.localhost/"));
+    }
+
+    @Test
+    public void hostAndOriginComeFromTheCanonicalForm() {
+        CanonicalUrl canonical = UrlCanonicalizer.canonicalize("HTTPS://WWW.Example.com.:443/a/../b?q=1#top");
+        Assert.assertEquals("www.example.com", canonical.getHost());
+        Assert.assertEquals("https://www.example.com", canonical.getOrigin());
+        canonical = UrlCanonicalizer.canonicalize("http://Example.com:8080");
+        Assert.assertEquals("example.com", canonical.getHost());
+        Assert.assertEquals("http://example.com:8080", canonical.getOrigin());
+        canonical = UrlCanonicalizer.canonicalize("http://[::1]:8080/x");
+        Assert.assertEquals("[::1]", canonical.getHost());
+        Assert.assertEquals("http://[::1]:8080", canonical.getOrigin());
+        Assert.assertEquals("my_host.example.com", URLUtils.getHost("http://my_host.example.com/"));
+        Assert.assertEquals("", URLUtils.getHost("mailto:someone@example.com"));
+        Assert.assertNull(URLUtils.getOrigin("/relative/path"));
+    }
+
+    @Test
+    public void invalidUrlsAreRejected() {
+        String[] invalid = {null, "", "/relative/path", "mailto:someone@example.com", "javascript:void(0)",
+                "ftp://example.com/", "http:/example.com", "http://", "http://user@example.com/",
+                "http://exa mple.com/", "http://example.com:99999/", "http://example.com:8o/", "http://[::1/",
+                "http://exämple.com/"};
+        for (String url : invalid) {
+            Assert.assertNull(url, UrlCanonicalizer.canonicalize(url));
+        }
+    }
+
+    private static void assertCanonical(String expected, String url) {
+        CanonicalUrl canonical = UrlCanonicalizer.canonicalize(url);
+        Assert.assertNotNull(url, canonical);
+        Assert.assertEquals(url, expected, canonical.getUrl());
+    }
+}